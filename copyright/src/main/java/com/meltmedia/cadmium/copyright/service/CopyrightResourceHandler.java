@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Calendar;
 
 /**
@@ -67,7 +68,15 @@ public class CopyrightResourceHandler implements ResourceHandler {
 	    if(selector.length() > 0) {
 	      selector.text(year.toString());
 	      log.trace("Writing updated file {}",htmlFile);
-	      FileUtils.writeStringToFile(htmlFile, html.html(), false);
+	      // Content files may be hard linked to the files of the live content directory, so they are replaced instead of written to.
+	      // Renaming over the file replaces it atomically, so the search indexer, which runs at the same time, always finds the page.
+	      // Only file systems that cannot rename over a file need it deleted first.
+	      File tmpFile = new File(htmlFile.getParentFile(), "." + htmlFile.getName() + ".tmp");
+	      FileUtils.writeStringToFile(tmpFile, html.html(), false);
+	      if(!tmpFile.renameTo(htmlFile) && !(htmlFile.delete() && tmpFile.renameTo(htmlFile))) {
+	        FileUtils.deleteQuietly(tmpFile);
+	        throw new IOException("Failed to replace "+htmlFile);
+	      }
 	    }
 	  } catch(Throwable t) {
 	    log.warn("Failed to update file "+htmlFile, t);
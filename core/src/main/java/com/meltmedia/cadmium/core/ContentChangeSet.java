@@ -0,0 +1,183 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The git revision that a content directory was created from, and the paths that changed since the revision of the
+ * content directory that came before it.</p>
+ * <p>The change set is written to <code>META-INF/{@value #FILE_NAME}</code> when a new content directory is created, so that
+ * config processors can update what they built from the previous content directory instead of starting over.  When the
+ * previous revision is not known, or the revisions could not be compared, the from revision is null and the change set
+ * only records the revision of the content.</p>
+ * <p>Paths are relative to the content directory and start with a '/' character.</p>
+ */
+public class ContentChangeSet {
+  private static final Logger log = LoggerFactory.getLogger(ContentChangeSet.class);
+  
+  public static final String FILE_NAME = "content-changes.txt";
+  private static final String NO_REVISION = "-";
+  
+  private final String fromRevision;
+  private final String toRevision;
+  private final Set<String> changedPaths;
+  private final Set<String> deletedPaths;
+  
+  public ContentChangeSet(String fromRevision, String toRevision, Collection<String> changedPaths, Collection<String> deletedPaths) {
+    this.fromRevision = fromRevision;
+    this.toRevision = toRevision;
+    this.changedPaths = Collections.unmodifiableSet(new TreeSet<String>(changedPaths));
+    this.deletedPaths = Collections.unmodifiableSet(new TreeSet<String>(deletedPaths));
+  }
+  
+  /**
+   * @return The revision of the previous content directory, or null if the changes since that revision are not known.
+   */
+  public String getFromRevision() {
+    return fromRevision;
+  }
+  
+  /**
+   * @return The revision of this content directory.
+   */
+  public String getToRevision() {
+    return toRevision;
+  }
+  
+  /**
+   * @return true if the changed and deleted paths describe all of the changes since the from revision.
+   */
+  public boolean isIncremental() {
+    return fromRevision != null && toRevision != null;
+  }
+  
+  /**
+   * @return The paths that were added or modified since the from revision.
+   */
+  public Set<String> getChangedPaths() {
+    return changedPaths;
+  }
+  
+  /**
+   * @return The paths that were deleted since the from revision.
+   */
+  public Set<String> getDeletedPaths() {
+    return deletedPaths;
+  }
+  
+  /**
+   * @param contentDir
+   * @return The change set file of the given content directory.
+   */
+  public static File getChangeSetFile(File contentDir) {
+    return new File(new File(contentDir, "META-INF"), FILE_NAME);
+  }
+  
+  /**
+   * Reads the change set of a content directory.
+   * 
+   * @param contentDir
+   * @return The change set, or null if the content directory does not have a readable change set.
+   */
+  public static ContentChangeSet read(File contentDir) {
+    File changeSetFile = getChangeSetFile(contentDir);
+    if(!changeSetFile.isFile()) {
+      return null;
+    }
+    String fromRevision = null;
+    String toRevision = null;
+    Set<String> changedPaths = new TreeSet<String>();
+    Set<String> deletedPaths = new TreeSet<String>();
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(changeSetFile), "UTF-8"));
+      String line = null;
+      while((line = reader.readLine()) != null) {
+        String parts[] = line.split(" ", 2);
+        if(parts.length != 2) {
+          continue;
+        }
+        if("from".equals(parts[0])) {
+          fromRevision = NO_REVISION.equals(parts[1]) ? null : parts[1];
+        } else if("to".equals(parts[0])) {
+          toRevision = NO_REVISION.equals(parts[1]) ? null : parts[1];
+        } else if("M".equals(parts[0])) {
+          changedPaths.add(parts[1]);
+        } else if("D".equals(parts[0])) {
+          deletedPaths.add(parts[1]);
+        }
+      }
+    } catch(Exception e) {
+      log.warn("Failed to read content changes from "+changeSetFile, e);
+      return null;
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return new ContentChangeSet(fromRevision, toRevision, changedPaths, deletedPaths);
+  }
+  
+  /**
+   * Writes this change set into the META-INF directory of the given content directory.  The change set is written to a
+   * temporary file that is then renamed into place.
+   * 
+   * @param contentDir
+   * @throws IOException
+   */
+  public void write(File contentDir) throws IOException {
+    File changeSetFile = getChangeSetFile(contentDir);
+    changeSetFile.getParentFile().mkdirs();
+    File tmpFile = new File(changeSetFile.getParentFile(), "." + FILE_NAME + ".tmp");
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+      writer.write("from " + (fromRevision == null ? NO_REVISION : fromRevision) + "\n");
+      writer.write("to " + (toRevision == null ? NO_REVISION : toRevision) + "\n");
+      for(String path : changedPaths) {
+        writer.write("M " + path + "\n");
+      }
+      for(String path : deletedPaths) {
+        writer.write("D " + path + "\n");
+      }
+    } finally {
+      IOUtils.closeQuietly(writer);
+    }
+    if(changeSetFile.exists() && !changeSetFile.delete()) {
+      tmpFile.delete();
+      throw new IOException("Failed to replace "+changeSetFile);
+    }
+    if(!tmpFile.renameTo(changeSetFile)) {
+      tmpFile.delete();
+      throw new IOException("Failed to move "+tmpFile+" to "+changeSetFile);
+    }
+  }
+}
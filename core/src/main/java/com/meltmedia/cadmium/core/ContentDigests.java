@@ -0,0 +1,332 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.meltmedia.cadmium.core.util.ContentCompressor;
+
+/**
+ * <p>An immutable manifest of the SHA-1 digest and last modified time of every file in a content directory.</p>
+ * <p>The manifest is computed once when a new content directory is created and is written to
+ * <code>META-INF/{@value #MANIFEST_FILE_NAME}</code> in that directory.  The last modified time of a file is carried forward from
+ * the manifest of the previous content directory when the digest of the file has not changed, so that the file servlet can send
+ * strong ETags and Last-Modified headers that only change when the file does.  Files in the META-INF directory, hidden files
+ * and gzip sidecars are not included, so the manifest can be computed while the sidecars are written.  A file ending in
+ * {@value com.meltmedia.cadmium.core.util.ContentCompressor#GZIP_EXTENSION} is a sidecar when the file without that extension
+ * is next to it.</p>
+ */
+public class ContentDigests {
+  private static final Logger log = LoggerFactory.getLogger(ContentDigests.class);
+  
+  public static final String MANIFEST_FILE_NAME = "content-digests.txt";
+  public static final String DIGEST_ALGORITHM = "SHA-1";
+  private static final char HEX[] = "0123456789abcdef".toCharArray();
+  
+  private final Map<String, Entry> entries;
+  private final long manifestModified;
+  
+  private ContentDigests(Map<String, Entry> entries, long manifestModified) {
+    this.entries = Collections.unmodifiableMap(entries);
+    this.manifestModified = manifestModified;
+  }
+  
+  /**
+   * @param path A path relative to the content directory, starting with a '/' character.
+   * @return The digest entry for that path, or null if the path is not in this manifest.
+   */
+  public Entry get(String path) {
+    return entries.get(path);
+  }
+  
+  /**
+   * @return All of the entries in this manifest keyed by path.
+   */
+  public Map<String, Entry> getEntries() {
+    return entries;
+  }
+  
+  /**
+   * @return The time that the manifest file was last modified, or 0 if this manifest has not been read from a file.
+   */
+  public long getManifestModified() {
+    return manifestModified;
+  }
+  
+  public int size() {
+    return entries.size();
+  }
+  
+  /**
+   * @param contentDir
+   * @return The manifest file of the given content directory.
+   */
+  public static File getManifestFile(File contentDir) {
+    return new File(new File(contentDir, "META-INF"), MANIFEST_FILE_NAME);
+  }
+  
+  /**
+   * Reads the manifest of a content directory.
+   * 
+   * @param contentDir
+   * @return The manifest, or null if the content directory does not have a readable manifest.
+   */
+  public static ContentDigests read(File contentDir) {
+    File manifestFile = getManifestFile(contentDir);
+    if(!manifestFile.isFile()) {
+      return null;
+    }
+    Map<String, Entry> entries = new HashMap<String, Entry>();
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+      String line = null;
+      while((line = reader.readLine()) != null) {
+        String parts[] = line.split(" ", 3);
+        if(parts.length == 3) {
+          entries.put(parts[2], new Entry(parts[0], Long.parseLong(parts[1])));
+        }
+      }
+    } catch(Exception e) {
+      log.warn("Failed to read content digests from "+manifestFile, e);
+      return null;
+    } finally {
+      IOUtils.closeQuietly(reader);
+    }
+    return new ContentDigests(entries, manifestFile.lastModified());
+  }
+  
+  /**
+   * Writes this manifest into the META-INF directory of the given content directory.  The manifest is written to a temporary file
+   * that is then renamed into place.
+   * 
+   * @param contentDir
+   * @throws IOException
+   */
+  public void write(File contentDir) throws IOException {
+    File manifestFile = getManifestFile(contentDir);
+    manifestFile.getParentFile().mkdirs();
+    File tmpFile = new File(manifestFile.getParentFile(), "." + MANIFEST_FILE_NAME + ".tmp");
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+      for(Map.Entry<String, Entry> entry : new TreeMap<String, Entry>(entries).entrySet()) {
+        writer.write(entry.getValue().getDigest());
+        writer.write(' ');
+        writer.write(Long.toString(entry.getValue().getLastModified()));
+        writer.write(' ');
+        writer.write(entry.getKey());
+        writer.write('\n');
+      }
+    } finally {
+      IOUtils.closeQuietly(writer);
+    }
+    if(manifestFile.exists() && !manifestFile.delete()) {
+      tmpFile.delete();
+      throw new IOException("Failed to replace "+manifestFile);
+    }
+    if(!tmpFile.renameTo(manifestFile)) {
+      tmpFile.delete();
+      throw new IOException("Failed to move "+tmpFile+" to "+manifestFile);
+    }
+  }
+  
+  /**
+   * Computes the digests of all of the files in a content directory.
+   * 
+   * @param contentDir The content directory to compute the digests of.
+   * @param previous The manifest of the previous content directory, or null if there is not one.
+   * @param lastModified The last modified time to give to files that are new or have changed since the previous manifest.
+   * @param threads The number of threads to compute digests with.
+   * @return The new manifest.
+   * @throws Exception if any of the files could not be read.
+   */
+  public static ContentDigests compute(File contentDir, ContentDigests previous, long lastModified, int threads) throws Exception {
+    return compute(contentDir, previous, null, null, lastModified, threads);
+  }
+  
+  /**
+   * Computes the digests of all of the files in a content directory, reusing the entries of the previous manifest for files
+   * that did not change.  A file counts as unchanged when its path is not one of the changed paths and it has the same
+   * length and last modified time as the file in the previous content directory, so files that config processors replaced
+   * are read again.
+   * 
+   * @param contentDir The content directory to compute the digests of.
+   * @param previous The manifest of the previous content directory, or null if there is not one.
+   * @param previousDir The previous content directory, or null to read every file.
+   * @param changedPaths The paths that changed since the previous content directory, starting with a '/' character.
+   * @param lastModified The last modified time to give to files that are new or have changed since the previous manifest.
+   * @param threads The number of threads to compute digests with.
+   * @return The new manifest.
+   * @throws Exception if any of the files could not be read.
+   */
+  public static ContentDigests compute(File contentDir, ContentDigests previous, File previousDir, Set<String> changedPaths, long lastModified, int threads) throws Exception {
+    // HTTP dates only have second precision.
+    lastModified = lastModified - (lastModified % 1000l);
+    
+    Map<String, Entry> entries = new HashMap<String, Entry>();
+    final List<String> paths = new ArrayList<String>();
+    final List<File> files = new ArrayList<File>();
+    LinkedList<File> dirs = new LinkedList<File>();
+    LinkedList<String> dirPaths = new LinkedList<String>();
+    dirs.add(contentDir);
+    dirPaths.add("");
+    while(!dirs.isEmpty()) {
+      File dir = dirs.removeFirst();
+      String dirPath = dirPaths.removeFirst();
+      File children[] = dir.listFiles();
+      if(children == null) continue;
+      for(File child : children) {
+        if(child.getName().startsWith(".")) continue;
+        String childPath = dirPath + "/" + child.getName();
+        if(child.isDirectory()) {
+          if(!childPath.equals("/META-INF")) {
+            dirs.add(child);
+            dirPaths.add(childPath);
+          }
+        } else if(!isGzipSidecar(child)) {
+          Entry previousEntry = previous != null && previousDir != null && changedPaths != null && !changedPaths.contains(childPath) ? previous.get(childPath) : null;
+          if(previousEntry != null && isSameFile(child, new File(previousDir, childPath))) {
+            entries.put(childPath, previousEntry);
+          } else {
+            paths.add(childPath);
+            files.add(child);
+          }
+        }
+      }
+    }
+    int reused = entries.size();
+    
+    List<Future<String>> digests = new ArrayList<Future<String>>();
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+    try {
+      for(final File file : files) {
+        digests.add(pool.submit(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return digest(file);
+          }
+        }));
+      }
+      int unchanged = 0;
+      for(int i = 0; i < paths.size(); i++) {
+        String path = paths.get(i);
+        String digest = digests.get(i).get();
+        Entry previousEntry = previous != null ? previous.get(path) : null;
+        if(previousEntry != null && previousEntry.getDigest().equals(digest)) {
+          entries.put(path, previousEntry);
+          unchanged++;
+        } else {
+          entries.put(path, new Entry(digest, lastModified));
+        }
+      }
+      log.debug("Computed digests of {} files in {}, {} unchanged, reused {} from the previous manifest", new Object[] {paths.size(), contentDir, unchanged, reused});
+      return new ContentDigests(entries, 0l);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+  
+  private static boolean isGzipSidecar(File file) {
+    String name = file.getName();
+    return name.endsWith(ContentCompressor.GZIP_EXTENSION) &&
+        new File(file.getParentFile(), name.substring(0, name.length() - ContentCompressor.GZIP_EXTENSION.length())).isFile();
+  }
+  
+  private static boolean isSameFile(File file, File previousFile) {
+    return previousFile.isFile() && previousFile.length() == file.length() && previousFile.lastModified() == file.lastModified();
+  }
+  
+  /**
+   * @param file
+   * @return The hex encoded SHA-1 digest of the given file.
+   * @throws IOException
+   */
+  public static String digest(File file) throws IOException {
+    MessageDigest digest = null;
+    try {
+      digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch(NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      byte buffer[] = new byte[16384];
+      int read = 0;
+      while((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    byte bytes[] = digest.digest();
+    char hex[] = new char[bytes.length * 2];
+    for(int i = 0; i < bytes.length; i++) {
+      hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+  
+  /**
+   * The digest and last modified time of a single file.
+   */
+  public static class Entry {
+    private final String digest;
+    private final long lastModified;
+    
+    public Entry(String digest, long lastModified) {
+      this.digest = digest;
+      this.lastModified = lastModified;
+    }
+    
+    public String getDigest() {
+      return digest;
+    }
+    
+    public long getLastModified() {
+      return lastModified;
+    }
+  }
+}
@@ -0,0 +1,277 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.meltmedia.cadmium.core.util.ContentCompressor;
+
+/**
+ * <p>An immutable index of every file and directory in a content directory.</p>
+ * <p>The index is built once when the content directory is switched and answers the questions that the file servlet and its
+ * filters ask on every request (does this path exist, is it a directory, what is its welcome file, how long is it, what is its
+ * digest, is there a gzip sidecar, which error page applies) with hash lookups instead of file system calls.</p>
+ * <p>Paths are relative to the content directory and start with a '/' character.  The content directory itself has the path "/".</p>
+ */
+public class ContentIndex {
+  private static final Logger log = LoggerFactory.getLogger(ContentIndex.class);
+  
+  public static final String WELCOME_FILE_NAME = "index.html";
+  
+  private final File contentDir;
+  private final long lastUpdated;
+  private final ContentDigests digests;
+  private final Map<String, Entry> entries;
+  
+  private ContentIndex(File contentDir, long lastUpdated, ContentDigests digests, Map<String, Entry> entries) {
+    this.contentDir = contentDir;
+    this.lastUpdated = lastUpdated;
+    this.digests = digests;
+    this.entries = Collections.unmodifiableMap(entries);
+  }
+  
+  /**
+   * @return The content directory that this index was built from.
+   */
+  public File getContentDir() {
+    return contentDir;
+  }
+  
+  /**
+   * @return The time that this content was switched in.
+   */
+  public long getLastUpdated() {
+    return lastUpdated;
+  }
+  
+  /**
+   * @return The digest manifest of the content directory, or null if it does not have one.
+   */
+  public ContentDigests getDigests() {
+    return digests;
+  }
+  
+  /**
+   * @return All of the files and directories in this index.
+   */
+  public Collection<Entry> getEntries() {
+    return entries.values();
+  }
+  
+  /**
+   * @return The number of files and directories in this index.
+   */
+  public int size() {
+    return entries.size();
+  }
+  
+  /**
+   * Looks up the entry for a path.  Repeated and trailing '/' characters are ignored.  Paths that contain "." or ".."
+   * segments are never found.
+   * 
+   * @param path
+   * @return The entry for the path or null if there is nothing at that path.
+   */
+  public Entry get(String path) {
+    String normalized = normalize(path);
+    return normalized != null ? entries.get(normalized) : null;
+  }
+  
+  /**
+   * Looks up the file that would be served for a path, resolving directories to their welcome file.
+   * 
+   * @param path
+   * @return The file entry or null if there is no file to serve at that path.
+   */
+  public Entry resolve(String path) {
+    Entry entry = get(path);
+    if(entry != null && entry.isDirectory()) {
+      entry = entry.getWelcomeFile();
+    }
+    return entry;
+  }
+  
+  /**
+   * @param sc
+   * @return The names of the error pages for a status code, from the most to the least specific.
+   */
+  public static String[] errorPageNames(int sc) {
+    String code = Integer.toString(sc);
+    return new String[] {
+        "/"+code+".html",
+        "/"+code.substring(0, 2)+"x.html",
+        "/"+code.substring(0, 1)+"xx.html" };
+  }
+  
+  static String normalize(String path) {
+    if(path == null) {
+      return null;
+    }
+    StringBuilder normalized = new StringBuilder(path.length() + 1);
+    int start = 0;
+    int length = path.length();
+    while(start < length) {
+      int end = path.indexOf('/', start);
+      if(end == -1) {
+        end = length;
+      }
+      if(end > start) {
+        if((end - start == 1 && path.charAt(start) == '.') || (end - start == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.')) {
+          return null;
+        }
+        normalized.append('/').append(path, start, end);
+      }
+      start = end + 1;
+    }
+    return normalized.length() == 0 ? "/" : normalized.toString();
+  }
+  
+  /**
+   * Builds the index of a content directory.
+   * 
+   * @param contentDir
+   * @param lastUpdated the time that the content is being switched in.
+   * @return The index.
+   */
+  public static ContentIndex build(File contentDir, long lastUpdated) {
+    long start = System.currentTimeMillis();
+    ContentDigests digests = ContentDigests.read(contentDir);
+    Map<String, Entry> entries = new HashMap<String, Entry>();
+    List<Entry> sidecars = new ArrayList<Entry>();
+    
+    Entry root = new Entry("/", contentDir, true, 0l, contentDir.lastModified());
+    entries.put(root.path, root);
+    LinkedList<Entry> dirs = new LinkedList<Entry>();
+    dirs.add(root);
+    while(!dirs.isEmpty()) {
+      Entry dir = dirs.removeFirst();
+      File children[] = dir.file.listFiles();
+      if(children == null) continue;
+      String dirPath = dir.path.equals("/") ? "" : dir.path;
+      for(File child : children) {
+        boolean directory = child.isDirectory();
+        Entry entry = new Entry(dirPath + "/" + child.getName(), child, directory, directory ? 0l : child.length(), child.lastModified());
+        entries.put(entry.path, entry);
+        if(directory) {
+          dirs.add(entry);
+        } else {
+          if(child.getName().equals(WELCOME_FILE_NAME)) {
+            dir.welcomeFile = entry;
+          }
+          if(child.getName().endsWith(ContentCompressor.GZIP_EXTENSION)) {
+            sidecars.add(entry);
+          }
+          if(digests != null) {
+            ContentDigests.Entry digest = digests.get(entry.path);
+            // ignore digests of files changed after the manifest was written.
+            if(digest != null && entry.lastModified <= digests.getManifestModified()) {
+              entry.digest = digest;
+            }
+          }
+        }
+      }
+    }
+    
+    for(Entry sidecar : sidecars) {
+      Entry base = entries.get(sidecar.path.substring(0, sidecar.path.length() - ContentCompressor.GZIP_EXTENSION.length()));
+      if(base != null && !base.directory && sidecar.lastModified >= base.lastModified) {
+        base.gzipFile = sidecar.file;
+      }
+    }
+    log.debug("Indexed {} paths in {} in {}ms", new Object[] {entries.size(), contentDir, System.currentTimeMillis() - start});
+    return new ContentIndex(contentDir, lastUpdated, digests, entries);
+  }
+  
+  /**
+   * A file or directory in the content index.
+   */
+  public static class Entry {
+    private final String path;
+    private final File file;
+    private final boolean directory;
+    private final long length;
+    private final long lastModified;
+    private Entry welcomeFile;
+    private ContentDigests.Entry digest;
+    private File gzipFile;
+    
+    Entry(String path, File file, boolean directory, long length, long lastModified) {
+      this.path = path;
+      this.file = file;
+      this.directory = directory;
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+    
+    public String getPath() {
+      return path;
+    }
+    
+    public File getFile() {
+      return file;
+    }
+    
+    public String getName() {
+      return file.getName();
+    }
+    
+    public boolean isDirectory() {
+      return directory;
+    }
+    
+    public long getLength() {
+      return length;
+    }
+    
+    /**
+     * @return The last modified time of the file on the file system.
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+    
+    /**
+     * @return The welcome file of this directory, or null if this is not a directory or the directory has no welcome file.
+     */
+    public Entry getWelcomeFile() {
+      return welcomeFile;
+    }
+    
+    /**
+     * @return The digest manifest entry of this file, or null if the file is not in the manifest.
+     */
+    public ContentDigests.Entry getDigest() {
+      return digest;
+    }
+    
+    /**
+     * @return The gzip sidecar of this file, or null if the file does not have a fresh sidecar.
+     */
+    public File getGzipFile() {
+      return gzipFile;
+    }
+  }
+}
@@ -40,4 +40,11 @@ public interface ContentService {
   public InputStream getResourceAsStream( String path )
     throws IOException;
   
+  /**
+   * Returns the index of the current content directory.
+   * 
+   * @return The index, or null if the content has not been indexed.
+   */
+  public ContentIndex getContentIndex();
+  
 }
@@ -17,6 +17,7 @@ package com.meltmedia.cadmium.core;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -25,17 +26,28 @@ import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,6 +55,36 @@ public final class FileSystemManager {
   private static final Pattern FNAME_PATTERN = Pattern.compile("^(.+)_(\\d+)$", Pattern.CASE_INSENSITIVE);
   private static final Logger log = LoggerFactory.getLogger(FileSystemManager.class);
   
+  private static final Method TO_PATH;
+  private static final Method CREATE_LINK;
+  private static final Method COPY;
+  private static final Object COPY_OPTIONS;
+  static {
+    Method toPath = null;
+    Method createLink = null;
+    Method copy = null;
+    Object copyOptions = null;
+    try {
+      Class<?> pathClass = Class.forName("java.nio.file.Path");
+      Class<?> filesClass = Class.forName("java.nio.file.Files");
+      toPath = File.class.getMethod("toPath");
+      createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+      copyOptions = Array.newInstance(Class.forName("java.nio.file.CopyOption"), 1);
+      Array.set(copyOptions, 0, Class.forName("java.nio.file.StandardCopyOption").getField("COPY_ATTRIBUTES").get(null));
+      copy = filesClass.getMethod("copy", pathClass, pathClass, copyOptions.getClass());
+    } catch(Exception e) {
+      log.debug("java.nio.file is not supported by this JVM, files will be copied instead of linked.");
+      toPath = null;
+      createLink = null;
+      copy = null;
+      copyOptions = null;
+    }
+    TO_PATH = toPath;
+    CREATE_LINK = createLink;
+    COPY = copy;
+    COPY_OPTIONS = copyOptions;
+  }
+  
   public static String getChildDirectoryIfExists(String parent, String child) {
     File parentFile = new File(parent);
     if(parentFile.exists() && parentFile.isDirectory()) {
@@ -181,28 +223,37 @@ public final class FileSystemManager {
     return new File(path).canWrite();
   }
   
+  /**
+   * Deletes a file or a directory and everything in it.  Symbolic links are deleted, but the files they point to are not.
+   * 
+   * @param path The file or directory to delete.
+   */
   public static void deleteDeep(String path) {
     File pathFile = new File(path);
     if(pathFile.exists()) {
-      if(pathFile.isDirectory()) {
-        List<File> dirChildren = new ArrayList<File>();
-        dirChildren.addAll(Arrays.asList(pathFile.listFiles()));
-        if(!dirChildren.isEmpty()) {
-          for(int i=0; i<dirChildren.size() ; i++) {
-            File file = dirChildren.get(i);
-            if(file.isDirectory()) {
-              dirChildren.addAll(i+1, Arrays.asList(file.listFiles()));
-            } else {
-              file.delete();
-            }
+      if(pathFile.isDirectory() && !isSymlink(pathFile)) {
+        // directories are listed parents first, so deleting them in reverse order empties each one before it is deleted.
+        List<File> dirs = new ArrayList<File>();
+        Deque<File> toList = new ArrayDeque<File>();
+        toList.push(pathFile);
+        while(!toList.isEmpty()) {
+          File dir = toList.pop();
+          dirs.add(dir);
+          File children[] = dir.listFiles();
+          if(children == null) {
+            continue;
           }
-          for(int i = dirChildren.size()-1; i >= 0; i--) {
-            File file = dirChildren.get(i);
-            if(file.isDirectory()) {
+          for(File file : children) {
+            if(file.isDirectory() && !isSymlink(file)) {
+              toList.push(file);
+            } else {
               file.delete();
             }
           }
         }
+        for(int i = dirs.size()-1; i > 0; i--) {
+          dirs.get(i).delete();
+        }
       }
       pathFile.delete();
     }
@@ -236,6 +287,17 @@ public final class FileSystemManager {
     return newDir;
   }
   
+  /**
+   * <p>Copies the contents of the source directory into the target directory, creating the target directory if it does
+   * not exist.  Permissions and modification times are copied along with the files.  Files that already exist in the target
+   * are left alone, and directories that cannot be created are skipped with a warning.</p>
+   * <p>The tree is walked on the calling thread while the files are copied by a pool with a thread per processor.</p>
+   * 
+   * @param source The directory to copy.
+   * @param target The directory to copy into.
+   * @param ignoreHidden true if files and directories starting with '.' should not be copied.
+   * @throws Exception Thrown if a file could not be copied.
+   */
   public static void copyAllContent(final String source, final String target, final boolean ignoreHidden) throws Exception {
     File sourceFile = new File(source);
     File targetFile = new File(target);
@@ -244,7 +306,6 @@ public final class FileSystemManager {
     }
     if(sourceFile.exists() && sourceFile.canRead() && sourceFile.isDirectory() 
         && targetFile.exists() && targetFile.canWrite() && targetFile.isDirectory()) {
-      List<File> copyList = new ArrayList<File>();
       FilenameFilter filter = new FilenameFilter() {
 
         @Override
@@ -253,61 +314,118 @@ public final class FileSystemManager {
         }
         
       };
-      File files [] = sourceFile.listFiles(filter);
-      if(files.length > 0) {
-        copyList.addAll(Arrays.asList(files));
-      }
-      for(int index = 0; index < copyList.size(); index++) {
-        File aFile = copyList.get(index);
-        String relativePath = aFile.getAbsoluteFile().getAbsolutePath().replaceFirst(sourceFile.getAbsoluteFile().getAbsolutePath(), "");
-        if(aFile.isDirectory()) {
-          File newDir = new File(target, relativePath);
-          if(newDir.mkdir()) {
-            newDir.setExecutable(aFile.canExecute(), false);
-            newDir.setReadable(aFile.canRead(), false);
-            newDir.setWritable(aFile.canWrite(), false);
-            newDir.setLastModified(aFile.lastModified());
-            files = aFile.listFiles(filter);
-            if(files.length > 0) {
-              copyList.addAll(index + 1, Arrays.asList(files));
-            }
-          } else {
-            log.warn("Failed to create new subdirectory \"{}\" in the target path \"{}\".", relativePath, target);
+      ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      try {
+        List<Future<?>> copies = new ArrayList<Future<?>>();
+        List<File[]> newDirs = new ArrayList<File[]>();
+        Deque<File[]> toCopy = new ArrayDeque<File[]>();
+        toCopy.push(new File[] {sourceFile, targetFile});
+        while(!toCopy.isEmpty()) {
+          File dirs[] = toCopy.pop();
+          File files[] = dirs[0].listFiles(filter);
+          if(files == null) {
+            continue;
           }
-        } else {
-          File newFile = new File(target, relativePath);
-          if(newFile.createNewFile()) {
-            FileInputStream inStream = null;
-            FileOutputStream outStream = null;
-            try{
-              inStream = new FileInputStream(aFile);
-              outStream = new FileOutputStream(newFile);
-              streamCopy(inStream, outStream);
-            } finally {
-              if(inStream != null) {
-                try{
-                  inStream.close();
-                } catch(Exception e){}
-              }
-              if(outStream != null) {
-                try{
-                  outStream.flush();
-                } catch(Exception e){}
-                try{
-                  outStream.close();
-                } catch(Exception e){}
+          for(final File aFile : files) {
+            final File newFile = new File(dirs[1], aFile.getName());
+            if(aFile.isDirectory()) {
+              if(newFile.mkdir()) {
+                newDirs.add(new File[] {aFile, newFile});
+                toCopy.push(new File[] {aFile, newFile});
+              } else {
+                log.warn("Failed to create new subdirectory \"{}\" in the target path \"{}\".", newFile.getName(), dirs[1]);
               }
+            } else if(!newFile.exists()) {
+              copies.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                  copyFile(aFile, newFile);
+                  return null;
+                }
+              }));
+            }
+          }
+        }
+        for(Future<?> copy : copies) {
+          try {
+            copy.get();
+          } catch(ExecutionException e) {
+            if(e.getCause() instanceof Exception) {
+              throw (Exception) e.getCause();
             }
-            newFile.setExecutable(aFile.canExecute(), false);
-            newFile.setReadable(aFile.canRead(), false);
-            newFile.setWritable(aFile.canWrite(), false);
-            newFile.setLastModified(aFile.lastModified());
+            throw e;
           }
         }
+        // copying files into a directory changes its modification time, and may need permissions the source did not have.
+        for(int i = newDirs.size()-1; i >= 0; i--) {
+          copyAttributes(newDirs.get(i)[0], newDirs.get(i)[1]);
+        }
+      } finally {
+        pool.shutdownNow();
       }
     }
   }
   
+  /**
+   * Copies a file along with its permissions and modification time.  Java 7 copies the attributes while the file is open,
+   * which saves a system call per attribute, so it is used when it is available.
+   */
+  private static void copyFile(File source, File target) throws IOException {
+    if(COPY != null) {
+      try {
+        COPY.invoke(null, TO_PATH.invoke(source), TO_PATH.invoke(target), COPY_OPTIONS);
+        return;
+      } catch(InvocationTargetException e) {
+        if(e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Failed to copy "+source+" to "+target, e.getCause());
+      } catch(IllegalAccessException e) {
+        log.trace("Failed to copy "+source+" with java.nio.file, copying it with channels instead.", e);
+      }
+    }
+    channelCopy(source, target);
+    copyAttributes(source, target);
+  }
+  
+  private static void channelCopy(File source, File target) throws IOException {
+    FileInputStream inStream = null;
+    FileOutputStream outStream = null;
+    try {
+      inStream = new FileInputStream(source);
+      outStream = new FileOutputStream(target);
+      FileChannel input = inStream.getChannel();
+      FileChannel output = outStream.getChannel();
+      long size = input.size();
+      long position = 0;
+      while(position < size) {
+        long transferred = input.transferTo(position, size - position, output);
+        if(transferred <= 0) {
+          throw new EOFException("Could not transfer bytes "+position+"-"+size+" of file "+source+".");
+        }
+        position += transferred;
+      }
+    } finally {
+      IOUtils.closeQuietly(inStream);
+      IOUtils.closeQuietly(outStream);
+    }
+  }
+  
+  private static void copyAttributes(File source, File target) {
+    target.setExecutable(source.canExecute(), false);
+    target.setReadable(source.canRead(), false);
+    target.setWritable(source.canWrite(), false);
+    target.setLastModified(source.lastModified());
+  }
+  
+  private static boolean isSymlink(File file) {
+    try {
+      return FileUtils.isSymlink(file);
+    } catch(IOException e) {
+      return false;
+    }
+  }
+  
   public static void cleanUpOld(final String lastUpdatedDir, final int numToKeep) {
     final File lastUpdated = new File(lastUpdatedDir);
     if(lastUpdated.exists()) {
@@ -353,6 +471,34 @@ public final class FileSystemManager {
     }
   }
   
+  /**
+   * <p>Makes a target file share the contents of a source file by hard linking it to the source file, or copies the source
+   * file when it cannot be linked.  Files are copied when the JVM is older than Java 7, the file system does not support
+   * hard links or the files are on different file systems.</p>
+   * <p>Once linked, writing through either file changes both of them.  Files that may be linked must be replaced, by writing
+   * a new file and renaming it over the old one, rather than written to.</p>
+   * 
+   * @param source The file to link to.
+   * @param target The file to create, which must not exist.
+   * @return true if the target was linked to the source, false if the source was copied.
+   * @throws IOException Thrown if the source could not be linked or copied.
+   */
+  public static boolean linkOrCopy(File source, File target) throws IOException {
+    if(CREATE_LINK != null) {
+      try {
+        CREATE_LINK.invoke(null, TO_PATH.invoke(target), TO_PATH.invoke(source));
+        return true;
+      } catch(InvocationTargetException e) {
+        log.trace("Failed to link "+target+" to "+source+", copying it instead.", e.getCause());
+      } catch(IllegalAccessException e) {
+        log.trace("Failed to link "+target+" to "+source+", copying it instead.", e);
+      }
+    }
+    FileUtils.copyFile(source, target, true);
+    target.setExecutable(source.canExecute(), false);
+    return false;
+  }
+  
   public static void streamCopy(InputStream streamIn, OutputStream streamOut) throws IOException {
     streamCopy(streamIn, streamOut, false);
   }
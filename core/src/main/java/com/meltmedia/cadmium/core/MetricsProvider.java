@@ -0,0 +1,35 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core;
+
+import java.util.Map;
+
+/**
+ * Implemented by services that keep runtime counters (cache hits, timings, etc.) that should be exposed
+ * through the system metrics endpoint.  Implementations are bound with a Guice Multibinder.
+ */
+public interface MetricsProvider {
+  
+  /**
+   * @return The name that the metrics of this provider will be listed under.
+   */
+  public String getMetricsName();
+  
+  /**
+   * @return A snapshot of the current metric values, keyed by metric name.
+   */
+  public Map<String, Object> getMetrics();
+}
@@ -15,6 +15,7 @@
  */
 package com.meltmedia.cadmium.core.commands;
 
+import java.io.File;
 import java.util.Properties;
 
 import javax.inject.Inject;
@@ -152,8 +153,13 @@ public class SyncCommandAction implements CommandAction<SyncRequest> {
   }
  
   private void performContentUpdate(final CommandContext<SyncRequest> ctx) {
-    log.info("Taking site down to run sync update for content!");
-    maintFilter.start();
+    final boolean siteDown = !isServingContent();
+    if(siteDown) {
+      log.info("Taking site down to run sync update for content!");
+      maintFilter.start();
+    } else {
+      log.info("Running sync update for content while the current content is served.");
+    }
     final CoordinatedWorkerListener<ContentUpdateRequest> oldListener = worker.getListener();
     worker.setListener(new CoordinatedWorkerListener<ContentUpdateRequest>() {
       
@@ -169,7 +175,9 @@ public class SyncCommandAction implements CommandAction<SyncRequest> {
         } catch(Exception e){
           log.warn("Failed to update log", e);
         }
-        maintFilter.stop();
+        if(siteDown) {
+          maintFilter.stop();
+        }
         worker.setListener(oldListener);
       }
 
@@ -290,6 +298,17 @@ public class SyncCommandAction implements CommandAction<SyncRequest> {
     
   }
   
+  /**
+   * Returns true if this member is serving content.  A member that is serving content keeps serving it while a sync
+   * pulls and processes the new content into a new directory, and only switches to the new content when it is ready.
+   * 
+   * @return true if the content service has a content directory and the maintenance page is not up, false otherwise.
+   */
+  private boolean isServingContent() {
+    String contentRoot = fileServlet.getContentRoot();
+    return !maintFilter.isOn() && contentRoot != null && new File(contentRoot).isDirectory();
+  }
+  
   /**
    * Returns true if a git location object is null or all of its values are
    * empty or null.
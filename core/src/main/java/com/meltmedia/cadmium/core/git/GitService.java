@@ -15,6 +15,7 @@
  */
 package com.meltmedia.cadmium.core.git;
 
+import com.meltmedia.cadmium.core.ContentChangeSet;
 import com.meltmedia.cadmium.core.FileSystemManager;
 import com.meltmedia.cadmium.core.commands.GitLocation;
 import com.meltmedia.cadmium.core.config.ConfigManager;
@@ -27,7 +28,10 @@ import org.eclipse.jgit.api.CreateBranchCommand.SetupUpstreamMode;
 import org.eclipse.jgit.api.ListBranchCommand.ListMode;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -36,12 +40,19 @@ import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepository;
 import org.eclipse.jgit.transport.SshSessionFactory;
 import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -684,6 +695,164 @@ public class GitService
     return git.getRepository().getRef(getBranchName()).getObjectId().getName();
   }
   
+  /**
+   * Compares the trees of two revisions in this repository.
+   * 
+   * @param fromRevision the older revision.
+   * @param toRevision the newer revision.
+   * @return The paths that changed between the revisions, or null if either revision is not in this repository.
+   * @throws Exception if the repository could not be read.
+   */
+  public ContentChangeSet diff(String fromRevision, String toRevision) throws Exception {
+    Repository repository = git.getRepository();
+    ObjectId fromId = repository.resolve(fromRevision);
+    ObjectId toId = repository.resolve(toRevision);
+    if(fromId == null || toId == null) {
+      log.debug("Cannot compare revisions {} and {}", fromRevision, toRevision);
+      return null;
+    }
+    List<String> changedPaths = new ArrayList<String>();
+    List<String> deletedPaths = new ArrayList<String>();
+    RevWalk revWalk = new RevWalk(repository);
+    TreeWalk treeWalk = new TreeWalk(repository);
+    try {
+      treeWalk.addTree(revWalk.parseCommit(fromId).getTree());
+      treeWalk.addTree(revWalk.parseCommit(toId).getTree());
+      treeWalk.setRecursive(true);
+      treeWalk.setFilter(TreeFilter.ANY_DIFF);
+      for(DiffEntry entry : DiffEntry.scan(treeWalk)) {
+        switch(entry.getChangeType()) {
+        case DELETE:
+          deletedPaths.add("/" + entry.getOldPath());
+          break;
+        case RENAME:
+          deletedPaths.add("/" + entry.getOldPath());
+          changedPaths.add("/" + entry.getNewPath());
+          break;
+        default:
+          changedPaths.add("/" + entry.getNewPath());
+        }
+      }
+    } finally {
+      treeWalk.release();
+      revWalk.release();
+    }
+    return new ContentChangeSet(fromId.getName(), toId.getName(), changedPaths, deletedPaths);
+  }
+  
+  /**
+   * <p>Writes the files of a revision into a new directory, starting from a directory that holds an older revision.  Files
+   * that did not change between the revisions are hard linked to the files in the older directory, so only the changed
+   * files are written.  Files that are missing from the older directory are written too.</p>
+   * <p>Only the files in the tree of the revision are written.  Any other files in the older directory, like the ones
+   * config processors generate, are left out.</p>
+   * <p>Symbolic links are not exported, since they cannot be created on every JVM that this runs on.  A revision with a
+   * symbolic link fails, so the caller can clone the repository instead.</p>
+   * 
+   * @param revision the revision to write.
+   * @param baseDirectory a directory holding an older revision, or null to write every file.
+   * @param changedPaths the paths that changed since the revision of the base directory, relative to the root of the
+   * repository and starting with a '/' character.
+   * @param targetDirectory the directory to write the revision to.
+   * @return The number of files that were linked and written, and their size.
+   * @throws Exception if the revision could not be read, has a symbolic link, or a file could not be written.
+   */
+  public SnapshotExport exportSnapshot(String revision, File baseDirectory, Collection<String> changedPaths, File targetDirectory) throws Exception {
+    Repository repository = git.getRepository();
+    ObjectId revisionId = repository.resolve(revision);
+    if(revisionId == null) {
+      throw new IOException("Revision "+revision+" is not in this repository.");
+    }
+    int linked = 0;
+    int written = 0;
+    long bytes = 0;
+    RevWalk revWalk = new RevWalk(repository);
+    TreeWalk treeWalk = new TreeWalk(repository);
+    try {
+      treeWalk.addTree(revWalk.parseCommit(revisionId).getTree());
+      treeWalk.setRecursive(true);
+      while(treeWalk.next()) {
+        String path = treeWalk.getPathString();
+        File targetFile = new File(targetDirectory, path);
+        FileMode mode = treeWalk.getFileMode(0);
+        if(mode == FileMode.GITLINK) {
+          targetFile.mkdirs();
+          continue;
+        }
+        if(mode == FileMode.SYMLINK) {
+          throw new IOException("Cannot export the symbolic link "+path+" of revision "+revision+".");
+        }
+        File parent = targetFile.getParentFile();
+        if(!parent.isDirectory() && !parent.mkdirs()) {
+          throw new IOException("Failed to create directory "+parent);
+        }
+        File baseFile = baseDirectory != null ? new File(baseDirectory, path) : null;
+        if(baseFile != null && !changedPaths.contains("/" + path) && baseFile.isFile()) {
+          if(FileSystemManager.linkOrCopy(baseFile, targetFile)) {
+            linked++;
+          } else {
+            written++;
+          }
+          bytes += targetFile.length();
+          continue;
+        }
+        ObjectLoader loader = repository.open(treeWalk.getObjectId(0));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile));
+        try {
+          loader.copyTo(out);
+        } finally {
+          out.close();
+        }
+        if(mode == FileMode.EXECUTABLE_FILE) {
+          targetFile.setExecutable(true, false);
+        }
+        written++;
+        bytes += loader.getSize();
+      }
+    } finally {
+      treeWalk.release();
+      revWalk.release();
+    }
+    log.info("Exported revision {} to {}: {} files linked, {} files written", new Object[] {revision, targetDirectory, linked, written});
+    return new SnapshotExport(linked, written, bytes);
+  }
+  
+  /**
+   * The files of a revision that {@link GitService#exportSnapshot(String, File, Collection, File)} exported.
+   */
+  public static class SnapshotExport {
+    private final int linkedCount;
+    private final int writtenCount;
+    private final long byteCount;
+    
+    public SnapshotExport(int linkedCount, int writtenCount, long byteCount) {
+      this.linkedCount = linkedCount;
+      this.writtenCount = writtenCount;
+      this.byteCount = byteCount;
+    }
+    
+    /**
+     * @return The number of files that were linked to the base directory.
+     */
+    public int getLinkedCount() {
+      return linkedCount;
+    }
+    
+    /**
+     * @return The number of files that were written, including files that were copied because they could not be linked.
+     */
+    public int getWrittenCount() {
+      return writtenCount;
+    }
+    
+    /**
+     * @return The size of all of the exported files.
+     */
+    public long getByteCount() {
+      return byteCount;
+    }
+  }
+  
   public String getRemoteRepository() {
     return git.getRepository().getConfig().getString("remote", "origin", "url");
   }
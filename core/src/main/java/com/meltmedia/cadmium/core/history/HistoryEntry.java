@@ -16,6 +16,7 @@
 package com.meltmedia.cadmium.core.history;
 
 import java.util.Date;
+import java.util.Map;
 
 public class HistoryEntry {
   public static enum EntryType { CONTENT, CONFIG, MAINT }
@@ -35,6 +36,7 @@ public class HistoryEntry {
   private String uuid;
   private String comment;
   private EntryType type;
+  private Map<String, Long> timings;
   
   public HistoryEntry(){}
   
@@ -170,4 +172,17 @@ public class HistoryEntry {
   public void setType(EntryType type) {
     this.type = type;
   }
+
+  /**
+   * @return How long the steps of the update took, in milliseconds, keyed by step.  Steps that report how much content they
+   * handled also have the number of files and bytes, keyed by step with a ".files" and ".bytes" suffix.  Null if no timings
+   * were recorded.
+   */
+  public Map<String, Long> getTimings() {
+    return timings;
+  }
+
+  public void setTimings(Map<String, Long> timings) {
+    this.timings = timings;
+  }
 }
@@ -35,14 +35,18 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
 @Singleton
 public class HistoryManager implements Closeable {
   public static final String HISTORY_FILE_NAME = "history.json";
   private final Logger log = LoggerFactory.getLogger(getClass());
+  private static final int MAX_PENDING_TIMINGS = 16;
   private List<HistoryEntry> history = new ArrayList<HistoryEntry>();
+  private final Map<String, Map<String, Long>> pendingTimings = new LinkedHashMap<String, Map<String, Long>>();
   private String contentRoot;
   
   @Inject
@@ -121,6 +125,11 @@ public class HistoryManager implements Closeable {
     newEntry.setRevertible(revertible);
     newEntry.setFailed(failed);
     newEntry.setFinished(finished);
+    if(uuid != null) {
+      synchronized(pendingTimings) {
+        newEntry.setTimings(pendingTimings.remove(uuid));
+      }
+    }
     log.info("Logging new {} History Event: repoUrl[{}], branch[{}], sha[{}], openId[{}], directory[{}], uuid[{}], revertible[{}], maint[{}], failed[{}], comment[{}]", new Object[] {type, repository, branch, revision, openId, directory, uuid, revertible, maint, failed, comment});
     
     history.add(0, newEntry);
@@ -164,6 +173,41 @@ public class HistoryManager implements Closeable {
     }
   }
   
+  /**
+   * Records how long the steps of an update took on this member.  The timings are added to the history entry of the
+   * update, or held until that entry is logged, since entries are only logged once every member is done.
+   * 
+   * @param uuid The uuid of the update.
+   * @param timings How long each step took, in milliseconds, keyed by step.
+   */
+  public void recordTimings(String uuid, Map<String, Long> timings) {
+    if(uuid == null || uuid.trim().length() == 0 || timings == null || timings.isEmpty()) {
+      return;
+    }
+    HistoryEntry entry = getLatestHistoryEntryByUUID(uuid, null);
+    if(entry != null) {
+      Map<String, Long> entryTimings = new LinkedHashMap<String, Long>();
+      if(entry.getTimings() != null) {
+        entryTimings.putAll(entry.getTimings());
+      }
+      entryTimings.putAll(timings);
+      entry.setTimings(entryTimings);
+      pool.execute(historyWriter);
+      return;
+    }
+    synchronized(pendingTimings) {
+      Map<String, Long> pending = pendingTimings.get(uuid);
+      if(pending == null) {
+        pending = new LinkedHashMap<String, Long>();
+        pendingTimings.put(uuid, pending);
+        if(pendingTimings.size() > MAX_PENDING_TIMINGS) {
+          pendingTimings.remove(pendingTimings.keySet().iterator().next());
+        }
+      }
+      pending.putAll(timings);
+    }
+  }
+  
   public HistoryEntry getLatestHistoryEntryByUUID(String uuid, Date since) {
     for(HistoryEntry entry : history) {
       if((since == null || entry.getTimestamp().after(since)) && entry.getUuid() != null && entry.getUuid().equals(uuid)) {
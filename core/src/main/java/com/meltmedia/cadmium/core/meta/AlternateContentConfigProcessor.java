@@ -18,6 +18,7 @@ package com.meltmedia.cadmium.core.meta;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import com.meltmedia.cadmium.core.FileSystemManager;
+import com.meltmedia.cadmium.core.MetricsProvider;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +27,10 @@ import javax.inject.Singleton;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -35,11 +39,27 @@ import java.util.regex.Pattern;
  * @author John McEntire
  */
 @Singleton
-public class AlternateContentConfigProcessor implements ConfigProcessor {
+public class AlternateContentConfigProcessor implements ConfigProcessor, MetricsProvider {
   public static final String CONFIG_FILE_NAME = "alternate-content.json";
+  
+  /**
+   * The number of User-Agent headers whose alternate content directory is remembered.
+   */
+  public static final int MAX_CACHED_USER_AGENTS = 1000;
+  
+  /**
+   * Marks User-Agent headers in the cache that do not have an alternate content directory.
+   */
+  private static final File NO_DIRECTORY = new File("");
+  
   private final Logger logger = LoggerFactory.getLogger(getClass());
   protected Configuration stagedConfig;
   protected Configuration liveConfig;
+  private volatile int liveVersion = 0;
+  
+  private final AtomicLong hits = new AtomicLong(0l);
+  private final AtomicLong misses = new AtomicLong(0l);
+  private final AtomicLong matchNanos = new AtomicLong(0l);
 
   @Override
   public void processFromDirectory(String metaDir) throws Exception {
@@ -64,16 +84,50 @@ public class AlternateContentConfigProcessor implements ConfigProcessor {
   public void makeLive() {
     logger.trace("Promoting {} staged alternate content configurations.", stagedConfig.configs.size());
     liveConfig = stagedConfig;
+    liveVersion++;
+  }
+  
+  /**
+   * @return A number that changes each time a new configuration is made live.
+   */
+  public int getLiveVersion() {
+    return liveVersion;
   }
 
   /**
-   * Iterates through AlternateContent objects trying to match against their pre compiled pattern.
+   * Looks up the alternate content directory of a User-Agent.  The directories of the most recently seen User-Agent
+   * headers, including the ones without a directory, are cached with the live configuration.
    *
    * @param userAgent The userAgent request header.
    * @return the ContentDirectory of the matched AlternateContent instance or null if none are found.
    */
   public File getAlternateContentDirectory(String userAgent) {
     Configuration config = liveConfig;
+    File contentDir;
+    synchronized(config.userAgents) {
+      contentDir = config.userAgents.get(userAgent);
+    }
+    if(contentDir != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      long start = System.nanoTime();
+      contentDir = matchAlternateContentDirectory(config, userAgent);
+      matchNanos.addAndGet(System.nanoTime() - start);
+      if(contentDir == null) {
+        contentDir = NO_DIRECTORY;
+      }
+      synchronized(config.userAgents) {
+        config.userAgents.put(userAgent, contentDir);
+      }
+    }
+    return contentDir == NO_DIRECTORY ? null : contentDir;
+  }
+  
+  /**
+   * Iterates through AlternateContent objects trying to match against their pre compiled pattern.
+   */
+  private File matchAlternateContentDirectory(Configuration config, String userAgent) {
     for(AlternateContent configuration: config.configs) {
       try {
         if(configuration.compiledPattern.matcher(userAgent).matches()) {
@@ -86,6 +140,29 @@ public class AlternateContentConfigProcessor implements ConfigProcessor {
     return null;
   }
 
+  @Override
+  public String getMetricsName() {
+    return "alternate-content";
+  }
+
+  @Override
+  public Map<String, Object> getMetrics() {
+    long hitCount = hits.get();
+    long missCount = misses.get();
+    Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+    metrics.put("hits", hitCount);
+    metrics.put("misses", missCount);
+    metrics.put("hitRate", hitCount + missCount > 0 ? (double)hitCount / (hitCount + missCount) : 0.0d);
+    metrics.put("averageMatchMicros", missCount > 0 ? matchNanos.get() / 1000.0d / missCount : 0.0d);
+    Configuration config = liveConfig;
+    if(config != null) {
+      synchronized(config.userAgents) {
+        metrics.put("cachedUserAgents", config.userAgents.size());
+      }
+    }
+    return metrics;
+  }
+
   public boolean hasConfig() {
     return liveConfig != null && liveConfig.configs.size() > 0;
   }
@@ -93,5 +170,13 @@ public class AlternateContentConfigProcessor implements ConfigProcessor {
   private class Configuration {
     List<AlternateContent> configs = new ArrayList<AlternateContent>();
     File metaDir;
+    Map<String, File> userAgents = new LinkedHashMap<String, File>(64, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+        return size() > MAX_CACHED_USER_AGENTS;
+      }
+    };
   }
 }
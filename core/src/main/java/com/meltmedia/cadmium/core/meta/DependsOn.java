@@ -0,0 +1,46 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.meta;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Declares the config processors that must finish processing a content directory before the annotated config processor
+ * starts.  Config processors without dependencies on each other are run at the same time by the
+ * {@link SiteConfigProcessor}.</p>
+ * <p>Config processors in modules that the annotated class cannot reference at compile time are named with
+ * {@link #names()} instead.  A named config processor that is not installed is ignored.</p>
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface DependsOn {
+  /**
+   * @return The classes of the config processors that must finish first.
+   */
+  Class<? extends ConfigProcessor>[] value() default {};
+  
+  /**
+   * @return The class names of the config processors that must finish first, as returned by {@link Class#getName()}.
+   */
+  String[] names() default {};
+}
@@ -98,6 +98,20 @@ public class MimeTypeConfigProcessor implements ConfigProcessor {
   }
   
   public String getContentType(String filename) {
+    return getContentType(mimeTypes, filename);
+  }
+  
+  /**
+   * Resolves the content type of a file using the mime types that have been processed but not yet made live.
+   * 
+   * @param filename
+   * @return
+   */
+  public String getStagedContentType(String filename) {
+    return getContentType(stagedMimeTypes, filename);
+  }
+  
+  private static String getContentType(Map<String, String> mimeTypes, String filename) {
     String[] parts = filename.split("\\.");
     String mimeType = mimeTypes.get(parts[parts.length-1]);
     log.trace("Resolving mimetype for {} with extension {} to {}", new String[] {filename, parts[parts.length-1], mimeType});
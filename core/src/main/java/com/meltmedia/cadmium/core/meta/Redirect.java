@@ -21,14 +21,16 @@ import org.slf4j.LoggerFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class Redirect implements Cloneable {
+/**
+ * A redirect from a path, or a regular expression of paths, to a url.  Once it is configured, a redirect is not
+ * changed by matching paths against it, so it can be shared by any number of threads.
+ */
+public class Redirect {
   private final Logger log = LoggerFactory.getLogger(getClass());
   private String url;
   private String path;
   private Pattern pathPattern;
   
-  private volatile Matcher matcher;
-  
   public Redirect(){}
 
   public String getUrl() {
@@ -43,13 +45,6 @@ public class Redirect implements Cloneable {
     return path;
   }
   
-  public String getUrlSubstituted() {
-    if(matcher != null) {
-      return matcher.group().replaceAll(path, url);
-    }
-    return url;
-  }
-  
   public Pattern getPathPattern() {
     return pathPattern;
   }
@@ -65,19 +60,14 @@ public class Redirect implements Cloneable {
     }
   }
   
+  /**
+   * @param pathInfo
+   * @return true if this redirect matches the path.
+   */
   public boolean matches(String pathInfo) {
     if(pathPattern != null) {
       log.trace("Using pattern to match {}", pathPattern.pattern());
-      matcher = pathPattern.matcher(pathInfo);
-      if(matcher != null) {
-        boolean matched = matcher.matches();
-        if(!matched) {
-          matcher = null;
-        }
-        return matched;
-      } else {
-        log.warn("Found null matcher [{}] on redir [{}].", pathInfo, path);
-      }
+      return pathPattern.matcher(pathInfo).matches();
     } else if(pathInfo.equals(path)){
       log.trace("Path equals pathinfo {}", pathInfo);
       return true;
@@ -85,16 +75,48 @@ public class Redirect implements Cloneable {
     return false;
   }
   
-  @Override
-  public Object clone() {
-    Redirect cloneOf = new Redirect();
-    cloneOf.url = url;
-    cloneOf.path = path;
-    if(this.pathPattern != null) {
-      cloneOf.pathPattern = pathPattern;
+  /**
+   * Matches a path against this redirect.
+   * 
+   * @param pathInfo
+   * @return The result of the match, with the url to redirect to, or null if this redirect does not match the path.
+   */
+  public RedirectMatch match(String pathInfo) {
+    if(pathPattern != null) {
+      log.trace("Using pattern to match {}", pathPattern.pattern());
+      Matcher matcher = pathPattern.matcher(pathInfo);
+      return matcher.matches() ? toMatch(pathInfo, matcher) : null;
+    } else if(pathInfo.equals(path)){
+      log.trace("Path equals pathinfo {}", pathInfo);
+      return new RedirectMatch(this, pathInfo, RedirectMatch.NO_GROUPS, url);
+    }
+    return null;
+  }
+  
+  /**
+   * Creates the result of a successful match of this redirect's pattern.  The groups captured by the matcher are
+   * substituted into the url.
+   * 
+   * @param pathInfo the path that was matched.
+   * @param matcher a matcher of this redirect's pattern that has matched the path.
+   * @return The result of the match.
+   */
+  RedirectMatch toMatch(String pathInfo, Matcher matcher) {
+    String groups[] = RedirectMatch.NO_GROUPS;
+    if(matcher.groupCount() > 0) {
+      groups = new String[matcher.groupCount()];
+      for(int i = 0; i < groups.length; i++) {
+        groups[i] = matcher.group(i + 1);
+      }
+    }
+    String substituted = url;
+    if(url != null && (url.indexOf('$') != -1 || url.indexOf('\\') != -1)) {
+      StringBuffer buffer = new StringBuffer(url.length() + pathInfo.length());
+      matcher.appendReplacement(buffer, url);
+      matcher.appendTail(buffer);
+      substituted = buffer.toString();
     }
-    cloneOf.matcher = matcher;
-    return cloneOf;
+    return new RedirectMatch(this, pathInfo, groups, substituted);
   }
   
 }
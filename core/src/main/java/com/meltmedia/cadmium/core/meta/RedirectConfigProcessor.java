@@ -36,6 +36,9 @@ public class RedirectConfigProcessor implements ConfigProcessor {
   protected List<Redirect> liveRedirects = new ArrayList<Redirect>();
   protected List<Redirect> stagedRedirects = new ArrayList<Redirect>();
   
+  private volatile RedirectMatcher liveMatcher;
+  private RedirectMatcher stagedMatcher;
+  
   @Override
   public void processFromDirectory(String metaDir) throws Exception {
     List<Redirect> newStagedRedirects = new ArrayList<Redirect>();
@@ -53,11 +56,12 @@ public class RedirectConfigProcessor implements ConfigProcessor {
         if(redirs != null && !redirs.isEmpty()) {
           for(Redirect redir : redirs) {
             redir.setPath(redir.getPath());
-            newStagedRedirects.add((Redirect)redir.clone());
+            newStagedRedirects.add(redir);
           }
         }
       }
     }
+    stagedMatcher = RedirectMatcher.compile(newStagedRedirects);
     stagedRedirects = newStagedRedirects;
   }
 
@@ -65,33 +69,44 @@ public class RedirectConfigProcessor implements ConfigProcessor {
   public void makeLive() {
     log.trace("Promoting {} staged redirects, replacing {} old live redirects", stagedRedirects.size(), liveRedirects.size());
     liveRedirects = stagedRedirects;
+    liveMatcher = stagedMatcher;
   }
   
-  public Redirect requestMatches(String pathInfo, String queryString) {
-    Redirect matched = null;
+  /**
+   * @return The compiled form of the live redirects, compiling them if they have changed since they were last compiled.
+   */
+  protected RedirectMatcher getLiveMatcher() {
     List<Redirect> workingRedirects = liveRedirects;
-    List<Redirect> clonedRedirects = new ArrayList<Redirect>();
-    for(Redirect redir : workingRedirects) {
-      clonedRedirects.add((Redirect)redir.clone());
+    RedirectMatcher matcher = liveMatcher;
+    if(matcher == null || !matcher.isCompiledFrom(workingRedirects)) {
+      matcher = RedirectMatcher.compile(workingRedirects);
+      liveMatcher = matcher;
     }
+    return matcher;
+  }
+  
+  /**
+   * Finds the first live redirect that matches a request.  If there is a query string, the path and query string
+   * are matched first, then the path by itself.
+   * 
+   * @param pathInfo
+   * @param queryString
+   * @return The result of the match, or null if no redirect matched.
+   */
+  public RedirectMatch requestMatches(String pathInfo, String queryString) {
+    RedirectMatcher matcher = getLiveMatcher();
     log.trace("Checking pathInfo {}, and queryString {}", pathInfo, queryString);
-    if(workingRedirects != null && !clonedRedirects.isEmpty()) {
-      if(queryString != null && queryString.length() > 0) {
-        for(Redirect redir : clonedRedirects) {
-          if(redir.matches(pathInfo+"?"+queryString)) {
-            matched = redir;
-            break;
-          }
-        }
-      }
-      if(matched == null) {
-        for(Redirect redir : clonedRedirects) {
-          if(redir.matches(pathInfo)) {
-            matched = redir;
-            log.info("matched redirect: {}", matched);
-            break;
-          }
-        }
+    if(matcher.size() == 0) {
+      return null;
+    }
+    RedirectMatch matched = null;
+    if(queryString != null && queryString.length() > 0) {
+      matched = matcher.match(pathInfo+"?"+queryString);
+    }
+    if(matched == null) {
+      matched = matcher.match(pathInfo);
+      if(matched != null) {
+        log.info("matched redirect: {}", matched);
       }
     }
     return matched;
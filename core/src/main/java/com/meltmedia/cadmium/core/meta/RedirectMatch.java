@@ -0,0 +1,79 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.meta;
+
+/**
+ * The immutable result of matching a path against a {@link Redirect}.
+ */
+public class RedirectMatch {
+  static final String[] NO_GROUPS = new String[0];
+  
+  private final Redirect redirect;
+  private final String path;
+  private final String groups[];
+  private final String url;
+  
+  RedirectMatch(Redirect redirect, String path, String groups[], String url) {
+    this.redirect = redirect;
+    this.path = path;
+    this.groups = groups;
+    this.url = url;
+  }
+  
+  /**
+   * @return The redirect that matched.
+   */
+  public Redirect getRedirect() {
+    return redirect;
+  }
+  
+  /**
+   * @return The path that was matched.
+   */
+  public String getPath() {
+    return path;
+  }
+  
+  /**
+   * @return The number of groups captured by the redirect's pattern.
+   */
+  public int getGroupCount() {
+    return groups.length;
+  }
+  
+  /**
+   * @param group the number of the group, starting at 1.
+   * @return The value that was captured by the group, or null if the group did not take part in the match.
+   */
+  public String getGroup(int group) {
+    if(group < 1 || group > groups.length) {
+      throw new IndexOutOfBoundsException("No group " + group);
+    }
+    return groups[group - 1];
+  }
+  
+  /**
+   * @return The url of the redirect, with the captured groups substituted into it.
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  @Override
+  public String toString() {
+    return "RedirectMatch [path=" + path + ", url=" + url + "]";
+  }
+}
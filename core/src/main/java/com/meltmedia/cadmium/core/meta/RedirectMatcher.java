@@ -0,0 +1,331 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.meta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * <p>An immutable index over a list of {@link Redirect}s that finds the first redirect in the list matching a path,
+ * without testing every redirect.</p>
+ * <p>When it is compiled, each redirect is put into one of three groups:</p>
+ * <ul>
+ *   <li>Redirects whose path is a literal string are put in a hash map, keyed by that string.</li>
+ *   <li>Redirects whose path is a regular expression that begins with literal characters are put in a trie, keyed by
+ *   those characters.</li>
+ *   <li>All other redirects are kept in a list, in order.  When one of these patterns starts with .* followed by
+ *   literal characters, those characters are kept with it, so paths that do not contain them are skipped without
+ *   running the pattern.</li>
+ * </ul>
+ * <p>Finding a match looks up the path in the map and walks the path down the trie, collecting the redirects that can
+ * match it.  The candidates are then tested in their original order, so the redirect that is returned is the same one
+ * that a scan of the list would return.  The patterns of the redirects are only used to create new matchers, so a
+ * RedirectMatcher can be shared by any number of threads.</p>
+ */
+public class RedirectMatcher {
+  private static final int NO_MATCH = Integer.MAX_VALUE;
+  private static final int[] NO_RULES = new int[0];
+
+  private final List<Redirect> redirects;
+  private final int size;
+  private final Redirect rules[];
+  private final Map<String, Integer> literals;
+  private final Node prefixes;
+  private final int patterns[];
+  private final String required[];
+
+  private RedirectMatcher(List<Redirect> redirects, Redirect rules[], Map<String, Integer> literals, Node prefixes, int patterns[], String required[]) {
+    this.redirects = redirects;
+    this.size = rules.length;
+    this.rules = rules;
+    this.literals = literals;
+    this.prefixes = prefixes;
+    this.patterns = patterns;
+    this.required = required;
+  }
+
+  /**
+   * Compiles a list of redirects.  The redirects should not be changed after they are compiled.
+   * 
+   * @param redirects the redirects in the order that they should be tested.
+   * @return The compiled redirects.
+   */
+  public static RedirectMatcher compile(List<Redirect> redirects) {
+    Redirect rules[] = redirects.toArray(new Redirect[redirects.size()]);
+    Map<String, Integer> literals = new HashMap<String, Integer>();
+    Node prefixes = new Node();
+    List<Integer> patterns = new ArrayList<Integer>();
+    String required[] = new String[rules.length];
+    for(int i = 0; i < rules.length; i++) {
+      Redirect rule = rules[i];
+      if(rule == null || rule.getPath() == null) {
+        continue;
+      }
+      String literal = null;
+      String prefix = "";
+      if(rule.getPathPattern() == null) {
+        literal = rule.getPath();
+      } else {
+        StringBuilder prefixBuilder = new StringBuilder();
+        if(literalPrefix(rule.getPathPattern().pattern(), prefixBuilder)) {
+          literal = prefixBuilder.toString();
+        } else {
+          prefix = prefixBuilder.toString();
+        }
+      }
+      if(literal != null) {
+        if(!literals.containsKey(literal)) {
+          literals.put(literal, i);
+        }
+      } else if(prefix.length() > 0) {
+        prefixes.add(prefix, i);
+      } else {
+        patterns.add(i);
+        required[i] = requiredLiteral(rule.getPathPattern().pattern());
+      }
+    }
+    prefixes.compact();
+    return new RedirectMatcher(redirects, rules, literals, prefixes, toArray(patterns), required);
+  }
+
+  /**
+   * @param redirects
+   * @return true if this matcher was compiled from the given list of redirects and the list has not changed size since.
+   */
+  public boolean isCompiledFrom(List<Redirect> redirects) {
+    return this.redirects == redirects && redirects.size() == size;
+  }
+
+  /**
+   * @return The number of redirects in this matcher.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Finds the first redirect that matches a path.
+   * 
+   * @param path the path to match.
+   * @return The first matching redirect, or null if none of the redirects match.
+   */
+  public Redirect find(String path) {
+    RedirectMatch match = match(path);
+    return match == null ? null : match.getRedirect();
+  }
+
+  /**
+   * Matches a path against the first redirect that matches it.
+   * 
+   * @param path the path to match.
+   * @return The result of matching the first matching redirect, or null if none of the redirects match.
+   */
+  public RedirectMatch match(String path) {
+    int best = NO_MATCH;
+    Integer literal = literals.get(path);
+    if(literal != null) {
+      best = literal;
+    }
+
+    // collect the pattern candidates that come before the best literal match.
+    int candidates[] = null;
+    int count = 0;
+    Node node = prefixes;
+    for(int i = 0; node != null; i++) {
+      for(int rule : node.rules) {
+        if(rule >= best) {
+          break;
+        }
+        if(candidates == null) {
+          candidates = new int[8];
+        } else if(count == candidates.length) {
+          candidates = Arrays.copyOf(candidates, count * 2);
+        }
+        candidates[count++] = rule;
+      }
+      node = i < path.length() ? node.child(path.charAt(i)) : null;
+    }
+    if(count > 1) {
+      Arrays.sort(candidates, 0, count);
+    }
+
+    // merge the prefix candidates with the unprefixed patterns, testing them in order.
+    int c = 0;
+    int p = 0;
+    while(c < count || (p < patterns.length && patterns[p] < best)) {
+      int rule;
+      if(c < count && (p >= patterns.length || candidates[c] < patterns[p])) {
+        rule = candidates[c++];
+      } else {
+        rule = patterns[p++];
+      }
+      if(rule >= best) {
+        break;
+      }
+      if(required[rule] != null && path.indexOf(required[rule]) == -1) {
+        continue;
+      }
+      Matcher matcher = rules[rule].getPathPattern().matcher(path);
+      if(matcher.matches()) {
+        return rules[rule].toMatch(path, matcher);
+      }
+    }
+    return best == NO_MATCH ? null : rules[best].match(path);
+  }
+
+  /**
+   * Reads the characters at the start of a regular expression that any matching string must start with.
+   * 
+   * @param pattern the regular expression.
+   * @param prefix the builder that the literal characters are appended to.
+   * @return true if the entire pattern is literal characters, so that it only matches the prefix.
+   */
+  static boolean literalPrefix(String pattern, StringBuilder prefix) {
+    return literalPrefix(pattern, pattern.startsWith("^") ? 1 : 0, prefix);
+  }
+  
+  /**
+   * Reads the literal characters that follow a leading .* in a regular expression.  Any string that matches the
+   * expression must contain these characters.
+   * 
+   * @param pattern the regular expression.
+   * @return The literal characters, or null if the pattern does not start with .* followed by a literal character.
+   */
+  static String requiredLiteral(String pattern) {
+    int start = pattern.startsWith("^") ? 1 : 0;
+    if(!pattern.startsWith(".*", start)) {
+      return null;
+    }
+    StringBuilder literal = new StringBuilder();
+    literalPrefix(pattern, start + 2, literal);
+    return literal.length() > 0 ? literal.toString() : null;
+  }
+  
+  private static boolean literalPrefix(String pattern, int i, StringBuilder prefix) {
+    if(hasTopLevelAlternation(pattern)) {
+      return false;
+    }
+    int lastLength = prefix.length();
+    while(i < pattern.length()) {
+      char c = pattern.charAt(i);
+      if(c == '\\') {
+        if(i + 1 >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+          // character classes, back references and quoting are not literal.
+          return false;
+        }
+        lastLength = prefix.length();
+        prefix.append(pattern.charAt(i + 1));
+        i += 2;
+      } else if("*?+{".indexOf(c) != -1) {
+        // the last character is optional or repeated.
+        prefix.setLength(lastLength);
+        return false;
+      } else if(".[]()^$}".indexOf(c) != -1) {
+        return false;
+      } else {
+        lastLength = prefix.length();
+        prefix.append(c);
+        i++;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param pattern
+   * @return true if the pattern has a | that is not escaped, in a character class or in a group.
+   */
+  static boolean hasTopLevelAlternation(String pattern) {
+    int depth = 0;
+    boolean inClass = false;
+    for(int i = 0; i < pattern.length(); i++) {
+      char c = pattern.charAt(i);
+      if(c == '\\') {
+        i++;
+      } else if(inClass) {
+        inClass = c != ']';
+      } else if(c == '[') {
+        inClass = true;
+      } else if(c == '(') {
+        depth++;
+      } else if(c == ')') {
+        depth--;
+      } else if(c == '|' && depth == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    if(list.isEmpty()) {
+      return NO_RULES;
+    }
+    int array[] = new int[list.size()];
+    for(int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * A node in the prefix trie.  The rules of a node are the redirects whose prefix ends at that node, in order.
+   */
+  private static class Node {
+    private Map<Character, Node> children = null;
+    private List<Integer> ruleList = null;
+    private int rules[] = NO_RULES;
+
+    void add(String prefix, int rule) {
+      Node node = this;
+      for(int i = 0; i < prefix.length(); i++) {
+        if(node.children == null) {
+          node.children = new HashMap<Character, Node>();
+        }
+        Node child = node.children.get(prefix.charAt(i));
+        if(child == null) {
+          child = new Node();
+          node.children.put(prefix.charAt(i), child);
+        }
+        node = child;
+      }
+      if(node.ruleList == null) {
+        node.ruleList = new ArrayList<Integer>();
+      }
+      node.ruleList.add(rule);
+    }
+
+    void compact() {
+      if(ruleList != null) {
+        rules = toArray(ruleList);
+        ruleList = null;
+      }
+      if(children != null) {
+        for(Node child : children.values()) {
+          child.compact();
+        }
+      }
+    }
+
+    Node child(char c) {
+      return children == null ? null : children.get(c);
+    }
+  }
+}
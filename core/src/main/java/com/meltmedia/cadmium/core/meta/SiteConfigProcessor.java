@@ -23,17 +23,113 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/**
+ * Runs the config processors over the META-INF directory of a content directory.  Config processors run at the same time
+ * on a pool with a thread for each config processor, but no more threads than there are CPUs.  A config processor annotated
+ * with {@link DependsOn} starts after the config processors it depends on finish.
+ */
 @Singleton
 public class SiteConfigProcessor {
   private final Logger log = LoggerFactory.getLogger(getClass());
   
   private Set<ConfigProcessor> processors;
+  private List<ConfigProcessor> orderedProcessors = new ArrayList<ConfigProcessor>();
+  private Map<ConfigProcessor, List<ConfigProcessor>> dependencies = new HashMap<ConfigProcessor, List<ConfigProcessor>>();
+  private volatile Map<String, Long> processingTimes = Collections.emptyMap();
   
   @Inject
   public SiteConfigProcessor(Set<ConfigProcessor> processors, @ContentDirectory String contentDir) throws Exception {
     this.processors = processors;
+    if(processors != null) {
+      for(ConfigProcessor processor : processors) {
+        dependencies.put(processor, findDependencies(processor));
+      }
+      List<ConfigProcessor> visiting = new ArrayList<ConfigProcessor>();
+      for(ConfigProcessor processor : processors) {
+        order(processor, visiting);
+      }
+    }
+  }
+  
+  private List<ConfigProcessor> findDependencies(ConfigProcessor processor) {
+    List<ConfigProcessor> found = new ArrayList<ConfigProcessor>();
+    DependsOn dependsOn = processor.getClass().getAnnotation(DependsOn.class);
+    if(dependsOn != null) {
+      for(ConfigProcessor other : processors) {
+        if(other == processor || found.contains(other)) {
+          continue;
+        }
+        for(Class<? extends ConfigProcessor> dependency : dependsOn.value()) {
+          if(dependency.isInstance(other)) {
+            found.add(other);
+            break;
+          }
+        }
+        for(String name : dependsOn.names()) {
+          if(!found.contains(other) && isNamed(other.getClass(), name)) {
+            found.add(other);
+          }
+        }
+      }
+    }
+    return found;
+  }
+  
+  /**
+   * @return true if the type, one of its super classes or one of its interfaces has the given name.
+   */
+  private static boolean isNamed(Class<?> type, String name) {
+    if(type == null) {
+      return false;
+    }
+    if(type.getName().equals(name) || isNamed(type.getSuperclass(), name)) {
+      return true;
+    }
+    for(Class<?> iface : type.getInterfaces()) {
+      if(isNamed(iface, name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Adds a processor to the ordered processors after the processors it depends on.
+   * 
+   * @param visiting the processors whose dependencies are being ordered, in the order they were reached.
+   */
+  private void order(ConfigProcessor processor, List<ConfigProcessor> visiting) throws Exception {
+    if(orderedProcessors.contains(processor)) {
+      return;
+    }
+    int cycleStart = visiting.indexOf(processor);
+    if(cycleStart != -1) {
+      StringBuilder cycle = new StringBuilder();
+      for(ConfigProcessor member : visiting.subList(cycleStart, visiting.size())) {
+        cycle.append(member.getClass().getName()).append(" -> ");
+      }
+      cycle.append(processor.getClass().getName());
+      throw new Exception("The config processors depend on each other: "+cycle);
+    }
+    visiting.add(processor);
+    for(ConfigProcessor dependency : dependencies.get(processor)) {
+      order(dependency, visiting);
+    }
+    visiting.remove(visiting.size() - 1);
+    orderedProcessors.add(processor);
   }
   
   public void processDir(String contentDirectory) throws Exception {
@@ -42,17 +138,45 @@ public class SiteConfigProcessor {
     if(metaDir != null) {
       if(processors != null) {
         boolean failed = false;
+        IOException ioException = null;
         log.info("Running {} processor[s] for {} directory", processors.size(), metaDir);
-        for(ConfigProcessor processor : processors) {
-          try {
-            log.info("Running {}", processor.getClass().getName());
-            processor.processFromDirectory(metaDir);
-          } catch(IOException e) {
-            throw e;
-          } catch(Exception e){
-            log.error("Failed to process config", e);
-            failed = true;
+        long start = System.currentTimeMillis();
+        Map<String, Long> times = new LinkedHashMap<String, Long>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(orderedProcessors.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+          // Processors are submitted after their dependencies, so waiting on a dependency never waits on a queued task.
+          Map<ConfigProcessor, Future<Long>> results = new LinkedHashMap<ConfigProcessor, Future<Long>>();
+          for(ConfigProcessor processor : orderedProcessors) {
+            List<Future<Long>> dependencyResults = new ArrayList<Future<Long>>();
+            for(ConfigProcessor dependency : dependencies.get(processor)) {
+              dependencyResults.add(results.get(dependency));
+            }
+            results.put(processor, pool.submit(new ProcessTask(processor, metaDir, dependencyResults)));
           }
+          for(Map.Entry<ConfigProcessor, Future<Long>> result : results.entrySet()) {
+            String name = result.getKey().getClass().getName();
+            try {
+              Long time = result.getValue().get();
+              times.put(name, time);
+              log.info("Ran {} in {}ms", name, time);
+            } catch(ExecutionException e) {
+              if(e.getCause() instanceof IOException) {
+                if(ioException == null) {
+                  ioException = (IOException) e.getCause();
+                }
+              } else {
+                log.error("Failed to process config", e.getCause());
+                failed = true;
+              }
+            }
+          }
+        } finally {
+          pool.shutdownNow();
+        }
+        processingTimes = Collections.unmodifiableMap(times);
+        log.info("Ran {} processor[s] in {}ms", processors.size(), System.currentTimeMillis() - start);
+        if(ioException != null) {
+          throw ioException;
         }
         if(failed) {
           throw new Exception("One or more configs failed! See log for details.");
@@ -63,6 +187,14 @@ public class SiteConfigProcessor {
     }
   }  
   
+  /**
+   * Returns how long each processor took during the last call to {@link #processDir(String)}, in milliseconds, keyed by
+   * the class name of the processor.  Processors that failed are left out.
+   */
+  public Map<String, Long> getProcessingTimes() {
+    return processingTimes;
+  }
+  
   public void makeLive() {
     if(processors != null) {
       for(ConfigProcessor proc : processors) {
@@ -71,4 +203,30 @@ public class SiteConfigProcessor {
     }
   }
   
+  private static class ProcessTask implements Callable<Long> {
+    private ConfigProcessor processor;
+    private String metaDir;
+    private List<Future<Long>> dependencies;
+    
+    public ProcessTask(ConfigProcessor processor, String metaDir, List<Future<Long>> dependencies) {
+      this.processor = processor;
+      this.metaDir = metaDir;
+      this.dependencies = dependencies;
+    }
+
+    @Override
+    public Long call() throws Exception {
+      for(Future<Long> dependency : dependencies) {
+        try {
+          dependency.get();
+        } catch(ExecutionException e) {
+          throw new Exception("Not running "+processor.getClass().getName()+", a config processor it depends on failed.", e.getCause());
+        }
+      }
+      long start = System.currentTimeMillis();
+      processor.processFromDirectory(metaDir);
+      return System.currentTimeMillis() - start;
+    }
+  }
+  
 }
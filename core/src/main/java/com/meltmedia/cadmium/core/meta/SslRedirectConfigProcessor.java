@@ -26,9 +26,13 @@ import javax.inject.Singleton;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 @Singleton
 public class SslRedirectConfigProcessor implements ConfigProcessor {
@@ -41,7 +45,8 @@ public class SslRedirectConfigProcessor implements ConfigProcessor {
 
   @Override
   public void processFromDirectory(String metaDir) throws Exception {
-    Configuration newStagedConfiguration = new Configuration();
+    List<String> sslPaths = new ArrayList<String>();
+    List<Pattern> sslPatterns = new ArrayList<Pattern>();
     if(metaDir != null) {
       String sslFile = FileSystemManager.getFileIfCanRead(metaDir, CONFIG_FILE_NAME);
       if(sslFile != null) {
@@ -64,16 +69,16 @@ public class SslRedirectConfigProcessor implements ConfigProcessor {
                 log.debug("Not a regex pattern", e);
               }
               if(urlPattern != null) {
-                newStagedConfiguration.sslPatterns.add(urlPattern);
+                sslPatterns.add(urlPattern);
               } else {
-                newStagedConfiguration.sslPaths.add(url);
+                sslPaths.add(url);
               }
             }
           }
         }
       }
     }
-    stagedConfiguration = newStagedConfiguration;
+    stagedConfiguration = new Configuration(sslPaths, sslPatterns);
   }
 
   @Override
@@ -82,27 +87,86 @@ public class SslRedirectConfigProcessor implements ConfigProcessor {
   }
   
   public boolean shouldBeSsl(String pathInfo) {
-    Configuration workingConfig = liveConfiguration;
-    if(!workingConfig.sslPaths.isEmpty()) {
-      for(String path : workingConfig.sslPaths) {
-        if(path.equals(pathInfo)) {
-          return true;
+    return liveConfiguration.rules.matches(pathInfo);
+  }
+
+  /**
+   * The ssl paths and patterns read from a secure.json file.  A configuration cannot be changed, so its rules are compiled once,
+   * when it is created.
+   */
+  protected static class Configuration {
+    final List<String> sslPaths;
+    final List<Pattern> sslPatterns;
+    final Rules rules;
+    
+    Configuration() {
+      this(Collections.<String>emptyList(), Collections.<Pattern>emptyList());
+    }
+    
+    Configuration(List<String> sslPaths, List<Pattern> sslPatterns) {
+      this.sslPaths = Collections.unmodifiableList(new ArrayList<String>(sslPaths));
+      this.sslPatterns = Collections.unmodifiableList(new ArrayList<Pattern>(sslPatterns));
+      this.rules = new Rules(this.sslPaths, this.sslPatterns);
+    }
+  }
+  
+  /**
+   * <p>The ssl paths and patterns of a configuration, compiled for matching.  Paths, and patterns that are only literal
+   * characters, are put in a hash set.  The other patterns are combined into a single alternation, so a path is only
+   * matched once.  Patterns with back references, quoting or comments cannot be safely wrapped in a group, so they are
+   * tested separately.  If the alternation does not compile, because two patterns use the same group name, all of its
+   * patterns are tested separately.</p>
+   */
+  static class Rules {
+    private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\(?:\\d|k<|Q)|\\(\\?[idmsuU-]*x");
+    
+    private final Set<String> literals = new HashSet<String>();
+    private final Pattern combined;
+    private final List<Pattern> separate = new ArrayList<Pattern>();
+    
+    Rules(List<String> sslPaths, List<Pattern> sslPatterns) {
+      literals.addAll(sslPaths);
+      List<Pattern> combinable = new ArrayList<Pattern>();
+      StringBuilder alternation = new StringBuilder();
+      for(Pattern pattern : sslPatterns) {
+        StringBuilder literal = new StringBuilder();
+        if(pattern.flags() == 0 && RedirectMatcher.literalPrefix(pattern.pattern(), literal)) {
+          literals.add(literal.toString());
+        } else if(pattern.flags() != 0 || NOT_COMBINABLE.matcher(pattern.pattern()).find()) {
+          separate.add(pattern);
+        } else {
+          if(alternation.length() > 0) {
+            alternation.append('|');
+          }
+          alternation.append("(?:").append(pattern.pattern()).append(')');
+          combinable.add(pattern);
         }
       }
+      Pattern combined = null;
+      if(alternation.length() > 0) {
+        try {
+          combined = Pattern.compile(alternation.toString());
+        } catch(PatternSyntaxException e) {
+          separate.addAll(combinable);
+        }
+      }
+      this.combined = combined;
     }
-    if(!workingConfig.sslPatterns.isEmpty()) {
-      for(Pattern regex : workingConfig.sslPatterns) {
+    
+    boolean matches(String pathInfo) {
+      if(literals.contains(pathInfo)) {
+        return true;
+      }
+      if(combined != null && combined.matcher(pathInfo).matches()) {
+        return true;
+      }
+      for(Pattern regex : separate) {
         if(regex.matcher(pathInfo).matches()) {
           return true;
         }
       }
+      return false;
     }
-    return false;
-  }
-
-  protected static class Configuration {
-    List<String> sslPaths = new ArrayList<String>();
-    List<Pattern> sslPatterns = new ArrayList<Pattern>();
   }
 
 }
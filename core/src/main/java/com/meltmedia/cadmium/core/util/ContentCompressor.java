@@ -0,0 +1,264 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.meltmedia.cadmium.core.FileSystemManager;
+
+/**
+ * <p>Utilities for writing precompressed copies of content files.</p>
+ * <p>For each compressible file a sibling file with the {@link #GZIP_EXTENSION} extension is written next to it.  The
+ * file servlet will serve these sidecar files directly to clients that accept gzip encoding.</p>
+ */
+public class ContentCompressor {
+  private static final Logger log = LoggerFactory.getLogger(ContentCompressor.class);
+  
+  public static final String GZIP_EXTENSION = ".gz";
+  public static final List<String> DEFAULT_GZIP_TYPES = Collections.unmodifiableList(Arrays.asList(new String [] {"text/*", "application/javascript", "application/x-javascript", "application/json", "application/xml", "application/xslt+xml"}));
+  
+  /**
+   * Files smaller than this are not worth compressing ahead of time.
+   */
+  public static final long MIN_COMPRESS_SIZE = 256l;
+  
+  /**
+   * Resolves the content type of a file name.
+   */
+  public static interface ContentTypeResolver {
+    public String getContentType(String filename);
+  }
+  
+  /**
+   * <p>Checks for inclusion of a content type in a list of types. Allows basic wild cards.</p>
+   * <p>An empty or null list matches all content types.</p>
+   * 
+   * @param types
+   * @param contentType
+   * @return
+   */
+  public static boolean matchesType(List<String> types, String contentType) {
+    if(types == null || types.isEmpty()) {
+      return true;
+    } else if(contentType == null) {
+      return false;
+    } else {
+      return types.contains(contentType) || types.contains(contentType.replaceAll("/[^/]+\\Z", "/*")) || types.contains(contentType.replaceAll("\\A[^/]+/", "*/"));
+    }
+  }
+  
+  /**
+   * @param file
+   * @return The gzip sidecar file for the given file.
+   */
+  public static File getGzipFile(File file) {
+    return new File(file.getPath() + GZIP_EXTENSION);
+  }
+  
+  /**
+   * @param file
+   * @return The gzip sidecar of the given file if it exists and is not older than the file.
+   */
+  public static File getFreshGzipFile(File file) {
+    File gzipFile = getGzipFile(file);
+    if(gzipFile.isFile() && gzipFile.lastModified() >= file.lastModified()) {
+      return gzipFile;
+    }
+    return null;
+  }
+  
+  /**
+   * Writes a gzip sidecar for the given file. The compressed bytes are written to a temporary file and then renamed into place,
+   * so a partially written sidecar is never visible and an existing sidecar is replaced rather than written through.
+   * 
+   * @param file
+   * @return The sidecar file, or null if compressing the file did not make it any smaller.
+   * @throws IOException
+   */
+  public static File writeGzipFile(File file) throws IOException {
+    File gzipFile = getGzipFile(file);
+    File tmpFile = new File(file.getParentFile(), "." + gzipFile.getName() + ".tmp");
+    InputStream in = null;
+    OutputStream out = null;
+    try {
+      in = new FileInputStream(file);
+      out = new GZIPOutputStream(new FileOutputStream(tmpFile));
+      IOUtils.copy(in, out);
+    } finally {
+      IOUtils.closeQuietly(in);
+      IOUtils.closeQuietly(out);
+    }
+    if(tmpFile.length() >= file.length()) {
+      tmpFile.delete();
+      return null;
+    }
+    if(gzipFile.exists() && !gzipFile.delete()) {
+      tmpFile.delete();
+      throw new IOException("Failed to replace "+gzipFile);
+    }
+    if(!tmpFile.renameTo(gzipFile)) {
+      tmpFile.delete();
+      throw new IOException("Failed to move "+tmpFile+" to "+gzipFile);
+    }
+    return gzipFile;
+  }
+  
+  /**
+   * Writes gzip sidecars for every file under the given directory that has a content type matching the given types.  The
+   * META-INF directory and hidden files are skipped.
+   * 
+   * @param directory The content directory to compress.
+   * @param resolver Resolves the content type of each file.
+   * @param types The content types to compress.
+   * @param threads The number of threads to compress with.
+   * @return The number of sidecar files written.
+   * @throws Exception If any file failed to compress.
+   */
+  public static int precompressDirectory(File directory, final ContentTypeResolver resolver, final List<String> types, int threads) throws Exception {
+    return precompressDirectory(directory, null, null, resolver, types, threads);
+  }
+  
+  /**
+   * Writes gzip sidecars for every file under the given directory that has a content type matching the given types.  Files
+   * that did not change since a previous content directory get a link to the sidecar in the previous directory instead of
+   * being compressed again.  A file counts as unchanged when its path is not one of the changed paths and it has the same
+   * length and last modified time as the file in the previous directory, so files that config processors replaced are
+   * compressed again.  The META-INF directory and hidden files are skipped.
+   * 
+   * @param directory The content directory to compress.
+   * @param previousDirectory The previous content directory, or null to compress every file.
+   * @param changedPaths The paths that changed since the previous content directory, starting with a '/' character.
+   * @param resolver Resolves the content type of each file.
+   * @param types The content types to compress.
+   * @param threads The number of threads to compress with.
+   * @return The number of sidecar files written.  Linked sidecars are not counted.
+   * @throws Exception If any file failed to compress.
+   */
+  public static int precompressDirectory(File directory, File previousDirectory, Set<String> changedPaths, final ContentTypeResolver resolver, final List<String> types, int threads) throws Exception {
+    List<File> files = new ArrayList<File>();
+    int linked = 0;
+    LinkedList<File> dirs = new LinkedList<File>();
+    LinkedList<String> dirPaths = new LinkedList<String>();
+    dirs.add(directory);
+    dirPaths.add("");
+    while(!dirs.isEmpty()) {
+      File dir = dirs.removeFirst();
+      String dirPath = dirPaths.removeFirst();
+      File children[] = dir.listFiles();
+      if(children == null) continue;
+      for(File child : children) {
+        if(child.getName().startsWith(".")) continue;
+        String childPath = dirPath + "/" + child.getName();
+        if(child.isDirectory()) {
+          if(!childPath.equals("/META-INF")) {
+            dirs.add(child);
+            dirPaths.add(childPath);
+          }
+        } else if(shouldPrecompress(child, resolver, types)) {
+          if(previousDirectory != null && linkPreviousGzipFile(child, new File(previousDirectory, childPath), changedPaths != null && changedPaths.contains(childPath))) {
+            linked++;
+          } else {
+            files.add(child);
+          }
+        }
+      }
+    }
+    
+    final AtomicLong written = new AtomicLong(0l);
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+    try {
+      List<Future<?>> results = new ArrayList<Future<?>>();
+      for(final File file : files) {
+        results.add(pool.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if(writeGzipFile(file) != null) {
+                written.incrementAndGet();
+              }
+            } catch(IOException e) {
+              throw new RuntimeException("Failed to compress "+file, e);
+            }
+          }
+        }));
+      }
+      for(Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    log.debug("Wrote {} of {} compressible files in {}, linked {} unchanged", new Object[] {written.get(), files.size(), directory, linked});
+    return (int) written.get();
+  }
+  
+  /**
+   * Links the sidecar of the previous copy of a file, if the file did not change.
+   * 
+   * @return true if the sidecar was linked.
+   */
+  private static boolean linkPreviousGzipFile(File file, File previousFile, boolean changed) {
+    if(changed || !previousFile.isFile() || previousFile.length() != file.length() || previousFile.lastModified() != file.lastModified()) {
+      return false;
+    }
+    File previousGzipFile = getFreshGzipFile(previousFile);
+    if(previousGzipFile == null) {
+      return false;
+    }
+    File gzipFile = getGzipFile(file);
+    try {
+      if(gzipFile.exists() && !gzipFile.delete()) {
+        return false;
+      }
+      FileSystemManager.linkOrCopy(previousGzipFile, gzipFile);
+      return true;
+    } catch(IOException e) {
+      log.debug("Failed to link "+gzipFile+" to "+previousGzipFile+", compressing it instead.", e);
+      gzipFile.delete();
+      return false;
+    }
+  }
+  
+  private static boolean shouldPrecompress(File file, ContentTypeResolver resolver, List<String> types) {
+    if(file.getName().endsWith(GZIP_EXTENSION) || file.length() < MIN_COMPRESS_SIZE) {
+      return false;
+    }
+    if(getFreshGzipFile(file) != null) {
+      return false;
+    }
+    return matchesType(types, resolver.getContentType(file.getName()));
+  }
+}
@@ -24,8 +24,6 @@ import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 
-import org.apache.commons.io.IOUtils;
-import org.eclipse.jgit.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,19 +63,19 @@ public class ConfigCoordinatedWorkerImpl implements CoordinatedWorker<ContentUpd
   protected HistoryManager historyManager;
     
   protected Future<Boolean> lastTask = null;
-  protected volatile String nextDirectory = null;  
+  protected volatile UpdatePipeline pipeline = null;
 
   protected CoordinatedWorkerListener<ContentUpdateRequest> listener;
   protected Properties configProperties; 
   
   public ConfigCoordinatedWorkerImpl() {
-    pool = Executors.newSingleThreadExecutor();
+    pool = Executors.newCachedThreadPool();
     listener = this;
   }
 
   @Override
   public void beginPullUpdates(final ContentUpdateRequest body) {
-    synchronized(pool) {
+    synchronized(this) {
       log.info("Beginning Config Update...");
       lastTask = null;
       configProperties = configManager.getDefaultProperties();
@@ -87,51 +85,23 @@ public class ConfigCoordinatedWorkerImpl implements CoordinatedWorker<ContentUpd
         service.getGitService();
         service.releaseGitService();
         
-        if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRepository())) {
-          lastTask = pool.submit(new SwitchRepositoryTask(service, body.getContentLocation().getRepository(), lastTask));
-        }
+        UpdatePipeline pipeline = new UpdatePipeline("config", pool, this.pipeline, historyManager, body.getUuid());
+        final GitUpdateStages stages = new GitUpdateStages(pipeline, "config", service, body, configProperties);
         
-        if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRevision())) {
-          configProperties.setProperty("updating.config.to.sha", body.getContentLocation().getRevision());
-        }
-        if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getBranch())) {
-          configProperties.setProperty("updating.config.to.branch", body.getContentLocation().getBranch());
-          lastTask = pool.submit(new SwitchBranchTask(service, body.getContentLocation().getBranch(), lastTask));
-        }
+        stages.addCheckoutStages(configProperties.getProperty("com.meltmedia.cadmium.config.lastUpdated"));
         
-        lastTask = pool.submit(new PullUpdateTask("config", service, configProperties, lastTask));
-        
-        if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRevision())) {
-          lastTask = pool.submit(new ResetToRevTask("config", service, body.getContentLocation().getRevision(), configProperties, lastTask));
-        }
-        
-        String contentDir = configProperties.getProperty("com.meltmedia.cadmium.config.lastUpdated");
-        
-        lastTask = pool.submit(new CreateNewRenderedDirectoryTask(service, contentDir, body, lastTask) {
-          @Override
-          public void setNextDirectory(String nextDirectory) {
-            ConfigCoordinatedWorkerImpl.this.nextDirectory = nextDirectory;
-          }
-        });
-        
-        lastTask = pool.submit(new ParseConfigDirectoryTask(listener, configManager, body, lastTask) {
+        stages.addStage("parse-configs", new ParseConfigDirectoryTask(listener, configManager, body, stages.getLastStage()) {
           @Override
           public String getNextDirectory() {
-            return ConfigCoordinatedWorkerImpl.this.nextDirectory;
+            return stages.getNextDirectory();
           }
         });
         
-        lastTask = pool.submit(new UpdateConfigTask("config", service, body, configManager, lastTask) {
-          @Override
-          public String getNextDirectory() {
-            return ConfigCoordinatedWorkerImpl.this.nextDirectory;
-          }
-        });
-        
-        lastTask = pool.submit(new NotifyListenerTask(listener, body, lastTask));
-        
-        lastTask = pool.submit(new CleanUpTask("com.meltmedia.cadmium.config.lastUpdated", listener, configProperties, body, lastTask));
+        stages.addFinishStages("config", "com.meltmedia.cadmium.config.lastUpdated", configManager, listener);
         
+        lastTask = stages.getLastStage();
+        this.pipeline = pipeline;
+        pipeline.start();
       } catch(Throwable t) {
         log.error("Failed to run config update.", t);
         throw new Error(t);
@@ -141,8 +111,10 @@ public class ConfigCoordinatedWorkerImpl implements CoordinatedWorker<ContentUpd
 
   @Override
   public void killUpdate() {
-    IOUtils.closeQuietly(this);
-    pool = Executors.newSingleThreadExecutor();
+    UpdatePipeline pipeline = this.pipeline;
+    if(pipeline != null) {
+      pipeline.cancel();
+    }
   }
 
   @Override
@@ -180,6 +152,7 @@ public class ConfigCoordinatedWorkerImpl implements CoordinatedWorker<ContentUpd
 
   @Override
   public void close() throws IOException {
+    killUpdate();
     try {
       if(!pool.isShutdown() || !pool.isTerminated()) {
         pool.shutdownNow();
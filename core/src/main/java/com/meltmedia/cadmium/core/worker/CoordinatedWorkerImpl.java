@@ -28,8 +28,9 @@ import com.meltmedia.cadmium.core.lifecycle.UpdateState;
 import com.meltmedia.cadmium.core.messaging.Message;
 import com.meltmedia.cadmium.core.messaging.MessageSender;
 import com.meltmedia.cadmium.core.messaging.ProtocolMessage;
+import com.meltmedia.cadmium.core.meta.MimeTypeConfigProcessor;
 import com.meltmedia.cadmium.core.meta.SiteConfigProcessor;
-import org.apache.commons.io.IOUtils;
+import com.meltmedia.cadmium.core.util.ContentCompressor;
 import org.eclipse.jgit.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +39,10 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -71,21 +75,24 @@ public class CoordinatedWorkerImpl implements CoordinatedWorker<ContentUpdateReq
   
   @Inject
   protected HistoryManager historyManager;
+  
+  @Inject
+  protected MimeTypeConfigProcessor mimeTypes;
     
   protected Future<Boolean> lastTask = null;
-  protected volatile String nextDirectory = null;  
+  protected volatile UpdatePipeline pipeline = null;
 
   protected CoordinatedWorkerListener<ContentUpdateRequest> listener;
   protected Properties configProperties;
   
   public CoordinatedWorkerImpl() {
-    pool = Executors.newSingleThreadExecutor();
+    pool = Executors.newCachedThreadPool();
     listener = this;
   }
 
   @Override
   public void beginPullUpdates(final ContentUpdateRequest body) {
-    synchronized(pool) {
+    synchronized(this) {
       log.info("Beginning Update...");
       lastTask = null;
       configProperties = configManager.getDefaultProperties();
@@ -95,54 +102,43 @@ public class CoordinatedWorkerImpl implements CoordinatedWorker<ContentUpdateReq
         service.getGitService();
         service.releaseGitService();
         
-        if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRepository())) {
-          lastTask = pool.submit(new SwitchRepositoryTask(service, body.getContentLocation().getRepository(), lastTask));
-        }
-        
-        if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRevision())) {
-          configProperties.setProperty("updating.content.to.sha", body.getContentLocation().getRevision());
-        }
-        if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getBranch())) {
-          configProperties.setProperty("updating.content.to.branch", body.getContentLocation().getBranch());
-          lastTask = pool.submit(new SwitchBranchTask(service, body.getContentLocation().getBranch(), lastTask));
-        }
-        
-        lastTask = pool.submit(new PullUpdateTask("content", service, configProperties, lastTask));
-        
-        if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRevision())) {
-          lastTask = pool.submit(new ResetToRevTask("content", service, body.getContentLocation().getRevision(), configProperties, lastTask));
-        }
+        UpdatePipeline pipeline = new UpdatePipeline("content", pool, this.pipeline, historyManager, body.getUuid());
+        final GitUpdateStages stages = new GitUpdateStages(pipeline, "content", service, body, configProperties);
         
         String contentDir = configProperties.getProperty("com.meltmedia.cadmium.lastUpdated");
         if(StringUtils.isEmptyOrNull(contentDir)) {
           contentDir = this.contentDir;
         }
+        stages.addCheckoutStages(contentDir);
         
-        lastTask = pool.submit(new CreateNewRenderedDirectoryTask(service, contentDir, body, lastTask) {
+        stages.addStage("meta-configs", new UpdateMetaConfigsTask(processor, historyManager, body, stages.getLastStage()) {
           @Override
-          public void setNextDirectory(String nextDirectory) {
-            CoordinatedWorkerImpl.this.nextDirectory = nextDirectory;
+          public String getNextDirectory() {
+            return stages.getNextDirectory();
           }
         });
         
-        lastTask = pool.submit(new UpdateMetaConfigsTask(processor, body, lastTask) {
+        // The digests skip gzip sidecars, so they are computed while the sidecars are written.
+        Map<String, Callable<Boolean>> processStages = new LinkedHashMap<String, Callable<Boolean>>();
+        processStages.put("content-digests", new WriteContentDigestsTask(contentDir, stages.getLastStage()) {
           @Override
           public String getNextDirectory() {
-            return CoordinatedWorkerImpl.this.nextDirectory;
+            return stages.getNextDirectory();
           }
         });
-        
-        lastTask = pool.submit(new UpdateConfigTask(null, service, body, configManager, lastTask) {
-
+        processStages.put("precompress", new PrecompressContentTask(mimeTypes, ContentCompressor.DEFAULT_GZIP_TYPES, contentDir, stages.getLastStage()) {
           @Override
           public String getNextDirectory() {
-            return CoordinatedWorkerImpl.this.nextDirectory;
+            return stages.getNextDirectory();
           }
         });
+        stages.addParallelStages(processStages);
         
-        lastTask = pool.submit(new NotifyListenerTask(listener, body, lastTask));
+        stages.addFinishStages(null, "com.meltmedia.cadmium.lastUpdated", configManager, listener);
         
-        lastTask = pool.submit(new CleanUpTask("com.meltmedia.cadmium.lastUpdated", listener, configProperties, body, lastTask));
+        lastTask = stages.getLastStage();
+        this.pipeline = pipeline;
+        pipeline.start();
       } catch(Throwable t) {
         log.error("Failed to run update.", t);
         throw new Error(t);
@@ -152,8 +148,10 @@ public class CoordinatedWorkerImpl implements CoordinatedWorker<ContentUpdateReq
 
   @Override
   public void killUpdate() {
-    IOUtils.closeQuietly(this);
-    pool = Executors.newSingleThreadExecutor();
+    UpdatePipeline pipeline = this.pipeline;
+    if(pipeline != null) {
+      pipeline.cancel();
+    }
   }
 
   @Override
@@ -191,6 +189,7 @@ public class CoordinatedWorkerImpl implements CoordinatedWorker<ContentUpdateReq
 
   @Override
   public void close() throws IOException {
+    killUpdate();
     try {
       if(!pool.isShutdown() || !pool.isTerminated()) {
         pool.shutdownNow();
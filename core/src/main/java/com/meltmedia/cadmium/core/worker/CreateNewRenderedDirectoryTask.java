@@ -15,6 +15,9 @@
  */
 package com.meltmedia.cadmium.core.worker;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
@@ -22,12 +25,13 @@ import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.meltmedia.cadmium.core.ContentChangeSet;
 import com.meltmedia.cadmium.core.FileSystemManager;
 import com.meltmedia.cadmium.core.commands.ContentUpdateRequest;
 import com.meltmedia.cadmium.core.git.DelayedGitServiceInitializer;
 import com.meltmedia.cadmium.core.git.GitService;
 
-public abstract class CreateNewRenderedDirectoryTask implements Callable<Boolean> {
+public abstract class CreateNewRenderedDirectoryTask implements Callable<Boolean>, UpdatePipeline.MeasuredTask {
   private final Logger log = LoggerFactory.getLogger(getClass());
   
   private DelayedGitServiceInitializer service;
@@ -35,6 +39,8 @@ public abstract class CreateNewRenderedDirectoryTask implements Callable<Boolean
   private Future<Boolean> previousTask;
 
   private ContentUpdateRequest body;
+  private long fileCount = -1;
+  private long byteCount = -1;
   
   public CreateNewRenderedDirectoryTask(DelayedGitServiceInitializer service, String lastDirectory, ContentUpdateRequest body, Future<Boolean> previousTask) {
     this.service = service;
@@ -57,15 +63,31 @@ public abstract class CreateNewRenderedDirectoryTask implements Callable<Boolean
       try{
         String nextDirectory = FileSystemManager.getNextDirInSequence(lastDirectory);
         if(nextDirectory != null) {
-          GitService git = GitService.cloneRepo(service.getRepositoryDirectory(), nextDirectory);
-          if(git != null) {
-            git.close();
-            FileSystemManager.deleteDeep(FileSystemManager.getChildDirectoryIfExists(nextDirectory, ".git"));
-            setNextDirectory(nextDirectory);
+          ContentChangeSet changes = getChanges(service, null);
+          String revision = null;
+          GitService.SnapshotExport export = changes != null ? exportSnapshot(service, changes, nextDirectory) : null;
+          if(export != null) {
+            revision = changes.getToRevision();
+            fileCount = export.getLinkedCount() + export.getWrittenCount();
+            byteCount = export.getByteCount();
           } else {
-            log.warn("Failed to clone repo to "+nextDirectory);
-            return false;
+            GitService git = GitService.cloneRepo(service.getRepositoryDirectory(), nextDirectory);
+            if(git != null) {
+              try {
+                revision = git.getCurrentRevision();
+              } finally {
+                git.close();
+              }
+              FileSystemManager.deleteDeep(FileSystemManager.getChildDirectoryIfExists(nextDirectory, ".git"));
+              changes = getChanges(service, revision);
+              measure(new File(nextDirectory));
+            } else {
+              log.warn("Failed to clone repo to "+nextDirectory);
+              return false;
+            }
           }
+          writeChangeSet(changes, revision, nextDirectory);
+          setNextDirectory(nextDirectory);
         } else {
           log.warn("Failed to get next directory");
           return false;
@@ -80,6 +102,105 @@ public abstract class CreateNewRenderedDirectoryTask implements Callable<Boolean
     return true;
   }
   
+  /**
+   * Builds the new directory from the last directory, linking the files that did not change instead of cloning the whole
+   * repository again.  A partially built directory is removed, so the caller can fall back to cloning.
+   * 
+   * @param service the git service of the repository to build the new directory from.
+   * @param changes the paths that changed since the revision of the last directory.
+   * @param nextDirectory the new directory.
+   * @return The files that were linked and written, or null if the new directory was not built.
+   */
+  private GitService.SnapshotExport exportSnapshot(GitService service, ContentChangeSet changes, String nextDirectory) {
+    long start = System.currentTimeMillis();
+    try {
+      GitService.SnapshotExport export = service.exportSnapshot(changes.getToRevision(), new File(lastDirectory), changes.getChangedPaths(), new File(nextDirectory));
+      log.info("Created {} from {} in {}ms", new Object[] {nextDirectory, lastDirectory, System.currentTimeMillis() - start});
+      return export;
+    } catch(Exception e) {
+      log.warn("Failed to create "+nextDirectory+" from "+lastDirectory+", cloning the repository instead.", e);
+      FileSystemManager.deleteDeep(nextDirectory);
+      return null;
+    }
+  }
+  
+  /**
+   * Finds the paths that changed between the revision of the last directory and a new revision.
+   * 
+   * @param service the git service of the repository that the directories come from.
+   * @param revision the revision of the new directory, or null for the current revision of the repository.
+   * @return The changes, or null if the revision of the last directory is not known or could not be compared.
+   */
+  private ContentChangeSet getChanges(GitService service, String revision) {
+    try {
+      if(revision == null) {
+        revision = service.getCurrentRevision();
+      }
+      ContentChangeSet lastChanges = lastDirectory != null ? ContentChangeSet.read(new File(lastDirectory)) : null;
+      if(lastChanges != null && lastChanges.getToRevision() != null && revision != null) {
+        return service.diff(lastChanges.getToRevision(), revision);
+      }
+    } catch(Exception e) {
+      log.warn("Failed to compare the content of "+lastDirectory+" with revision "+revision, e);
+    }
+    return null;
+  }
+  
+  /**
+   * Records the revision of the new directory, and the paths that changed since the revision of the last directory, in
+   * the new directory.  Failing to write the change set does not fail the update, config processors will just process
+   * the whole directory.
+   * 
+   * @param changes the paths that changed since the revision of the last directory, or null if they are not known.
+   * @param revision the revision of the new directory.
+   * @param nextDirectory the new directory.
+   */
+  private void writeChangeSet(ContentChangeSet changes, String revision, String nextDirectory) {
+    try {
+      if(changes == null) {
+        changes = new ContentChangeSet(null, revision, Collections.<String>emptyList(), Collections.<String>emptyList());
+      }
+      log.info("Content changed from revision {} to {}: {} changed, {} deleted", new Object[] {changes.getFromRevision(), changes.getToRevision(), changes.getChangedPaths().size(), changes.getDeletedPaths().size()});
+      changes.write(new File(nextDirectory));
+    } catch(Exception e) {
+      log.warn("Failed to write the content changes to "+nextDirectory, e);
+    }
+  }
+  
+  /**
+   * Counts the files in a cloned directory and their size.
+   */
+  private void measure(File directory) {
+    long files = 0;
+    long bytes = 0;
+    LinkedList<File> dirs = new LinkedList<File>();
+    dirs.add(directory);
+    while(!dirs.isEmpty()) {
+      File children[] = dirs.removeFirst().listFiles();
+      if(children == null) continue;
+      for(File child : children) {
+        if(child.isDirectory()) {
+          dirs.add(child);
+        } else {
+          files++;
+          bytes += child.length();
+        }
+      }
+    }
+    fileCount = files;
+    byteCount = bytes;
+  }
+  
+  @Override
+  public long getFileCount() {
+    return fileCount;
+  }
+  
+  @Override
+  public long getByteCount() {
+    return byteCount;
+  }
+  
   public abstract void setNextDirectory( String nextDirectory );
 
 }
@@ -0,0 +1,235 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.worker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jgit.util.StringUtils;
+
+import com.meltmedia.cadmium.core.CoordinatedWorkerListener;
+import com.meltmedia.cadmium.core.commands.ContentUpdateRequest;
+import com.meltmedia.cadmium.core.config.ConfigManager;
+import com.meltmedia.cadmium.core.git.DelayedGitServiceInitializer;
+
+/**
+ * <p>Adds the stages that content and config updates share to an {@link UpdatePipeline}: checking out the requested
+ * repository, branch and revision into a new rendered directory, and then updating the config, notifying the listener and
+ * cleaning up.  Workers add the stages that process the new directory in between.</p>
+ * <p>Every stage depends on the stages added before it, since the tasks read the result of the previous task through
+ * {@link #getLastStage()}.  The stages of one update run one after another, except for stages added together with
+ * {@link #addParallelStages(Map)}.</p>
+ */
+public class GitUpdateStages {
+  private final UpdatePipeline pipeline;
+  private final String type;
+  private final DelayedGitServiceInitializer service;
+  private final ContentUpdateRequest body;
+  private final Properties configProperties;
+  private List<UpdatePipeline.Stage> lastStages = Collections.emptyList();
+  private volatile String nextDirectory = null;
+  
+  /**
+   * @param pipeline The pipeline to add the stages to.
+   * @param type The type of the update, "content" or "config".
+   * @param service The git service of the update.
+   * @param body The update request.
+   * @param configProperties The properties the update state is written to.
+   */
+  public GitUpdateStages(UpdatePipeline pipeline, String type, DelayedGitServiceInitializer service, ContentUpdateRequest body, Properties configProperties) {
+    this.pipeline = pipeline;
+    this.type = type;
+    this.service = service;
+    this.body = body;
+    this.configProperties = configProperties;
+  }
+  
+  /**
+   * Adds the stages that switch to the requested repository and branch, pull, reset to the requested revision and copy
+   * the checkout into a new rendered directory.
+   * 
+   * @param lastDirectory The currently rendered directory.
+   */
+  public void addCheckoutStages(String lastDirectory) {
+    if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRepository())) {
+      addStage("switch-repository", new SwitchRepositoryTask(service, body.getContentLocation().getRepository(), getLastStage()));
+    }
+    
+    if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRevision())) {
+      configProperties.setProperty("updating."+type+".to.sha", body.getContentLocation().getRevision());
+    }
+    if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getBranch())) {
+      configProperties.setProperty("updating."+type+".to.branch", body.getContentLocation().getBranch());
+      addStage("switch-branch", new SwitchBranchTask(service, body.getContentLocation().getBranch(), getLastStage()));
+    }
+    
+    addStage("pull", new PullUpdateTask(type, service, configProperties, getLastStage()));
+    
+    if(body.getContentLocation() != null && !StringUtils.isEmptyOrNull(body.getContentLocation().getRevision())) {
+      addStage("reset", new ResetToRevTask(type, service, body.getContentLocation().getRevision(), configProperties, getLastStage()));
+    }
+    
+    addStage("create-directory", new CreateNewRenderedDirectoryTask(service, lastDirectory, body, getLastStage()) {
+      @Override
+      public void setNextDirectory(String nextDirectory) {
+        GitUpdateStages.this.nextDirectory = nextDirectory;
+      }
+    });
+  }
+  
+  /**
+   * Adds the stages that point the config at the new rendered directory, notify the listener and clean up.
+   * 
+   * @param configPrefix The prefix of the config update, passed to {@link UpdateConfigTask}.
+   * @param lastUpdatedKey The property that holds the rendered directory.
+   * @param configManager The config manager to update.
+   * @param listener The listener to notify.
+   */
+  public void addFinishStages(String configPrefix, String lastUpdatedKey, ConfigManager configManager, CoordinatedWorkerListener<ContentUpdateRequest> listener) {
+    addStage("update-config", new UpdateConfigTask(configPrefix, service, body, configManager, getLastStage()) {
+      @Override
+      public String getNextDirectory() {
+        return nextDirectory;
+      }
+    });
+    
+    addStage("notify", new NotifyListenerTask(listener, body, getLastStage()));
+    
+    addStage("clean-up", new CleanUpTask(lastUpdatedKey, listener, configProperties, body, getLastStage()));
+  }
+  
+  /**
+   * Adds a stage that runs after the last stages added.
+   * 
+   * @param stageName The name of the stage.
+   * @param task The task that runs the stage.
+   * @return The stage.
+   */
+  public UpdatePipeline.Stage addStage(String stageName, Callable<Boolean> task) {
+    UpdatePipeline.Stage stage = pipeline.addStage(stageName, task, lastStages.toArray(new UpdatePipeline.Stage[lastStages.size()]));
+    lastStages = Collections.singletonList(stage);
+    return stage;
+  }
+  
+  /**
+   * Adds stages that run at the same time after the last stages added.  The tasks are created before they are added, so
+   * they all wait on the same {@link #getLastStage()}.  The next stage runs once all of them are done.
+   * 
+   * @param tasks The tasks that run the stages, keyed by stage name.
+   */
+  public void addParallelStages(Map<String, Callable<Boolean>> tasks) {
+    UpdatePipeline.Stage dependencies[] = lastStages.toArray(new UpdatePipeline.Stage[lastStages.size()]);
+    List<UpdatePipeline.Stage> added = new ArrayList<UpdatePipeline.Stage>();
+    for(Map.Entry<String, Callable<Boolean>> task : tasks.entrySet()) {
+      added.add(pipeline.addStage(task.getKey(), task.getValue(), dependencies));
+    }
+    lastStages = Collections.unmodifiableList(added);
+  }
+  
+  /**
+   * @return The result of the last stages added, which the task of the next stage waits on, or null.  After parallel
+   * stages, the result is false if any of them returned false.
+   */
+  public Future<Boolean> getLastStage() {
+    if(lastStages.isEmpty()) {
+      return null;
+    }
+    if(lastStages.size() == 1) {
+      return lastStages.get(0);
+    }
+    return new StagesResult(lastStages);
+  }
+  
+  /**
+   * @return The rendered directory created by this update, once the create-directory stage is done.
+   */
+  public String getNextDirectory() {
+    return nextDirectory;
+  }
+  
+  /**
+   * The combined result of stages that ran at the same time.
+   */
+  private static class StagesResult implements Future<Boolean> {
+    private final List<UpdatePipeline.Stage> stages;
+    
+    private StagesResult(List<UpdatePipeline.Stage> stages) {
+      this.stages = stages;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = false;
+      for(UpdatePipeline.Stage stage : stages) {
+        cancelled = stage.cancel(mayInterruptIfRunning) || cancelled;
+      }
+      return cancelled;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      for(UpdatePipeline.Stage stage : stages) {
+        if(stage.isCancelled()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      for(UpdatePipeline.Stage stage : stages) {
+        if(!stage.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException, ExecutionException {
+      boolean result = true;
+      for(UpdatePipeline.Stage stage : stages) {
+        Boolean stageResult = stage.get();
+        if(stageResult != null && !stageResult.booleanValue()) {
+          result = false;
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      boolean result = true;
+      for(UpdatePipeline.Stage stage : stages) {
+        Boolean stageResult = stage.get(Math.max(0l, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if(stageResult != null && !stageResult.booleanValue()) {
+          result = false;
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.worker;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.meltmedia.cadmium.core.ContentChangeSet;
+import com.meltmedia.cadmium.core.meta.MimeTypeConfigProcessor;
+import com.meltmedia.cadmium.core.util.ContentCompressor;
+
+/**
+ * Writes gzip sidecar files for all of the compressible files in a newly created content directory.  This must run after
+ * the meta configs have been processed, since some config processors rewrite content files.  When the new directory has an
+ * incremental {@link ContentChangeSet}, files that did not change get a link to the sidecar in the last directory instead.
+ */
+public abstract class PrecompressContentTask implements Callable<Boolean>, UpdatePipeline.MeasuredTask {
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  
+  private MimeTypeConfigProcessor mimeTypes;
+  private List<String> gzipTypes;
+  private String lastDirectory;
+  private Future<Boolean> previousTask;
+  private long fileCount = -1;
+  
+  public PrecompressContentTask(MimeTypeConfigProcessor mimeTypes, List<String> gzipTypes, String lastDirectory, Future<Boolean> previousTask) {
+    this.mimeTypes = mimeTypes;
+    this.gzipTypes = gzipTypes;
+    this.lastDirectory = lastDirectory;
+    this.previousTask = previousTask;
+  }
+
+  @Override
+  public Boolean call() throws Exception {
+    if(previousTask != null) {
+      Boolean lastResponse = previousTask.get();
+      if(lastResponse != null && !lastResponse.booleanValue() ) {
+        throw new Exception("Previous task failed");
+      }
+    }
+    String nextDirectory = getNextDirectory();
+    if(nextDirectory == null) {
+      return false;
+    }
+    if(mimeTypes == null) {
+      log.warn("The MimeTypeConfigProcessor is not set in this context! Skipping precompression.");
+      return true;
+    }
+    long start = System.currentTimeMillis();
+    File previousDirectory = null;
+    Set<String> changedPaths = null;
+    ContentChangeSet changes = ContentChangeSet.read(new File(nextDirectory));
+    if(lastDirectory != null && changes != null && changes.isIncremental()) {
+      previousDirectory = new File(lastDirectory);
+      changedPaths = changes.getChangedPaths();
+    }
+    int written = ContentCompressor.precompressDirectory(new File(nextDirectory), previousDirectory, changedPaths, new ContentCompressor.ContentTypeResolver() {
+      @Override
+      public String getContentType(String filename) {
+        return mimeTypes.getStagedContentType(filename);
+      }
+    }, gzipTypes, Runtime.getRuntime().availableProcessors());
+    fileCount = written;
+    log.info("Precompressed {} files in [{}] in {}ms", new Object[] {written, nextDirectory, System.currentTimeMillis() - start});
+    return true;
+  }
+  
+  @Override
+  public long getFileCount() {
+    return fileCount;
+  }
+  
+  @Override
+  public long getByteCount() {
+    return -1;
+  }
+  
+  public abstract String getNextDirectory();
+
+}
@@ -23,17 +23,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.meltmedia.cadmium.core.commands.ContentUpdateRequest;
+import com.meltmedia.cadmium.core.history.HistoryManager;
 import com.meltmedia.cadmium.core.meta.SiteConfigProcessor;
 
 public abstract class UpdateMetaConfigsTask implements Callable<Boolean> {
   private final Logger log = LoggerFactory.getLogger(getClass());
   
   private SiteConfigProcessor processor;
+  private HistoryManager historyManager;
   private Future<Boolean> previousTask;
   private ContentUpdateRequest body;
   
   public UpdateMetaConfigsTask(SiteConfigProcessor processor, ContentUpdateRequest body, Future<Boolean> previousTask) {
+    this(processor, null, body, previousTask);
+  }
+  
+  public UpdateMetaConfigsTask(SiteConfigProcessor processor, HistoryManager historyManager, ContentUpdateRequest body, Future<Boolean> previousTask) {
     this.processor = processor;
+    this.historyManager = historyManager;
     this.previousTask = previousTask;
     this.body = body;
   }
@@ -52,6 +59,9 @@ public abstract class UpdateMetaConfigsTask implements Callable<Boolean> {
       if(processor != null) {
         log.info("Processing!!!");
         processor.processDir(nextDirectory);
+        if(historyManager != null && body != null) {
+          historyManager.recordTimings(body.getUuid(), processor.getProcessingTimes());
+        }
       } else {
         log.warn("The SiteConfigProcessor is not set in this context!");
       }
@@ -0,0 +1,356 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.worker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.meltmedia.cadmium.core.history.HistoryManager;
+
+/**
+ * <p>Runs the stages of an update.  Each stage declares the stages whose results it needs, and is started once all of them
+ * are done, so stages that do not depend on each other run at the same time.  A stage is started even if a stage it depends
+ * on failed, since stages like {@link UpdateConfigTask} and {@link NotifyListenerTask} handle the failures before them.
+ * Stages read the results of their dependencies through the previous task futures they are created with.</p>
+ * <p>Pipelines of the same worker run one after another: a pipeline created after another one starts its stages once the
+ * other one is done.  Cancelling a pipeline interrupts its running stages, does not start the rest, and cancels the
+ * pipelines it was waiting on.  Since stages only stop at their next interruption check, a cancelled pipeline is done once
+ * every stage that started has returned, so the next pipeline never runs alongside them.</p>
+ * <p>The wall time of every stage is logged and recorded in the history entry of the update.  Stages that implement
+ * {@link MeasuredTask} also log and record the files and bytes they handled, under the stage name with a ".files" and
+ * ".bytes" suffix.</p>
+ */
+public class UpdatePipeline {
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  
+  private final String name;
+  private final ExecutorService pool;
+  private UpdatePipeline previous;
+  private final HistoryManager historyManager;
+  private final String uuid;
+  
+  private final List<Stage> stages = new ArrayList<Stage>();
+  private final List<Runnable> doneListeners = new ArrayList<Runnable>();
+  private boolean started = false;
+  private boolean cancelled = false;
+  private boolean done = false;
+  private int activeStages = 0;
+  private long startTime;
+
+  /**
+   * @param name The name of the pipeline, used as a prefix of the stage names in the logs and the history.
+   * @param pool The pool to run the stages on.
+   * @param previous The pipeline that has to be done before this pipeline starts, or null.
+   * @param historyManager The history manager to record the stage times with, or null.
+   * @param uuid The uuid of the update.
+   */
+  public UpdatePipeline(String name, ExecutorService pool, UpdatePipeline previous, HistoryManager historyManager, String uuid) {
+    this.name = name;
+    this.pool = pool;
+    this.previous = previous;
+    this.historyManager = historyManager;
+    this.uuid = uuid;
+    if(previous != null) {
+      previous.whenDone(new Runnable() {
+        public void run() {
+          synchronized(UpdatePipeline.this) {
+            UpdatePipeline.this.previous = null;
+          }
+          scheduleStages();
+        }
+      });
+    }
+  }
+  
+  /**
+   * Adds a stage to this pipeline.  Stages can only be added before the pipeline is started.
+   * 
+   * @param stageName The name of the stage.
+   * @param task The task that runs the stage.
+   * @param dependencies The stages that have to be done before this stage starts.  Null entries are ignored.
+   * @return The stage, which is also the future of its result.
+   */
+  public synchronized Stage addStage(String stageName, Callable<Boolean> task, Stage... dependencies) {
+    if(started) {
+      throw new IllegalStateException("Stages cannot be added to the running pipeline "+name);
+    }
+    List<Stage> stageDependencies = new ArrayList<Stage>();
+    for(Stage dependency : dependencies) {
+      if(dependency != null) {
+        stageDependencies.add(dependency);
+      }
+    }
+    Stage stage = new Stage(stageName, task, stageDependencies);
+    stages.add(stage);
+    return stage;
+  }
+  
+  /**
+   * Starts the stages that do not depend on other stages, once the previous pipeline is done.
+   */
+  public void start() {
+    synchronized(this) {
+      if(started) {
+        return;
+      }
+      started = true;
+    }
+    scheduleStages();
+  }
+  
+  /**
+   * Cancels this pipeline and the pipelines that it is waiting on.  Running stages are interrupted, and the pipeline is
+   * done once they have returned.
+   */
+  public void cancel() {
+    List<Stage> toCancel;
+    synchronized(this) {
+      if(cancelled || done) {
+        return;
+      }
+      cancelled = true;
+      log.info("Cancelling the {} update.", name);
+      toCancel = new ArrayList<Stage>(stages);
+    }
+    for(Stage stage : toCancel) {
+      stage.cancel(true);
+    }
+    UpdatePipeline waitFor = getPrevious();
+    if(waitFor != null) {
+      waitFor.cancel();
+    }
+    scheduleStages();
+  }
+  
+  public synchronized boolean isDone() {
+    return done;
+  }
+  
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+  
+  /**
+   * @return The stages of this pipeline, in the order they were added.
+   */
+  public synchronized List<Stage> getStages() {
+    return new ArrayList<Stage>(stages);
+  }
+  
+  private synchronized UpdatePipeline getPrevious() {
+    return previous;
+  }
+  
+  private void whenDone(Runnable listener) {
+    synchronized(this) {
+      if(!done) {
+        doneListeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+  
+  /**
+   * Starts every stage whose dependencies are all done, and finishes the pipeline when every stage is done, or when it
+   * was cancelled and every stage that started has returned.  Nothing happens until the previous pipeline is done.
+   */
+  private void scheduleStages() {
+    List<Stage> ready = new ArrayList<Stage>();
+    boolean finished = true;
+    synchronized(this) {
+      if(previous != null || !(started || cancelled)) {
+        return;
+      }
+      if(!cancelled) {
+        if(startTime == 0) {
+          startTime = System.currentTimeMillis();
+        }
+        for(Stage stage : stages) {
+          if(!stage.isDone()) {
+            finished = false;
+          }
+          if(!stage.scheduled && stage.dependenciesDone()) {
+            stage.scheduled = true;
+            activeStages++;
+            ready.add(stage);
+          }
+        }
+      }
+      finished = finished && activeStages == 0;
+    }
+    boolean rejected = false;
+    for(Stage stage : ready) {
+      try {
+        pool.execute(stage);
+      } catch(RejectedExecutionException e) {
+        log.warn("The {} update was shut down before the stage {} started.", name, stage.getName());
+        stage.cancel(false);
+        stageReturned();
+        rejected = true;
+      }
+    }
+    if(rejected) {
+      scheduleStages();
+    } else if(finished) {
+      finish();
+    }
+  }
+  
+  private synchronized void stageReturned() {
+    activeStages--;
+  }
+  
+  private void finish() {
+    List<Runnable> listeners;
+    synchronized(this) {
+      if(done) {
+        return;
+      }
+      done = true;
+      listeners = new ArrayList<Runnable>(doneListeners);
+      doneListeners.clear();
+    }
+    Map<String, Long> times = new LinkedHashMap<String, Long>();
+    for(Stage stage : getStages()) {
+      if(stage.getWallTime() >= 0) {
+        String key = name + "." + stage.getName();
+        times.put(key, stage.getWallTime());
+        if(stage.task instanceof MeasuredTask) {
+          MeasuredTask measured = (MeasuredTask) stage.task;
+          if(measured.getFileCount() >= 0) {
+            times.put(key + ".files", measured.getFileCount());
+          }
+          if(measured.getByteCount() >= 0) {
+            times.put(key + ".bytes", measured.getByteCount());
+          }
+        }
+      }
+    }
+    log.info("The {} update finished{} in {}ms: {}", new Object[] {name, cancelled ? " (cancelled)" : "", startTime > 0 ? System.currentTimeMillis() - startTime : 0, times});
+    if(historyManager != null && !times.isEmpty()) {
+      try {
+        historyManager.recordTimings(uuid, times);
+      } catch(Exception e) {
+        log.warn("Failed to record the stage times of the "+name+" update.", e);
+      }
+    }
+    for(Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+  
+  /**
+   * Implemented by stage tasks that can report how much content they handled.
+   */
+  public static interface MeasuredTask {
+    /**
+     * @return The number of files the task handled, or -1 if it is not known.
+     */
+    public long getFileCount();
+    
+    /**
+     * @return The number of bytes the task handled, or -1 if it is not known.
+     */
+    public long getByteCount();
+  }
+  
+  /**
+   * A stage of a pipeline, and the future of its result.
+   */
+  public class Stage extends FutureTask<Boolean> {
+    private final String stageName;
+    private final Callable<Boolean> task;
+    private final List<Stage> dependencies;
+    private boolean scheduled = false;
+    private volatile long wallTime = -1;
+    
+    private Stage(String stageName, Callable<Boolean> task, List<Stage> dependencies) {
+      super(task);
+      this.stageName = stageName;
+      this.task = task;
+      this.dependencies = dependencies;
+    }
+    
+    public String getName() {
+      return stageName;
+    }
+    
+    public List<Stage> getDependencies() {
+      return Collections.unmodifiableList(dependencies);
+    }
+    
+    /**
+     * @return How long the stage ran, in milliseconds, or -1 if it did not run.
+     */
+    public long getWallTime() {
+      return wallTime;
+    }
+    
+    private boolean dependenciesDone() {
+      for(Stage dependency : dependencies) {
+        if(!dependency.isDone()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void run() {
+      if(!isDone()) {
+        long start = System.currentTimeMillis();
+        try {
+          super.run();
+        } finally {
+          wallTime = System.currentTimeMillis() - start;
+        }
+        if(task instanceof MeasuredTask) {
+          MeasuredTask measured = (MeasuredTask) task;
+          log.info("Stage {}.{} took {}ms for {} files and {} bytes", new Object[] {name, stageName, wallTime, measured.getFileCount(), measured.getByteCount()});
+        } else {
+          log.info("Stage {}.{} took {}ms", new Object[] {name, stageName, wallTime});
+        }
+      }
+      stageReturned();
+      scheduleStages();
+    }
+    
+    @Override
+    public String toString() {
+      return name + "." + stageName + (dependencies.isEmpty() ? "" : " after " + Arrays.toString(dependencyNames()));
+    }
+    
+    private String[] dependencyNames() {
+      String names[] = new String[dependencies.size()];
+      for(int i = 0; i < names.length; i++) {
+        names[i] = dependencies.get(i).getName();
+      }
+      return names;
+    }
+  }
+}
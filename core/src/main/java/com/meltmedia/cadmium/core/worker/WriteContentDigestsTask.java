@@ -0,0 +1,86 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.worker;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.meltmedia.cadmium.core.ContentChangeSet;
+import com.meltmedia.cadmium.core.ContentDigests;
+
+/**
+ * Computes and writes the {@link ContentDigests} manifest of a newly created content directory.  This must run after the meta
+ * configs have been processed, since some config processors rewrite content files.  When the new directory has an incremental
+ * {@link ContentChangeSet}, the digests of files that did not change are taken from the last directory's manifest.
+ */
+public abstract class WriteContentDigestsTask implements Callable<Boolean>, UpdatePipeline.MeasuredTask {
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  
+  private String lastDirectory;
+  private Future<Boolean> previousTask;
+  private long fileCount = -1;
+  
+  public WriteContentDigestsTask(String lastDirectory, Future<Boolean> previousTask) {
+    this.lastDirectory = lastDirectory;
+    this.previousTask = previousTask;
+  }
+
+  @Override
+  public Boolean call() throws Exception {
+    if(previousTask != null) {
+      Boolean lastResponse = previousTask.get();
+      if(lastResponse != null && !lastResponse.booleanValue() ) {
+        throw new Exception("Previous task failed");
+      }
+    }
+    String nextDirectory = getNextDirectory();
+    if(nextDirectory == null) {
+      return false;
+    }
+    long start = System.currentTimeMillis();
+    ContentDigests previous = lastDirectory != null ? ContentDigests.read(new File(lastDirectory)) : null;
+    File previousDirectory = null;
+    Set<String> changedPaths = null;
+    ContentChangeSet changes = ContentChangeSet.read(new File(nextDirectory));
+    if(previous != null && changes != null && changes.isIncremental()) {
+      previousDirectory = new File(lastDirectory);
+      changedPaths = changes.getChangedPaths();
+    }
+    ContentDigests digests = ContentDigests.compute(new File(nextDirectory), previous, previousDirectory, changedPaths, start, Runtime.getRuntime().availableProcessors());
+    digests.write(new File(nextDirectory));
+    fileCount = digests.size();
+    log.info("Wrote digests of {} files in [{}] in {}ms", new Object[] {digests.size(), nextDirectory, System.currentTimeMillis() - start});
+    return true;
+  }
+  
+  @Override
+  public long getFileCount() {
+    return fileCount;
+  }
+  
+  @Override
+  public long getByteCount() {
+    return -1;
+  }
+  
+  public abstract String getNextDirectory();
+
+}
@@ -0,0 +1,74 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentChangeSetTest {
+  private File contentDir;
+  
+  @Before
+  public void createContent() throws Exception {
+    contentDir = new File("./target/change-set-test");
+    if(contentDir.exists()) {
+      FileUtils.deleteDirectory(contentDir);
+    }
+    FileUtils.forceMkdir(contentDir);
+  }
+  
+  @Test
+  public void testMissingChangeSet() throws Exception {
+    assertNull("No change set should be read", ContentChangeSet.read(contentDir));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    new ContentChangeSet("abc", "def", Arrays.asList("/section/index.html", "/new page.html"), Arrays.asList("/old.html")).write(contentDir);
+    
+    ContentChangeSet changes = ContentChangeSet.read(contentDir);
+    assertNotNull("Change set not read", changes);
+    assertTrue("Should be incremental", changes.isIncremental());
+    assertEquals("abc", changes.getFromRevision());
+    assertEquals("def", changes.getToRevision());
+    assertEquals(2, changes.getChangedPaths().size());
+    assertTrue(changes.getChangedPaths().contains("/new page.html"));
+    assertTrue(changes.getChangedPaths().contains("/section/index.html"));
+    assertEquals(Collections.singleton("/old.html"), changes.getDeletedPaths());
+  }
+  
+  @Test
+  public void testUnknownFromRevision() throws Exception {
+    new ContentChangeSet(null, "def", Collections.<String>emptySet(), Collections.<String>emptySet()).write(contentDir);
+    new ContentChangeSet(null, "ghi", Collections.<String>emptySet(), Collections.<String>emptySet()).write(contentDir);
+    
+    ContentChangeSet changes = ContentChangeSet.read(contentDir);
+    assertFalse("Should not be incremental", changes.isIncremental());
+    assertNull(changes.getFromRevision());
+    assertEquals("ghi", changes.getToRevision());
+  }
+}
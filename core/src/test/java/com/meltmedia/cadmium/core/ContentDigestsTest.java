@@ -0,0 +1,129 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentDigestsTest {
+  private File previousDir;
+  private File nextDir;
+  
+  @Before
+  public void createContent() throws Exception {
+    File baseDir = new File("./target/digests-test");
+    if(baseDir.exists()) {
+      FileUtils.deleteDirectory(baseDir);
+    }
+    previousDir = new File(baseDir, "renderedContent");
+    nextDir = new File(baseDir, "renderedContent_1");
+    for(File dir : new File[] {previousDir, nextDir}) {
+      FileUtils.writeStringToFile(new File(dir, "index.html"), "<html>index</html>");
+      FileUtils.writeStringToFile(new File(dir, "section/index.html"), "<html>section</html>");
+      FileUtils.writeStringToFile(new File(dir, "META-INF/redirect.json"), "[]");
+    }
+    FileUtils.writeStringToFile(new File(nextDir, "section/index.html"), "<html>changed</html>");
+    FileUtils.writeStringToFile(new File(nextDir, "new.html"), "<html>new</html>");
+  }
+
+  @Test
+  public void testDigestsCarriedForward() throws Exception {
+    ContentDigests previous = ContentDigests.compute(previousDir, null, 1000000l, 2);
+    previous.write(previousDir);
+    previous = ContentDigests.read(previousDir);
+    assertNotNull("Manifest not written", previous);
+    assertEquals(2, previous.size());
+    assertNull("META-INF should not be in the manifest", previous.get("/META-INF/redirect.json"));
+    assertEquals(1000000l, previous.get("/index.html").getLastModified());
+    
+    ContentDigests next = ContentDigests.compute(nextDir, previous, 2000500l, 2);
+    assertEquals(3, next.size());
+    assertEquals("Unchanged file should keep its last modified", 1000000l, next.get("/index.html").getLastModified());
+    assertEquals(previous.get("/index.html").getDigest(), next.get("/index.html").getDigest());
+    assertEquals("Changed file should be modified, to the second", 2000000l, next.get("/section/index.html").getLastModified());
+    assertFalse(previous.get("/section/index.html").getDigest().equals(next.get("/section/index.html").getDigest()));
+    assertEquals(2000000l, next.get("/new.html").getLastModified());
+  }
+  
+  @Test
+  public void testDigestsReusedForUnchangedFiles() throws Exception {
+    File previousAbout = new File(previousDir, "about.html");
+    FileUtils.writeStringToFile(previousAbout, "<html>about</html>");
+    File about = new File(nextDir, "about.html");
+    FileUtils.writeStringToFile(about, "<html>ABOUT</html>");
+    about.setLastModified(previousAbout.lastModified() + 2000l);
+    File index = new File(nextDir, "index.html");
+    index.delete();
+    FileSystemManager.linkOrCopy(new File(previousDir, "index.html"), index);
+    
+    // A digest that does not match the file shows that the entry was reused rather than computed again.
+    ContentDigests computed = ContentDigests.compute(previousDir, null, 1000000l, 2);
+    FileUtils.writeStringToFile(ContentDigests.getManifestFile(previousDir), 
+        "0000000000000000000000000000000000000000 1000000 /index.html\n" +
+        computed.get("/about.html").getDigest() + " 1000000 /about.html\n" +
+        computed.get("/section/index.html").getDigest() + " 1000000 /section/index.html\n");
+    ContentDigests previous = ContentDigests.read(previousDir);
+    
+    ContentDigests next = ContentDigests.compute(nextDir, previous, previousDir, new HashSet<String>(Arrays.asList("/section/index.html", "/new.html")), 2000000l, 2);
+    assertEquals(4, next.size());
+    assertEquals("Unchanged entry not reused", "0000000000000000000000000000000000000000", next.get("/index.html").getDigest());
+    assertEquals("Replaced file not read again", ContentDigests.digest(about), next.get("/about.html").getDigest());
+    assertEquals(2000000l, next.get("/about.html").getLastModified());
+    assertEquals(ContentDigests.digest(new File(nextDir, "section/index.html")), next.get("/section/index.html").getDigest());
+    assertEquals(ContentDigests.digest(new File(nextDir, "new.html")), next.get("/new.html").getDigest());
+    
+    next = ContentDigests.compute(nextDir, previous, null, Collections.<String>emptySet(), 2000000l, 2);
+    assertEquals("Entries reused without a previous directory", ContentDigests.digest(index), next.get("/index.html").getDigest());
+  }
+  
+  @Test
+  public void testGzipSidecarsSkipped() throws Exception {
+    FileUtils.writeStringToFile(new File(nextDir, "index.html.gz"), "sidecar");
+    FileUtils.writeStringToFile(new File(nextDir, "archive.gz"), "archive");
+    
+    ContentDigests next = ContentDigests.compute(nextDir, null, 1000000l, 2);
+    assertNull("Sidecar should not be in the manifest", next.get("/index.html.gz"));
+    assertNotNull("Gzip files without an original should be in the manifest", next.get("/archive.gz"));
+    assertEquals(4, next.size());
+  }
+  
+  @Test
+  public void testMissingManifest() throws Exception {
+    assertNull(ContentDigests.read(nextDir));
+  }
+  
+  @Test
+  public void testDigest() throws Exception {
+    assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", ContentDigests.digest(writeFile("abc")));
+  }
+  
+  private File writeFile(String content) throws Exception {
+    File file = new File(previousDir, "digest.txt");
+    FileUtils.writeStringToFile(file, content);
+    return file;
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentIndexTest {
+  private File contentDir;
+  
+  @Before
+  public void createContent() throws Exception {
+    contentDir = new File("./target/content-index-test");
+    if(contentDir.exists()) {
+      FileUtils.deleteDirectory(contentDir);
+    }
+    FileUtils.writeStringToFile(new File(contentDir, "index.html"), "<html>index</html>");
+    FileUtils.writeStringToFile(new File(contentDir, "patient/page.html"), "<html>page</html>");
+    FileUtils.writeStringToFile(new File(contentDir, "patient/page.html.gz"), "gzipped");
+    new File(contentDir, "empty").mkdirs();
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    ContentIndex index = ContentIndex.build(contentDir, 1000l);
+    assertEquals(1000l, index.getLastUpdated());
+    assertTrue(index.get("/").isDirectory());
+    assertEquals("/index.html", index.resolve("/").getPath());
+    assertEquals("/index.html", index.resolve("").getPath());
+    assertEquals("/patient/page.html", index.get("//patient//page.html").getPath());
+    assertEquals("/patient", index.get("/patient/").getPath());
+    assertEquals(new File(contentDir, "index.html").length(), index.get("/index.html").getLength());
+    assertNull(index.get("/missing.html"));
+    assertNull(index.get("/patient/../index.html"));
+    assertNull(index.get("/./index.html"));
+    assertNotNull(index.get("/empty"));
+    assertNull("Directories without welcome files should not resolve", index.resolve("/empty"));
+    assertNull("Files do not have welcome files", index.get("/index.html").getWelcomeFile());
+  }
+  
+  @Test
+  public void testGzipSidecar() throws Exception {
+    new File(contentDir, "patient/page.html").setLastModified(System.currentTimeMillis() - 10000l);
+    ContentIndex index = ContentIndex.build(contentDir, 1000l);
+    assertEquals(new File(contentDir, "patient/page.html.gz"), index.get("/patient/page.html").getGzipFile());
+    assertNull(index.get("/index.html").getGzipFile());
+  }
+  
+  @Test
+  public void testDigests() throws Exception {
+    ContentDigests.compute(contentDir, null, 1000l, 1).write(contentDir);
+    ContentIndex index = ContentIndex.build(contentDir, 1000l);
+    assertNotNull(index.getDigests());
+    assertNotNull(index.get("/index.html").getDigest());
+    
+    File changed = new File(contentDir, "patient/page.html");
+    changed.setLastModified(ContentDigests.getManifestFile(contentDir).lastModified() + 10000l);
+    index = ContentIndex.build(contentDir, 1000l);
+    assertNull("Files changed after the manifest should not have a digest", index.get("/patient/page.html").getDigest());
+  }
+}
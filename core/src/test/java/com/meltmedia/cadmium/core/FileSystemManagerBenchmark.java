@@ -0,0 +1,156 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * <p>Compares copying and deleting a large content tree with {@link FileSystemManager} against the list based tree walk and
+ * stream copy it used to do.</p>
+ * <p>This is not run as part of the build.  Run it with:</p>
+ * <pre>mvn test-compile exec:java -Dexec.mainClass=com.meltmedia.cadmium.core.FileSystemManagerBenchmark -Dexec.classpathScope=test</pre>
+ * <p>The number of files can be passed as the first argument, and defaults to 100000.  The tree is created under
+ * target/copy-benchmark, or the directory passed as the second argument.</p>
+ */
+public class FileSystemManagerBenchmark {
+  private static final int FILES_PER_DIR = 50;
+  private static final int DIRS_PER_DIR = 10;
+  private static final int FILE_SIZE = 4 * 1024;
+
+  public static void main(String[] args) throws Exception {
+    int fileCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    File root = new File(args.length > 1 ? args[1] : "target/copy-benchmark").getAbsoluteFile();
+    FileSystemManager.deleteDeep(root.getAbsolutePath());
+    File source = new File(root, "source");
+    System.out.println("Creating "+fileCount+" files in "+source);
+    createTree(source, fileCount);
+    
+    System.out.println(String.format("%-10s %12s %12s", "", "copy ms", "delete ms"));
+    for(int round = 0; round < 2; round++) {
+      File legacyTarget = new File(root, "legacy");
+      long begin = System.nanoTime();
+      legacyCopyAllContent(source.getAbsolutePath(), legacyTarget.getAbsolutePath());
+      long copied = System.nanoTime();
+      legacyDeleteDeep(legacyTarget.getAbsolutePath());
+      long deleted = System.nanoTime();
+      System.out.println(String.format("%-10s %12d %12d", "legacy", (copied - begin) / 1000000l, (deleted - copied) / 1000000l));
+      
+      File target = new File(root, "current");
+      begin = System.nanoTime();
+      FileSystemManager.copyAllContent(source.getAbsolutePath(), target.getAbsolutePath(), true);
+      copied = System.nanoTime();
+      FileSystemManager.deleteDeep(target.getAbsolutePath());
+      deleted = System.nanoTime();
+      System.out.println(String.format("%-10s %12d %12d", "current", (copied - begin) / 1000000l, (deleted - copied) / 1000000l));
+    }
+    FileSystemManager.deleteDeep(root.getAbsolutePath());
+  }
+  
+  /**
+   * Creates a tree that is a few levels deep, with the same number of files in every directory.
+   */
+  private static void createTree(File source, int fileCount) throws Exception {
+    byte content[] = new byte[FILE_SIZE];
+    Arrays.fill(content, (byte)'a');
+    List<File> dirs = new ArrayList<File>();
+    dirs.add(source);
+    source.mkdirs();
+    int created = 0;
+    for(int i = 0; created < fileCount; i++) {
+      File dir = dirs.get(i);
+      for(int j = 0; j < DIRS_PER_DIR; j++) {
+        File child = new File(dir, "dir"+j);
+        child.mkdir();
+        dirs.add(child);
+      }
+      for(int j = 0; j < FILES_PER_DIR && created < fileCount; j++, created++) {
+        FileOutputStream out = new FileOutputStream(new File(dir, "file"+j+".html"));
+        try {
+          out.write(content);
+        } finally {
+          out.close();
+        }
+      }
+    }
+  }
+  
+  private static void legacyDeleteDeep(String path) {
+    File pathFile = new File(path);
+    if(pathFile.exists()) {
+      if(pathFile.isDirectory()) {
+        List<File> dirChildren = new ArrayList<File>();
+        dirChildren.addAll(Arrays.asList(pathFile.listFiles()));
+        for(int i=0; i<dirChildren.size() ; i++) {
+          File file = dirChildren.get(i);
+          if(file.isDirectory()) {
+            dirChildren.addAll(i+1, Arrays.asList(file.listFiles()));
+          } else {
+            file.delete();
+          }
+        }
+        for(int i = dirChildren.size()-1; i >= 0; i--) {
+          File file = dirChildren.get(i);
+          if(file.isDirectory()) {
+            file.delete();
+          }
+        }
+      }
+      pathFile.delete();
+    }
+  }
+  
+  private static void legacyCopyAllContent(String source, String target) throws Exception {
+    File sourceFile = new File(source);
+    new File(target).mkdirs();
+    FilenameFilter filter = new FilenameFilter() {
+      @Override
+      public boolean accept(File file, String name) {
+        return !name.startsWith(".");
+      }
+    };
+    List<File> copyList = new ArrayList<File>(Arrays.asList(sourceFile.listFiles(filter)));
+    for(int index = 0; index < copyList.size(); index++) {
+      File aFile = copyList.get(index);
+      String relativePath = aFile.getAbsolutePath().replaceFirst(sourceFile.getAbsolutePath(), "");
+      File newFile = new File(target, relativePath);
+      if(aFile.isDirectory()) {
+        if(newFile.mkdir()) {
+          newFile.setLastModified(aFile.lastModified());
+          copyList.addAll(index + 1, Arrays.asList(aFile.listFiles(filter)));
+        }
+      } else if(newFile.createNewFile()) {
+        FileInputStream in = new FileInputStream(aFile);
+        try {
+          FileSystemManager.streamCopy(in, new FileOutputStream(newFile));
+        } finally {
+          IOUtils.closeQuietly(in);
+        }
+        newFile.setExecutable(aFile.canExecute(), false);
+        newFile.setReadable(aFile.canRead(), false);
+        newFile.setWritable(aFile.canWrite(), false);
+        newFile.setLastModified(aFile.lastModified());
+      }
+    }
+  }
+}
@@ -174,4 +174,34 @@ public class FileSystemManagerTest {
     String content2 = FileSystemManager.getFileContents("./target/test-content/test-write/test.file");
     assertTrue("Content not read from file.", content2 != null && content2.equals(content));
   }
+  
+  @Test
+  public void testLinkOrCopy() throws Exception {
+    File target = new File("./target/test-content/link-test/file");
+    target.getParentFile().mkdirs();
+    target.delete();
+    FileSystemManager.linkOrCopy(new File("./target/test-content/copy-test/level1/file"), target);
+    assertTrue("File not linked or copied.", target.isFile());
+    String content = FileSystemManager.getFileContents(target.getPath());
+    assertTrue("Content not linked or copied.", content != null && content.equals("content2"));
+  }
+  
+  @Test
+  public void testCopyAllContentFromPathWithPatternCharacters() throws Exception {
+    File source = new File("./target/test-content/copy+test[1]");
+    FileSystemManager.deleteDeep(source.getPath());
+    FileSystemManager.deleteDeep("./target/test-content/copy-test_4");
+    FileSystemManager.copyAllContent("./target/test-content/copy-test", source.getPath(), true);
+    File file = new File(source, "level1/file");
+    file.setLastModified(1000000000000l);
+    new File(source, "level1").setLastModified(1000000000000l);
+    
+    FileSystemManager.copyAllContent(source.getPath(), "./target/test-content/copy-test_4", true);
+    
+    File copied = new File("./target/test-content/copy-test_4/level1/file");
+    assertTrue("file didn't get created.", copied.exists());
+    assertTrue("lowest level file didn't get created.", new File("./target/test-content/copy-test_4/level1/level2/level3/file").exists());
+    assertTrue("file modification time not copied.", copied.lastModified() == file.lastModified());
+    assertTrue("directory modification time not copied.", copied.getParentFile().lastModified() == 1000000000000l);
+  }
 }
@@ -18,11 +18,13 @@ package com.meltmedia.cadmium.core.commands;
 import java.io.IOException;
 import java.io.InputStream;
 
+import com.meltmedia.cadmium.core.ContentIndex;
 import com.meltmedia.cadmium.core.ContentService;
 
 public class DummyContentService implements ContentService {
   
   public boolean switched = false;
+  public String contentRoot = null;
 
   @Override
   public void switchContent(Long requestTime) {
@@ -31,8 +33,7 @@ public class DummyContentService implements ContentService {
 
 	@Override
 	public String getContentRoot() {
-		// TODO Auto-generated method stub
-		return null;
+		return contentRoot;
 	}
 
   @Override
@@ -41,4 +42,9 @@ public class DummyContentService implements ContentService {
     return null;
   }
 
+  @Override
+  public ContentIndex getContentIndex() {
+    return null;
+  }
+
 }
@@ -18,6 +18,7 @@ package com.meltmedia.cadmium.core.commands;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Properties;
@@ -134,4 +135,43 @@ public class SyncCommandActionTest {
     assertTrue("Listener not returned to original", worker.listener == listener);    
     
   }
+  
+  @Test
+  public void testCommandAsNotCoordinatorServingContent() throws Exception {
+    DummyMembershipTracker tracker = new DummyMembershipTracker();
+    tracker.setConfigManager(configManager);
+    tracker.setMembers(new ArrayList<ChannelMember>());
+    tracker.getMembers().add(new ChannelMember(new IpAddress(1234), false, true));
+    tracker.getMembers().add(new ChannelMember(new IpAddress(4321), true, false));
+    
+    DummySiteDownService maintFilter = new DummySiteDownService();
+    DummyCoordinatedWorker<ContentUpdateRequest> worker = new DummyCoordinatedWorker<ContentUpdateRequest>();
+    DummyContentService fileServlet = new DummyContentService();
+    File contentRoot = new File("./target/sync-content");
+    contentRoot.mkdirs();
+    fileServlet.contentRoot = contentRoot.getAbsolutePath();
+    
+    configProperties.setProperty("repo", "oldRepo");
+    configProperties.setProperty("branch", "master");
+    configProperties.setProperty("git.ref.sha", "old_key");
+    
+    SyncCommandAction cmd = new SyncCommandAction();
+    cmd.configManager = configManager;    
+    cmd.tracker = tracker;
+    cmd.sender = new DummyMessageSender<SyncRequest, Void>();
+    cmd.maintFilter = maintFilter;
+    cmd.worker = worker;
+    cmd.fileServlet = fileServlet;
+    cmd.processor = mock(SiteConfigProcessor.class);
+    
+    SyncRequest request = new SyncRequest();
+    request.setContentLocation(new GitLocation("newRepo", "master", "good_key"));
+    CommandContext<SyncRequest> ctx = new CommandContext<SyncRequest>(new IpAddress(4321), new Message<SyncRequest>(ProtocolMessage.SYNC, request));
+    
+    assertTrue("Command failed to execute", cmd.execute(ctx));
+    
+    assertTrue("Maint Filter should not have started", !maintFilter.didStart && !maintFilter.isOn());
+    assertTrue("Content didn't switch", fileServlet.switched);
+    verify(cmd.processor).makeLive();
+  }
 }
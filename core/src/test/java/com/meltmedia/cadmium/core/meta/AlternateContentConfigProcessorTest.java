@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AlternateContentConfigProcessorTest {
+  private File metaDir;
+
+  @Before
+  public void createConfig() throws Exception {
+    metaDir = new File("./target/alternate-content-test/META-INF");
+    if(metaDir.exists()) {
+      FileUtils.deleteDirectory(metaDir);
+    }
+    FileUtils.writeStringToFile(new File(metaDir, AlternateContentConfigProcessor.CONFIG_FILE_NAME), "[{\"pattern\": \".*(mobile).*\", \"contentDirectory\": \"mobile\"}]");
+  }
+
+  @Test
+  public void cachedLookupTest() throws Exception {
+    AlternateContentConfigProcessor proc = new AlternateContentConfigProcessor();
+    proc.processFromDirectory(metaDir.getPath());
+    proc.makeLive();
+    assertTrue("Config not promoted", proc.hasConfig());
+    int version = proc.getLiveVersion();
+
+    assertEquals(new File(metaDir, "mobile"), proc.getAlternateContentDirectory("Some mobile browser"));
+    assertEquals(new File(metaDir, "mobile"), proc.getAlternateContentDirectory("Some mobile browser"));
+    assertNull(proc.getAlternateContentDirectory("Some desktop browser"));
+    assertNull(proc.getAlternateContentDirectory("Some desktop browser"));
+
+    Map<String, Object> metrics = proc.getMetrics();
+    assertEquals(2l, metrics.get("hits"));
+    assertEquals(2l, metrics.get("misses"));
+    assertEquals(2, metrics.get("cachedUserAgents"));
+
+    proc.processFromDirectory(metaDir.getPath());
+    proc.makeLive();
+    assertTrue("Version not changed", proc.getLiveVersion() != version);
+    assertEquals(0, proc.getMetrics().get("cachedUserAgents"));
+  }
+
+  @Test
+  public void cacheBoundedTest() throws Exception {
+    AlternateContentConfigProcessor proc = new AlternateContentConfigProcessor();
+    proc.processFromDirectory(metaDir.getPath());
+    proc.makeLive();
+    for(int i = 0; i < AlternateContentConfigProcessor.MAX_CACHED_USER_AGENTS + 10; i++) {
+      proc.getAlternateContentDirectory("Browser "+i);
+    }
+    assertEquals(AlternateContentConfigProcessor.MAX_CACHED_USER_AGENTS, proc.getMetrics().get("cachedUserAgents"));
+  }
+}
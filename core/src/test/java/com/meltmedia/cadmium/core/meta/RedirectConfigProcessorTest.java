@@ -31,12 +31,12 @@ public class RedirectConfigProcessorTest {
     proc.liveRedirects.get(1).setPath("path2\\?info");
     proc.liveRedirects.get(1).setUrl("url2");
     
-    Redirect redir = proc.requestMatches("path1", null);
-    assertTrue("Path1 should have matched", redir != null && redir.getUrlSubstituted().equals("url"));
+    RedirectMatch redir = proc.requestMatches("path1", null);
+    assertTrue("Path1 should have matched", redir != null && redir.getUrl().equals("url"));
     redir = proc.requestMatches("path1", "info2");
-    assertTrue("Path1 with queryString should have matched", redir != null && redir.getUrl().equals("url"));
+    assertTrue("Path1 with queryString should have matched", redir != null && redir.getRedirect().getUrl().equals("url"));
     redir = proc.requestMatches("path2", "info");
-    assertTrue("Path2 with query should have matched", redir != null && redir.getUrlSubstituted().equals("url2"));
+    assertTrue("Path2 with query should have matched", redir != null && redir.getUrl().equals("url2"));
     assertTrue("Path2 should not have matched", proc.requestMatches("path2", null) == null);
     assertTrue("Path3 should not have matched", proc.requestMatches("path3", null) == null);
   }
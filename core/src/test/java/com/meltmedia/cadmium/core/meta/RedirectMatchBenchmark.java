@@ -0,0 +1,233 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.meta;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Measures the throughput and the bytes allocated per request of matching redirects from many threads, comparing
+ * the old approach of copying the matching redirect and keeping the Matcher on the copy, with the immutable
+ * {@link RedirectMatch} returned by {@link Redirect#match(String)}.  The redirect for each path is found once, with the same
+ * {@link RedirectMatcher}, before timing starts, so only the cost of producing the match is compared.  {@link RedirectMatcherBenchmark}
+ * compares the matcher with scanning the rules.</p>
+ * <p>Allocation is read from the HotSpot ThreadMXBean, and is reported as n/a on VMs that do not support it.  This is
+ * not run as part of the build.  Run it with:</p>
+ * <pre>mvn test-compile exec:java -Dexec.mainClass=com.meltmedia.cadmium.core.meta.RedirectMatchBenchmark -Dexec.classpathScope=test</pre>
+ * <p>The number of rules and the thread counts can be passed as arguments, and default to 1000 rules on 1, 4 and 16 threads.</p>
+ */
+public class RedirectMatchBenchmark {
+  private static final int WARM_UP_REQUESTS = 2000;
+  private static final int REQUESTS = 20000;
+
+  public static void main(String[] args) throws Exception {
+    int ruleCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int threadCounts[] = new int[] {1, 4, 16};
+    if(args.length > 1) {
+      threadCounts = new int[args.length - 1];
+      for(int i = 1; i < args.length; i++) {
+        threadCounts[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+    List<Redirect> redirects = new ArrayList<Redirect>();
+    Map<Redirect, LegacyRedirect> legacyRedirects = new IdentityHashMap<Redirect, LegacyRedirect>();
+    for(int i = 0; i < ruleCount; i++) {
+      String path = i % 4 == 3 ? "/section"+i+"/(.*)" : "/old/page"+i+"\\.html";
+      String url = i % 4 == 3 ? "/new-section"+i+"/$1" : "/new/page"+i+".html";
+      Redirect redir = new Redirect();
+      redir.setPath(path);
+      redir.setUrl(url);
+      redirects.add(redir);
+      legacyRedirects.put(redir, new LegacyRedirect(path, url));
+    }
+    String paths[] = new String[256];
+    for(int i = 0; i < paths.length; i++) {
+      int rule = (i * 7919) % ruleCount;
+      paths[i] = rule % 4 == 3 ? "/section"+rule+"/a/page.html" : i % 2 == 0 ? "/old/page"+rule+".html" : "/missing/"+rule;
+    }
+    RedirectMatcher matcher = RedirectMatcher.compile(redirects);
+    Redirect found[] = new Redirect[paths.length];
+    for(int i = 0; i < paths.length; i++) {
+      found[i] = matcher.find(paths[i]);
+    }
+
+    System.out.println(String.format("%8s %8s %14s %14s %14s %14s", "rules", "threads", "before req/s", "after req/s", "before B/req", "after B/req"));
+    for(int threads : threadCounts) {
+      Result before = run(threads, new LegacyTask(found, legacyRedirects, paths));
+      Result after = run(threads, new MatchTask(found, paths));
+      System.out.println(String.format("%8d %8d %14.0f %14.0f %14s %14s", ruleCount, threads, before.throughput, after.throughput, before.allocation(), after.allocation()));
+    }
+  }
+  
+  private static Result run(int threads, final RequestTask task) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+      long begin = System.nanoTime();
+      for(int i = 0; i < threads; i++) {
+        final int offset = i;
+        results.add(pool.submit(new Callable<long[]>() {
+          @Override
+          public long[] call() throws Exception {
+            for(int j = 0; j < WARM_UP_REQUESTS; j++) {
+              task.request(j + offset);
+            }
+            long allocatedBefore = allocatedBytes();
+            for(int j = 0; j < REQUESTS; j++) {
+              task.request(j + offset);
+            }
+            long allocatedAfter = allocatedBytes();
+            return new long[] {allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore};
+          }
+        }));
+      }
+      long allocated = 0;
+      for(Future<long[]> result : results) {
+        long threadAllocated = result.get()[0];
+        allocated = threadAllocated < 0 || allocated < 0 ? -1 : allocated + threadAllocated;
+      }
+      double seconds = (System.nanoTime() - begin) / 1000000000.0d;
+      Result result = new Result();
+      result.throughput = (double)threads * (WARM_UP_REQUESTS + REQUESTS) / seconds;
+      result.bytesPerRequest = allocated < 0 ? -1 : (double)allocated / threads / REQUESTS;
+      return result;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+  
+  /**
+   * @return The bytes allocated by the current thread, or -1 if the VM does not report it.
+   */
+  private static long allocatedBytes() {
+    try {
+      ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+      Method method = threadBean.getClass().getMethod("getThreadAllocatedBytes", long.class);
+      method.setAccessible(true);
+      return (Long)method.invoke(threadBean, Thread.currentThread().getId());
+    } catch(Exception e) {
+      return -1;
+    }
+  }
+  
+  private static class Result {
+    double throughput;
+    double bytesPerRequest;
+    
+    String allocation() {
+      return bytesPerRequest < 0 ? "n/a" : String.format("%.0f", bytesPerRequest);
+    }
+  }
+  
+  private interface RequestTask {
+    public String request(int i);
+  }
+  
+  private static class MatchTask implements RequestTask {
+    private final Redirect found[];
+    private final String paths[];
+    
+    MatchTask(Redirect found[], String paths[]) {
+      this.found = found;
+      this.paths = paths;
+    }
+
+    @Override
+    public String request(int i) {
+      Redirect redir = found[i % paths.length];
+      if(redir == null) {
+        return null;
+      }
+      RedirectMatch match = redir.match(paths[i % paths.length]);
+      return match != null ? match.getUrl() : null;
+    }
+  }
+  
+  /**
+   * Produces the url the way Redirect did when it kept its Matcher: the matching redirect is copied for the request,
+   * matched to set the Matcher on the copy, and the url is substituted from that Matcher.
+   */
+  private static class LegacyTask implements RequestTask {
+    private final Redirect found[];
+    private final Map<Redirect, LegacyRedirect> redirects;
+    private final String paths[];
+    
+    LegacyTask(Redirect found[], Map<Redirect, LegacyRedirect> redirects, String paths[]) {
+      this.found = found;
+      this.redirects = redirects;
+      this.paths = paths;
+    }
+
+    @Override
+    public String request(int i) {
+      Redirect redir = found[i % paths.length];
+      if(redir == null) {
+        return null;
+      }
+      LegacyRedirect copy = redirects.get(redir).copy();
+      return copy.matches(paths[i % paths.length]) ? copy.getUrlSubstituted() : null;
+    }
+  }
+  
+  private static class LegacyRedirect {
+    private final String path;
+    private final String url;
+    private final Pattern pathPattern;
+    private volatile Matcher matcher;
+    
+    LegacyRedirect(String path, String url) {
+      this.path = path;
+      this.url = url;
+      this.pathPattern = Pattern.compile(path);
+    }
+    
+    LegacyRedirect copy() {
+      LegacyRedirect copy = new LegacyRedirect(path, url, pathPattern);
+      copy.matcher = matcher;
+      return copy;
+    }
+    
+    private LegacyRedirect(String path, String url, Pattern pathPattern) {
+      this.path = path;
+      this.url = url;
+      this.pathPattern = pathPattern;
+    }
+    
+    boolean matches(String pathInfo) {
+      matcher = pathPattern.matcher(pathInfo);
+      boolean matched = matcher.matches();
+      if(!matched) {
+        matcher = null;
+      }
+      return matched;
+    }
+    
+    String getUrlSubstituted() {
+      return matcher != null ? matcher.group().replaceAll(path, url) : url;
+    }
+  }
+}
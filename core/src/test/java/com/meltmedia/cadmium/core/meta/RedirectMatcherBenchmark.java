@@ -0,0 +1,131 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.meta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>Compares scanning a list of redirects in order with finding the first match with a {@link RedirectMatcher}.</p>
+ * <p>This is not run as part of the build.  Run it with:</p>
+ * <pre>mvn test-compile exec:java -Dexec.mainClass=com.meltmedia.cadmium.core.meta.RedirectMatcherBenchmark -Dexec.classpathScope=test</pre>
+ * <p>The rule counts to test can be passed as arguments, and default to 10, 1000 and 10000.</p>
+ */
+public class RedirectMatcherBenchmark {
+  private static final int WARM_UP_ITERATIONS = 2000;
+  private static final int ITERATIONS = 20000;
+  private static final int MAX_SCAN_OPERATIONS = 200000000;
+
+  public static void main(String[] args) throws Exception {
+    int counts[] = new int[] {10, 1000, 10000};
+    if(args.length > 0) {
+      counts = new int[args.length];
+      for(int i = 0; i < args.length; i++) {
+        counts[i] = Integer.parseInt(args[i]);
+      }
+    }
+    System.out.println(String.format("%8s %14s %14s %10s", "rules", "scan us/op", "matcher us/op", "speedup"));
+    for(int count : counts) {
+      List<Redirect> redirects = createRedirects(count);
+      String paths[] = createPaths(count);
+      RedirectMatcher matcher = RedirectMatcher.compile(redirects);
+      
+      // keep the number of regular expressions evaluated by the scan bounded, so large rule sets finish.
+      int iterations = Math.max(100, Math.min(ITERATIONS, MAX_SCAN_OPERATIONS / count));
+      double scan = time(redirects, null, paths, iterations);
+      double compiled = time(redirects, matcher, paths, iterations);
+      System.out.println(String.format("%8d %14.2f %14.2f %9.2fx", count, scan, compiled, scan / compiled));
+    }
+  }
+  
+  private static double time(List<Redirect> redirects, RedirectMatcher matcher, String paths[], int iterations) {
+    int matched = 0;
+    for(int i = 0; i < Math.min(WARM_UP_ITERATIONS, iterations); i++) {
+      matched += match(redirects, matcher, paths[i % paths.length]) != null ? 1 : 0;
+    }
+    long begin = System.nanoTime();
+    for(int i = 0; i < iterations; i++) {
+      matched += match(redirects, matcher, paths[i % paths.length]) != null ? 1 : 0;
+    }
+    long elapsed = System.nanoTime() - begin;
+    if(matched == 0) {
+      throw new IllegalStateException("Nothing matched.");
+    }
+    return elapsed / 1000.0d / iterations;
+  }
+  
+  private static RedirectMatch match(List<Redirect> redirects, RedirectMatcher matcher, String path) {
+    if(matcher != null) {
+      return matcher.match(path);
+    }
+    for(Redirect redir : redirects) {
+      RedirectMatch match = redir.match(path);
+      if(match != null) {
+        return match;
+      }
+    }
+    return null;
+  }
+  
+  /**
+   * Creates a mix of redirects like the ones found in large redirect.json files: mostly literal paths, some prefixed
+   * patterns and a few unanchored patterns.
+   */
+  private static List<Redirect> createRedirects(int count) {
+    List<Redirect> redirects = new ArrayList<Redirect>();
+    for(int i = 0; i < count; i++) {
+      Redirect redir = new Redirect();
+      switch(i % 10) {
+      case 8:
+        redir.setPath("/section"+i+"/(.*)");
+        redir.setUrl("/new-section"+i+"/$1");
+        break;
+      case 9:
+        redir.setPath(".*/legacy"+i+"\\.(html|htm)");
+        redir.setUrl("/legacy/index.html");
+        break;
+      default:
+        redir.setPath("/old/page"+i+"\\.html");
+        redir.setUrl("/new/page"+i+".html");
+      }
+      redirects.add(redir);
+    }
+    return redirects;
+  }
+  
+  private static String[] createPaths(int count) {
+    Random random = new Random(count);
+    String paths[] = new String[1000];
+    for(int i = 0; i < paths.length; i++) {
+      int rule = random.nextInt(count);
+      switch(i % 4) {
+      case 0:
+        paths[i] = "/old/page"+rule+".html";
+        break;
+      case 1:
+        paths[i] = "/section"+(rule / 10 * 10 + 8)+"/some/page.html";
+        break;
+      case 2:
+        paths[i] = "/any/where/legacy"+(rule / 10 * 10 + 9)+".htm";
+        break;
+      default:
+        paths[i] = "/not/redirected/"+rule+".html";
+      }
+    }
+    return paths;
+  }
+}
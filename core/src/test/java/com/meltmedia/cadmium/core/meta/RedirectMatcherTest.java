@@ -0,0 +1,132 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RedirectMatcherTest {
+  
+  private static Redirect redirect(String path, String url) {
+    Redirect redir = new Redirect();
+    redir.setPath(path);
+    redir.setUrl(url);
+    return redir;
+  }
+  
+  @Test
+  public void literalPrefixTest() throws Exception {
+    StringBuilder prefix = new StringBuilder();
+    assertTrue(RedirectMatcher.literalPrefix("/section1/index\\.html", prefix));
+    assertEquals("/section1/index.html", prefix.toString());
+    
+    prefix.setLength(0);
+    assertFalse(RedirectMatcher.literalPrefix("^/section1/index.html", prefix));
+    assertEquals("/section1/index", prefix.toString());
+    
+    prefix.setLength(0);
+    assertFalse(RedirectMatcher.literalPrefix("/sections?/(.*)", prefix));
+    assertEquals("/section", prefix.toString());
+    
+    prefix.setLength(0);
+    assertFalse(RedirectMatcher.literalPrefix("/path\\d+", prefix));
+    assertEquals("/path", prefix.toString());
+    
+    prefix.setLength(0);
+    assertFalse(RedirectMatcher.literalPrefix("/a|/b", prefix));
+    assertEquals("", prefix.toString());
+    
+    prefix.setLength(0);
+    assertFalse(RedirectMatcher.literalPrefix("/a(/b|/c)", prefix));
+    assertEquals("/a", prefix.toString());
+    
+    prefix.setLength(0);
+    assertFalse(RedirectMatcher.literalPrefix("(?i)/path", prefix));
+    assertEquals("", prefix.toString());
+  }
+  
+  @Test
+  public void requiredLiteralTest() throws Exception {
+    assertEquals("/legacy.", RedirectMatcher.requiredLiteral(".*/legacy\\.(html|htm)"));
+    assertEquals("/other", RedirectMatcher.requiredLiteral("^.*/other.*"));
+    assertEquals("/", RedirectMatcher.requiredLiteral(".*/(test1|test2).*"));
+    assertNull(RedirectMatcher.requiredLiteral(".*/a|/b"));
+    assertNull(RedirectMatcher.requiredLiteral("(.*)/other"));
+    assertTrue(RedirectMatcher.hasTopLevelAlternation("a|b"));
+    assertFalse(RedirectMatcher.hasTopLevelAlternation("(a|b)"));
+    assertFalse(RedirectMatcher.hasTopLevelAlternation("[|]\\|"));
+  }
+  
+  @Test
+  public void firstMatchTest() throws Exception {
+    List<Redirect> redirects = new ArrayList<Redirect>();
+    redirects.add(redirect("/section1/(other).*", "other"));
+    redirects.add(redirect(".*/(test1|test2).*", "test"));
+    redirects.add(redirect("/section1/index.html", "index"));
+    redirects.add(redirect("/section1/test1", "literal"));
+    redirects.add(redirect("/section2\\?info", "query"));
+    redirects.add(redirect("/section2/index.html", "literal2"));
+    redirects.add(redirect("/section2/[a-z]+\\.html", "pattern2"));
+    RedirectMatcher matcher = RedirectMatcher.compile(redirects);
+    
+    assertEquals(7, matcher.size());
+    assertTrue(matcher.isCompiledFrom(redirects));
+    assertSame(redirects.get(0), matcher.find("/section1/other/page.html"));
+    assertSame("Earlier patterns should win over later literals", redirects.get(1), matcher.find("/section1/test1"));
+    assertSame(redirects.get(2), matcher.find("/section1/index.html"));
+    assertSame(redirects.get(4), matcher.find("/section2?info"));
+    assertSame("Earlier literals should win over later patterns", redirects.get(5), matcher.find("/section2/index.html"));
+    assertSame(redirects.get(6), matcher.find("/section2/page.html"));
+    assertNull(matcher.find("/section2/page1.html"));
+    assertNull(matcher.find(""));
+    
+    redirects.add(redirect("/another", "url"));
+    assertFalse(matcher.isCompiledFrom(redirects));
+  }
+  
+  @Test
+  public void matchesLinearScanTest() throws Exception {
+    List<Redirect> redirects = new ArrayList<Redirect>();
+    for(int i = 0; i < 50; i++) {
+      redirects.add(redirect("/literal/"+i+"\\.html", "literal"));
+      redirects.add(redirect("/prefix/"+i+"/(.*)", "prefix"));
+      redirects.add(redirect(".*/suffix"+i, "suffix"));
+      redirects.add(redirect(".*/(alt|other)"+i, "alternation"));
+    }
+    redirects.add(redirect("/prefix/.*", "catchall"));
+    RedirectMatcher matcher = RedirectMatcher.compile(redirects);
+    
+    String paths[] = new String[] {"/literal/7.html", "/literal/77.html", "/prefix/7/page", "/prefix/77/page", "/prefix/7", "/x/suffix3", "/literal/3.html/suffix3", "/prefix/3/suffix1", "/x/other4", "/"};
+    for(String path : paths) {
+      Redirect expected = null;
+      for(Redirect redir : redirects) {
+        if(redir.matches(path)) {
+          expected = redir;
+          break;
+        }
+      }
+      assertSame("Wrong match for "+path, expected, matcher.find(path));
+    }
+  }
+}
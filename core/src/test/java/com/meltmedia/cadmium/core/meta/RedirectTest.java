@@ -27,16 +27,20 @@ public class RedirectTest {
     redir.setUrl("/this/is/$1/cool.html");
     
     assertTrue("Path should have matched", redir.matches("/path/to/test2/should/match.html"));
-    String pathSub = redir.getUrlSubstituted();
+    RedirectMatch match = redir.match("/path/to/test2/should/match.html");
+    String pathSub = match.getUrl();
     assertTrue("Path returned is incorrect", pathSub != null && pathSub.equals("/this/is/test2/cool.html"));
+    assertTrue("Group not captured", match.getGroupCount() == 1 && "test2".equals(match.getGroup(1)));
+    assertTrue("Match should not change the redirect", redir.getUrl().equals("/this/is/$1/cool.html"));
     assertTrue("Path shouldn't have matched", !redir.matches("/this/is/a/bad/blah/path.html"));
     
     redir = new Redirect();
     redir.setPath("/path/to/something.html");
     redir.setUrl("/path/to/other.html");
     assertTrue("Path should match", redir.matches("/path/to/something.html"));
-    pathSub = redir.getUrlSubstituted();
+    pathSub = redir.match("/path/to/something.html").getUrl();
     assertTrue("Other path not returned", pathSub != null && pathSub.equals("/path/to/other.html"));
     assertTrue("Path shouldn't have matched 2", !redir.matches("/not/path/to/something.html"));
+    assertTrue("Path shouldn't have matched 2", redir.match("/not/path/to/something.html") == null);
   }
 }
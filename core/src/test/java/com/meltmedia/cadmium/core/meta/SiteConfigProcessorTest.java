@@ -15,11 +15,13 @@
  */
 package com.meltmedia.cadmium.core.meta;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -55,4 +57,117 @@ public class SiteConfigProcessorTest {
       assertTrue("Failed to process one", ((DummyConfigProcessor)processor).processed && !((DummyConfigProcessor)processor).live);
     }
   }
+  
+  @Test
+  public void processingTimesTest() throws Exception {
+    proc.processDir("./target/meta-test");
+    
+    assertTrue("Processing times not recorded", proc.getProcessingTimes().containsKey(DummyConfigProcessor.class.getName()));
+  }
+  
+  @Test
+  public void dependenciesTest() throws Exception {
+    Set<ConfigProcessor> processors = new HashSet<ConfigProcessor>();
+    DependentConfigProcessor dependent = new DependentConfigProcessor();
+    processors.add(dependent);
+    SlowConfigProcessor slow = new SlowConfigProcessor();
+    processors.add(slow);
+    
+    new SiteConfigProcessor(processors, null).processDir("./target/meta-test");
+    
+    assertTrue("Slow processor didn't run", slow.processed);
+    assertTrue("Dependent processor ran before its dependency finished", dependent.processed && dependent.dependencyDone);
+  }
+  
+  @Test
+  public void namedDependenciesTest() throws Exception {
+    Set<ConfigProcessor> processors = new HashSet<ConfigProcessor>();
+    NamedDependentConfigProcessor dependent = new NamedDependentConfigProcessor();
+    processors.add(dependent);
+    SlowConfigProcessor slow = new SlowConfigProcessor();
+    processors.add(slow);
+    
+    new SiteConfigProcessor(processors, null).processDir("./target/meta-test");
+    
+    assertTrue("Dependent processor ran before its dependency finished", dependent.processed && dependent.dependencyDone);
+  }
+  
+  @Test
+  public void missingNamedDependencyTest() throws Exception {
+    Set<ConfigProcessor> processors = new HashSet<ConfigProcessor>();
+    MissingDependencyConfigProcessor dependent = new MissingDependencyConfigProcessor();
+    processors.add(dependent);
+    
+    new SiteConfigProcessor(processors, null).processDir("./target/meta-test");
+    
+    assertTrue("Processor with a missing dependency didn't run", dependent.processed);
+  }
+  
+  @Test
+  public void failureTest() throws Exception {
+    Set<ConfigProcessor> processors = new HashSet<ConfigProcessor>();
+    DummyConfigProcessor failing = new DummyConfigProcessor();
+    failing.throwError = true;
+    processors.add(failing);
+    DummyConfigProcessor working = new DummyConfigProcessor();
+    processors.add(working);
+    
+    try {
+      new SiteConfigProcessor(processors, null).processDir("./target/meta-test");
+      assertTrue("Failure not reported", false);
+    } catch(Exception e) {
+      assertEquals("One or more configs failed! See log for details.", e.getMessage());
+    }
+    assertTrue("Other processors should still run", working.processed);
+  }
+  
+  @Test
+  public void cycleTest() throws Exception {
+    Set<ConfigProcessor> processors = new HashSet<ConfigProcessor>();
+    processors.add(new CycleConfigProcessor());
+    processors.add(new OtherCycleConfigProcessor());
+    
+    try {
+      new SiteConfigProcessor(processors, null);
+      assertTrue("Cycle not reported", false);
+    } catch(Exception e) {
+      assertTrue("Cycle not named: "+e.getMessage(), e.getMessage().contains(CycleConfigProcessor.class.getName())
+          && e.getMessage().contains(OtherCycleConfigProcessor.class.getName()));
+    }
+  }
+  
+  static final AtomicBoolean slowDone = new AtomicBoolean(false);
+  
+  static class SlowConfigProcessor extends DummyConfigProcessor {
+    @Override
+    public void processFromDirectory(String metaDir) throws Exception {
+      slowDone.set(false);
+      Thread.sleep(200);
+      super.processFromDirectory(metaDir);
+      slowDone.set(true);
+    }
+  }
+  
+  @DependsOn(SlowConfigProcessor.class)
+  static class DependentConfigProcessor extends DummyConfigProcessor {
+    boolean dependencyDone = false;
+    
+    @Override
+    public void processFromDirectory(String metaDir) throws Exception {
+      dependencyDone = slowDone.get();
+      super.processFromDirectory(metaDir);
+    }
+  }
+  
+  @DependsOn(names="com.meltmedia.cadmium.core.meta.SiteConfigProcessorTest$SlowConfigProcessor")
+  static class NamedDependentConfigProcessor extends DependentConfigProcessor {}
+  
+  @DependsOn(names="com.meltmedia.cadmium.example.MissingConfigProcessor")
+  static class MissingDependencyConfigProcessor extends DummyConfigProcessor {}
+  
+  @DependsOn(OtherCycleConfigProcessor.class)
+  static class CycleConfigProcessor extends DummyConfigProcessor {}
+  
+  @DependsOn(CycleConfigProcessor.class)
+  static class OtherCycleConfigProcessor extends DummyConfigProcessor {}
 }
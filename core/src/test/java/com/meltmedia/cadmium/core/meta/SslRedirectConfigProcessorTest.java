@@ -17,6 +17,8 @@ package com.meltmedia.cadmium.core.meta;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertTrue;
@@ -26,18 +28,54 @@ public class SslRedirectConfigProcessorTest {
   @Test
   public void shouldBeSslTest() throws Exception {
     SslRedirectConfigProcessor proc = new SslRedirectConfigProcessor();
-    proc.liveConfiguration.sslPaths.add("path1");
-    proc.liveConfiguration.sslPatterns.add(Pattern.compile("path2"));
+    proc.liveConfiguration = new SslRedirectConfigProcessor.Configuration(Arrays.asList("path1"), Arrays.asList(Pattern.compile("path2")));
     
     assertTrue("Should have matched", proc.shouldBeSsl("path1") && proc.shouldBeSsl("path2"));
     assertTrue("Should not have matched", !proc.shouldBeSsl("path2/not") && !proc.shouldBeSsl("path"));
   }
   
+  @Test
+  public void compiledRulesTest() throws Exception {
+    SslRedirectConfigProcessor proc = new SslRedirectConfigProcessor();
+    proc.liveConfiguration = new SslRedirectConfigProcessor.Configuration(Collections.<String>emptyList(), Arrays.asList(
+        Pattern.compile("/register/index\\.html"),
+        Pattern.compile(".*/(other).*"),
+        Pattern.compile("/secure/.*\\.html"),
+        Pattern.compile("/(a|b)/\\1\\.html")));
+    
+    assertTrue("Literal pattern should have matched", proc.shouldBeSsl("/register/index.html"));
+    assertTrue("Combined patterns should have matched", proc.shouldBeSsl("/path/other/index.html") && proc.shouldBeSsl("/secure/page.html"));
+    assertTrue("Back reference should have matched", proc.shouldBeSsl("/a/a.html") && !proc.shouldBeSsl("/a/b.html"));
+    assertTrue("Should not have matched", !proc.shouldBeSsl("/register/indexhtml") && !proc.shouldBeSsl("/secure/page.css"));
+  }
+  
+  @Test
+  public void duplicateGroupNamesTest() throws Exception {
+    SslRedirectConfigProcessor proc = new SslRedirectConfigProcessor();
+    proc.liveConfiguration = new SslRedirectConfigProcessor.Configuration(Collections.<String>emptyList(), Arrays.asList(
+        Pattern.compile("/(?<section>a)/.*\\.html"),
+        Pattern.compile("/(?<section>b)/.*\\.htm")));
+    
+    assertTrue("Patterns with the same group name should have matched", proc.shouldBeSsl("/a/page.html") && proc.shouldBeSsl("/b/page.htm"));
+    assertTrue("Should not have matched", !proc.shouldBeSsl("/c/page.html"));
+  }
+  
+  @Test
+  public void sameSizeChangeTest() throws Exception {
+    SslRedirectConfigProcessor proc = new SslRedirectConfigProcessor();
+    proc.stagedConfiguration = new SslRedirectConfigProcessor.Configuration(Arrays.asList("/first.html"), Collections.<Pattern>emptyList());
+    proc.makeLive();
+    assertTrue("First path should have matched", proc.shouldBeSsl("/first.html"));
+    
+    proc.stagedConfiguration = new SslRedirectConfigProcessor.Configuration(Arrays.asList("/second.html"), Collections.<Pattern>emptyList());
+    proc.makeLive();
+    assertTrue("Replaced path should not have matched", !proc.shouldBeSsl("/first.html") && proc.shouldBeSsl("/second.html"));
+  }
+  
   @Test
   public void makeLiveTest() throws Exception {
     SslRedirectConfigProcessor proc = new SslRedirectConfigProcessor();
-    proc.stagedConfiguration.sslPaths.add("path1");
-    proc.stagedConfiguration.sslPatterns.add(Pattern.compile("path2"));
+    proc.stagedConfiguration = new SslRedirectConfigProcessor.Configuration(Arrays.asList("path1"), Arrays.asList(Pattern.compile("path2")));
     proc.makeLive();
     
     assertTrue("Paths not promoted", proc.liveConfiguration.sslPaths.size() == 1);
@@ -46,7 +84,7 @@ public class SslRedirectConfigProcessorTest {
     assertTrue("Paths not promoted correctly", proc.liveConfiguration.sslPaths.get(0).equals("path1"));
     assertTrue("Patterns not promoted correctly", proc.liveConfiguration.sslPatterns.get(0).pattern().equals("path2"));
     
-    proc.stagedConfiguration.sslPaths.clear();
+    proc.stagedConfiguration = new SslRedirectConfigProcessor.Configuration(Collections.<String>emptyList(), proc.stagedConfiguration.sslPatterns);
     proc.makeLive();
 
     assertTrue("Paths not promoted 2", proc.liveConfiguration.sslPaths.size() == 0);
@@ -0,0 +1,140 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.meltmedia.cadmium.core.FileSystemManager;
+
+public class ContentCompressorTest {
+  private static final ContentCompressor.ContentTypeResolver RESOLVER = new ContentCompressor.ContentTypeResolver() {
+    @Override
+    public String getContentType(String filename) {
+      if(filename.endsWith(".html")) return "text/html";
+      if(filename.endsWith(".png")) return "image/png";
+      return null;
+    }
+  };
+  
+  private File contentDir;
+  private String html;
+  
+  @Before
+  public void createContent() throws Exception {
+    contentDir = new File("./target/compressor-test");
+    if(contentDir.exists()) {
+      FileUtils.deleteDirectory(contentDir);
+    }
+    new File(contentDir, "section").mkdirs();
+    new File(contentDir, "META-INF").mkdirs();
+    StringBuilder builder = new StringBuilder("<html><body>");
+    for(int i = 0; i < 100; i++) {
+      builder.append("<p>Some very compressible content.</p>");
+    }
+    html = builder.append("</body></html>").toString();
+    FileUtils.writeStringToFile(new File(contentDir, "index.html"), html);
+    FileUtils.writeStringToFile(new File(contentDir, "section/index.html"), html);
+    FileUtils.writeStringToFile(new File(contentDir, "META-INF/index.html"), html);
+    FileUtils.writeStringToFile(new File(contentDir, "image.png"), html);
+    FileUtils.writeStringToFile(new File(contentDir, "small.html"), "<html></html>");
+  }
+
+  @Test
+  public void testMatchesType() throws Exception {
+    assertTrue(ContentCompressor.matchesType(ContentCompressor.DEFAULT_GZIP_TYPES, "text/html"));
+    assertTrue(ContentCompressor.matchesType(ContentCompressor.DEFAULT_GZIP_TYPES, "application/json"));
+    assertFalse(ContentCompressor.matchesType(ContentCompressor.DEFAULT_GZIP_TYPES, "image/png"));
+    assertFalse(ContentCompressor.matchesType(ContentCompressor.DEFAULT_GZIP_TYPES, null));
+  }
+  
+  @Test
+  public void testPrecompressDirectory() throws Exception {
+    int written = ContentCompressor.precompressDirectory(contentDir, RESOLVER, ContentCompressor.DEFAULT_GZIP_TYPES, 2);
+    assertEquals(2, written);
+    assertNotNull(ContentCompressor.getFreshGzipFile(new File(contentDir, "index.html")));
+    assertNotNull(ContentCompressor.getFreshGzipFile(new File(contentDir, "section/index.html")));
+    assertNull(ContentCompressor.getFreshGzipFile(new File(contentDir, "META-INF/index.html")));
+    assertNull(ContentCompressor.getFreshGzipFile(new File(contentDir, "image.png")));
+    assertNull(ContentCompressor.getFreshGzipFile(new File(contentDir, "small.html")));
+    
+    GZIPInputStream in = null;
+    try {
+      in = new GZIPInputStream(new FileInputStream(ContentCompressor.getGzipFile(new File(contentDir, "index.html"))));
+      assertArrayEquals(html.getBytes(), IOUtils.toByteArray(in));
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    
+    assertEquals("Fresh sidecars should not be rewritten", 0, ContentCompressor.precompressDirectory(contentDir, RESOLVER, ContentCompressor.DEFAULT_GZIP_TYPES, 2));
+  }
+  
+  @Test
+  public void testLinksUnchangedSidecars() throws Exception {
+    FileUtils.writeStringToFile(new File(contentDir, "about.html"), html);
+    ContentCompressor.precompressDirectory(contentDir, RESOLVER, ContentCompressor.DEFAULT_GZIP_TYPES, 2);
+    
+    File nextDir = new File("./target/compressor-test-next");
+    if(nextDir.exists()) {
+      FileUtils.deleteDirectory(nextDir);
+    }
+    new File(nextDir, "section").mkdirs();
+    String changedHtml = html.replace("Some", "Other");
+    FileSystemManager.linkOrCopy(new File(contentDir, "index.html"), new File(nextDir, "index.html"));
+    FileUtils.writeStringToFile(new File(nextDir, "section/index.html"), changedHtml);
+    FileUtils.writeStringToFile(new File(nextDir, "new.html"), html);
+    // Not changed in git, but rewritten by a config processor.
+    File about = new File(nextDir, "about.html");
+    FileUtils.writeStringToFile(about, changedHtml);
+    about.setLastModified(new File(contentDir, "about.html").lastModified() + 2000l);
+    
+    int written = ContentCompressor.precompressDirectory(nextDir, contentDir, new HashSet<String>(Arrays.asList("/section/index.html", "/new.html")), RESOLVER, ContentCompressor.DEFAULT_GZIP_TYPES, 2);
+    
+    assertEquals("Only changed files should be compressed", 3, written);
+    assertArrayEquals("Unchanged sidecar not linked", 
+        FileUtils.readFileToByteArray(ContentCompressor.getGzipFile(new File(contentDir, "index.html"))), 
+        FileUtils.readFileToByteArray(ContentCompressor.getGzipFile(new File(nextDir, "index.html"))));
+    assertNotNull(ContentCompressor.getFreshGzipFile(new File(nextDir, "index.html")));
+    assertArrayEquals(changedHtml.getBytes(), gunzip(ContentCompressor.getGzipFile(new File(nextDir, "section/index.html"))));
+    assertArrayEquals(changedHtml.getBytes(), gunzip(ContentCompressor.getGzipFile(about)));
+    assertArrayEquals(html.getBytes(), gunzip(ContentCompressor.getGzipFile(new File(nextDir, "new.html"))));
+  }
+  
+  private static byte[] gunzip(File file) throws Exception {
+    GZIPInputStream in = null;
+    try {
+      in = new GZIPInputStream(new FileInputStream(file));
+      return IOUtils.toByteArray(in);
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.meltmedia.cadmium.core.ContentChangeSet;
+import com.meltmedia.cadmium.core.git.DelayedGitServiceInitializer;
+import com.meltmedia.cadmium.core.git.GitService;
+
+public class CreateNewRenderedDirectoryTaskTest {
+  private static final File TEST_DIR = new File("./target/rendered-directory-test");
+  
+  private File checkout;
+  private File lastDirectory;
+  private Git git;
+  private GitService service;
+  private DelayedGitServiceInitializer initializer;
+  private String firstRevision;
+  private String nextDirectory;
+  
+  /**
+   * Commits the first revision to a new repository and exports it to the last directory, with its change set.
+   */
+  @Before
+  public void createRepository() throws Exception {
+    FileUtils.deleteQuietly(TEST_DIR);
+    checkout = new File(TEST_DIR, "git-checkout");
+    lastDirectory = new File(TEST_DIR, "renderedContent");
+    checkout.mkdirs();
+    git = Git.init().setDirectory(checkout).call();
+    service = new GitService(git.getRepository());
+    
+    FileUtils.writeStringToFile(new File(checkout, "unchanged.txt"), "unchanged");
+    FileUtils.writeStringToFile(new File(checkout, "changed.txt"), "first");
+    FileUtils.writeStringToFile(new File(checkout, "deleted.txt"), "deleted");
+    File script = new File(checkout, "bin/run.sh");
+    FileUtils.writeStringToFile(script, "#!/bin/sh");
+    script.setExecutable(true, false);
+    git.add().addFilepattern(".").call();
+    firstRevision = git.commit().setMessage("first").call().getName();
+    
+    GitService.SnapshotExport export = service.exportSnapshot(firstRevision, null, Collections.<String>emptySet(), lastDirectory);
+    assertEquals(0, export.getLinkedCount());
+    assertEquals(4, export.getWrittenCount());
+    new ContentChangeSet(null, firstRevision, Collections.<String>emptyList(), Collections.<String>emptyList()).write(lastDirectory);
+    
+    initializer = new DelayedGitServiceInitializer();
+    initializer.setGitService(service);
+  }
+  
+  @After
+  public void deleteRepository() throws Exception {
+    service.close();
+    FileUtils.deleteQuietly(TEST_DIR);
+  }
+  
+  @Test
+  public void testExportsChangesSinceLastDirectory() throws Exception {
+    FileUtils.writeStringToFile(new File(checkout, "changed.txt"), "second");
+    FileUtils.writeStringToFile(new File(checkout, "added.txt"), "added");
+    git.rm().addFilepattern("deleted.txt").call();
+    git.add().addFilepattern(".").call();
+    String secondRevision = git.commit().setMessage("second").call().getName();
+    
+    ContentChangeSet diff = service.diff(firstRevision, secondRevision);
+    assertEquals(new HashSet<String>(Arrays.asList("/changed.txt", "/added.txt")), diff.getChangedPaths());
+    assertEquals(Collections.singleton("/deleted.txt"), diff.getDeletedPaths());
+    
+    CreateNewRenderedDirectoryTask task = createTask();
+    assertTrue("The task failed", task.call());
+    File next = new File(nextDirectory);
+    assertEquals(new File(TEST_DIR, "renderedContent_1").getAbsolutePath(), next.getAbsolutePath());
+    
+    assertEquals("second", FileUtils.readFileToString(new File(next, "changed.txt")));
+    assertEquals("added", FileUtils.readFileToString(new File(next, "added.txt")));
+    assertFalse("Deleted files should not be exported", new File(next, "deleted.txt").exists());
+    assertFalse("The repository should not be cloned", new File(next, ".git").exists());
+    assertTrue("Executable files should stay executable", new File(next, "bin/run.sh").canExecute());
+    
+    // unchanged files are links, so writing the file in the last directory shows through the new directory.
+    FileUtils.writeStringToFile(new File(lastDirectory, "unchanged.txt"), "linked");
+    assertEquals("linked", FileUtils.readFileToString(new File(next, "unchanged.txt")));
+    FileUtils.writeStringToFile(new File(lastDirectory, "changed.txt"), "linked");
+    assertEquals("second", FileUtils.readFileToString(new File(next, "changed.txt")));
+    
+    assertEquals(4, task.getFileCount());
+    assertEquals("unchanged".length() + "second".length() + "added".length() + "#!/bin/sh".length(), task.getByteCount());
+    
+    ContentChangeSet changes = ContentChangeSet.read(next);
+    assertEquals(firstRevision, changes.getFromRevision());
+    assertEquals(secondRevision, changes.getToRevision());
+    assertEquals(diff.getChangedPaths(), changes.getChangedPaths());
+    assertEquals(diff.getDeletedPaths(), changes.getDeletedPaths());
+  }
+  
+  @Test
+  public void testClonesWhenRevisionHasSymbolicLink() throws Exception {
+    FileUtils.writeStringToFile(new File(checkout, "changed.txt"), "second");
+    git.add().addFilepattern("changed.txt").call();
+    addSymbolicLink(git.getRepository(), "link.txt", "unchanged.txt");
+    String secondRevision = git.commit().setMessage("link").call().getName();
+    
+    try {
+      service.exportSnapshot(secondRevision, lastDirectory, Collections.singleton("/link.txt"), new File(TEST_DIR, "export"));
+      throw new AssertionError("Symbolic links should not be exported");
+    } catch(Exception e) {
+      // expected.
+    }
+    
+    CreateNewRenderedDirectoryTask task = createTask();
+    assertTrue("The task failed", task.call());
+    File next = new File(nextDirectory);
+    assertEquals("second", FileUtils.readFileToString(new File(next, "changed.txt")));
+    assertTrue("The cloned link should be checked out", new File(next, "link.txt").exists());
+    assertFalse("The repository should be removed from the clone", new File(next, ".git").exists());
+    assertNotNull(ContentChangeSet.read(next));
+    assertEquals(secondRevision, ContentChangeSet.read(next).getToRevision());
+    assertTrue("Cloned directories should be measured", task.getFileCount() > 0);
+  }
+  
+  private CreateNewRenderedDirectoryTask createTask() {
+    return new CreateNewRenderedDirectoryTask(initializer, lastDirectory.getAbsolutePath(), null, null) {
+      @Override
+      public void setNextDirectory(String nextDirectory) {
+        CreateNewRenderedDirectoryTaskTest.this.nextDirectory = nextDirectory;
+      }
+    };
+  }
+  
+  /**
+   * Adds a symbolic link to the index of a repository, since the working tree of the test may not support them.
+   */
+  private static void addSymbolicLink(Repository repository, String path, String target) throws Exception {
+    ObjectInserter inserter = repository.newObjectInserter();
+    final ObjectId blob;
+    try {
+      blob = inserter.insert(Constants.OBJ_BLOB, Constants.encode(target));
+      inserter.flush();
+    } finally {
+      inserter.release();
+    }
+    DirCache index = repository.lockDirCache();
+    DirCacheEditor editor = index.editor();
+    editor.add(new DirCacheEditor.PathEdit(path) {
+      @Override
+      public void apply(DirCacheEntry entry) {
+        entry.setFileMode(FileMode.SYMLINK);
+        entry.setObjectId(blob);
+      }
+    });
+    editor.commit();
+  }
+}
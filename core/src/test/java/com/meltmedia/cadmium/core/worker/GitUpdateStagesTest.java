@@ -0,0 +1,102 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GitUpdateStagesTest {
+  private ExecutorService pool;
+  
+  @Before
+  public void createPool() {
+    pool = Executors.newCachedThreadPool();
+  }
+  
+  @After
+  public void shutdownPool() {
+    pool.shutdownNow();
+  }
+  
+  @Test
+  public void testParallelStages() throws Exception {
+    final CountDownLatch bothRunning = new CountDownLatch(2);
+    Callable<Boolean> waitForOther = new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        bothRunning.countDown();
+        return bothRunning.await(5, TimeUnit.SECONDS);
+      }
+    };
+    UpdatePipeline pipeline = new UpdatePipeline("test", pool, null, null, null);
+    GitUpdateStages stages = new GitUpdateStages(pipeline, "content", null, null, null);
+    UpdatePipeline.Stage first = stages.addStage("first", new ResultTask(true));
+    
+    Map<String, Callable<Boolean>> parallel = new LinkedHashMap<String, Callable<Boolean>>();
+    parallel.put("left", waitForOther);
+    parallel.put("right", waitForOther);
+    stages.addParallelStages(parallel);
+    Future<Boolean> parallelResult = stages.getLastStage();
+    UpdatePipeline.Stage last = stages.addStage("last", new ResultTask(true));
+    pipeline.start();
+    
+    assertTrue("Last stage failed", last.get(10, TimeUnit.SECONDS));
+    assertTrue("Parallel stages did not run at the same time", parallelResult.get());
+    assertEquals(Arrays.asList(first), pipeline.getStages().get(1).getDependencies());
+    assertEquals(Arrays.asList(pipeline.getStages().get(1), pipeline.getStages().get(2)), last.getDependencies());
+  }
+  
+  @Test
+  public void testParallelStageFailure() throws Exception {
+    UpdatePipeline pipeline = new UpdatePipeline("test", pool, null, null, null);
+    GitUpdateStages stages = new GitUpdateStages(pipeline, "content", null, null, null);
+    
+    Map<String, Callable<Boolean>> parallel = new LinkedHashMap<String, Callable<Boolean>>();
+    parallel.put("passing", new ResultTask(true));
+    parallel.put("failing", new ResultTask(false));
+    stages.addParallelStages(parallel);
+    Future<Boolean> parallelResult = stages.getLastStage();
+    pipeline.start();
+    
+    assertFalse("Failed parallel stage not reported", parallelResult.get(5, TimeUnit.SECONDS));
+  }
+  
+  private static class ResultTask implements Callable<Boolean> {
+    private boolean result;
+    
+    public ResultTask(boolean result) {
+      this.result = result;
+    }
+    
+    public Boolean call() throws Exception {
+      return result;
+    }
+  }
+}
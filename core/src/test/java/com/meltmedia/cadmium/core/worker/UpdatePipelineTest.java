@@ -0,0 +1,221 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.core.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.meltmedia.cadmium.core.history.HistoryManager;
+
+public class UpdatePipelineTest {
+  private ExecutorService pool;
+  private List<String> ran;
+  
+  @Before
+  public void createPool() {
+    pool = Executors.newCachedThreadPool();
+    ran = Collections.synchronizedList(new ArrayList<String>());
+  }
+  
+  @After
+  public void shutdownPool() {
+    pool.shutdownNow();
+  }
+  
+  @Test
+  public void testDependenciesRunInOrder() throws Exception {
+    UpdatePipeline pipeline = new UpdatePipeline("test", pool, null, null, null);
+    UpdatePipeline.Stage first = pipeline.addStage("first", new RecordingTask("first", 100l));
+    UpdatePipeline.Stage second = pipeline.addStage("second", new RecordingTask("second", 0l), first);
+    UpdatePipeline.Stage third = pipeline.addStage("third", new RecordingTask("third", 0l), second);
+    pipeline.start();
+    
+    assertTrue("Pipeline failed", third.get(5, TimeUnit.SECONDS));
+    assertEquals("Stages ran out of order", "[first, second, third]", ran.toString());
+    assertTrue("Wall time not recorded", first.getWallTime() >= 100l);
+  }
+  
+  @Test
+  public void testIndependentStagesRunTogether() throws Exception {
+    final CountDownLatch bothRunning = new CountDownLatch(2);
+    Callable<Boolean> waitForOther = new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        bothRunning.countDown();
+        return bothRunning.await(5, TimeUnit.SECONDS);
+      }
+    };
+    UpdatePipeline pipeline = new UpdatePipeline("test", pool, null, null, null);
+    UpdatePipeline.Stage left = pipeline.addStage("left", waitForOther);
+    UpdatePipeline.Stage right = pipeline.addStage("right", waitForOther);
+    UpdatePipeline.Stage join = pipeline.addStage("join", new RecordingTask("join", 0l), left, right);
+    pipeline.start();
+    
+    assertTrue("Join failed", join.get(10, TimeUnit.SECONDS));
+    assertTrue("Independent stages did not run at the same time", left.get() && right.get());
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testTimingsRecorded() throws Exception {
+    HistoryManager historyManager = mock(HistoryManager.class);
+    UpdatePipeline pipeline = new UpdatePipeline("test", pool, null, historyManager, "uuid");
+    UpdatePipeline.Stage plain = pipeline.addStage("plain", new RecordingTask("plain", 0l));
+    pipeline.addStage("measured", new MeasuredRecordingTask("measured", 12l, -1l), plain);
+    pipeline.start();
+    
+    ArgumentCaptor<Map> timings = ArgumentCaptor.forClass(Map.class);
+    verify(historyManager, timeout(5000)).recordTimings(eq("uuid"), timings.capture());
+    assertTrue("Wall time not recorded", timings.getValue().containsKey("test.plain"));
+    assertTrue("Wall time not recorded", timings.getValue().containsKey("test.measured"));
+    assertEquals("File count not recorded", 12l, timings.getValue().get("test.measured.files"));
+    assertTrue("Unknown byte count recorded", !timings.getValue().containsKey("test.measured.bytes"));
+    assertTrue("Counts recorded for a stage that does not measure", !timings.getValue().containsKey("test.plain.files"));
+  }
+  
+  @Test
+  public void testPipelinesRunOneAfterAnother() throws Exception {
+    UpdatePipeline first = new UpdatePipeline("first", pool, null, null, null);
+    first.addStage("slow", new RecordingTask("first", 200l));
+    UpdatePipeline second = new UpdatePipeline("second", pool, first, null, null);
+    UpdatePipeline.Stage last = second.addStage("fast", new RecordingTask("second", 0l));
+    first.start();
+    second.start();
+    
+    assertTrue("Second pipeline failed", last.get(5, TimeUnit.SECONDS));
+    assertEquals("Pipelines overlapped", "[first, second]", ran.toString());
+  }
+  
+  @Test
+  public void testCancel() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    UpdatePipeline pipeline = new UpdatePipeline("test", pool, null, null, null);
+    UpdatePipeline.Stage blocking = pipeline.addStage("blocking", new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        started.countDown();
+        Thread.sleep(10000l);
+        return true;
+      }
+    });
+    UpdatePipeline.Stage next = pipeline.addStage("next", new RecordingTask("next", 0l), blocking);
+    pipeline.start();
+    assertTrue("Stage did not start", started.await(5, TimeUnit.SECONDS));
+    
+    pipeline.cancel();
+    
+    assertTrue("Pipeline not cancelled", pipeline.isCancelled());
+    assertTrue("Running stage not cancelled", blocking.isCancelled());
+    assertTrue("Waiting stage not cancelled", next.isCancelled());
+    waitForDone(pipeline);
+    Thread.sleep(100l);
+    assertTrue("Cancelled stage ran", ran.isEmpty());
+  }
+  
+  @Test
+  public void testCancelWaitsForRunningStages() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    UpdatePipeline first = new UpdatePipeline("first", pool, null, null, null);
+    first.addStage("stubborn", new Callable<Boolean>() {
+      public Boolean call() throws Exception {
+        started.countDown();
+        long end = System.currentTimeMillis() + 300l;
+        while(System.currentTimeMillis() < end) {
+          try {
+            Thread.sleep(end - System.currentTimeMillis());
+          } catch(InterruptedException e) {
+            // keeps running, like a task that does not check for interrupts.
+          }
+        }
+        ran.add("first");
+        return true;
+      }
+    });
+    first.start();
+    assertTrue("Stage did not start", started.await(5, TimeUnit.SECONDS));
+    
+    first.cancel();
+    assertTrue("Pipeline done before its running stage returned", !first.isDone());
+    
+    UpdatePipeline second = new UpdatePipeline("second", pool, first, null, null);
+    UpdatePipeline.Stage last = second.addStage("fast", new RecordingTask("second", 0l));
+    second.start();
+    
+    assertTrue("Second pipeline failed", last.get(5, TimeUnit.SECONDS));
+    assertTrue("First pipeline not done", first.isDone());
+    assertEquals("Pipelines overlapped", "[first, second]", ran.toString());
+  }
+  
+  private void waitForDone(UpdatePipeline pipeline) throws InterruptedException {
+    long timeout = System.currentTimeMillis() + 5000l;
+    while(!pipeline.isDone() && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10l);
+    }
+    assertTrue("Pipeline not done", pipeline.isDone());
+  }
+  
+  private class RecordingTask implements Callable<Boolean> {
+    private String name;
+    private long sleep;
+    
+    public RecordingTask(String name, long sleep) {
+      this.name = name;
+      this.sleep = sleep;
+    }
+    
+    public Boolean call() throws Exception {
+      Thread.sleep(sleep);
+      ran.add(name);
+      return true;
+    }
+  }
+  
+  private class MeasuredRecordingTask extends RecordingTask implements UpdatePipeline.MeasuredTask {
+    private long fileCount;
+    private long byteCount;
+    
+    public MeasuredRecordingTask(String name, long fileCount, long byteCount) {
+      super(name, 0l);
+      this.fileCount = fileCount;
+      this.byteCount = byteCount;
+    }
+
+    public long getFileCount() {
+      return fileCount;
+    }
+
+    public long getByteCount() {
+      return byteCount;
+    }
+  }
+}
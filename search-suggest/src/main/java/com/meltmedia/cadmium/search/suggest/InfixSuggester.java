@@ -0,0 +1,153 @@
+package com.meltmedia.cadmium.search.suggest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+
+/**
+ * Suggests phrases that contain a word starting with the query, so "cancer" suggests "breast cancer screening".  Every
+ * phrase is indexed under each of its words, by the rest of the phrase starting at that word, and lookups binary search
+ * those keys for the query prefix.  Suggestions are ordered by weight.
+ */
+public class InfixSuggester {
+	
+	/**
+	 * The most keys that a single lookup looks at, so very short queries stay cheap.
+	 */
+	static final int MAX_SCANNED_KEYS = 10000;
+	
+	private final String phrases[];
+	private final long weights[];
+	private final String keys[];
+	private final int keyPhrases[];
+	
+	private InfixSuggester(String phrases[], long weights[], String keys[], int keyPhrases[]) {
+		this.phrases = phrases;
+		this.weights = weights;
+		this.keys = keys;
+		this.keyPhrases = keyPhrases;
+	}
+	
+	/**
+	 * Builds a suggester from phrases and their weights.
+	 * 
+	 * @param phraseWeights the weight of each phrase.
+	 * @return The suggester.
+	 */
+	public static InfixSuggester build(Map<String, Long> phraseWeights) {
+		final String phrases[] = new String[phraseWeights.size()];
+		long weights[] = new long[phrases.length];
+		int i = 0;
+		List<String> keyList = new ArrayList<String>();
+		List<Integer> keyPhraseList = new ArrayList<Integer>();
+		for(Map.Entry<String, Long> entry : phraseWeights.entrySet()) {
+			phrases[i] = entry.getKey();
+			weights[i] = entry.getValue();
+			String normalized = normalize(entry.getKey());
+			for(int start = 0; start < normalized.length(); start++) {
+				if(start == 0 || normalized.charAt(start - 1) == ' ') {
+					keyList.add(normalized.substring(start));
+					keyPhraseList.add(i);
+				}
+			}
+			i++;
+		}
+		final String unsortedKeys[] = keyList.toArray(new String[keyList.size()]);
+		Integer order[] = new Integer[unsortedKeys.length];
+		for(int k = 0; k < order.length; k++) {
+			order[k] = k;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer key1, Integer key2) {
+				return unsortedKeys[key1].compareTo(unsortedKeys[key2]);
+			}
+		});
+		String keys[] = new String[order.length];
+		int keyPhrases[] = new int[order.length];
+		for(int k = 0; k < order.length; k++) {
+			keys[k] = unsortedKeys[order[k]];
+			keyPhrases[k] = keyPhraseList.get(order[k]);
+		}
+		return new InfixSuggester(phrases, weights, keys, keyPhrases);
+	}
+	
+	/**
+	 * Finds the phrases that contain a word starting with the query.
+	 * 
+	 * @param query the query.
+	 * @param num the most results to return.
+	 * @return The matching phrases, heaviest first.
+	 */
+	public List<LookupResult> lookup(CharSequence query, int num) {
+		String prefix = normalize(query.toString());
+		if(prefix.length() == 0 || num <= 0) {
+			return Collections.emptyList();
+		}
+		int index = Arrays.binarySearch(keys, prefix);
+		if(index < 0) {
+			index = -index - 1;
+		}
+		Set<Integer> matches = new LinkedHashSet<Integer>();
+		for(int end = Math.min(keys.length, index + MAX_SCANNED_KEYS); index < end && keys[index].startsWith(prefix); index++) {
+			matches.add(keyPhrases[index]);
+		}
+		Integer matched[] = matches.toArray(new Integer[matches.size()]);
+		Arrays.sort(matched, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer phrase1, Integer phrase2) {
+				int byWeight = Long.valueOf(weights[phrase2]).compareTo(weights[phrase1]);
+				return byWeight != 0 ? byWeight : phrases[phrase1].compareTo(phrases[phrase2]);
+			}
+		});
+		List<LookupResult> results = new ArrayList<LookupResult>(Math.min(num, matched.length));
+		for(int m = 0; m < matched.length && m < num; m++) {
+			results.add(new LookupResult(phrases[matched[m]], weights[matched[m]]));
+		}
+		return results;
+	}
+	
+	public int size() {
+		return phrases.length;
+	}
+	
+	/**
+	 * Writes the phrases and weights of this suggester.  The keys are rebuilt when it is loaded.
+	 */
+	public void store(DataOutput out) throws IOException {
+		out.writeInt(phrases.length);
+		for(int i = 0; i < phrases.length; i++) {
+			out.writeUTF(phrases[i]);
+			out.writeLong(weights[i]);
+		}
+	}
+	
+	/**
+	 * Reads a suggester written by {@link #store(DataOutput)}.
+	 */
+	public static InfixSuggester load(DataInput in) throws IOException {
+		int count = in.readInt();
+		Map<String, Long> phraseWeights = new LinkedHashMap<String, Long>();
+		for(int i = 0; i < count; i++) {
+			String phrase = in.readUTF();
+			phraseWeights.put(phrase, in.readLong());
+		}
+		return build(phraseWeights);
+	}
+	
+	static String normalize(String text) {
+		return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+	}
+}
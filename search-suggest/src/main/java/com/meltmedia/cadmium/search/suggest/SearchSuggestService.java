@@ -1,10 +1,10 @@
 package com.meltmedia.cadmium.search.suggest;
 
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
@@ -13,6 +13,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 
 import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,19 +37,39 @@ public class SearchSuggestService {
       throws Exception {
 		
     Map<String, Object> resultMap = new LinkedHashMap<String, Object>();
-    logger.info("provider: {}", provider);
-    logger.info("suggester: {}", provider.getSuggester());
-    List<LookupResult> results = provider.getSuggester().lookup(query, false, maxResults == null? MAX_RESULTS : maxResults);
+    int max = maxResults == null? MAX_RESULTS : maxResults;
     
-    // Make the results more usable to consumer.
-    Set<String> resultSet = new TreeSet<String>();
+    // Suggestions are returned in the order the suggesters rank them, heaviest first.
+    Suggestions suggestions = provider.getSuggestions();
+    if(suggestions != null) {
+    	resultMap.put(RESULT_KEY, suggestions.lookup(query, max));
+    	return resultMap;
+    }
+    
+    Set<String> resultSet = new LinkedHashSet<String>();
     resultMap.put(RESULT_KEY, resultSet);
     
+    AnalyzingSuggester suggester = provider.getSuggester();
+    if(suggester == null) {
+    	logger.debug("No suggester is live.");
+    	return resultMap;
+    }
+    List<LookupResult> results = suggester.lookup(query, false, max);
     if(results != null) {
     	for(LookupResult result : results) {    		    		
     		resultSet.add(result.key.toString());
     	}    	
     }
+    
+    InfixSuggester infixSuggester = provider.getInfixSuggester();
+    if(infixSuggester != null) {
+    	for(LookupResult result : infixSuggester.lookup(query, max)) {
+    		if(resultSet.size() >= max) {
+    			break;
+    		}
+    		resultSet.add(result.key.toString());
+    	}
+    }
     return resultMap;
   }
 	
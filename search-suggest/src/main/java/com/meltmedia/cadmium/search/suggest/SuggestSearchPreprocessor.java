@@ -1,51 +1,332 @@
 package com.meltmedia.cadmium.search.suggest;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
 import javax.inject.Singleton;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.search.spell.Dictionary;
-import org.apache.lucene.search.spell.LuceneDictionary;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.search.spell.HighFrequencyDictionary;
 import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
-import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.meltmedia.cadmium.core.MetricsProvider;
+import com.meltmedia.cadmium.core.config.ConfigurationListener;
+import com.meltmedia.cadmium.search.SearchContentPreprocessor;
 import com.meltmedia.cadmium.search.SearchPreprocessor;
+import com.meltmedia.cadmium.search.suggest.config.SuggestConfiguration;
 
 
 /**
+ * Builds the suggesters of each search index.  Terms are weighted by the number of pages they appear in.  The
+ * suggesters are stored in a <code>suggest</code> directory next to the index, and are loaded from there instead of
+ * being built again when the index is for the same content revision, like when a server restarts.
  * 
  * @author Brian Barr
  *
  */
 @Singleton
-public class SuggestSearchPreprocessor implements SearchPreprocessor, SuggesterProvider {
+public class SuggestSearchPreprocessor implements SearchPreprocessor, SuggesterProvider, ConfigurationListener<SuggestConfiguration>, MetricsProvider {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 	
-	protected AnalyzingSuggester stagedSuggester;
-	protected AnalyzingSuggester liveSuggester;
+	static final String SUGGEST_DIR = "suggest";
+	static final String PROPERTIES_FILE = "suggest.properties";
+	static final String ANALYZING_FILE = "analyzing.bin";
+	static final String INFIX_FILE = "infix.bin";
+	static final String TITLE_FIELD = "title";
+	
+	protected volatile AnalyzingSuggester stagedSuggester;
+	protected volatile AnalyzingSuggester liveSuggester;
+	protected volatile InfixSuggester stagedInfixSuggester;
+	protected volatile InfixSuggester liveInfixSuggester;
+	protected volatile Suggestions stagedSuggestions;
+	protected volatile Suggestions liveSuggestions;
+	private volatile SuggestConfiguration configuration = new SuggestConfiguration();
 	
 	@Override
 	public void makeLive() {
-		liveSuggester = stagedSuggester;		
-		stagedSuggester = null;
+		if(stagedSuggestions != null) {
+			liveSuggestions = stagedSuggestions;
+			liveInfixSuggester = stagedInfixSuggester;
+			liveSuggester = stagedSuggester;		
+			stagedSuggestions = null;
+			stagedSuggester = null;
+			stagedInfixSuggester = null;
+		}
 	}
 
 	@Override
 	public void process(IndexReader reader, Analyzer analyzer, String field) throws Exception {
+		SuggestConfiguration config = configuration;
+		String revision = getRevision(reader);
+		File suggestDir = config.isPersist() && revision != null ? getSuggestDir(reader) : null;
 		
-		logger.info("Pulling out suggested search terms.");
-		Dictionary dictionary = new LuceneDictionary(reader, field);		
-		AnalyzingSuggester suggester = new AnalyzingSuggester(analyzer); 
-		suggester.build(dictionary);
-		stagedSuggester = suggester;		            		
+		if(suggestDir == null || !load(suggestDir, revision, field, config.isInfix(), analyzer)) {
+			long start = System.currentTimeMillis();
+			logger.info("Pulling out suggested search terms.");
+			AnalyzingSuggester suggester = new AnalyzingSuggester(analyzer); 
+			suggester.build(new HighFrequencyDictionary(reader, field, 0f));
+			InfixSuggester infixSuggester = config.isInfix() ? buildInfixSuggester(reader) : null;
+			logger.info("Built suggesters in {}ms.", System.currentTimeMillis() - start);
+			
+			if(suggestDir != null) {
+				store(suggestDir, revision, field, suggester, infixSuggester);
+			}
+			stagedInfixSuggester = infixSuggester;
+			stagedSuggester = suggester;
+		}
+		
+		long start = System.currentTimeMillis();
+		Suggestions suggestions = new Suggestions(stagedSuggester, stagedInfixSuggester);
+		suggestions.precompute(new TermIterator(new HighFrequencyDictionary(reader, field, 0f).getWordsIterator()));
+		logger.info("Computed the suggestions of {} prefixes in {}ms.", suggestions.getPrecomputedCount(), System.currentTimeMillis() - start);
+		stagedSuggestions = suggestions;
+	}
+	
+	/**
+	 * Builds an infix suggester over the titles of the pages in an index, weighted by the number of pages with each title.
+	 */
+	static InfixSuggester buildInfixSuggester(IndexReader reader) throws Exception {
+		Map<String, Long> titles = new LinkedHashMap<String, Long>();
+		Bits liveDocs = MultiFields.getLiveDocs(reader);
+		for(int i = 0; i < reader.maxDoc(); i++) {
+			if(liveDocs != null && !liveDocs.get(i)) {
+				continue;
+			}
+			String title = reader.document(i, Collections.singleton(TITLE_FIELD)).get(TITLE_FIELD);
+			if(StringUtils.isBlank(title)) {
+				continue;
+			}
+			title = title.trim().replaceAll("\\s+", " ");
+			Long count = titles.get(title);
+			titles.put(title, count == null ? 1l : count + 1l);
+		}
+		return InfixSuggester.build(titles);
+	}
+	
+	/**
+	 * @return The content revision that an index was built from, or null if it is not known.
+	 */
+	static String getRevision(IndexReader reader) {
+		try {
+			if(reader instanceof DirectoryReader) {
+				return ((DirectoryReader)reader).getIndexCommit().getUserData().get(SearchContentPreprocessor.REVISION_KEY);
+			}
+		} catch(Exception e) {
+			LoggerFactory.getLogger(SuggestSearchPreprocessor.class).debug("Failed to read the revision of the search index.", e);
+		}
+		return null;
+	}
+	
+	/**
+	 * @return The directory next to the index that suggesters are stored in, or null if the index is not on disk.
+	 */
+	static File getSuggestDir(IndexReader reader) {
+		if(reader instanceof DirectoryReader) {
+			Directory directory = ((DirectoryReader)reader).directory();
+			if(directory instanceof FSDirectory) {
+				return new File(((FSDirectory)directory).getDirectory().getParentFile(), SUGGEST_DIR);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Loads stored suggesters, if they were built from the same revision with the same settings.
+	 * 
+	 * @return true if the suggesters were loaded and staged.
+	 */
+	private boolean load(File suggestDir, String revision, String field, boolean infix, Analyzer analyzer) {
+		File propertiesFile = new File(suggestDir, PROPERTIES_FILE);
+		if(!propertiesFile.isFile()) {
+			return false;
+		}
+		InputStream in = null;
+		try {
+			Properties properties = new Properties();
+			in = new FileInputStream(propertiesFile);
+			properties.load(in);
+			IOUtils.closeQuietly(in);
+			if(!revision.equals(properties.getProperty("revision")) || !field.equals(properties.getProperty("field")) 
+					|| infix != Boolean.parseBoolean(properties.getProperty("infix"))) {
+				logger.info("Stored suggesters are for revision {}, building suggesters for {}.", properties.getProperty("revision"), revision);
+				return false;
+			}
+			long start = System.currentTimeMillis();
+			AnalyzingSuggester suggester = new AnalyzingSuggester(analyzer);
+			in = new BufferedInputStream(new FileInputStream(new File(suggestDir, ANALYZING_FILE)));
+			if(!suggester.load(in)) {
+				return false;
+			}
+			IOUtils.closeQuietly(in);
+			InfixSuggester infixSuggester = null;
+			if(infix) {
+				in = new BufferedInputStream(new FileInputStream(new File(suggestDir, INFIX_FILE)));
+				infixSuggester = InfixSuggester.load(new DataInputStream(in));
+			}
+			logger.info("Loaded the suggesters of revision {} in {}ms.", revision, System.currentTimeMillis() - start);
+			stagedInfixSuggester = infixSuggester;
+			stagedSuggester = suggester;
+			return true;
+		} catch(Exception e) {
+			logger.warn("Failed to load the stored suggesters, building suggesters.", e);
+			return false;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+	
+	/**
+	 * Stores suggesters.  The properties file is written last, so suggesters are only loaded if they were all written.
+	 */
+	private void store(File suggestDir, String revision, String field, AnalyzingSuggester suggester, InfixSuggester infixSuggester) {
+		OutputStream out = null;
+		try {
+			if(suggestDir.exists()) {
+				FileUtils.deleteDirectory(suggestDir);
+			}
+			FileUtils.forceMkdir(suggestDir);
+			out = new BufferedOutputStream(new FileOutputStream(new File(suggestDir, ANALYZING_FILE)));
+			if(!suggester.store(out)) {
+				logger.warn("The suggester could not be stored.");
+				return;
+			}
+			out.close();
+			if(infixSuggester != null) {
+				out = new BufferedOutputStream(new FileOutputStream(new File(suggestDir, INFIX_FILE)));
+				DataOutputStream dataOut = new DataOutputStream(out);
+				infixSuggester.store(dataOut);
+				dataOut.flush();
+				out.close();
+			}
+			Properties properties = new Properties();
+			properties.setProperty("revision", revision);
+			properties.setProperty("field", field);
+			properties.setProperty("infix", String.valueOf(infixSuggester != null));
+			out = new FileOutputStream(new File(suggestDir, PROPERTIES_FILE));
+			properties.store(out, "Suggesters of the search index");
+		} catch(Exception e) {
+			logger.warn("Failed to store the suggesters in "+suggestDir, e);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
 	}
 
 	@Override
 	public AnalyzingSuggester getSuggester() {
 		return liveSuggester;
 	}
+	
+	@Override
+	public InfixSuggester getInfixSuggester() {
+		return liveInfixSuggester;
+	}
+	
+	@Override
+	public Suggestions getSuggestions() {
+		return liveSuggestions;
+	}
+
+	@Override
+	public String getMetricsName() {
+		return "search-suggest";
+	}
+	
+	/**
+	 * Reports the prefix cache of the live suggestions.  The counts start over when a new index is made live.
+	 */
+	@Override
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		Suggestions suggestions = liveSuggestions;
+		long hitCount = suggestions != null ? suggestions.getHits() : 0l;
+		long missCount = suggestions != null ? suggestions.getMisses() : 0l;
+		metrics.put("hits", hitCount);
+		metrics.put("misses", missCount);
+		metrics.put("hitRatio", hitCount + missCount > 0 ? (double)hitCount / (hitCount + missCount) : 0.0d);
+		metrics.put("precomputedPrefixes", suggestions != null ? suggestions.getPrecomputedCount() : 0);
+		metrics.put("cachedPrefixes", suggestions != null ? suggestions.getCachedCount() : 0);
+		return metrics;
+	}
+
+	/**
+	 * Reads the terms of a dictionary as strings.
+	 */
+	private static class TermIterator implements Iterator<String> {
+		private final BytesRefIterator terms;
+		private BytesRef next;
+		
+		public TermIterator(BytesRefIterator terms) throws IOException {
+			this.terms = terms;
+			this.next = terms.next();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public String next() {
+			if(next == null) {
+				throw new NoSuchElementException();
+			}
+			String term = next.utf8ToString();
+			try {
+				next = terms.next();
+			} catch(IOException e) {
+				throw new IllegalStateException("Failed to read the next term.", e);
+			}
+			return term;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Changes apply to the next search index that is processed.
+	 */
+	@Override
+	public void configurationUpdated(Object configuration) {
+		if(configuration instanceof SuggestConfiguration) {
+			this.configuration = (SuggestConfiguration) configuration;
+		}
+	}
+
+	@Override
+	public void configurationNotFound() {
+		this.configuration = new SuggestConfiguration();
+	}
 
 	public void setStagedSuggester(AnalyzingSuggester stagedSuggester) {
 		this.stagedSuggester = stagedSuggester;
@@ -4,4 +4,14 @@ import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
 
 public interface SuggesterProvider {
 	public AnalyzingSuggester getSuggester();
+	
+	/**
+	 * @return The suggester of phrases that contain the query, or null if infix suggestions are not enabled.
+	 */
+	public InfixSuggester getInfixSuggester();
+	
+	/**
+	 * @return The live suggesters along with their cached suggestions, or null if there are none.
+	 */
+	public Suggestions getSuggestions();
 }
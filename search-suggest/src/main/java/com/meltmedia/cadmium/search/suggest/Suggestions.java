@@ -0,0 +1,177 @@
+package com.meltmedia.cadmium.search.suggest;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+
+/**
+ * The suggesters of one search index, along with the suggestions for the prefixes that are looked up the most.  The
+ * suggestions for the shortest prefixes are computed when the suggesters are built, and the suggestions for longer
+ * prefixes are cached as they are looked up.  A new instance is made live with each index, so cached suggestions never
+ * outlive the index they came from.
+ */
+public class Suggestions {
+	
+	/**
+	 * The number of suggestions of each kind that are computed and cached for a prefix.  Lookups for more suggestions
+	 * than this are not cached.
+	 */
+	public static final int CACHED_RESULTS = SearchSuggestService.MAX_RESULTS;
+	
+	/**
+	 * Prefixes up to this length are computed when the suggesters are built.
+	 */
+	public static final int PRECOMPUTED_PREFIX_LENGTH = 2;
+	
+	public static final int MAX_CACHED_PREFIXES = 10000;
+	
+	private final AnalyzingSuggester suggester;
+	private final InfixSuggester infixSuggester;
+	private final Map<String, Entry> precomputed = new HashMap<String, Entry>();
+	private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+	
+	private final AtomicLong hits = new AtomicLong(0l);
+	private final AtomicLong misses = new AtomicLong(0l);
+	
+	public Suggestions(AnalyzingSuggester suggester, InfixSuggester infixSuggester) {
+		this.suggester = suggester;
+		this.infixSuggester = infixSuggester;
+	}
+	
+	/**
+	 * Computes the suggestions for the shortest prefixes of some terms.  This must be called before the suggestions are
+	 * made live.
+	 * 
+	 * @param terms the terms to compute prefixes of.
+	 */
+	public void precompute(Iterator<String> terms) {
+		Set<String> prefixes = new LinkedHashSet<String>();
+		while(terms.hasNext()) {
+			String term = normalize(terms.next());
+			for(int length = 1; length <= PRECOMPUTED_PREFIX_LENGTH && length <= term.length(); length++) {
+				prefixes.add(term.substring(0, length));
+			}
+		}
+		for(String prefix : prefixes) {
+			precomputed.put(prefix, compute(prefix));
+		}
+	}
+	
+	/**
+	 * Looks up the suggestions for a query.  Term suggestions come first, heaviest first, followed by phrase suggestions
+	 * until there are maxResults suggestions.
+	 * 
+	 * @param query the query.
+	 * @param maxResults the most suggestions to return.
+	 * @return The suggestions.
+	 */
+	public Set<String> lookup(String query, int maxResults) {
+		String key = normalize(query);
+		Entry entry = null;
+		if(maxResults > CACHED_RESULTS) {
+			entry = compute(key, maxResults);
+		} else {
+			entry = precomputed.get(key);
+			if(entry == null) {
+				synchronized(cache) {
+					entry = cache.get(key);
+				}
+			}
+			if(entry != null) {
+				hits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+				entry = compute(key);
+				synchronized(cache) {
+					cache.put(key, entry);
+					if(cache.size() > MAX_CACHED_PREFIXES) {
+						Iterator<Entry> eldest = cache.values().iterator();
+						eldest.next();
+						eldest.remove();
+					}
+				}
+			}
+		}
+		Set<String> results = new LinkedHashSet<String>();
+		add(results, entry.terms, maxResults);
+		add(results, entry.phrases, maxResults);
+		return results;
+	}
+	
+	private static void add(Collection<String> results, String suggestions[], int maxResults) {
+		for(int i = 0; i < suggestions.length && results.size() < maxResults; i++) {
+			results.add(suggestions[i]);
+		}
+	}
+	
+	private Entry compute(String query) {
+		return compute(query, CACHED_RESULTS);
+	}
+	
+	private Entry compute(String query, int maxResults) {
+		String terms[] = toKeys(query.length() > 0 ? suggester.lookup(query, false, maxResults) : null);
+		String phrases[] = toKeys(infixSuggester != null ? infixSuggester.lookup(query, maxResults) : null);
+		return new Entry(terms, phrases);
+	}
+	
+	private static String[] toKeys(List<LookupResult> results) {
+		if(results == null) {
+			return new String[0];
+		}
+		String keys[] = new String[results.size()];
+		for(int i = 0; i < keys.length; i++) {
+			keys[i] = results.get(i).key.toString();
+		}
+		return keys;
+	}
+	
+	static String normalize(String query) {
+		return query == null ? "" : query.toLowerCase(Locale.ENGLISH);
+	}
+	
+	public AnalyzingSuggester getSuggester() {
+		return suggester;
+	}
+	
+	public InfixSuggester getInfixSuggester() {
+		return infixSuggester;
+	}
+	
+	public int getPrecomputedCount() {
+		return precomputed.size();
+	}
+	
+	public int getCachedCount() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	private static class Entry {
+		private final String terms[];
+		private final String phrases[];
+		
+		public Entry(String terms[], String phrases[]) {
+			this.terms = terms;
+			this.phrases = phrases;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.meltmedia.cadmium.search.suggest.config;
+
+import com.meltmedia.cadmium.core.config.CadmiumConfig;
+
+/**
+ * <p>Configuration of search suggestions, read from the <code>suggest</code> key of the cadmium configuration.</p>
+ * <pre>
+ * default:
+ *   suggest: !suggest
+ *     infix: true
+ *     persist: true
+ * </pre>
+ */
+@CadmiumConfig(SuggestConfiguration.KEY)
+public class SuggestConfiguration {
+	public static final String KEY = "suggest";
+	
+	/**
+	 * When true, page titles that contain a word starting with the query are suggested along with terms.
+	 */
+	private boolean infix = false;
+	
+	/**
+	 * When true, suggesters are stored next to the search index and loaded, instead of built, when the index is for the
+	 * same content revision.
+	 */
+	private boolean persist = true;
+	
+	public SuggestConfiguration() {}
+
+	public boolean isInfix() {
+		return infix;
+	}
+
+	public void setInfix(boolean infix) {
+		this.infix = infix;
+	}
+
+	public boolean isPersist() {
+		return persist;
+	}
+
+	public void setPersist(boolean persist) {
+		this.persist = persist;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof SuggestConfiguration)) return false;
+
+		SuggestConfiguration that = (SuggestConfiguration) o;
+
+		if (infix != that.infix) return false;
+		if (persist != that.persist) return false;
+
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = (infix ? 1 : 0);
+		result = 31 * result + (persist ? 1 : 0);
+		return result;
+	}
+}
@@ -19,6 +19,8 @@ package com.meltmedia.cadmium.search.suggest.guice;
 import com.google.inject.AbstractModule;
 import com.google.inject.multibindings.Multibinder;
 import com.meltmedia.cadmium.core.CadmiumModule;
+import com.meltmedia.cadmium.core.MetricsProvider;
+import com.meltmedia.cadmium.core.config.ConfigurationListener;
 import com.meltmedia.cadmium.search.SearchPreprocessor;
 import com.meltmedia.cadmium.search.suggest.SuggestSearchPreprocessor;
 import com.meltmedia.cadmium.search.suggest.SuggesterProvider;
@@ -26,11 +28,16 @@ import com.meltmedia.cadmium.search.suggest.SuggesterProvider;
 @CadmiumModule
 public class SuggestSearchModule extends AbstractModule {
 
+  @SuppressWarnings("rawtypes")
   @Override
   protected void configure() {   
     Multibinder<SearchPreprocessor> searchPreprocessorsBinder = Multibinder.newSetBinder(binder(), SearchPreprocessor.class);
     searchPreprocessorsBinder.addBinding().to(SuggestSearchPreprocessor.class);
     bind(SuggesterProvider.class).to(SuggestSearchPreprocessor.class);
+    Multibinder<ConfigurationListener> listenerBinder = Multibinder.newSetBinder(binder(), ConfigurationListener.class);
+    listenerBinder.addBinding().to(SuggestSearchPreprocessor.class);
+    Multibinder<MetricsProvider> metricsProviderBinder = Multibinder.newSetBinder(binder(), MetricsProvider.class);
+    metricsProviderBinder.addBinding().to(SuggestSearchPreprocessor.class);
   }
 
 }
@@ -0,0 +1,63 @@
+package com.meltmedia.cadmium.search.suggest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InfixSuggesterTest {
+	
+	private InfixSuggester suggester;
+	
+	@Before
+	public void setup() {
+		Map<String, Long> phrases = new LinkedHashMap<String, Long>();
+		phrases.put("Breast Cancer Screening", 3l);
+		phrases.put("Cancer Treatment Options", 5l);
+		phrases.put("Skin Care", 1l);
+		phrases.put("Candidate Trials", 2l);
+		suggester = InfixSuggester.build(phrases);
+	}
+
+	@Test
+	public void infixMatchTest() {
+		List<LookupResult> results = suggester.lookup("cancer", 10);
+		assertEquals(2, results.size());
+		assertEquals("Heaviest phrase should be first.", "Cancer Treatment Options", results.get(0).key.toString());
+		assertEquals("Breast Cancer Screening", results.get(1).key.toString());
+	}
+	
+	@Test
+	public void prefixOfWordTest() {
+		List<LookupResult> results = suggester.lookup(" CAN ", 10);
+		assertEquals(3, results.size());
+		assertEquals("Cancer Treatment Options", results.get(0).key.toString());
+		
+		assertEquals(1, suggester.lookup("can", 1).size());
+		assertEquals("Multi word queries should match.", "Breast Cancer Screening", suggester.lookup("cancer scr", 10).get(0).key.toString());
+		assertTrue("Middles of words should not match.", suggester.lookup("ancer", 10).isEmpty());
+		assertTrue(suggester.lookup("", 10).isEmpty());
+	}
+	
+	@Test
+	public void storeAndLoadTest() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		suggester.store(new DataOutputStream(bytes));
+		InfixSuggester loaded = InfixSuggester.load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		
+		assertEquals(suggester.size(), loaded.size());
+		List<LookupResult> results = loaded.lookup("screening", 10);
+		assertEquals(1, results.size());
+		assertEquals(3l, results.get(0).value);
+	}
+}
@@ -0,0 +1,140 @@
+package com.meltmedia.cadmium.search.suggest;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import com.meltmedia.cadmium.search.CadmiumAnalyzer;
+
+/**
+ * <p>Sends suggest requests at a fixed rate and reports their latency.  Each request is measured from the time it was
+ * scheduled to be sent, so requests that queue up behind slow ones are counted as slow too.  Prefixes are picked with a
+ * skew towards short ones, the way people type.</p>
+ * <p>This is not run as part of the build.  Run it with:</p>
+ * <pre>mvn test-compile exec:java -Dexec.mainClass=com.meltmedia.cadmium.search.suggest.SearchSuggestBenchmark -Dexec.classpathScope=test</pre>
+ * <p>The arguments are the requests per second, the number of seconds and the number of distinct words, 2000, 30 and
+ * 50000 by default.</p>
+ */
+public class SearchSuggestBenchmark {
+	private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+	private static final int THREADS = 8;
+	private static final int DOCUMENTS = 2000;
+	private static final int WORDS_PER_DOCUMENT = 200;
+	
+	public static void main(String[] args) throws Exception {
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int wordCount = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+		
+		Random random = new Random(42);
+		String words[] = new String[wordCount];
+		for(int i = 0; i < words.length; i++) {
+			words[i] = randomWord(random, 3 + random.nextInt(8));
+		}
+		
+		RAMDirectory directory = new RAMDirectory();
+		Analyzer analyzer = new CadmiumAnalyzer(Version.LUCENE_43);
+		IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_43, analyzer));
+		for(int d = 0; d < DOCUMENTS; d++) {
+			StringBuilder content = new StringBuilder();
+			for(int w = 0; w < WORDS_PER_DOCUMENT; w++) {
+				content.append(words[skewed(random, words.length)]).append(' ');
+			}
+			Document doc = new Document();
+			doc.add(new TextField("content", content.toString(), Field.Store.NO));
+			doc.add(new TextField(SuggestSearchPreprocessor.TITLE_FIELD, words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)], Field.Store.YES));
+			writer.addDocument(doc);
+		}
+		writer.close();
+		
+		DirectoryReader reader = DirectoryReader.open(directory);
+		SuggestSearchPreprocessor preprocessor = new SuggestSearchPreprocessor();
+		long start = System.currentTimeMillis();
+		preprocessor.process(reader, analyzer, "content");
+		preprocessor.makeLive();
+		System.out.println("Built the suggesters in " + (System.currentTimeMillis() - start) + "ms.");
+		
+		final SearchSuggestService service = new SearchSuggestService();
+		service.setProvider(preprocessor);
+		
+		int requests = rate * seconds;
+		final String queries[] = new String[requests];
+		for(int i = 0; i < queries.length; i++) {
+			String word = words[skewed(random, words.length)];
+			queries[i] = word.substring(0, Math.min(word.length(), 1 + skewed(random, 6)));
+		}
+		
+		final long latencies[] = new long[requests];
+		final CountDownLatch done = new CountDownLatch(requests);
+		final AtomicInteger failures = new AtomicInteger(0);
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		long begin = System.nanoTime();
+		for(int i = 0; i < requests; i++) {
+			final int request = i;
+			final long scheduled = begin + i * intervalNanos;
+			long wait = scheduled - System.nanoTime();
+			if(wait > 0) {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			}
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						service.searchSuggest(queries[request], null, SearchSuggestService.MAX_RESULTS);
+					} catch(Exception e) {
+						failures.incrementAndGet();
+					} finally {
+						latencies[request] = System.nanoTime() - scheduled;
+						done.countDown();
+					}
+				}
+			});
+		}
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		pool.shutdown();
+		
+		Arrays.sort(latencies);
+		System.out.println(String.format("%d requests in %.1fs (%.0f/s), %d failed", requests, elapsed / 1e9, requests / (elapsed / 1e9), failures.get()));
+		System.out.println(String.format("p50 %.3fms, p99 %.3fms, p99.9 %.3fms, max %.3fms", 
+				percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6));
+		Suggestions suggestions = preprocessor.getSuggestions();
+		System.out.println(suggestions.getPrecomputedCount() + " precomputed prefixes, " + suggestions.getHits() + " hits, " + suggestions.getMisses() + " misses");
+		reader.close();
+	}
+	
+	private static String randomWord(Random random, int length) {
+		char word[] = new char[length];
+		for(int i = 0; i < length; i++) {
+			word[i] = LETTERS.charAt(skewed(random, LETTERS.length()));
+		}
+		return new String(word);
+	}
+	
+	/**
+	 * Picks an index below max, favoring the low ones.
+	 */
+	private static int skewed(Random random, int max) {
+		double r = random.nextDouble();
+		return (int)(r * r * max);
+	}
+	
+	private static double percentile(long sorted[], double percentile) {
+		return sorted[Math.min(sorted.length - 1, (int)(sorted.length * percentile))] / 1e6;
+	}
+}
@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -87,4 +88,16 @@ public class SearchSuggestServiceTest {
 		Map<String, Object> hasResultMap = service.searchSuggest(HAS_RESULTS_QUERY, path, null);				
 		assertEquals("Results map should not be empty.", hasResultMap.get(SearchSuggestService.RESULT_KEY), expectedResultSetWithResults);
 	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void phrasesCappedAtMaxResultsTest() throws Exception {
+		Map<String, Long> titles = new LinkedHashMap<String, Long>();
+		titles.put("hasResultsQuery Page", 1l);
+		when(provider.getInfixSuggester()).thenReturn(InfixSuggester.build(titles));
+		when(provider.getSuggester().lookup(eq(HAS_RESULTS_QUERY), eq(false), eq(4))).thenReturn(hasResults);
+		
+		Map<String, Object> resultMap = service.searchSuggest(HAS_RESULTS_QUERY, path, 4);
+		assertEquals("Phrases should only fill the results that terms leave.", expectedResultSetWithResults, new TreeSet<String>((Set<String>)resultMap.get(SearchSuggestService.RESULT_KEY)));
+	}
 }
@@ -0,0 +1,179 @@
+package com.meltmedia.cadmium.search.suggest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.meltmedia.cadmium.search.CadmiumAnalyzer;
+import com.meltmedia.cadmium.search.SearchContentPreprocessor;
+import com.meltmedia.cadmium.search.suggest.config.SuggestConfiguration;
+
+public class SuggestSearchPreprocessorTest {
+
+	private static final File TEST_DIR = new File("./target/suggest-preprocessor-test");
+	private static final File INDEX_DIR = new File(TEST_DIR, "lucene-index");
+	private static final File SUGGEST_DIR = new File(TEST_DIR, SuggestSearchPreprocessor.SUGGEST_DIR);
+
+	private Analyzer analyzer;
+
+	@Before
+	public void setup() throws Exception {
+		FileUtils.deleteQuietly(TEST_DIR);
+		analyzer = new CadmiumAnalyzer(Version.LUCENE_43);
+	}
+
+	@After
+	public void cleanUp() throws Exception {
+		FileUtils.deleteQuietly(TEST_DIR);
+	}
+
+	@Test
+	public void testLoadsStoredSuggestersOfSameRevision() throws Exception {
+		writeIndex("rev1", "alpha page");
+		process(config(true));
+		assertEquals("rev1", storedProperties().getProperty("revision"));
+
+		// the same revision with different pages shows whether the suggesters were loaded or built.
+		writeIndex("rev1", "bravo page");
+		SuggestSearchPreprocessor preprocessor = process(config(true));
+
+		assertEquals(Collections.singletonList("alpha"), lookup(preprocessor, "alp"));
+		assertTrue("The stored suggester should be used", lookup(preprocessor, "bra").isEmpty());
+		assertNotNull(preprocessor.getInfixSuggester());
+	}
+
+	@Test
+	public void testRebuildsWhenRevisionDiffers() throws Exception {
+		writeIndex("rev1", "alpha page");
+		process(config(true));
+
+		writeIndex("rev2", "bravo page");
+		SuggestSearchPreprocessor preprocessor = process(config(true));
+
+		assertEquals(Collections.singletonList("bravo"), lookup(preprocessor, "bra"));
+		assertTrue(lookup(preprocessor, "alp").isEmpty());
+		assertEquals("rev2", storedProperties().getProperty("revision"));
+	}
+
+	@Test
+	public void testRebuildsWhenInfixSettingDiffers() throws Exception {
+		writeIndex("rev1", "alpha page");
+		SuggestSearchPreprocessor preprocessor = process(config(false));
+		assertNull(preprocessor.getInfixSuggester());
+
+		writeIndex("rev1", "bravo page");
+		preprocessor = process(config(true));
+
+		assertEquals(Collections.singletonList("bravo"), lookup(preprocessor, "bra"));
+		assertNotNull("The infix suggester should be built", preprocessor.getInfixSuggester());
+		assertEquals("true", storedProperties().getProperty("infix"));
+	}
+
+	@Test
+	public void testReportsPrefixCacheOfLiveSuggestions() throws Exception {
+		writeIndex("rev1", "alpha page");
+		SuggestSearchPreprocessor preprocessor = process(config(false));
+		preprocessor.getSuggestions().lookup("alpha", 5);
+		preprocessor.getSuggestions().lookup("alpha", 5);
+		preprocessor.getSuggestions().lookup("al", 5);
+
+		Map<String, Object> metrics = preprocessor.getMetrics();
+		assertEquals(2l, metrics.get("hits"));
+		assertEquals(1l, metrics.get("misses"));
+		assertEquals(1, metrics.get("cachedPrefixes"));
+	}
+
+	private static SuggestConfiguration config(boolean infix) {
+		SuggestConfiguration config = new SuggestConfiguration();
+		config.setPersist(true);
+		config.setInfix(infix);
+		return config;
+	}
+
+	/**
+	 * Processes the test index with a new preprocessor, like a server that starts up, and makes its suggesters live.
+	 */
+	private SuggestSearchPreprocessor process(SuggestConfiguration config) throws Exception {
+		SuggestSearchPreprocessor preprocessor = new SuggestSearchPreprocessor();
+		preprocessor.configurationUpdated(config);
+		Directory directory = FSDirectory.open(INDEX_DIR);
+		DirectoryReader reader = DirectoryReader.open(directory);
+		try {
+			preprocessor.process(reader, analyzer, "content");
+		}
+		finally {
+			reader.close();
+			directory.close();
+		}
+		preprocessor.makeLive();
+		return preprocessor;
+	}
+
+	/**
+	 * Replaces the test index with one page for each title, committed with a content revision.
+	 */
+	private void writeIndex(String revision, String... titles) throws Exception {
+		Directory directory = FSDirectory.open(INDEX_DIR);
+		IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_43, analyzer));
+		try {
+			writer.deleteAll();
+			for(String title : titles) {
+				Document doc = new Document();
+				doc.add(new TextField("title", title, Field.Store.YES));
+				doc.add(new TextField("content", title, Field.Store.NO));
+				writer.addDocument(doc);
+			}
+			writer.setCommitData(Collections.singletonMap(SearchContentPreprocessor.REVISION_KEY, revision));
+		}
+		finally {
+			writer.close();
+			directory.close();
+		}
+	}
+
+	private static Properties storedProperties() throws Exception {
+		Properties properties = new Properties();
+		FileInputStream in = new FileInputStream(new File(SUGGEST_DIR, SuggestSearchPreprocessor.PROPERTIES_FILE));
+		try {
+			properties.load(in);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+		}
+		return properties;
+	}
+
+	private static List<String> lookup(SuggestSearchPreprocessor preprocessor, String prefix) {
+		List<String> keys = new ArrayList<String>();
+		for(LookupResult result : preprocessor.getSuggester().lookup(prefix, false, 10)) {
+			keys.add(result.key.toString());
+		}
+		return keys;
+	}
+}
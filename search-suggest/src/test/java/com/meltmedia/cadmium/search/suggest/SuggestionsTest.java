@@ -0,0 +1,91 @@
+package com.meltmedia.cadmium.search.suggest;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SuggestionsTest {
+	
+	private AnalyzingSuggester suggester;
+	private Suggestions suggestions;
+	
+	@Before
+	public void setup() {
+		suggester = mock(AnalyzingSuggester.class);
+		when(suggester.lookup(eq("ca"), eq(false), eq(Suggestions.CACHED_RESULTS))).thenReturn(results("cancer", "care", "cadmium"));
+		when(suggester.lookup(eq("can"), eq(false), eq(Suggestions.CACHED_RESULTS))).thenReturn(results("cancer", "candidate"));
+		
+		Map<String, Long> titles = new LinkedHashMap<String, Long>();
+		titles.put("Breast Cancer Screening", 1l);
+		suggestions = new Suggestions(suggester, InfixSuggester.build(titles));
+	}
+	
+	@Test
+	public void precomputedPrefixTest() {
+		suggestions.precompute(Arrays.asList("cancer", "care").iterator());
+		verify(suggester, times(1)).lookup(eq("ca"), eq(false), eq(Suggestions.CACHED_RESULTS));
+		
+		Set<String> results = suggestions.lookup("Ca", 3);
+		assertEquals("Results should keep the suggester's order.", Arrays.asList("cancer", "care", "cadmium"), new ArrayList<String>(results));
+		verify(suggester, times(1)).lookup(eq("ca"), eq(false), eq(Suggestions.CACHED_RESULTS));
+		assertEquals(1l, suggestions.getHits());
+	}
+	
+	@Test
+	public void cachedPrefixTest() {
+		Set<String> first = suggestions.lookup("can", SearchSuggestService.MAX_RESULTS);
+		Set<String> second = suggestions.lookup("can", 1);
+		
+		assertEquals(Arrays.asList("cancer", "candidate", "Breast Cancer Screening"), new ArrayList<String>(first));
+		assertEquals(Arrays.asList("cancer"), new ArrayList<String>(second));
+		verify(suggester, times(1)).lookup(eq("can"), eq(false), eq(Suggestions.CACHED_RESULTS));
+		assertEquals(1l, suggestions.getMisses());
+		assertEquals(1l, suggestions.getHits());
+	}
+	
+	@Test
+	public void phrasesFillRemainingResultsTest() {
+		assertEquals(Arrays.asList("cancer", "candidate", "Breast Cancer Screening"), new ArrayList<String>(suggestions.lookup("can", 3)));
+		assertEquals(Arrays.asList("cancer", "candidate"), new ArrayList<String>(suggestions.lookup("can", 2)));
+		assertEquals(1, suggestions.getCachedCount());
+	}
+	
+	@Test
+	public void largeLookupsNotCachedTest() {
+		suggestions.lookup("can", Suggestions.CACHED_RESULTS + 1);
+		suggestions.lookup("can", Suggestions.CACHED_RESULTS + 1);
+		verify(suggester, times(2)).lookup(eq("can"), eq(false), eq(Suggestions.CACHED_RESULTS + 1));
+	}
+	
+	@Test
+	public void emptyQueryTest() {
+		assertEquals(0, suggestions.lookup("", 10).size());
+		verify(suggester, never()).lookup(anyString(), eq(false), anyInt());
+	}
+	
+	private static List<LookupResult> results(String... keys) {
+		List<LookupResult> results = new ArrayList<LookupResult>();
+		for(int i = 0; i < keys.length; i++) {
+			results.add(new LookupResult(keys[i], keys.length - i));
+		}
+		return results;
+	}
+}
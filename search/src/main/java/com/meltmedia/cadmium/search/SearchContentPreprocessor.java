@@ -16,22 +16,46 @@
 package com.meltmedia.cadmium.search;
 
 import com.google.inject.Inject;
+import com.meltmedia.cadmium.core.ContentChangeSet;
+import com.meltmedia.cadmium.core.FileSystemManager;
+import com.meltmedia.cadmium.core.SharedContentRoot;
+import com.meltmedia.cadmium.core.config.ConfigurationListener;
+import com.meltmedia.cadmium.core.messaging.ChannelMember;
+import com.meltmedia.cadmium.core.messaging.MembershipTracker;
 import com.meltmedia.cadmium.core.meta.ConfigProcessor;
+import com.meltmedia.cadmium.core.meta.DependsOn;
+import com.meltmedia.cadmium.search.config.SearchConfiguration;
 import jodd.jerry.Jerry;
 import jodd.lagarto.dom.Node;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Constants;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,21 +65,43 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Singleton
-public class SearchContentPreprocessor  implements ConfigProcessor, IndexSearcherProvider, Closeable {
+@DependsOn(names="com.meltmedia.cadmium.copyright.service.CopyrightConfigProcessor")
+public class SearchContentPreprocessor  implements ConfigProcessor, IndexSearcherProvider, ConfigurationListener<SearchConfiguration>, Closeable {
   private final Logger log = LoggerFactory.getLogger(getClass());
   
   @Inject(optional=true)
   protected Set<SearchPreprocessor> searchPreprocessors;
   
+  @Inject(optional=true)
+  protected SearchResultCache resultCache = new SearchResultCache();
+  
+  @Inject(optional=true)
+  protected MembershipTracker membershipTracker;
+  
+  @Inject(optional=true)
+  @SharedContentRoot
+  protected String sharedContentRoot;
+  
   
   public static FileFilter HTML_FILE_FILTER = new FileFilter() {
     @Override
@@ -142,14 +188,69 @@ public class SearchContentPreprocessor  implements ConfigProcessor, IndexSearche
       throws Exception;
   }
   
+  /**
+   * An untokenized copy of the path of each page, used to find the document of a page when it changes.
+   */
+  public static final String PATH_KEY_FIELD = "path-key";
+  
+  /**
+   * The commit user data key that holds the content revision an index was built from.
+   */
+  public static final String REVISION_KEY = "content-revision";
+  
+  /**
+   * The type of the content field.  Term vectors with positions and offsets are stored with the content, so excerpts can
+   * be highlighted without analyzing the content again.
+   */
+  public static final FieldType CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+  static {
+    CONTENT_FIELD_TYPE.setStoreTermVectors(true);
+    CONTENT_FIELD_TYPE.setStoreTermVectorPositions(true);
+    CONTENT_FIELD_TYPE.setStoreTermVectorOffsets(true);
+    CONTENT_FIELD_TYPE.freeze();
+  }
+  
   private File indexDir;
   private File dataDir;
-  private SearchHolder liveSearch = null;
-  private SearchHolder stagedSearch = null;
+  private volatile SearchHolder liveSearch = null;
+  private volatile SearchHolder stagedSearch = null;
   private static Analyzer analyzer = new CadmiumAnalyzer(Version.LUCENE_43);
-  private final ReentrantReadWriteLock locker = new ReentrantReadWriteLock();
-  private final ReadLock readLock = locker.readLock();
-  private final WriteLock writeLock = locker.writeLock();
+  
+  /**
+   * The readers acquired by the searches running on each thread, most recent first.  Searches that started when there
+   * was no live index hold a null entry.
+   */
+  private final ThreadLocal<LinkedList<IndexReader>> acquiredReaders = new ThreadLocal<LinkedList<IndexReader>>() {
+    @Override
+    protected LinkedList<IndexReader> initialValue() {
+      return new LinkedList<IndexReader>();
+    }
+  };
+  private volatile SearchConfiguration configuration = new SearchConfiguration();
+  
+  /**
+   * The number of pages, per indexing thread, that the content walker can queue ahead of the indexing threads.
+   */
+  private static final int QUEUE_SIZE_PER_THREAD = 64;
+  
+  /**
+   * Put on the indexing queue once for each indexing thread, after the last page.
+   */
+  private static final File END_OF_CONTENT = new File("");
+  
+  private static final int WARM_UP_BUFFER_SIZE = 64 * 1024;
+  
+  /**
+   * Warms up new live indexes in the background, so making an index live does not wait for it.
+   */
+  private final ExecutorService warmUpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "search-index-warm-up");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
   
 
   @Override
@@ -157,18 +258,54 @@ public class SearchContentPreprocessor  implements ConfigProcessor, IndexSearche
     SearchHolder newStagedSearcher = new SearchHolder();
     indexDir = new File(metaDir, "lucene-index");
     dataDir = new File(metaDir).getParentFile();
-    newStagedSearcher.directory = new NIOFSDirectory(indexDir);
-    IndexWriter iwriter = null;
-    try {
-      iwriter = new IndexWriter(newStagedSearcher.directory, new IndexWriterConfig(Version.LUCENE_43, analyzer).setRAMBufferSizeMB(5));
-      iwriter.deleteAll();
-      writeIndex(iwriter, dataDir);
+    ContentChangeSet changes = ContentChangeSet.read(dataDir);
+    String revision = changes != null ? changes.getToRevision() : null;
+    SharedSearchIndex sharedIndex = revision != null ? getSharedIndex() : null;
+    Boolean coordinator = sharedIndex != null ? isCoordinator() : null;
+    boolean copied = false;
+    boolean updated = false;
+    if(Boolean.FALSE.equals(coordinator)) {
+      copied = copySharedIndex(sharedIndex, revision);
     }
-    finally {
-      IOUtils.closeQuietly(iwriter);
-      iwriter = null;
+    if(!copied && canUpdateIndex(changes)) {
+      Directory writeDirectory = new NIOFSDirectory(indexDir);
+      try {
+        updateIndex(writeDirectory, changes);
+        updated = true;
+      }
+      catch(Exception e) {
+        log.warn("Failed to update the live index, rebuilding the index.", e);
+      }
+      finally {
+        IOUtils.closeQuietly(writeDirectory);
+      }
+    }
+    if(!copied && !updated) {
+      Directory writeDirectory = new NIOFSDirectory(indexDir);
+      IndexWriter iwriter = null;
+      try {
+        iwriter = new IndexWriter(writeDirectory, newIndexWriterConfig());
+        iwriter.deleteAll();
+        writeIndex(iwriter, dataDir);
+        setRevision(iwriter, changes);
+      }
+      finally {
+        IOUtils.closeQuietly(iwriter);
+        iwriter = null;
+        IOUtils.closeQuietly(writeDirectory);
+      }
+    }
+    if(!copied && Boolean.TRUE.equals(coordinator)) {
+      try {
+        sharedIndex.publish(indexDir, revision);
+      }
+      catch(Exception e) {
+        log.warn("Failed to publish the search index of revision "+revision+" to "+sharedIndex.getRoot(), e);
+      }
     }
-    newStagedSearcher.indexReader = DirectoryReader.open(newStagedSearcher.directory);
+    newStagedSearcher.directory = openSearchDirectory(indexDir);
+    newStagedSearcher.indexDir = indexDir;
+    newStagedSearcher.open();
     SearchHolder oldStage = stagedSearch;
     stagedSearch = newStagedSearcher;
     if(oldStage != null) {
@@ -178,92 +315,570 @@ public class SearchContentPreprocessor  implements ConfigProcessor, IndexSearche
     processSearchPreprocessors(newStagedSearcher.indexReader, analyzer, "content");
   }
   
-  void writeIndex( final IndexWriter indexWriter, File contentDir ) throws Exception {
-    new ContentScanTemplate(HTML_FILE_FILTER) {
-
-      private Jerry.JerryParser jerryParser = null;
-
-      @Override
-      public void handleFile(File file) throws Exception {
-        try {
-          if(jerryParser == null) {
-            jerryParser = Jerry.jerry().enableHtmlMode();
-            jerryParser.getDOMBuilder().setCaseSensitive(false);
-            jerryParser.getDOMBuilder().setParseSpecialTagsAsCdata(true);
-            jerryParser.getDOMBuilder().setSelfCloseVoidTags(false);
-            jerryParser.getDOMBuilder().setConditionalCommentExpression(null);
-            jerryParser.getDOMBuilder().setEnableConditionalComments(false);
-            jerryParser.getDOMBuilder().setImpliedEndTags(false);
-            jerryParser.getDOMBuilder().setIgnoreComments(true);
+  /**
+   * Opens the directory that searches read an index from.  Indexes are always written to disk, so they can be updated
+   * and shared, but they can be searched through a memory mapped directory or from a copy on the heap.
+   * 
+   * @param indexDir the directory the index was written to.
+   * @return The directory to search.
+   * @throws IOException
+   */
+  Directory openSearchDirectory(File indexDir) throws IOException {
+    String directoryType = configuration.getDirectoryType();
+    if(SearchConfiguration.MMAP_DIRECTORY.equalsIgnoreCase(directoryType)) {
+      if(Constants.JRE_IS_64BIT && MMapDirectory.UNMAP_SUPPORTED) {
+        return new MMapDirectory(indexDir);
+      }
+      log.warn("Memory mapped search indexes need a 64-bit JVM that can unmap files, using NIOFS.");
+    }
+    else if(SearchConfiguration.RAM_DIRECTORY.equalsIgnoreCase(directoryType)) {
+      Directory fileDirectory = new NIOFSDirectory(indexDir);
+      try {
+        return new RAMDirectory(fileDirectory, IOContext.READ);
+      }
+      finally {
+        fileDirectory.close();
+      }
+    }
+    else if(directoryType != null && !SearchConfiguration.NIOFS_DIRECTORY.equalsIgnoreCase(directoryType)) {
+      log.warn("Unknown search directory type {}, using NIOFS.", directoryType);
+    }
+    return new NIOFSDirectory(indexDir);
+  }
+  
+  /**
+   * Reads all of an index that is on disk and walks all of its terms and postings, so the first searches against the
+   * index don't wait for it to be paged in.
+   * 
+   * @param holder the index to warm up.
+   */
+  void warmUp(SearchHolder holder) {
+    if(!holder.indexReader.tryIncRef()) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    long bytes = 0l;
+    long postings = 0l;
+    try {
+      if(!(holder.directory instanceof RAMDirectory)) {
+        byte buffer[] = new byte[WARM_UP_BUFFER_SIZE];
+        for(String fileName : holder.directory.listAll()) {
+          IndexInput input = holder.directory.openInput(fileName, IOContext.READONCE);
+          try {
+            long length = input.length();
+            for(long position = 0; position < length; position += buffer.length) {
+              int count = (int)Math.min(buffer.length, length - position);
+              input.readBytes(buffer, 0, count);
+              bytes += count;
+            }
           }
-          String htmlContent = FileUtils.readFileToString(file, "UTF-8");
-          Jerry jerry = jerryParser.parse(htmlContent);
-          
-          // if we should not index this file, move on.
-          if(!shouldIndex(jerry)) return;
-
-          String title = jerry.$("html > head > title").text();
-
-          Jerry removals = jerry.$("title,head,script,[cadmium=\"no-index\"]");
-          if(removals.size() > 0) {
-          	log.debug("Removing {} element[s]", removals.length());
-          	removals.remove();
-          } else {
-            log.debug("No elements to remove");
+          finally {
+            input.close();
           }
-
-          String textContent = jerry.$("body").text();
-
-  	      Document doc = new Document();
-  	      doc.add(new TextField("title", title, Field.Store.YES));
-  	      doc.add(new TextField("content", textContent, Field.Store.YES));
-  	      doc.add(new TextField("path", file.getPath().replaceFirst(dataDir.getPath(), ""), Field.Store.YES));
-  	      indexWriter.addDocument(doc);
-        } catch(Throwable t) {
-          log.warn("Failed to index page ["+file+"]", t);
         }
+      }
+      for(AtomicReaderContext context : holder.indexReader.leaves()) {
+        Fields fields = context.reader().fields();
+        if(fields == null) {
+          continue;
+        }
+        for(String field : fields) {
+          Terms terms = fields.terms(field);
+          if(terms == null) {
+            continue;
+          }
+          TermsEnum termsEnum = terms.iterator(null);
+          DocsEnum docsEnum = null;
+          while(termsEnum.next() != null) {
+            docsEnum = termsEnum.docs(null, docsEnum, DocsEnum.FLAG_NONE);
+            while(docsEnum.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+              postings++;
+            }
+          }
+        }
+      }
+      log.info("Warmed up the search index in {}ms, read {} bytes and {} postings.", new Object[] {System.currentTimeMillis() - start, bytes, postings});
+    }
+    catch(Exception e) {
+      log.warn("Failed to warm up the search index.", e);
+    }
+    finally {
+      try {
+        holder.indexReader.decRef();
+      }
+      catch(IOException e) {
+        log.warn("Failed to close a search index.", e);
+      }
+    }
+  }
+  
+  /**
+   * @return The shared directory that indexes are published to, or null if indexes are not shared.
+   */
+  SharedSearchIndex getSharedIndex() {
+    String sharedIndexDirectory = configuration.getSharedIndexDirectory();
+    if(StringUtils.isBlank(sharedIndexDirectory)) {
+      return null;
+    }
+    File root = new File(sharedIndexDirectory);
+    if(!root.isAbsolute() && sharedContentRoot != null) {
+      root = new File(sharedContentRoot, sharedIndexDirectory);
+    }
+    if(!root.isDirectory() && !root.mkdirs()) {
+      log.warn("The shared search index directory {} could not be created, indexing locally.", root);
+      return null;
+    }
+    return new SharedSearchIndex(root);
+  }
+  
+  /**
+   * @return true if this member is the coordinator of the cluster, false if it is not, or null if that is not known.
+   */
+  Boolean isCoordinator() {
+    ChannelMember coordinatorMember = membershipTracker != null ? membershipTracker.getCoordinator() : null;
+    if(coordinatorMember == null) {
+      return null;
+    }
+    return coordinatorMember.isMine();
+  }
+  
+  /**
+   * Waits for the coordinator to publish the index of a revision, then copies it into the staged index directory.  The
+   * copied index is only used if it can be opened and its commit records the expected revision.  The coordinator can
+   * replace or prune the published index while it is being copied, so an incomplete copy is removed and the content is
+   * indexed locally.
+   * 
+   * @param sharedIndex the shared directory that indexes are published to.
+   * @param revision the revision of the content being processed.
+   * @return true if the published index was copied, false if the content needs to be indexed locally.
+   */
+  private boolean copySharedIndex(SharedSearchIndex sharedIndex, String revision) {
+    long start = System.currentTimeMillis();
+    boolean copied = false;
+    try {
+      File publishedDir = sharedIndex.await(revision, configuration.getSharedIndexWaitSeconds() * 1000l);
+      if(publishedDir == null) {
+        log.warn("The search index of revision {} was not published in {}s, indexing locally.", revision, configuration.getSharedIndexWaitSeconds());
+        return false;
+      }
+      if(indexDir.exists()) {
+        FileUtils.deleteDirectory(indexDir);
+      }
+      FileUtils.copyDirectory(publishedDir, indexDir);
+      Directory directory = new NIOFSDirectory(indexDir);
+      DirectoryReader reader = null;
+      try {
+        reader = DirectoryReader.open(directory);
+        String indexRevision = reader.getIndexCommit().getUserData().get(REVISION_KEY);
+        if(revision.equals(indexRevision)) {
+          log.info("Copied the published search index of revision {} in {}ms.", revision, System.currentTimeMillis() - start);
+          copied = true;
+          return true;
+        }
+        log.warn("The published search index is for revision {}, not {}, indexing locally.", indexRevision, revision);
+      }
+      finally {
+        IOUtils.closeQuietly(reader);
+        directory.close();
+      }
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Interrupted while waiting for the search index of revision "+revision+", indexing locally.");
+    }
+    catch(Exception e) {
+      log.warn("Failed to copy the published search index of revision "+revision+", indexing locally.", e);
+    }
+    finally {
+      if(!copied) {
+        FileUtils.deleteQuietly(indexDir);
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Returns true if the staged index can be created by applying a change set to a copy of the live index.  That is
+   * possible when the live index was built from the revision the changes start at, and nothing in the META-INF
+   * directory changed, since config processors can change the pages.
+   * 
+   * @param changes the changes between the live content and the content being processed.
+   * @return true if the live index can be updated.
+   */
+  boolean canUpdateIndex(ContentChangeSet changes) {
+    if(!configuration.isIncremental() || changes == null || !changes.isIncremental()) {
+      return false;
+    }
+    SearchHolder live = liveSearch;
+    if(live == null || live.indexDir == null || live.indexReader == null || live.indexDir.getAbsoluteFile().equals(indexDir.getAbsoluteFile())) {
+      return false;
+    }
+    try {
+      String liveRevision = live.indexReader.getIndexCommit().getUserData().get(REVISION_KEY);
+      if(!changes.getFromRevision().equals(liveRevision)) {
+        log.info("The live index was built from revision {}, not {}.", liveRevision, changes.getFromRevision());
+        return false;
+      }
+    }
+    catch(IOException e) {
+      log.warn("Failed to read the revision of the live index.", e);
+      return false;
+    }
+    for(Set<String> paths : Arrays.asList(changes.getChangedPaths(), changes.getDeletedPaths())) {
+      for(String path : paths) {
+        if(path.startsWith("/META-INF/")) {
+          log.info("The META-INF directory changed, rebuilding the index.");
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Links the files of the live index into the staged index directory and applies a change set to it.
+   */
+  private void updateIndex(Directory directory, ContentChangeSet changes) throws Exception {
+    long start = System.currentTimeMillis();
+    if(indexDir.exists()) {
+      FileUtils.deleteDirectory(indexDir);
+    }
+    // Lucene never writes to an existing index file, so the files of the live index can be shared with the staged index.
+    indexDir.mkdirs();
+    for(File file : liveSearch.indexDir.listFiles()) {
+      if(file.isFile() && !IndexWriter.WRITE_LOCK_NAME.equals(file.getName())) {
+        FileSystemManager.linkOrCopy(file, new File(indexDir, file.getName()));
+      }
+    }
+    IndexWriter iwriter = null;
+    try {
+      iwriter = new IndexWriter(directory, newIndexWriterConfig().setOpenMode(OpenMode.APPEND));
+      Jerry.JerryParser jerryParser = createJerryParser();
+      int updated = 0;
+      for(String path : changes.getDeletedPaths()) {
+        iwriter.deleteDocuments(new Term(PATH_KEY_FIELD, path));
+      }
+      for(String path : changes.getChangedPaths()) {
+        iwriter.deleteDocuments(new Term(PATH_KEY_FIELD, path));
+        File file = new File(dataDir, path.substring(1));
+        if(isIndexed(path, file)) {
+          indexFile(iwriter, jerryParser, file, path);
+          updated++;
+        }
+      }
+      setRevision(iwriter, changes);
+      log.info("Updated {} pages and deleted {} paths from the index in {}ms.", new Object[] {updated, changes.getDeletedPaths().size(), System.currentTimeMillis() - start});
+    }
+    finally {
+      IOUtils.closeQuietly(iwriter);
+    }
+  }
+  
+  private IndexWriterConfig newIndexWriterConfig() {
+    return new IndexWriterConfig(Version.LUCENE_43, analyzer).setRAMBufferSizeMB(configuration.getRamBufferSizeMB());
+  }
+  
+  /**
+   * Returns true if the page at a path would be indexed by a full scan of the content directory.
+   */
+  static boolean isIndexed(String path, File file) {
+    int secondSlash = path.indexOf('/', 1);
+    if(secondSlash != -1 && path.substring(1, secondSlash).endsWith("-INF")) {
+      return false;
+    }
+    return HTML_FILE_FILTER.accept(file);
+  }
+  
+  private static void setRevision(IndexWriter iwriter, ContentChangeSet changes) {
+    if(changes != null && changes.getToRevision() != null) {
+      iwriter.setCommitData(Collections.singletonMap(REVISION_KEY, changes.getToRevision()));
+    }
+  }
+  
+  static Jerry.JerryParser createJerryParser() {
+    Jerry.JerryParser jerryParser = Jerry.jerry().enableHtmlMode();
+    jerryParser.getDOMBuilder().setCaseSensitive(false);
+    jerryParser.getDOMBuilder().setParseSpecialTagsAsCdata(true);
+    jerryParser.getDOMBuilder().setSelfCloseVoidTags(false);
+    jerryParser.getDOMBuilder().setConditionalCommentExpression(null);
+    jerryParser.getDOMBuilder().setEnableConditionalComments(false);
+    jerryParser.getDOMBuilder().setImpliedEndTags(false);
+    jerryParser.getDOMBuilder().setIgnoreComments(true);
+    return jerryParser;
+  }
+  
+  void writeIndex( final IndexWriter indexWriter, final File contentDir ) throws Exception {
+    writeIndex(indexWriter, contentDir, configuration.getEffectiveIndexThreads());
+  }
+  
+  /**
+   * Indexes all of the pages in a content directory.  The content directory is walked on the calling thread, which
+   * feeds the pages to a bounded queue.  The given number of workers take pages from the queue, parse them with their
+   * own parser and add them to the shared index writer.
+   * 
+   * @param indexWriter the writer to add the pages to.
+   * @param contentDir the content directory to index.
+   * @param threads the number of workers that parse and index pages.
+   * @throws Exception if the content directory could not be walked or a worker failed.
+   */
+  void writeIndex( final IndexWriter indexWriter, final File contentDir, int threads ) throws Exception {
+    long start = System.currentTimeMillis();
+    final AtomicInteger pages = new AtomicInteger(0);
+    if(threads <= 1) {
+      final Jerry.JerryParser jerryParser = createJerryParser();
+      new ContentScanTemplate(HTML_FILE_FILTER) {
+        @Override
+        public void handleFile(File file) throws Exception {
+          indexFile(indexWriter, jerryParser, file, file.getPath().substring(contentDir.getPath().length()));
+          pages.incrementAndGet();
+        }
+      }.scan(contentDir);
+    }
+    else {
+      final BlockingQueue<File> queue = new ArrayBlockingQueue<File>(threads * QUEUE_SIZE_PER_THREAD);
+      ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "search-indexer-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      try {
+        final List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        for(int i = 0; i < threads; i++) {
+          workers.add(pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              Jerry.JerryParser jerryParser = createJerryParser();
+              File file = null;
+              while((file = queue.take()) != END_OF_CONTENT) {
+                indexFile(indexWriter, jerryParser, file, file.getPath().substring(contentDir.getPath().length()));
+                pages.incrementAndGet();
+              }
+              return null;
+            }
+          }));
+        }
+        try {
+          new ContentScanTemplate(HTML_FILE_FILTER) {
+            @Override
+            public void handleFile(File file) throws Exception {
+              // a worker that is done before the end of the content failed, and the queue may never drain.
+              while(!queue.offer(file, 1, TimeUnit.SECONDS)) {
+                for(Future<Void> worker : workers) {
+                  if(worker.isDone()) {
+                    awaitWorker(worker, queue);
+                    throw new IllegalStateException("A search indexer stopped before the content was indexed.");
+                  }
+                }
+              }
+            }
+          }.scan(contentDir);
+        }
+        finally {
+          endWorkers(workers, queue);
+        }
+        for(Future<Void> worker : workers) {
+          awaitWorker(worker, queue);
+        }
+      }
+      finally {
+        pool.shutdownNow();
+      }
+    }
+    log.info("Indexed {} pages with {} threads in {}ms.", new Object[] {pages.get(), Math.max(threads, 1), System.currentTimeMillis() - start});
+  }
+  
+  /**
+   * Tells each of the workers that the end of the content was reached.  Workers that are still running always take from
+   * the queue, so this only stops waiting for room in the queue when all of the workers are done.
+   */
+  private static void endWorkers( List<Future<Void>> workers, BlockingQueue<File> queue ) throws InterruptedException {
+    for(int i = 0; i < workers.size(); i++) {
+      while(!queue.offer(END_OF_CONTENT, 1, TimeUnit.SECONDS)) {
+        boolean running = false;
+        for(Future<Void> worker : workers) {
+          running |= !worker.isDone();
+        }
+        if(!running) {
+          return;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Waits for a worker to finish, rethrowing the failure of the worker.
+   */
+  private void awaitWorker( Future<Void> worker, BlockingQueue<File> queue ) throws Exception {
+    while(true) {
+      try {
+        worker.get(1, TimeUnit.MINUTES);
+        return;
+      }
+      catch(TimeoutException e) {
+        log.info("Waiting for {} pages to be indexed.", queue.size());
+      }
+      catch(ExecutionException e) {
+        if(e.getCause() instanceof Exception) {
+          throw (Exception)e.getCause();
+        }
+        throw e;
+      }
+    }
+  }
+  
+  /**
+   * Parses an html page and adds it to the index, unless the page asks not to be indexed.
+   * 
+   * @param indexWriter the writer to add the page to.
+   * @param jerryParser the parser to parse the page with.
+   * @param file the page.
+   * @param path the path of the page, relative to the content directory.
+   */
+  void indexFile( IndexWriter indexWriter, Jerry.JerryParser jerryParser, File file, String path ) {
+    try {
+      String htmlContent = FileUtils.readFileToString(file, "UTF-8");
+      Jerry jerry = jerryParser.parse(htmlContent);
+      
+      // if we should not index this file, move on.
+      if(!shouldIndex(jerry)) return;
 
+      String title = jerry.$("html > head > title").text();
+
+      Jerry removals = jerry.$("title,head,script,[cadmium=\"no-index\"]");
+      if(removals.size() > 0) {
+      	log.debug("Removing {} element[s]", removals.length());
+      	removals.remove();
+      } else {
+        log.debug("No elements to remove");
       }
-    }.scan(contentDir); 
-    
+
+      String textContent = jerry.$("body").text();
+
+      Document doc = new Document();
+      doc.add(new TextField("title", title, Field.Store.YES));
+      doc.add(new Field("content", textContent, CONTENT_FIELD_TYPE));
+      doc.add(new TextField("path", path, Field.Store.YES));
+      doc.add(new StringField(PATH_KEY_FIELD, path, Field.Store.NO));
+      indexWriter.addDocument(doc);
+    } catch(Throwable t) {
+      log.warn("Failed to index page ["+file+"]", t);
+    }
   }
 
+  /**
+   * Publishes the staged index.  Searches that are running against the old index keep using it, and the old index is
+   * closed when the last of them ends.
+   */
   @Override
   public synchronized void makeLive() {
-  	log.info("About to call lock on writeLock");
-    writeLock.lock();
     if( this.stagedSearch != null && this.stagedSearch.directory != null && this.stagedSearch.indexReader != null ) {
     	log.info("About to call makeLiveProcessSearchPreprocessors()");
     	makeLiveProcessSearchPreprocessors();
     	SearchHolder oldLive = liveSearch;
       liveSearch = stagedSearch;
-      IOUtils.closeQuietly(oldLive);
       stagedSearch = null;
+      resultCache.invalidate();
+      IOUtils.closeQuietly(oldLive);
+      if(configuration.isWarmUp()) {
+        final SearchHolder newLive = liveSearch;
+        warmUpExecutor.execute(new Runnable() {
+          @Override
+          public void run() {
+            warmUp(newLive);
+          }
+        });
+      }
     }
-    writeLock.unlock();
   }
   
-  public void finalize() {
-    IOUtils.closeQuietly(liveSearch);
-    IOUtils.closeQuietly(stagedSearch);
- }
+  /**
+   * Closes the live and staged indexes.  They are removed before they are closed, so searches started afterwards do not
+   * find a closed index.
+   */
+  public synchronized void finalize() {
+    warmUpExecutor.shutdownNow();
+    SearchHolder oldLive = liveSearch;
+    SearchHolder oldStaged = stagedSearch;
+    liveSearch = null;
+    stagedSearch = null;
+    IOUtils.closeQuietly(oldLive);
+    IOUtils.closeQuietly(oldStaged);
+  }
 
+  /**
+   * Acquires a reference to the live index for a search on this thread.  Every call must be followed by a call to
+   * {@link #endSearch()} on the same thread.
+   */
   @Override
   public IndexSearcher startSearch() {
-    readLock.lock();
-    if(this.liveSearch != null) {
-      if(this.liveSearch.indexSearcher == null) {
-        IndexSearcher searcher = new IndexSearcher(this.liveSearch.indexReader);
-        this.liveSearch.indexSearcher = searcher;
+    SearchHolder holder = this.liveSearch;
+    while(holder != null) {
+      if(holder.indexReader.tryIncRef()) {
+        acquiredReaders.get().addFirst(holder.indexReader);
+        return holder.indexSearcher;
       }
-      return this.liveSearch.indexSearcher;
+      // the index was closed after it was read.  If it was replaced, search the new live index, otherwise the
+      // indexes were closed and there is nothing to search.
+      SearchHolder current = this.liveSearch;
+      holder = current != holder ? current : null;
     }
+    acquiredReaders.get().addFirst(null);
     return null;
   }
 
+  /**
+   * Releases the reference acquired by the last call to {@link #startSearch()} on this thread.
+   */
   @Override
   public void endSearch() {
-    readLock.unlock();
+    LinkedList<IndexReader> acquired = acquiredReaders.get();
+    if(acquired.isEmpty()) {
+      log.warn("Search ended without being started.");
+      return;
+    }
+    IndexReader reader = acquired.removeFirst();
+    if(reader != null) {
+      try {
+        reader.decRef();
+      }
+      catch(IOException e) {
+        log.warn("Failed to close a search index.", e);
+      }
+    }
+  }
+
+  /**
+   * Updates the configuration of the search index.  Changes to the result cache apply immediately, the rest apply to
+   * the next content update.
+   */
+  @Override
+  public void configurationUpdated(Object configuration) {
+    if(configuration instanceof SearchConfiguration) {
+      log.info("Updating search configuration.");
+      this.configuration = (SearchConfiguration) configuration;
+      configureResultCache();
+    }
+  }
+
+  @Override
+  public void configurationNotFound() {
+    this.configuration = new SearchConfiguration();
+    configureResultCache();
+  }
+  
+  private void configureResultCache() {
+    resultCache.configure(configuration.getResultCacheSize(), configuration.getResultCacheTtlSeconds() * 1000l);
+  }
+  
+  /**
+   * @return The cache of search results for the live index.
+   */
+  public SearchResultCache getResultCache() {
+    return resultCache;
   }
 
   @Override
@@ -279,13 +894,38 @@ public class SearchContentPreprocessor  implements ConfigProcessor, IndexSearche
     return dataDir;
   }
 
+  /**
+   * An index and the reader that searches it.  The holder owns one reference to the reader, and each search acquires
+   * another.  The directory is closed when the reader closes.
+   */
   private class SearchHolder implements Closeable {
+    private File indexDir = null;
     private Directory directory = null;
-    private IndexReader indexReader = null;
+    private DirectoryReader indexReader = null;
     private IndexSearcher indexSearcher = null;
+    
+    public void open() throws IOException {
+      indexReader = DirectoryReader.open(directory);
+      indexSearcher = new IndexSearcher(indexReader);
+      final Directory readerDirectory = directory;
+      indexReader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+        @Override
+        public void onClose(IndexReader reader) {
+          IOUtils.closeQuietly(readerDirectory);
+        }
+      });
+    }
+    
+    /**
+     * Releases the reference that this holder owns.
+     */
     public void close() {
-      IOUtils.closeQuietly(indexReader);
-      IOUtils.closeQuietly(directory);
+      if(indexReader != null) {
+        IOUtils.closeQuietly(indexReader);
+      }
+      else {
+        IOUtils.closeQuietly(directory);
+      }
     }
     public void finalize() {
       close();
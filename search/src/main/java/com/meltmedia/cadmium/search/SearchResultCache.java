@@ -0,0 +1,251 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.search;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Singleton;
+
+import com.meltmedia.cadmium.core.MetricsProvider;
+
+/**
+ * <p>A bounded cache of search responses, used by the {@link SearchService}.</p>
+ * <p>Entries are keyed by the normalized query, the path prefix and the requested page of results.  The cache is scoped
+ * to a generation of the live search index: the {@link SearchContentPreprocessor} starts a new generation, dropping all of
+ * the entries, when it makes a new index live.  Responses computed against an older generation are never stored.  Entries
+ * can also expire after a fixed time to live.  When there are more entries than the max entries, the least recently used
+ * entries are evicted.</p>
+ */
+@Singleton
+public class SearchResultCache implements MetricsProvider {
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+  
+  private final LinkedHashMap<String, CachedResults> entries = new LinkedHashMap<String, CachedResults>(64, 0.75f, true);
+  private long generation = 0l;
+  private long currentBytes = 0l;
+  private int maxEntries = DEFAULT_MAX_ENTRIES;
+  private long ttlMillis = 0l;
+
+  private final AtomicLong hits = new AtomicLong(0l);
+  private final AtomicLong misses = new AtomicLong(0l);
+  private final AtomicLong evictions = new AtomicLong(0l);
+  private final AtomicLong expirations = new AtomicLong(0l);
+  private final AtomicLong invalidations = new AtomicLong(0l);
+  
+  /**
+   * Creates the cache key of a page of search results.  Queries are trimmed and runs of whitespace are collapsed.  Case is
+   * kept, since the query syntax is case sensitive.
+   * 
+   * @param query the query.
+   * @param path the path prefix, or null.
+   * @param offset the offset of the page.
+   * @param limit the size of the page.
+   * @return The key.
+   */
+  public static String key(String query, String path, int offset, int limit) {
+    String normalizedQuery = query == null ? "" : query.trim().replaceAll("\\s+", " ");
+    String normalizedPath = path == null ? "" : path.trim();
+    return normalizedQuery + '\u0000' + normalizedPath + '\u0000' + offset + '\u0000' + limit;
+  }
+  
+  /**
+   * @return The current generation of the live index.
+   */
+  public long getGeneration() {
+    synchronized(entries) {
+      return generation;
+    }
+  }
+  
+  /**
+   * Returns the cached results for a key.
+   * 
+   * @param generation the generation of the index that is being searched.
+   * @param key the key of the results.
+   * @return The cached results, or null if the results are not cached.
+   */
+  public Map<String, Object> get(long generation, String key) {
+    synchronized(entries) {
+      CachedResults cached = this.generation == generation ? entries.get(key) : null;
+      if(cached != null && ttlMillis > 0 && System.currentTimeMillis() - cached.created > ttlMillis) {
+        entries.remove(key);
+        currentBytes -= cached.size;
+        expirations.incrementAndGet();
+        cached = null;
+      }
+      if(cached != null) {
+        hits.incrementAndGet();
+        return cached.results;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+  
+  /**
+   * Caches the results for a key.  The results are not cached if the index has moved on to a new generation since the
+   * results were computed.
+   * 
+   * @param generation the generation of the index that the results were computed against.
+   * @param key the key of the results.
+   * @param results the results.
+   */
+  @SuppressWarnings("unchecked")
+  public void put(long generation, String key, Map<String, Object> results) {
+    Map<String, Object> copy = new LinkedHashMap<String, Object>(results);
+    for(Map.Entry<String, Object> entry : copy.entrySet()) {
+      if(entry.getValue() instanceof List) {
+        entry.setValue(Collections.unmodifiableList((List<Object>)entry.getValue()));
+      }
+    }
+    CachedResults cached = new CachedResults(Collections.unmodifiableMap(copy), estimateSize(copy), System.currentTimeMillis());
+    synchronized(entries) {
+      if(this.generation != generation || maxEntries <= 0) {
+        return;
+      }
+      CachedResults existing = entries.put(key, cached);
+      if(existing != null) {
+        currentBytes -= existing.size;
+      }
+      currentBytes += cached.size;
+      evict();
+    }
+  }
+  
+  /**
+   * Starts a new generation, removing all of the entries from this cache.  This is called when a new index is made live.
+   */
+  public void invalidate() {
+    synchronized(entries) {
+      generation++;
+      entries.clear();
+      currentBytes = 0l;
+    }
+    invalidations.incrementAndGet();
+  }
+  
+  /**
+   * Updates the size and time to live of this cache.
+   * 
+   * @param maxEntries the maximum number of entries, 0 disables the cache.
+   * @param ttlMillis the time to live of entries, 0 if entries live until the next generation.
+   */
+  public void configure(int maxEntries, long ttlMillis) {
+    synchronized(entries) {
+      this.maxEntries = maxEntries;
+      this.ttlMillis = ttlMillis;
+      evict();
+    }
+  }
+  
+  private void evict() {
+    Iterator<CachedResults> itr = entries.values().iterator();
+    while(entries.size() > Math.max(0, maxEntries) && itr.hasNext()) {
+      CachedResults eldest = itr.next();
+      itr.remove();
+      currentBytes -= eldest.size;
+      evictions.incrementAndGet();
+    }
+  }
+  
+  /**
+   * Estimates the number of bytes that a search response holds on to.
+   */
+  static long estimateSize(Object value) {
+    if(value instanceof String) {
+      return 40l + 2l * ((String)value).length();
+    } else if(value instanceof Map) {
+      long size = 48l;
+      for(Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+        size += 32l + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+      }
+      return size;
+    } else if(value instanceof Collection) {
+      long size = 40l;
+      for(Object item : (Collection<?>)value) {
+        size += 8l + estimateSize(item);
+      }
+      return size;
+    } else if(value == null) {
+      return 0l;
+    }
+    return 16l;
+  }
+
+  public int getEntryCount() {
+    synchronized(entries) {
+      return entries.size();
+    }
+  }
+
+  public long getCurrentBytes() {
+    synchronized(entries) {
+      return currentBytes;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public String getMetricsName() {
+    return "search-results";
+  }
+
+  @Override
+  public Map<String, Object> getMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+    long hitCount = hits.get();
+    long missCount = misses.get();
+    metrics.put("hits", hitCount);
+    metrics.put("misses", missCount);
+    metrics.put("hitRatio", hitCount + missCount > 0 ? (double)hitCount / (hitCount + missCount) : 0.0d);
+    metrics.put("evictions", evictions.get());
+    metrics.put("expirations", expirations.get());
+    metrics.put("invalidations", invalidations.get());
+    synchronized(entries) {
+      metrics.put("generation", generation);
+      metrics.put("entries", entries.size());
+      metrics.put("bytes", currentBytes);
+      metrics.put("maxEntries", maxEntries);
+      metrics.put("ttlMillis", ttlMillis);
+    }
+    return metrics;
+  }
+  
+  private static class CachedResults {
+    private final Map<String, Object> results;
+    private final long size;
+    private final long created;
+    
+    public CachedResults(Map<String, Object> results, long size, long created) {
+      this.results = results;
+      this.size = size;
+      this.created = created;
+    }
+  }
+}
@@ -21,6 +21,7 @@ import com.meltmedia.cadmium.core.CadmiumApiEndpoint;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -36,10 +37,15 @@ import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.vectorhighlight.FastVectorHighlighter;
+import org.apache.lucene.search.vectorhighlight.FieldQuery;
+import org.apache.lucene.search.vectorhighlight.ScoreOrderFragmentsBuilder;
+import org.apache.lucene.search.vectorhighlight.SimpleFragListBuilder;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -48,9 +54,13 @@ import javax.ws.rs.QueryParam;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @CadmiumApiEndpoint
 @Path("/search")
@@ -61,26 +71,109 @@ public class SearchService
 
   @Inject
   protected IndexSearcherProvider provider;
+  
+  @Inject(optional=true)
+  protected SearchResultCache resultCache;
+    
+  /**
+   * The number of results returned when a search does not ask for a limit.
+   */
+  public static final int DEFAULT_LIMIT = 10;
+  
+  /**
+   * The largest number of results that a single page of results can contain.
+   */
+  public static final int MAX_LIMIT = 100;
+  
+  /**
+   * The number of results returned by a search that asks for all of its results.
+   */
+  static final int ALL_RESULTS_LIMIT = 100000;
+  
+  /**
+   * The size of excerpt fragments, in characters.  This matches the fragment size of the analyzing highlighter.
+   */
+  private static final int FRAGMENT_SIZE = 100;
+  private static final String HIGHLIGHT_PRE_TAGS[] = new String[] {"<B>"};
+  private static final String HIGHLIGHT_POST_TAGS[] = new String[] {"</B>"};
+  
+  /**
+   * The stored fields loaded for every result.  The content field is only loaded when a page has to be highlighted by
+   * analyzing its text again.
+   */
+  private static final Set<String> RESULT_FIELDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("title", "path")));
+  private static final Set<String> CONTENT_FIELD = Collections.singleton("content");
     
+  /**
+   * Runs a search and returns one page of its results.  The <code>number-hits</code> entry of the response is the total
+   * number of pages that matched, and only the pages in the requested window are loaded and highlighted.  Clients that
+   * need every result in one response can pass <code>all=true</code>, which ignores the offset and limit.
+   * 
+   * @param query the query to run.
+   * @param path an optional path prefix that results must start with.
+   * @param offset the number of results to skip.
+   * @param limit the number of results to return, at most {@value #MAX_LIMIT}.
+   * @param allResults true to return all of the results, the way searches did before they were paginated.
+   * @return The search results.
+   * @throws Exception
+   */
 	@GET
   @Produces("application/json")
-  public Map<String, Object> search(@QueryParam("query") String query,@QueryParam("path") String path)
+  public Map<String, Object> search(@QueryParam("query") String query, @QueryParam("path") String path,
+      @QueryParam("offset") @DefaultValue("0") int offset, @QueryParam("limit") @DefaultValue(""+DEFAULT_LIMIT) int limit,
+      @QueryParam("all") @DefaultValue("false") boolean allResults)
       throws Exception {
-    Map<String, Object> resultMap = buildSearchResults(query, path);
-    
-    return resultMap;
+    if(allResults) {
+      return buildSearchResults(query, path, 0, ALL_RESULTS_LIMIT, false);
+    }
+    offset = Math.max(0, Math.min(ALL_RESULTS_LIMIT, offset));
+    limit = Math.max(0, Math.min(MAX_LIMIT, limit));
+    return buildSearchResults(query, path, offset, limit, true);
+  }
+  
+  /**
+   * Runs a search and returns all of its results.
+   * 
+   * @param query the query to run.
+   * @param path an optional path prefix that results must start with.
+   * @return The search results.
+   * @throws Exception
+   */
+  public Map<String, Object> search(String query, String path)
+      throws Exception {
+    return search(query, path, 0, 0, true);
   }
   
-  private Map<String,Object> buildSearchResults(final String query, final String path) throws Exception {
+  private Map<String,Object> buildSearchResults(final String query, final String path, final int offset, final int limit, final boolean paged) throws Exception {
     logger.info("Running search for [{}]", query);
     final Map<String, Object> resultMap = new LinkedHashMap<String, Object>();
     
+    // only pages of results are cached, complete result sets can be very large.
+    final SearchResultCache cache = paged ? resultCache : null;
+    final String cacheKey = cache != null ? SearchResultCache.key(query, path, offset, limit) : null;
+    
+    // the generation is read before the index is acquired, so results from an index that was replaced while it was
+    // being searched are never stored under the generation of the new index.
+    final long generation = cache != null ? cache.getGeneration() : 0l;
+    
     new SearchTemplate(provider) {
       public void doSearch(IndexSearcher index) throws IOException,
           ParseException {
+        if(cache != null && index != null) {
+          Map<String, Object> cached = cache.get(generation, cacheKey);
+          if(cached != null) {
+            resultMap.putAll(cached);
+            return;
+          }
+        }
+        
         QueryParser parser = createParser(getAnalyzer());
         
         resultMap.put("number-hits", 0);
+        if(paged) {
+          resultMap.put("offset", offset);
+          resultMap.put("limit", limit);
+        }
         
         List<Map<String, Object>> resultList = new ArrayList<Map<String, Object>>();
         
@@ -96,38 +189,55 @@ public class SearchService
           	boolQuery.add(query1, Occur.MUST);
           	query1 = boolQuery;
           }
-          TopDocs results = index.search(query1, null, 100000);
-          QueryScorer scorer = new QueryScorer(query1);
-          Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter(), new SimpleHTMLEncoder(), scorer);
+          
+          // only collect the top hits up to the end of the requested page.
+          TopDocs results = index.search(query1, null, Math.max(1, offset + limit));
     
           logger.info("Search returned {} hits.", results.totalHits);
           resultMap.put("number-hits", results.totalHits);
           
-          for (ScoreDoc doc : results.scoreDocs) {
-            Document document = index.doc(doc.doc);
-            String content = document.get("content");
+          // the highlighters are only created when there are results on the page to highlight.
+          Highlighter highlighter = null;
+          FastVectorHighlighter vectorHighlighter = null;
+          FieldQuery fieldQuery = null;
+          for (int i = offset; i < Math.min(offset + limit, results.scoreDocs.length); i++) {
+            ScoreDoc doc = results.scoreDocs[i];
+            Document document = index.doc(doc.doc, RESULT_FIELDS);
             String title = document.get("title");
 
             Map<String, Object> result = new LinkedHashMap<String, Object>();
-            String excerpt = "";
-          
+            String excerpt = null;
+            
             try {
-              excerpt = highlighter.getBestFragments(parser.getAnalyzer().tokenStream(null, new StringReader(content)), content, 3, "...");
-              excerpt = fixExcerpt(excerpt);
-              
-              result.put("excerpt", excerpt);
+              if(vectorHighlighter == null) {
+                vectorHighlighter = createVectorHighlighter();
+                fieldQuery = vectorHighlighter.getFieldQuery(query1, index.getIndexReader());
+              }
+              excerpt = getVectorExcerpt(vectorHighlighter, fieldQuery, index.getIndexReader(), doc.doc);
             } catch(Exception e) {
-              logger.debug("Failed to get search excerpt from content.", e);
-              
+              logger.debug("Failed to get search excerpt from term vectors.", e);
+            }
+          
+            if(excerpt != null) {
+              result.put("excerpt", excerpt);
+            } else {
+              // pages indexed without term vectors are highlighted by analyzing their text again.
+              if(highlighter == null) {
+                highlighter = new Highlighter(new SimpleHTMLFormatter(), new SimpleHTMLEncoder(), new QueryScorer(query1));
+              }
               try {
-                excerpt = highlighter.getBestFragments(parser.getAnalyzer().tokenStream(null, new StringReader(title)), title, 1, "...");
-                excerpt = fixExcerpt(excerpt);
-                
-                result.put("excerpt", excerpt);
-              } catch(Exception e1) {
-                logger.debug("Failed to get search excerpt from title.", e1);
+                String content = index.doc(doc.doc, CONTENT_FIELD).get("content");
+                result.put("excerpt", getAnalyzerExcerpt(highlighter, parser.getAnalyzer(), content, 3));
+              } catch(Exception e) {
+                logger.debug("Failed to get search excerpt from content.", e);
                 
-                result.put("excerpt", "");
+                try {
+                  result.put("excerpt", getAnalyzerExcerpt(highlighter, parser.getAnalyzer(), title, 1));
+                } catch(Exception e1) {
+                  logger.debug("Failed to get search excerpt from title.", e1);
+                  
+                  result.put("excerpt", "");
+                }
               }
             }
             
@@ -137,6 +247,10 @@ public class SearchService
             
             resultList.add(result);
           }
+          
+          if(cache != null) {
+            cache.put(generation, cacheKey, resultMap);
+          }
         }
 
       }
@@ -145,6 +259,35 @@ public class SearchService
     return resultMap;
   }
 
+  /**
+   * @return A highlighter that builds excerpts from the term vectors of the content field.
+   */
+  static FastVectorHighlighter createVectorHighlighter() {
+    return new FastVectorHighlighter(true, true);
+  }
+  
+  /**
+   * Builds an excerpt for a document from the term vectors of its content field, marking and encoding matches the same way
+   * the analyzing highlighter does.
+   * 
+   * @return The excerpt, or null if the document does not have term vectors, or none of its terms matched.
+   */
+  static String getVectorExcerpt(FastVectorHighlighter highlighter, FieldQuery fieldQuery, IndexReader reader, int docId) throws IOException {
+    String fragments[] = highlighter.getBestFragments(fieldQuery, reader, docId, "content", FRAGMENT_SIZE, 3, 
+        new SimpleFragListBuilder(), new ScoreOrderFragmentsBuilder(), HIGHLIGHT_PRE_TAGS, HIGHLIGHT_POST_TAGS, new SimpleHTMLEncoder());
+    if(fragments == null || fragments.length == 0) {
+      return null;
+    }
+    return fixExcerpt(StringUtils.join(fragments, "..."));
+  }
+  
+  /**
+   * Builds an excerpt by analyzing the text of a field again.
+   */
+  static String getAnalyzerExcerpt(Highlighter highlighter, Analyzer analyzer, String text, int fragments) throws Exception {
+    return fixExcerpt(highlighter.getBestFragments(analyzer.tokenStream(null, new StringReader(text)), text, fragments, "..."));
+  }
+
   private static String fixExcerpt(String excerpt) {
     if(excerpt != null) {
       excerpt = excerpt.replace("\n", "");
@@ -164,4 +307,8 @@ public class SearchService
   void setIndexSearchProvider(IndexSearcherProvider provider) {
     this.provider = provider;
   }
+  
+  void setResultCache(SearchResultCache resultCache) {
+    this.resultCache = resultCache;
+  }
 }
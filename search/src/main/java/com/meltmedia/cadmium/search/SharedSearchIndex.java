@@ -0,0 +1,130 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.search;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A directory, readable by every member of a cluster, that the coordinator publishes the search index of each content
+ * revision to.  The other members copy the published index instead of indexing the content themselves.</p>
+ * <p>Each index is published to a directory named after its revision.  The index is copied to a temporary directory
+ * first, and then renamed into place, so a published directory is always complete.  Only the most recently published
+ * indexes are kept.</p>
+ */
+public class SharedSearchIndex {
+  private static final Logger log = LoggerFactory.getLogger(SharedSearchIndex.class);
+  
+  public static final int MAX_PUBLISHED_INDEXES = 3;
+  private static final long POLL_MILLIS = 500l;
+  
+  private final File root;
+  
+  public SharedSearchIndex(File root) {
+    this.root = root;
+  }
+  
+  public File getRoot() {
+    return root;
+  }
+  
+  /**
+   * @param revision the content revision.
+   * @return The directory that the index of the given revision is published to.
+   */
+  public File getIndexDir(String revision) {
+    return new File(root, revision.replaceAll("[^A-Za-z0-9._-]", "_"));
+  }
+  
+  /**
+   * Publishes an index for a content revision, replacing any index already published for it.
+   * 
+   * @param indexDir the index to publish.
+   * @param revision the revision of the content that was indexed.
+   * @throws IOException if the index could not be published.
+   */
+  public void publish(File indexDir, String revision) throws IOException {
+    long start = System.currentTimeMillis();
+    File publishedDir = getIndexDir(revision);
+    File tmpDir = new File(root, "." + publishedDir.getName() + ".tmp");
+    if(tmpDir.exists()) {
+      FileUtils.deleteDirectory(tmpDir);
+    }
+    FileUtils.copyDirectory(indexDir, tmpDir);
+    new File(tmpDir, "write.lock").delete();
+    if(publishedDir.exists()) {
+      FileUtils.deleteDirectory(publishedDir);
+    }
+    if(!tmpDir.renameTo(publishedDir)) {
+      FileUtils.deleteQuietly(tmpDir);
+      throw new IOException("Failed to move "+tmpDir+" to "+publishedDir);
+    }
+    publishedDir.setLastModified(System.currentTimeMillis());
+    log.info("Published the search index of revision {} to {} in {}ms.", new Object[] {revision, publishedDir, System.currentTimeMillis() - start});
+    prune();
+  }
+  
+  /**
+   * Waits for the index of a content revision to be published.
+   * 
+   * @param revision the content revision.
+   * @param timeoutMillis the longest time to wait.
+   * @return The published index, or null if it was not published in time.
+   * @throws InterruptedException
+   */
+  public File await(String revision, long timeoutMillis) throws InterruptedException {
+    File publishedDir = getIndexDir(revision);
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while(!publishedDir.isDirectory()) {
+      if(System.currentTimeMillis() >= deadline) {
+        return null;
+      }
+      Thread.sleep(POLL_MILLIS);
+    }
+    return publishedDir;
+  }
+  
+  /**
+   * Deletes all but the most recently published indexes.
+   */
+  private void prune() {
+    File published[] = root.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.isDirectory() && !file.getName().startsWith(".");
+      }
+    });
+    if(published == null || published.length <= MAX_PUBLISHED_INDEXES) {
+      return;
+    }
+    Arrays.sort(published, new Comparator<File>() {
+      @Override
+      public int compare(File file1, File file2) {
+        return Long.valueOf(file2.lastModified()).compareTo(file1.lastModified());
+      }
+    });
+    for(int i = MAX_PUBLISHED_INDEXES; i < published.length; i++) {
+      FileUtils.deleteQuietly(published[i]);
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.search.config;
+
+import com.meltmedia.cadmium.core.config.CadmiumConfig;
+
+/**
+ * <p>Configuration of the search index, read from the <code>search</code> key of the cadmium configuration.</p>
+ * <pre>
+ * default:
+ *   search: !search
+ *     incremental: true
+ *     indexThreads: 4
+ *     ramBufferSizeMB: 16
+ *     resultCacheSize: 1000
+ *     resultCacheTtlSeconds: 300
+ *     sharedIndexDirectory: search-indexes
+ *     sharedIndexWaitSeconds: 120
+ *     directoryType: mmap
+ *     warmUp: true
+ * </pre>
+ */
+@CadmiumConfig(SearchConfiguration.KEY)
+public class SearchConfiguration {
+  public static final String KEY = "search";
+  
+  /**
+   * When true, a new index is created by applying the content changes to a copy of the live index, if the live index was
+   * built from the revision that the changes start at.
+   */
+  private boolean incremental = true;
+  
+  /**
+   * The number of threads that parse and index pages when the index is built.  Values less than 1 use one thread for each
+   * available processor.
+   */
+  private int indexThreads = 0;
+  
+  /**
+   * The amount of memory, in megabytes, that the index writer buffers documents in before flushing them to disk.
+   */
+  private double ramBufferSizeMB = DEFAULT_RAM_BUFFER_SIZE_MB;
+  
+  public static final double DEFAULT_RAM_BUFFER_SIZE_MB = 16.0;
+  
+  /**
+   * The number of pages of search results that are cached for the live index.  0 disables the cache.
+   */
+  private int resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
+  
+  public static final int DEFAULT_RESULT_CACHE_SIZE = 1000;
+  
+  /**
+   * The number of seconds that cached search results live for.  0 keeps results until the next index is made live.
+   */
+  private long resultCacheTtlSeconds = 0l;
+  
+  /**
+   * A directory, readable and writable by every member of the cluster, that the coordinator publishes each index to.
+   * The other members copy the published index instead of indexing the content.  Relative paths are resolved against
+   * the shared content root.  When this is not set, every member indexes the content itself.
+   */
+  private String sharedIndexDirectory = null;
+  
+  /**
+   * The number of seconds that members wait for the coordinator to publish an index before indexing the content
+   * themselves.
+   */
+  private long sharedIndexWaitSeconds = DEFAULT_SHARED_INDEX_WAIT_SECONDS;
+  
+  public static final long DEFAULT_SHARED_INDEX_WAIT_SECONDS = 120l;
+  
+  public static final String NIOFS_DIRECTORY = "niofs";
+  public static final String MMAP_DIRECTORY = "mmap";
+  public static final String RAM_DIRECTORY = "ram";
+  
+  /**
+   * How searches read the index: <code>niofs</code> reads it from disk, <code>mmap</code> memory maps it, which suits
+   * large indexes on 64-bit JVMs, and <code>ram</code> copies it onto the heap, which suits small sites.
+   */
+  private String directoryType = NIOFS_DIRECTORY;
+  
+  /**
+   * When true, a new index is read through in the background after it is made live, so the first searches against it
+   * don't wait for it to be paged in.
+   */
+  private boolean warmUp = false;
+  
+  public SearchConfiguration() {}
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  public int getIndexThreads() {
+    return indexThreads;
+  }
+
+  public void setIndexThreads(int indexThreads) {
+    this.indexThreads = indexThreads;
+  }
+  
+  /**
+   * @return The number of index threads to use, resolving values less than 1 to the number of available processors.
+   */
+  public int getEffectiveIndexThreads() {
+    return indexThreads > 0 ? indexThreads : Runtime.getRuntime().availableProcessors();
+  }
+
+  public double getRamBufferSizeMB() {
+    return ramBufferSizeMB;
+  }
+
+  public void setRamBufferSizeMB(double ramBufferSizeMB) {
+    this.ramBufferSizeMB = ramBufferSizeMB;
+  }
+
+  public int getResultCacheSize() {
+    return resultCacheSize;
+  }
+
+  public void setResultCacheSize(int resultCacheSize) {
+    this.resultCacheSize = resultCacheSize;
+  }
+
+  public long getResultCacheTtlSeconds() {
+    return resultCacheTtlSeconds;
+  }
+
+  public void setResultCacheTtlSeconds(long resultCacheTtlSeconds) {
+    this.resultCacheTtlSeconds = resultCacheTtlSeconds;
+  }
+
+  public String getSharedIndexDirectory() {
+    return sharedIndexDirectory;
+  }
+
+  public void setSharedIndexDirectory(String sharedIndexDirectory) {
+    this.sharedIndexDirectory = sharedIndexDirectory;
+  }
+
+  public long getSharedIndexWaitSeconds() {
+    return sharedIndexWaitSeconds;
+  }
+
+  public void setSharedIndexWaitSeconds(long sharedIndexWaitSeconds) {
+    this.sharedIndexWaitSeconds = sharedIndexWaitSeconds;
+  }
+
+  public String getDirectoryType() {
+    return directoryType;
+  }
+
+  public void setDirectoryType(String directoryType) {
+    this.directoryType = directoryType;
+  }
+
+  public boolean isWarmUp() {
+    return warmUp;
+  }
+
+  public void setWarmUp(boolean warmUp) {
+    this.warmUp = warmUp;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof SearchConfiguration)) return false;
+
+    SearchConfiguration that = (SearchConfiguration) o;
+
+    if (incremental != that.incremental) return false;
+    if (indexThreads != that.indexThreads) return false;
+    if (Double.compare(that.ramBufferSizeMB, ramBufferSizeMB) != 0) return false;
+    if (resultCacheSize != that.resultCacheSize) return false;
+    if (resultCacheTtlSeconds != that.resultCacheTtlSeconds) return false;
+    if (sharedIndexWaitSeconds != that.sharedIndexWaitSeconds) return false;
+    if (sharedIndexDirectory != null ? !sharedIndexDirectory.equals(that.sharedIndexDirectory) : that.sharedIndexDirectory != null) return false;
+    if (warmUp != that.warmUp) return false;
+    if (directoryType != null ? !directoryType.equals(that.directoryType) : that.directoryType != null) return false;
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = (incremental ? 1 : 0);
+    result = 31 * result + indexThreads;
+    long temp = Double.doubleToLongBits(ramBufferSizeMB);
+    result = 31 * result + (int) (temp ^ (temp >>> 32));
+    result = 31 * result + resultCacheSize;
+    result = 31 * result + (int) (resultCacheTtlSeconds ^ (resultCacheTtlSeconds >>> 32));
+    result = 31 * result + (sharedIndexDirectory != null ? sharedIndexDirectory.hashCode() : 0);
+    result = 31 * result + (int) (sharedIndexWaitSeconds ^ (sharedIndexWaitSeconds >>> 32));
+    result = 31 * result + (directoryType != null ? directoryType.hashCode() : 0);
+    result = 31 * result + (warmUp ? 1 : 0);
+    return result;
+  }
+}
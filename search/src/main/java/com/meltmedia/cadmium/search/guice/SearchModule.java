@@ -16,19 +16,28 @@
 package com.meltmedia.cadmium.search.guice;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.multibindings.Multibinder;
 import com.meltmedia.cadmium.core.CadmiumModule;
+import com.meltmedia.cadmium.core.MetricsProvider;
+import com.meltmedia.cadmium.core.config.ConfigurationListener;
 import com.meltmedia.cadmium.core.meta.ConfigProcessor;
 import com.meltmedia.cadmium.search.IndexSearcherProvider;
 import com.meltmedia.cadmium.search.SearchContentPreprocessor;
 import com.meltmedia.cadmium.search.SearchContentPreprocessorClass;
+import com.meltmedia.cadmium.search.SearchResultCache;
 
 @CadmiumModule
 public class SearchModule extends AbstractModule {
 
+  @SuppressWarnings("rawtypes")
   @Override
   protected void configure() {
     bind(IndexSearcherProvider.class).to(SearchContentPreprocessor.class);
     bind(ConfigProcessor.class).annotatedWith(SearchContentPreprocessorClass.class).to(SearchContentPreprocessor.class);
+    Multibinder<ConfigurationListener> listenerBinder = Multibinder.newSetBinder(binder(), ConfigurationListener.class);
+    listenerBinder.addBinding().to(SearchContentPreprocessor.class);
+    Multibinder<MetricsProvider> metricsProviderBinder = Multibinder.newSetBinder(binder(), MetricsProvider.class);
+    metricsProviderBinder.addBinding().to(SearchResultCache.class);
   }
 
 }
\ No newline at end of file
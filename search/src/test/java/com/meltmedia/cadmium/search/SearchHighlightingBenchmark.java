@@ -0,0 +1,140 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.search;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.vectorhighlight.FastVectorHighlighter;
+import org.apache.lucene.search.vectorhighlight.FieldQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * <p>Compares the latency of building the excerpts for a page of search results by analyzing the stored content again
+ * with the latency of building them from the term vectors of the content.</p>
+ * <p>This is not run as part of the build.  Run it with:</p>
+ * <pre>mvn test-compile exec:java -Dexec.mainClass=com.meltmedia.cadmium.search.SearchHighlightingBenchmark -Dexec.classpathScope=test</pre>
+ * <p>The arguments are the number of documents and the number of words in each document, 200 and 50000 by default.</p>
+ */
+public class SearchHighlightingBenchmark {
+  private static final String WORDS[] = new String[] {"cadmium", "content", "search", "index", "page", "lucene", "parser",
+    "thread", "queue", "document", "writer", "snapshot", "revision", "update", "server", "cluster", "member", "redirect"};
+  private static final String QUERIES[] = new String[] {"snapshot", "cluster member", "\"lucene index\"", "redirect OR revision"};
+  private static final int WARM_UP_ITERATIONS = 20;
+  private static final int ITERATIONS = 200;
+  private static final int PAGE_SIZE = 10;
+
+  public static void main(String[] args) throws Exception {
+    int documentCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int wordCount = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+    
+    SearchContentPreprocessor preprocessor = new SearchContentPreprocessor();
+    Analyzer analyzer = preprocessor.getAnalyzer();
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_43, analyzer));
+    Random random = new Random(42);
+    for(int i = 0; i < documentCount; i++) {
+      StringBuilder content = new StringBuilder();
+      for(int w = 0; w < wordCount; w++) {
+        content.append(WORDS[random.nextInt(WORDS.length)]).append(w % 20 == 19 ? ".\n" : " ");
+      }
+      Document doc = new Document();
+      doc.add(new TextField("title", "Page " + i, Field.Store.YES));
+      doc.add(new Field("content", content.toString(), SearchContentPreprocessor.CONTENT_FIELD_TYPE));
+      doc.add(new TextField("path", "/page" + i + ".html", Field.Store.YES));
+      writer.addDocument(doc);
+    }
+    writer.close();
+    
+    DirectoryReader reader = DirectoryReader.open(directory);
+    IndexSearcher searcher = new IndexSearcher(reader);
+    MultiFieldQueryParser parser = new MultiFieldQueryParser(Version.LUCENE_43, new String[]{"title", "content"}, analyzer);
+    
+    System.out.println(String.format("%-24s %14s %14s %14s %14s", "query", "analyze p50 ms", "analyze p99 ms", "vector p50 ms", "vector p99 ms"));
+    for(String queryString : QUERIES) {
+      Query query = parser.parse(queryString);
+      TopDocs results = searcher.search(query, null, PAGE_SIZE);
+      double analyzing[] = time(searcher, analyzer, query, results, false);
+      double vectors[] = time(searcher, analyzer, query, results, true);
+      System.out.println(String.format("%-24s %14.3f %14.3f %14.3f %14.3f", queryString, 
+          percentile(analyzing, 0.50), percentile(analyzing, 0.99), percentile(vectors, 0.50), percentile(vectors, 0.99)));
+    }
+    reader.close();
+  }
+  
+  /**
+   * Times building the excerpts of a page of results, returning the sorted latencies in milliseconds.
+   */
+  private static double[] time(IndexSearcher searcher, Analyzer analyzer, Query query, TopDocs results, boolean useVectors) throws Exception {
+    double latencies[] = new double[ITERATIONS];
+    int length = 0;
+    for(int i = 0; i < WARM_UP_ITERATIONS + ITERATIONS; i++) {
+      long begin = System.nanoTime();
+      length += excerpts(searcher, analyzer, query, results, useVectors);
+      long elapsed = System.nanoTime() - begin;
+      if(i >= WARM_UP_ITERATIONS) {
+        latencies[i - WARM_UP_ITERATIONS] = elapsed / 1000000.0d;
+      }
+    }
+    if(length == 0) {
+      throw new IllegalStateException("No excerpts were created.");
+    }
+    Arrays.sort(latencies);
+    return latencies;
+  }
+  
+  private static int excerpts(IndexSearcher searcher, Analyzer analyzer, Query query, TopDocs results, boolean useVectors) throws Exception {
+    int length = 0;
+    if(useVectors) {
+      FastVectorHighlighter highlighter = SearchService.createVectorHighlighter();
+      FieldQuery fieldQuery = highlighter.getFieldQuery(query, searcher.getIndexReader());
+      for(ScoreDoc doc : results.scoreDocs) {
+        searcher.doc(doc.doc);
+        String excerpt = SearchService.getVectorExcerpt(highlighter, fieldQuery, searcher.getIndexReader(), doc.doc);
+        length += excerpt != null ? excerpt.length() : 0;
+      }
+    }
+    else {
+      Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter(), new SimpleHTMLEncoder(), new QueryScorer(query));
+      for(ScoreDoc doc : results.scoreDocs) {
+        String content = searcher.doc(doc.doc).get("content");
+        length += SearchService.getAnalyzerExcerpt(highlighter, analyzer, content, 3).length();
+      }
+    }
+    return length;
+  }
+  
+  private static double percentile(double sorted[], double percentile) {
+    return sorted[Math.min(sorted.length - 1, (int)Math.ceil(percentile * sorted.length) - 1)];
+  }
+}
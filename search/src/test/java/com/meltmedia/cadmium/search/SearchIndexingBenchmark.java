@@ -0,0 +1,111 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.search;
+
+import java.io.File;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.util.Version;
+
+import com.meltmedia.cadmium.search.config.SearchConfiguration;
+
+/**
+ * <p>Measures how many pages per second {@link SearchContentPreprocessor} indexes with different numbers of indexing threads.</p>
+ * <p>This is not run as part of the build.  Run it with:</p>
+ * <pre>mvn test-compile exec:java -Dexec.mainClass=com.meltmedia.cadmium.search.SearchIndexingBenchmark -Dexec.classpathScope=test</pre>
+ * <p>The first argument is the number of synthetic pages to create, 50000 by default.  The remaining arguments are the
+ * thread counts to test, which default to 1, 2, 4 and 8.</p>
+ */
+public class SearchIndexingBenchmark {
+  private static final String WORDS[] = new String[] {"cadmium", "content", "search", "index", "page", "lucene", "parser",
+    "thread", "queue", "document", "writer", "snapshot", "revision", "update", "server", "cluster", "member", "redirect"};
+  private static final int PAGES_PER_DIRECTORY = 500;
+
+  public static void main(String[] args) throws Exception {
+    int pageCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    int threadCounts[] = new int[] {1, 2, 4, 8};
+    if(args.length > 1) {
+      threadCounts = new int[args.length - 1];
+      for(int i = 1; i < args.length; i++) {
+        threadCounts[i - 1] = Integer.parseInt(args[i]);
+      }
+    }
+    File baseDir = new File("./target/indexing-benchmark");
+    File contentDir = new File(baseDir, "content");
+    File indexDir = new File(baseDir, "index");
+    if(baseDir.exists()) {
+      FileUtils.deleteDirectory(baseDir);
+    }
+    createContent(contentDir, pageCount);
+    
+    SearchContentPreprocessor preprocessor = new SearchContentPreprocessor();
+    
+    // warm up the parser and the analyzer before timing anything.
+    index(preprocessor, contentDir, indexDir, 1);
+    
+    // the speedup from more threads is bounded by the number of processors, so report it with the results.
+    System.out.println("Available processors: "+Runtime.getRuntime().availableProcessors());
+    System.out.println(String.format("%8s %8s %12s %12s", "threads", "pages", "millis", "pages/sec"));
+    for(int threads : threadCounts) {
+      long begin = System.nanoTime();
+      int indexed = index(preprocessor, contentDir, indexDir, threads);
+      long elapsed = System.nanoTime() - begin;
+      System.out.println(String.format("%8d %8d %12d %12.1f", threads, indexed, elapsed / 1000000l, indexed / (elapsed / 1000000000.0d)));
+    }
+  }
+  
+  private static int index(SearchContentPreprocessor preprocessor, File contentDir, File indexDir, int threads) throws Exception {
+    if(indexDir.exists()) {
+      FileUtils.deleteDirectory(indexDir);
+    }
+    Directory directory = new NIOFSDirectory(indexDir);
+    IndexWriter writer = null;
+    try {
+      writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_43, preprocessor.getAnalyzer()).setRAMBufferSizeMB(SearchConfiguration.DEFAULT_RAM_BUFFER_SIZE_MB));
+      preprocessor.writeIndex(writer, contentDir, threads);
+      writer.commit();
+      return writer.numDocs();
+    }
+    finally {
+      if(writer != null) {
+        writer.close();
+      }
+      directory.close();
+    }
+  }
+  
+  private static void createContent(File contentDir, int pageCount) throws Exception {
+    Random random = new Random(42);
+    for(int i = 0; i < pageCount; i++) {
+      StringBuilder html = new StringBuilder();
+      html.append("<html><head><title>Page ").append(i).append("</title><script>var page = ").append(i).append(";</script></head><body>");
+      for(int p = 0; p < 10; p++) {
+        html.append("<p>");
+        for(int w = 0; w < 60; w++) {
+          html.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        html.append("</p>");
+      }
+      html.append("</body></html>");
+      FileUtils.writeStringToFile(new File(contentDir, "section" + (i / PAGES_PER_DIRECTORY) + "/page" + i + ".html"), html.toString(), "UTF-8");
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SearchResultCacheTest {
+  private SearchResultCache cache;
+  
+  @Before
+  public void createCache() {
+    cache = new SearchResultCache();
+  }
+  
+  @Test
+  public void testKeyNormalization() {
+    assertEquals(SearchResultCache.key("  cadmium   search ", null, 0, 10), SearchResultCache.key("cadmium search", "", 0, 10));
+    assertTrue("Pages should have different keys", !SearchResultCache.key("cadmium", null, 0, 10).equals(SearchResultCache.key("cadmium", null, 10, 10)));
+    assertTrue("Paths should have different keys", !SearchResultCache.key("cadmium", "/a", 0, 10).equals(SearchResultCache.key("cadmium", "/b", 0, 10)));
+  }
+
+  @Test
+  public void testHitAndInvalidate() {
+    long generation = cache.getGeneration();
+    String key = SearchResultCache.key("cadmium", null, 0, 10);
+    assertNull(cache.get(generation, key));
+    cache.put(generation, key, results("/index.html"));
+    
+    Map<String, Object> cached = cache.get(generation, key);
+    assertNotNull("Results should be cached", cached);
+    assertEquals(new Integer(1), cached.get("number-hits"));
+    assertEquals(1l, cache.getHits());
+    assertEquals(1l, cache.getMisses());
+    assertTrue("Size should be estimated", cache.getCurrentBytes() > 0);
+    
+    cache.invalidate();
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(0l, cache.getCurrentBytes());
+    assertNull("Old generation should not be readable", cache.get(generation, key));
+    assertNull(cache.get(cache.getGeneration(), key));
+  }
+  
+  @Test
+  public void testStaleGenerationNotCached() {
+    long generation = cache.getGeneration();
+    cache.invalidate();
+    cache.put(generation, "key", results("/index.html"));
+    assertEquals(0, cache.getEntryCount());
+  }
+  
+  @Test
+  public void testEviction() {
+    cache.configure(2, 0l);
+    long generation = cache.getGeneration();
+    cache.put(generation, "a", results("/a.html"));
+    cache.put(generation, "b", results("/b.html"));
+    cache.get(generation, "a");
+    cache.put(generation, "c", results("/c.html"));
+    assertEquals(2, cache.getEntryCount());
+    assertNotNull(cache.get(generation, "a"));
+    assertNull("Least recently used entry should be evicted", cache.get(generation, "b"));
+    assertEquals(1l, cache.getMetrics().get("evictions"));
+  }
+  
+  @Test
+  public void testTtl() throws Exception {
+    cache.configure(10, 1l);
+    long generation = cache.getGeneration();
+    cache.put(generation, "a", results("/a.html"));
+    Thread.sleep(20l);
+    assertNull("Entry should expire", cache.get(generation, "a"));
+    assertEquals(1l, cache.getMetrics().get("expirations"));
+  }
+  
+  @Test
+  public void testDisabled() {
+    cache.configure(0, 0l);
+    cache.put(cache.getGeneration(), "a", results("/a.html"));
+    assertEquals(0, cache.getEntryCount());
+  }
+  
+  @Test(expected=UnsupportedOperationException.class)
+  public void testCachedResultsAreImmutable() {
+    cache.put(cache.getGeneration(), "a", results("/a.html"));
+    cache.get(cache.getGeneration(), "a").put("number-hits", 2);
+  }
+  
+  private static Map<String, Object> results(String path) {
+    Map<String, Object> results = new LinkedHashMap<String, Object>();
+    results.put("number-hits", 1);
+    List<Map<String, Object>> resultList = new ArrayList<Map<String, Object>>();
+    Map<String, Object> result = new LinkedHashMap<String, Object>();
+    result.put("path", path);
+    result.put("excerpt", "<B>cadmium</B>");
+    resultList.add(result);
+    results.put("results", resultList);
+    return results;
+  }
+}
@@ -31,6 +31,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -74,6 +75,10 @@ public class SearchServiceTest {
     
     when(index.search(parser.parse("good_query"), null, 100000)).thenReturn(hasResults);
     when(index.search(parser.parse("bad_query"), null, 100000)).thenReturn(noResults);
+    when(index.search(parser.parse("good_query"), null, 3)).thenReturn(new TopDocs(5, new ScoreDoc[]{new ScoreDoc(1, 1.1f),
+        new ScoreDoc(2, 1.1f),
+        new ScoreDoc(3, 1.1f)}, 1.1f));
+    when(index.search(parser.parse("bad_query"), null, SearchService.DEFAULT_LIMIT)).thenReturn(noResults);
     Document one = new Document();
     one.add(new TextField("path", "1", Field.Store.YES));
     Document two = new Document();
@@ -87,11 +92,11 @@ public class SearchServiceTest {
     
     docs = new Document[] {one, two, three, four, five};
     
-    when(index.doc(1)).thenReturn(one);
-    when(index.doc(2)).thenReturn(two);
-    when(index.doc(3)).thenReturn(three);
-    when(index.doc(4)).thenReturn(four);
-    when(index.doc(5)).thenReturn(five);
+    when(index.doc(eq(1), anySetOf(String.class))).thenReturn(one);
+    when(index.doc(eq(2), anySetOf(String.class))).thenReturn(two);
+    when(index.doc(eq(3), anySetOf(String.class))).thenReturn(three);
+    when(index.doc(eq(4), anySetOf(String.class))).thenReturn(four);
+    when(index.doc(eq(5), anySetOf(String.class))).thenReturn(five);
     
     when(searcherProvider.startSearch()).thenReturn(index);
     
@@ -135,4 +140,49 @@ public class SearchServiceTest {
     assertTrue("Should have results entry", results.containsKey("results"));
     assertTrue("Should have no result entries", ((List<Map<String, Object>>)results.get("results")).isEmpty());
   }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSearchPage() throws Exception {
+    Map<String, Object> results = service.search("good_query", null, 1, 2, false);
+    
+    assertEquals("Should report all of the hits", new Integer(5), results.get("number-hits"));
+    assertEquals(new Integer(1), results.get("offset"));
+    assertEquals(new Integer(2), results.get("limit"));
+    List<Map<String, Object>> resultList = ((List<Map<String, Object>>)results.get("results"));
+    assertEquals("Should have 2 result entries", 2, resultList.size());
+    assertEquals("2", resultList.get(0).get("path"));
+    assertEquals("3", resultList.get(1).get("path"));
+    verify(index, never()).doc(eq(1), anySetOf(String.class));
+    verify(index, never()).doc(eq(4), anySetOf(String.class));
+    verify(index, never()).doc(anyInt());
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSearchPageWithoutResults() throws Exception {
+    Map<String, Object> results = service.search("bad_query", null, -5, SearchService.DEFAULT_LIMIT, false);
+    
+    assertEquals(new Integer(0), results.get("number-hits"));
+    assertEquals("Negative offsets should start at the first result", new Integer(0), results.get("offset"));
+    assertTrue("Should have no result entries", ((List<Map<String, Object>>)results.get("results")).isEmpty());
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSearchPageCached() throws Exception {
+    SearchResultCache cache = new SearchResultCache();
+    service.setResultCache(cache);
+    Map<String, Object> first = service.search("good_query", null, 1, 2, false);
+    Map<String, Object> second = service.search(" good_query ", null, 1, 2, false);
+    
+    assertEquals(first, second);
+    assertEquals(2, ((List<Map<String, Object>>)second.get("results")).size());
+    verify(index, times(1)).search(parser.parse("good_query"), null, 3);
+    assertEquals(1l, cache.getHits());
+    
+    cache.invalidate();
+    service.search("good_query", null, 1, 2, false);
+    verify(index, times(2)).search(parser.parse("good_query"), null, 3);
+  }
 }
@@ -15,21 +15,41 @@
  */
 package com.meltmedia.cadmium.search;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import jodd.jerry.Jerry;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.meltmedia.cadmium.core.ContentChangeSet;
 import com.meltmedia.cadmium.core.FileSystemManager;
+import com.meltmedia.cadmium.search.config.SearchConfiguration;
 
 public class SearchTest {
+  private static final File INCREMENTAL_ROOT = new File("./target/search-incremental-test");
 
   private SearchContentPreprocessor preprocessor;
   private SearchService service;
+  private final AtomicBoolean failNextPage = new AtomicBoolean(false);
   
   @Before
   public void setupIndexes() throws Exception {
@@ -55,6 +75,183 @@ public class SearchTest {
     assertTrue("Should have no result entries", ((List<Map<String, Object>>)results.get("results")).isEmpty());
   }
   
+  @Test
+  public void testSearchOutlivesMakeLive() throws Exception {
+    IndexSearcher searcher = preprocessor.startSearch();
+    IndexReader reader = searcher.getIndexReader();
+    try {
+      preprocessor.processFromDirectory("./target/test-classes/test-content/META-INF");
+      preprocessor.makeLive();
+      
+      assertTrue("Reader should stay open while it is searched", reader.getRefCount() > 0);
+      assertTrue("Search should still run", searcher.search(new MatchAllDocsQuery(), 10).totalHits > 0);
+    }
+    finally {
+      preprocessor.endSearch();
+    }
+    assertEquals("Reader should close after the search ends", 0, reader.getRefCount());
+    
+    IndexSearcher newSearcher = preprocessor.startSearch();
+    try {
+      assertNotSame("New searches should use the new index", reader, newSearcher.getIndexReader());
+    }
+    finally {
+      preprocessor.endSearch();
+    }
+  }
+  
+  @Test
+  public void testRamDirectoryWithWarmUp() throws Exception {
+    SearchConfiguration config = new SearchConfiguration();
+    config.setDirectoryType(SearchConfiguration.RAM_DIRECTORY);
+    config.setWarmUp(true);
+    preprocessor.configurationUpdated(config);
+    preprocessor.processFromDirectory("./target/test-classes/test-content/META-INF");
+    preprocessor.makeLive();
+    
+    IndexSearcher searcher = preprocessor.startSearch();
+    try {
+      assertTrue("Search should run against the heap copy", searcher.search(new MatchAllDocsQuery(), 10).totalHits > 0);
+    }
+    finally {
+      preprocessor.endSearch();
+    }
+  }
+  
+  @Test
+  public void testIncrementalUpdate() throws Exception {
+    indexFirstRevision(incrementalPreprocessor());
+    preprocessor.processFromDirectory(writeSecondRevision(new ContentChangeSet("rev1", "rev2",
+        Arrays.asList("/other.html", "/new.html"), Arrays.asList("/subdir/page.html"))));
+    preprocessor.makeLive();
+    
+    assertEquals("Unchanged pages should not be indexed again", 1, hits("content", "alpha"));
+    assertEquals("Unchanged pages should not be indexed again", 0, hits("content", "zulu"));
+    assertEquals("Changed pages should be indexed again", 1, hits("content", "delta"));
+    assertEquals("Changed pages should be indexed again", 0, hits("content", "bravo"));
+    assertEquals("Added pages should be indexed", 1, hits("content", "echo"));
+    assertEquals("Deleted pages should be removed", 0, hits(SearchContentPreprocessor.PATH_KEY_FIELD, "/subdir/page.html"));
+    assertEquals("rev2", liveRevision());
+  }
+  
+  @Test
+  public void testRebuildWhenRevisionsDiffer() throws Exception {
+    indexFirstRevision(incrementalPreprocessor());
+    preprocessor.processFromDirectory(writeSecondRevision(new ContentChangeSet("rev0", "rev2",
+        Arrays.asList("/other.html", "/new.html"), Arrays.asList("/subdir/page.html"))));
+    preprocessor.makeLive();
+    
+    assertRebuilt();
+  }
+  
+  @Test
+  public void testRebuildWhenMetaInfChanges() throws Exception {
+    indexFirstRevision(incrementalPreprocessor());
+    preprocessor.processFromDirectory(writeSecondRevision(new ContentChangeSet("rev1", "rev2",
+        Arrays.asList("/other.html", "/new.html", "/META-INF/config.json"), Arrays.asList("/subdir/page.html"))));
+    preprocessor.makeLive();
+    
+    assertRebuilt();
+  }
+  
+  @Test
+  public void testRebuildWhenUpdateFails() throws Exception {
+    indexFirstRevision(incrementalPreprocessor());
+    failNextPage.set(true);
+    preprocessor.processFromDirectory(writeSecondRevision(new ContentChangeSet("rev1", "rev2",
+        Arrays.asList("/other.html", "/new.html"), Arrays.asList("/subdir/page.html"))));
+    preprocessor.makeLive();
+    
+    assertRebuilt();
+  }
+  
+  /**
+   * Replaces the preprocessor with one that indexes locally on one thread, and fails to index the next page when
+   * failNextPage is set.
+   */
+  private SearchContentPreprocessor incrementalPreprocessor() throws Exception {
+    preprocessor.finalize();
+    FileSystemManager.deleteDeep(preprocessor.getIndexDir().getAbsolutePath());
+    FileUtils.deleteQuietly(INCREMENTAL_ROOT);
+    
+    preprocessor = new SearchContentPreprocessor() {
+      @Override
+      void indexFile(IndexWriter indexWriter, Jerry.JerryParser jerryParser, File file, String path) {
+        if(failNextPage.compareAndSet(true, false)) {
+          throw new IllegalStateException("Failing to index "+path);
+        }
+        super.indexFile(indexWriter, jerryParser, file, path);
+      }
+    };
+    SearchConfiguration config = new SearchConfiguration();
+    config.setIndexThreads(1);
+    config.setSharedIndexDirectory("");
+    preprocessor.configurationUpdated(config);
+    service.setIndexSearchProvider(preprocessor);
+    return preprocessor;
+  }
+  
+  private void indexFirstRevision(SearchContentPreprocessor preprocessor) throws Exception {
+    File contentDir = new File(INCREMENTAL_ROOT, "rev1");
+    writePage(contentDir, "/index.html", "alpha");
+    writePage(contentDir, "/other.html", "bravo");
+    writePage(contentDir, "/subdir/page.html", "charlie");
+    new ContentChangeSet(null, "rev1", Collections.<String>emptyList(), Collections.<String>emptyList()).write(contentDir);
+    preprocessor.processFromDirectory(new File(contentDir, "META-INF").getPath());
+    preprocessor.makeLive();
+    assertEquals("rev1", liveRevision());
+  }
+  
+  /**
+   * Writes the second revision of the content.  The index page is changed without being listed in the change set, so it
+   * is only indexed again when the index is rebuilt.
+   * 
+   * @return The META-INF directory of the second revision.
+   */
+  private String writeSecondRevision(ContentChangeSet changes) throws Exception {
+    File contentDir = new File(INCREMENTAL_ROOT, "rev2");
+    writePage(contentDir, "/index.html", "zulu");
+    writePage(contentDir, "/other.html", "delta");
+    writePage(contentDir, "/new.html", "echo");
+    changes.write(contentDir);
+    return new File(contentDir, "META-INF").getPath();
+  }
+  
+  private static void writePage(File contentDir, String path, String word) throws Exception {
+    FileUtils.writeStringToFile(new File(contentDir, path.substring(1)),
+        "<html><head><title>"+word+"</title></head><body><p>"+word+"</p></body></html>", "UTF-8");
+  }
+  
+  private void assertRebuilt() throws Exception {
+    assertEquals("Every page should be indexed again", 0, hits("content", "alpha"));
+    assertEquals("Every page should be indexed again", 1, hits("content", "zulu"));
+    assertEquals(1, hits("content", "delta"));
+    assertEquals(0, hits("content", "bravo"));
+    assertEquals(1, hits("content", "echo"));
+    assertEquals(0, hits(SearchContentPreprocessor.PATH_KEY_FIELD, "/subdir/page.html"));
+    assertEquals("rev2", liveRevision());
+  }
+  
+  private int hits(String field, String term) throws Exception {
+    IndexSearcher searcher = preprocessor.startSearch();
+    try {
+      return searcher.search(new TermQuery(new Term(field, term)), 10).totalHits;
+    }
+    finally {
+      preprocessor.endSearch();
+    }
+  }
+  
+  private String liveRevision() throws Exception {
+    IndexSearcher searcher = preprocessor.startSearch();
+    try {
+      return ((DirectoryReader)searcher.getIndexReader()).getIndexCommit().getUserData().get(SearchContentPreprocessor.REVISION_KEY);
+    }
+    finally {
+      preprocessor.endSearch();
+    }
+  }
+  
   @After
   public void finishUp() throws Exception {
     preprocessor.finalize();
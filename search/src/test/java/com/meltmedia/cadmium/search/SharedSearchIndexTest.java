@@ -0,0 +1,77 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedSearchIndexTest {
+  private File baseDir;
+  private File indexDir;
+  private SharedSearchIndex sharedIndex;
+  
+  @Before
+  public void createIndex() throws Exception {
+    baseDir = new File("./target/shared-index-test");
+    if(baseDir.exists()) {
+      FileUtils.deleteDirectory(baseDir);
+    }
+    indexDir = new File(baseDir, "lucene-index");
+    FileUtils.writeStringToFile(new File(indexDir, "segments_1"), "segments");
+    FileUtils.writeStringToFile(new File(indexDir, "write.lock"), "");
+    sharedIndex = new SharedSearchIndex(new File(baseDir, "shared"));
+    sharedIndex.getRoot().mkdirs();
+  }
+
+  @Test
+  public void testPublishAndAwait() throws Exception {
+    assertNull("Nothing should be published", sharedIndex.await("abc123", 0l));
+    
+    sharedIndex.publish(indexDir, "abc123");
+    File published = sharedIndex.await("abc123", 0l);
+    assertNotNull("Index should be published", published);
+    assertEquals("segments", FileUtils.readFileToString(new File(published, "segments_1")));
+    assertFalse("Lock should not be published", new File(published, "write.lock").exists());
+    assertEquals("Only the published index should remain", 1, sharedIndex.getRoot().list().length);
+  }
+  
+  @Test
+  public void testRevisionNamesAreSanitized() throws Exception {
+    File published = sharedIndex.getIndexDir("../refs/heads/master");
+    assertEquals(sharedIndex.getRoot(), published.getParentFile());
+  }
+  
+  @Test
+  public void testOldIndexesPruned() throws Exception {
+    for(int i = 0; i < SharedSearchIndex.MAX_PUBLISHED_INDEXES + 2; i++) {
+      sharedIndex.publish(indexDir, "revision" + i);
+      sharedIndex.getIndexDir("revision" + i).setLastModified(1000000l * (i + 1));
+    }
+    sharedIndex.publish(indexDir, "latest");
+    assertEquals(SharedSearchIndex.MAX_PUBLISHED_INDEXES, sharedIndex.getRoot().list().length);
+    assertTrue(sharedIndex.getIndexDir("latest").isDirectory());
+    assertFalse("Oldest index should be deleted", sharedIndex.getIndexDir("revision0").exists());
+  }
+}
@@ -15,6 +15,9 @@
  */
 package com.meltmedia.cadmium.servlets;
 
+import com.meltmedia.cadmium.core.ContentDigests;
+import com.meltmedia.cadmium.core.ContentIndex;
+import com.meltmedia.cadmium.core.util.ContentCompressor;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -28,7 +31,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.regex.Matcher;
@@ -53,6 +55,8 @@ public class BasicFileServlet
   public static final String IF_RANGE_HEADER = "If-Range";
   public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
   public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+  public static final String VARY_HEADER = "Vary";
+  public static final String GZIP_ETAG_SUFFIX = "-gz";
   public static final String CONTENT_TYPE_HEADER = "Content-Type";
   public static final String TEXT_HTML_TYPE = "text/html";
   public static final String LOCATION_HEADER = "Location";
@@ -62,17 +66,34 @@ public class BasicFileServlet
   public static final String CONTENT_LENGTH_HEADER = "Content-Length";
   public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
   public static final String ACCEPT_HEADER = "Accept";
+  public static final String CACHE_MAX_BYTES_PARAM = "contentCacheMaxBytes";
+  public static final String CACHE_MAX_ENTRY_BYTES_PARAM = "contentCacheMaxEntryBytes";
+  public static final String NIO_MIN_BYTES_PARAM = "nioMinBytes";
+  public static final long DEFAULT_NIO_MIN_BYTES = 64l * 1024l;
+  public static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+  public static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+  public static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+  public static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
   
   public static final String RANGE_BOUNDARY = "RANGES_BOUNDARY_";
   
   protected File contentDir = null;
   protected Long lastUpdated = System.currentTimeMillis();
+  protected volatile ContentIndex contentIndex = null;
   
   protected List<String> gzipList = new ArrayList<String>();
   
+  protected ContentCache contentCache = new ContentCache();
+  
+  /**
+   * Uncompressed responses of at least this many bytes are handed to the container's sendfile support, when it has it.  A
+   * negative value disables sendfile.
+   */
+  protected long nioMinBytes = DEFAULT_NIO_MIN_BYTES;
+  
   public BasicFileServlet() {
     super();
-    gzipList.addAll(Arrays.asList(new String [] {"text/*", "application/javascript", "application/x-javascript", "application/json", "application/xml", "application/xslt+xml"}));
+    gzipList.addAll(ContentCompressor.DEFAULT_GZIP_TYPES);
   }
   
   
@@ -82,11 +103,69 @@ public class BasicFileServlet
     if(this.contentDir == null) {
       setBasePath(config.getInitParameter("basePath"));
     }
+    String maxBytes = config.getInitParameter(CACHE_MAX_BYTES_PARAM);
+    if(maxBytes != null) {
+      contentCache.setMaxBytes(parseByteCount(CACHE_MAX_BYTES_PARAM, maxBytes));
+    }
+    String maxEntryBytes = config.getInitParameter(CACHE_MAX_ENTRY_BYTES_PARAM);
+    if(maxEntryBytes != null) {
+      contentCache.setMaxEntryBytes(parseByteCount(CACHE_MAX_ENTRY_BYTES_PARAM, maxEntryBytes));
+    }
+    String nioMinBytes = config.getInitParameter(NIO_MIN_BYTES_PARAM);
+    if(nioMinBytes != null) {
+      setNioMinBytes(parseByteCount(NIO_MIN_BYTES_PARAM, nioMinBytes));
+    }
+  }
+  
+  private static long parseByteCount(String name, String value) throws ServletException {
+    try {
+      return Long.parseLong(value.trim());
+    } catch(NumberFormatException e) {
+      throw new ServletException("The init parameter \""+name+"\" must be a number of bytes, not \""+value+"\".", e);
+    }
+  }
+  
+  protected void setNioMinBytes(long nioMinBytes) {
+    this.nioMinBytes = nioMinBytes;
+  }
+  
+  /**
+   * @return The cache that holds the bytes of recently served files.
+   */
+  public ContentCache getContentCache() {
+    return contentCache;
   }
   
   protected void setLastUpdated(long lastUpdated) {
     this.lastUpdated = lastUpdated;
   }
+  
+  /**
+   * Sets the cache that file contents are served from.  Servlets that serve different directories can share a cache.
+   * 
+   * @param contentCache
+   */
+  protected void setContentCache(ContentCache contentCache) {
+    this.contentCache = contentCache;
+  }
+  
+  /**
+   * <p>Sets the index of the content directory.  When an index is set, requests are resolved against it instead of the file system.</p>
+   * <p>When a file has a digest in the index, its digest is used as a strong ETag and its last modified time as the Last-Modified
+   * header.  Otherwise the ETag is built from the path and the lastUpdated time.</p>
+   * 
+   * @param contentIndex The index, or null to resolve requests against the file system.
+   */
+  protected void setContentIndex(ContentIndex contentIndex) {
+    this.contentIndex = contentIndex;
+  }
+  
+  /**
+   * @return The index of the content directory, or null if there is not one.
+   */
+  public ContentIndex getContentIndex() {
+    return contentIndex;
+  }
 
   protected void setBasePath(String basePath) throws ServletException {
     if(basePath == null) {
@@ -126,14 +205,19 @@ public class BasicFileServlet
       // Find the file to serve in the file system.  This may redirect for welcome files or send 404 responses.
       if(locateFileToServe(context)) return;
 
-      // Handle any conditional headers that may be present.
-      if(handleConditions(context)) return;
-
       // Sets the content type header.
       resolveContentType(context);
 
       // Sets compress if Accept-Encoding allows for gzip or identity
       if(checkAccepts(context)) return;
+      
+      // The encoding of compressible types depends on Accept-Encoding, so caches must key on it.
+      if(shouldGzip(context.contentType)) {
+        context.response.setHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+      }
+
+      // Handle any conditional headers that may be present.  The ETag sent depends on the encoding, so this follows checkAccepts.
+      if(handleConditions(context)) return;
 
       try {
         if(context.file != null) {
@@ -141,9 +225,9 @@ public class BasicFileServlet
         }
         context.response.setHeader(ACCEPT_RANGES_HEADER, "bytes");
         if(context.eTag != null) {
-          context.response.setHeader(ETAG_HEADER, context.eTag);
+          context.response.setHeader(ETAG_HEADER, eTagHeader(context));
         }
-        context.response.setDateHeader(LAST_MODIFIED_HEADER, lastUpdated);
+        context.response.setDateHeader(LAST_MODIFIED_HEADER, context.lastModified);
         if(!context.ranges.isEmpty()) {
           context.response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
           String rangeBoundary = RANGE_BOUNDARY + UUID.randomUUID().toString();
@@ -159,7 +243,7 @@ public class BasicFileServlet
                 sout.println();
                 sout.println("--"+rangeBoundary);
                 sout.println("Content-Type: " + context.contentType);
-                sout.println("Context-Range: bytes " + r.start + "-" + r.end + "/" + context.file.length());
+                sout.println("Context-Range: bytes " + r.start + "-" + r.end + "/" + context.fileLength());
 
                 copyPartialContent(context.in, context.out, r);
               }
@@ -172,14 +256,18 @@ public class BasicFileServlet
             context.response.setContentType(context.contentType);
             Long rangeLength = calculateRangeLength(context, r);
             context.response.setHeader(CONTENT_RANGE_HEADER, "bytes " + r.start + "-" + r.end
-                + "/" + context.file.length());
+                + "/" + context.fileLength());
             if(context.sendEntity) {
-              context.in = new FileInputStream(context.file);
-              context.out = context.response.getOutputStream();
-
               context.response.setHeader(CONTENT_LENGTH_HEADER, rangeLength.toString());
 
-              copyPartialContent(context.in, context.out, r);
+              if( useSendfile(context, rangeLength) ) {
+                sendFile(context, r.start, rangeLength);
+              } else {
+                context.in = new FileInputStream(context.file);
+                context.out = context.response.getOutputStream();
+
+                copyPartialContent(context.in, context.out, r);
+              }
             }
           }
         } else {
@@ -187,17 +275,39 @@ public class BasicFileServlet
           context.response.setContentType(context.contentType);
 
           if( context.sendEntity ) {
-            context.response.setHeader(CONTENT_RANGE_HEADER, "bytes 0-" + context.file.length() + "/" + context.file.length());
-            context.in = new FileInputStream(context.file);
-            context.out = context.response.getOutputStream();
-            if( context.compress ) {
-
+            context.response.setHeader(CONTENT_RANGE_HEADER, "bytes 0-" + context.fileLength() + "/" + context.fileLength());
+            File gzipFile = null;
+            ContentCache.CachedContent cached = contentCache.get(context.file, context.fileLength(), context.lastUpdated, shouldGzip(context.contentType));
+            if( cached != null ) {
+              byte body[] = cached.getContent();
+              if( context.compress && cached.getGzipContent() != null ) {
+                context.response.setHeader(CONTENT_ENCODING_HEADER, "gzip");
+                body = cached.getGzipContent();
+              }
+              context.response.setHeader(CONTENT_LENGTH_HEADER, Integer.toString(body.length));
+              context.out = context.response.getOutputStream();
+              context.out.write(body);
+            } else if( context.compress && (gzipFile = context.gzipFile()) != null ) {
               context.response.setHeader(CONTENT_ENCODING_HEADER, "gzip");
-              context.out = new GZIPOutputStream(context.out);
+              context.response.setHeader(CONTENT_LENGTH_HEADER, Long.toString(gzipFile.length()));
+              context.in = new FileInputStream(gzipFile);
+              context.out = context.response.getOutputStream();
+              IOUtils.copy(context.in, context.out);
+            } else if( !context.compress && useSendfile(context, context.fileLength()) ) {
+              context.response.setHeader(CONTENT_LENGTH_HEADER, Long.toString(context.fileLength()));
+              sendFile(context, 0, context.fileLength());
+            } else {
+              context.in = new FileInputStream(context.file);
+              context.out = context.response.getOutputStream();
+              if( context.compress ) {
+
+                context.response.setHeader(CONTENT_ENCODING_HEADER, "gzip");
+                context.out = new GZIPOutputStream(context.out);
 
-            } else context.response.setHeader(CONTENT_LENGTH_HEADER, new Long(context.file.length()).toString());
+              } else context.response.setHeader(CONTENT_LENGTH_HEADER, new Long(context.fileLength()).toString());
 
-            IOUtils.copy(context.in, context.out);
+              IOUtils.copy(context.in, context.out);
+            }
           }
         }
       }
@@ -214,6 +324,26 @@ public class BasicFileServlet
     }
   }
   
+  private boolean useSendfile(FileRequestContext context, long length) {
+    return nioMinBytes >= 0 && length >= nioMinBytes && Boolean.TRUE.equals(context.request.getAttribute(SENDFILE_SUPPORT_ATTR));
+  }
+  
+  /**
+   * <p>Hands length bytes of the context's file, starting at start, to the container through the sendfile request attributes.
+   * The container writes the bytes once the request returns, so nothing is written to the response here.</p>
+   * <p>Only call this when the request has the sendfile support attribute set to true.</p>
+   * 
+   * @param context
+   * @param start
+   * @param length
+   * @throws IOException
+   */
+  public static void sendFile(FileRequestContext context, long start, long length) throws IOException {
+    context.request.setAttribute(SENDFILE_FILENAME_ATTR, context.file.getCanonicalPath());
+    context.request.setAttribute(SENDFILE_START_ATTR, Long.valueOf(start));
+    context.request.setAttribute(SENDFILE_END_ATTR, Long.valueOf(start + length));
+  }
+  
   /**
    * Copies the given range of bytes from the input stream to the output stream.
    * 
@@ -235,7 +365,7 @@ public class BasicFileServlet
    */
   public static Long calculateRangeLength(FileRequestContext context, Range range) {
     if(range.start == -1) range.start = 0;
-    if(range.end == -1) range.end = context.file.length() - 1;
+    if(range.end == -1) range.end = context.fileLength() - 1;
     range.length = range.end - range.start + 1;
     return range.length;
   }
@@ -270,11 +400,7 @@ public class BasicFileServlet
    * @return
    */
   public boolean shouldGzip(String contentType) {
-    if(gzipList == null || gzipList.isEmpty()) {
-      return true;
-    } else {
-      return gzipList.contains(contentType) || gzipList.contains(contentType.replaceAll("/[^/]+\\Z", "/*")) || gzipList.contains(contentType.replaceAll("\\A[^/]+/", "*/"));
-    }
+    return ContentCompressor.matchesType(gzipList, contentType);
   }
 
 
@@ -285,6 +411,34 @@ public class BasicFileServlet
    * @throws IOException
    */
   public boolean locateFileToServe( FileRequestContext context ) throws IOException {
+    ContentIndex index = this.contentIndex;
+    if( index != null ) {
+      context.lastUpdated = index.getLastUpdated();
+      context.entry = index.get(context.path);
+      
+      // if the path is not in the index, send a 404.
+      if( context.entry == null ) {
+        context.response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return true;
+      }
+      context.file = context.entry.getFile();
+      
+      // redirect welcome files if needed.
+      if( handleWelcomeRedirect(context) ) return true;
+      
+      // if the requested file is a directory, use its welcome file.
+      if( context.entry.isDirectory() ) {
+        context.entry = context.entry.getWelcomeFile();
+        if( context.entry == null ) {
+          context.response.sendError(HttpServletResponse.SC_NOT_FOUND);
+          return true;
+        }
+        context.file = context.entry.getFile();
+      }
+      return false;
+    }
+    
+    context.lastUpdated = lastUpdated;
     context.file = new File( contentDir, context.path);
     
     // if the path is not on the file system, send a 404.
@@ -312,10 +466,19 @@ public class BasicFileServlet
   
   public boolean handleConditions( FileRequestContext context ) throws IOException {
     // check the conditions
-    context.eTag = context.path+"_"+lastUpdated;
+    ContentDigests.Entry digest = lookupDigest(context);
+    if( digest != null ) {
+      context.eTag = digest.getDigest();
+      context.strongETag = true;
+      context.lastModified = digest.getLastModified();
+    } else {
+      context.eTag = context.path+"_"+context.lastUpdated;
+      context.lastModified = context.lastUpdated;
+    }
     
     context.ifMatch = context.request.getHeader(IF_MATCH_HEADER);
-    if( context.ifMatch != null && !validateStrong(context.ifMatch, context.eTag) ) {
+    if( context.ifMatch != null && !validateStrong(context.ifMatch, context.eTag) 
+        && !(context.strongETag && validateStrong(context.ifMatch, context.eTag + GZIP_ETAG_SUFFIX)) ) {
       context.response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
       return true;
     }
@@ -324,7 +487,7 @@ public class BasicFileServlet
     
     try {
       context.inRangeDate = context.request.getDateHeader(IF_RANGE_HEADER);
-      if(context.inRangeDate != -1 && context.inRangeDate >= lastUpdated) {
+      if(context.inRangeDate != -1 && context.inRangeDate >= context.lastModified) {
         if(!parseRanges(context)){
           invalidRanges(context);
           return true;
@@ -349,23 +512,23 @@ public class BasicFileServlet
     }
     
     context.ifNoneMatch = context.request.getHeader(IF_NONE_MATCH_HEADER);
-    if( context.ifNoneMatch != null && validateStrong(context.ifNoneMatch, context.eTag)) {
+    if( context.ifNoneMatch != null && validateStrong(context.ifNoneMatch, representationETag(context))) {
       context.response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-      context.response.setHeader(ETAG_HEADER, context.eTag);
-      context.response.setDateHeader(LAST_MODIFIED_HEADER, lastUpdated);
+      context.response.setHeader(ETAG_HEADER, eTagHeader(context));
+      context.response.setDateHeader(LAST_MODIFIED_HEADER, context.lastModified);
       return true;
     }
     
     context.ifModifiedSince = context.request.getDateHeader(IF_MODIFIED_SINCE_HEADER);
-    if( context.ifModifiedSince != -1 && context.ifModifiedSince >= lastUpdated ) {
+    if( context.ifModifiedSince != -1 && context.ifModifiedSince >= context.lastModified ) {
       context.response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-      context.response.setHeader(ETAG_HEADER, context.eTag);
-      context.response.setDateHeader(LAST_MODIFIED_HEADER, lastUpdated);
+      context.response.setHeader(ETAG_HEADER, eTagHeader(context));
+      context.response.setDateHeader(LAST_MODIFIED_HEADER, context.lastModified);
       return true;
     }
     
     context.ifUnmodifiedSince = context.request.getDateHeader(IF_UNMODIFIED_SINCE_HEADER);
-    if( context.ifUnmodifiedSince != -1 && context.ifUnmodifiedSince < lastUpdated ) {
+    if( context.ifUnmodifiedSince != -1 && context.ifUnmodifiedSince < context.lastModified ) {
       context.response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
       return true;
     }
@@ -374,6 +537,35 @@ public class BasicFileServlet
 
   }
 
+  /**
+   * Looks up the digest manifest entry for the file being served.
+   * 
+   * @param context
+   * @return The manifest entry, or null if the content is not indexed or the file is not in the manifest.
+   */
+  protected ContentDigests.Entry lookupDigest( FileRequestContext context ) {
+    return context.entry != null ? context.entry.getDigest() : null;
+  }
+  
+  /**
+   * <p>Strong ETags must differ between content codings, so the digest of a gzip encoded response gets the
+   * {@link #GZIP_ETAG_SUFFIX}.  Range responses are always sent unencoded, and If-Range is compared to the unencoded ETag.</p>
+   * 
+   * @param context
+   * @return The unquoted ETag of the response the context will send.
+   */
+  public static String representationETag( FileRequestContext context ) {
+    return context.strongETag && context.isGzipEncoded() ? context.eTag + GZIP_ETAG_SUFFIX : context.eTag;
+  }
+  
+  /**
+   * @param context
+   * @return The value of the ETag header for the context.  Strong digest ETags are quoted.
+   */
+  public static String eTagHeader( FileRequestContext context ) {
+    return context.strongETag ? "\"" + representationETag(context) + "\"" : context.eTag;
+  }
+
   /**
    * Sets the appropriate response headers and error status for bad ranges
    * 
@@ -381,7 +573,7 @@ public class BasicFileServlet
    * @throws IOException
    */
   public static void invalidRanges(FileRequestContext context) throws IOException {
-    context.response.setHeader(CONTENT_RANGE_HEADER, "*/" + context.file.length());
+    context.response.setHeader(CONTENT_RANGE_HEADER, "*/" + context.fileLength());
     context.response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
   }
   
@@ -542,7 +734,8 @@ public class BasicFileServlet
    * @throws IOException 
    */
   public boolean handleWelcomeRedirect( FileRequestContext context ) throws IOException {
-    if( context.file.isFile() && context.file.getName().equals("index.html")) {
+    boolean isFile = context.entry != null ? !context.entry.isDirectory() : context.file.isFile();
+    if( isFile && context.file.getName().equals("index.html")) {
       resolveContentType(context);
       String location = context.path.replaceFirst("/index.html\\Z", "");
       if( location.isEmpty() ) location = "/";
@@ -589,6 +782,10 @@ public class BasicFileServlet
     public long ifModifiedSince;
     public String ifNoneMatch;
     public String eTag;
+    public boolean strongETag = false;
+    public long lastModified = -1;
+    public long lastUpdated = -1;
+    ContentIndex.Entry entry = null;
     HttpServletRequest request = null;
     HttpServletResponse response = null;
     File file = null;
@@ -606,6 +803,27 @@ public class BasicFileServlet
       this.sendEntity = sendEntity;
       this.path = request.getRequestURI();
     }
+    
+    /**
+     * @return The length of the file being served, from the content index if possible.
+     */
+    public long fileLength() {
+      return entry != null ? entry.getLength() : file.length();
+    }
+    
+    /**
+     * @return true if the response body will be gzip encoded.  Ranges are always served unencoded.
+     */
+    public boolean isGzipEncoded() {
+      return compress && ranges.isEmpty();
+    }
+    
+    /**
+     * @return The fresh gzip sidecar of the file being served, or null if there is not one.
+     */
+    public File gzipFile() {
+      return entry != null ? entry.getGzipFile() : ContentCompressor.getFreshGzipFile(file);
+    }
   }
   
   public static class Range {
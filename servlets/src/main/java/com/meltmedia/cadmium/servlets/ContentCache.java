@@ -0,0 +1,251 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.servlets;
+
+import com.meltmedia.cadmium.core.util.ContentCompressor;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>A bounded, size aware cache of file contents used by the {@link BasicFileServlet}.</p>
+ * <p>Entries are keyed by the path of the file being served and the lastUpdated time stamp of the content
+ * snapshot that it was read from.  Each entry holds the raw bytes of the file and, for compressible content,
+ * a gzipped copy of those bytes so that the servlet does not need to compress the file on every request.  If a
+ * precompressed sidecar of the file exists, its bytes are used for the gzipped copy.
+ * Files larger than the max entry size are never cached.  When the total size of all entries exceeds the
+ * max bytes, the least recently used entries are evicted.</p>
+ */
+public class ContentCache {
+  public static final long DEFAULT_MAX_BYTES = 32l * 1024l * 1024l;
+  public static final long DEFAULT_MAX_ENTRY_BYTES = 512l * 1024l;
+
+  private final LinkedHashMap<String, CachedContent> entries = new LinkedHashMap<String, CachedContent>(64, 0.75f, true);
+  private long currentBytes = 0l;
+  private long maxBytes;
+  private long maxEntryBytes;
+
+  private final AtomicLong hits = new AtomicLong(0l);
+  private final AtomicLong misses = new AtomicLong(0l);
+  private final AtomicLong evictions = new AtomicLong(0l);
+  private final AtomicLong bypasses = new AtomicLong(0l);
+  private final AtomicLong invalidations = new AtomicLong(0l);
+
+  public ContentCache() {
+    this(DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+  }
+
+  public ContentCache(long maxBytes, long maxEntryBytes) {
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  /**
+   * Returns the cached content of the given file, reading the file into the cache if it is not already there.
+   *
+   * @param file The file to read.
+   * @param lastUpdated The time stamp of the content snapshot the file belongs to.
+   * @param compressible true if a gzipped copy of the file should be kept with the raw bytes.
+   * @return The cached content, or null if this file should not be served from the cache.
+   * @throws IOException if the file could not be read.
+   */
+  public CachedContent get(File file, long lastUpdated, boolean compressible) throws IOException {
+    return get(file, file.length(), lastUpdated, compressible);
+  }
+  
+  /**
+   * Returns the cached content of the given file, reading the file into the cache if it is not already there.
+   *
+   * @param file The file to read.
+   * @param length The length of the file, if it is already known.
+   * @param lastUpdated The time stamp of the content snapshot the file belongs to.
+   * @param compressible true if a gzipped copy of the file should be kept with the raw bytes.
+   * @return The cached content, or null if this file should not be served from the cache.
+   * @throws IOException if the file could not be read.
+   */
+  public CachedContent get(File file, long length, long lastUpdated, boolean compressible) throws IOException {
+    if(maxBytes <= 0 || length > maxEntryBytes || length > maxBytes) {
+      bypasses.incrementAndGet();
+      return null;
+    }
+    String key = file.getPath() + "_" + lastUpdated;
+    synchronized(entries) {
+      CachedContent cached = entries.get(key);
+      if(cached != null) {
+        hits.incrementAndGet();
+        return cached;
+      }
+    }
+    misses.incrementAndGet();
+    CachedContent loaded = load(file, compressible);
+    if(loaded.content.length > maxEntryBytes || loaded.getSize() > maxBytes) {
+      bypasses.incrementAndGet();
+      return loaded;
+    }
+    synchronized(entries) {
+      CachedContent existing = entries.put(key, loaded);
+      if(existing != null) {
+        currentBytes -= existing.getSize();
+      }
+      currentBytes += loaded.getSize();
+      evict();
+    }
+    return loaded;
+  }
+
+  /**
+   * Removes all of the entries from this cache.  This is called when the content directory is switched.
+   */
+  public void invalidate() {
+    synchronized(entries) {
+      entries.clear();
+      currentBytes = 0l;
+    }
+    invalidations.incrementAndGet();
+  }
+
+  private void evict() {
+    Iterator<CachedContent> itr = entries.values().iterator();
+    while(currentBytes > maxBytes && itr.hasNext()) {
+      CachedContent eldest = itr.next();
+      itr.remove();
+      currentBytes -= eldest.getSize();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private static CachedContent load(File file, boolean compressible) throws IOException {
+    byte content[] = FileUtils.readFileToByteArray(file);
+    byte gzipContent[] = null;
+    File gzipFile = compressible ? ContentCompressor.getFreshGzipFile(file) : null;
+    if(gzipFile != null) {
+      gzipContent = FileUtils.readFileToByteArray(gzipFile);
+    } else if(compressible) {
+      ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+      GZIPOutputStream gzipOut = null;
+      try {
+        gzipOut = new GZIPOutputStream(bytesOut);
+        gzipOut.write(content);
+        gzipOut.finish();
+      } finally {
+        IOUtils.closeQuietly(gzipOut);
+      }
+      gzipContent = bytesOut.toByteArray();
+    }
+    return new CachedContent(content, gzipContent);
+  }
+
+  public void setMaxBytes(long maxBytes) {
+    synchronized(entries) {
+      this.maxBytes = maxBytes;
+      evict();
+    }
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxEntryBytes(long maxEntryBytes) {
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  public long getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  public long getCurrentBytes() {
+    synchronized(entries) {
+      return currentBytes;
+    }
+  }
+
+  public int getEntryCount() {
+    synchronized(entries) {
+      return entries.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public long getBypasses() {
+    return bypasses.get();
+  }
+
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+  /**
+   * @return A snapshot of the counters for this cache.
+   */
+  public Map<String, Object> getMetrics() {
+    Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+    metrics.put("hits", getHits());
+    metrics.put("misses", getMisses());
+    metrics.put("evictions", getEvictions());
+    metrics.put("bypasses", getBypasses());
+    metrics.put("invalidations", getInvalidations());
+    metrics.put("entries", getEntryCount());
+    metrics.put("bytes", getCurrentBytes());
+    metrics.put("maxBytes", getMaxBytes());
+    metrics.put("maxEntryBytes", getMaxEntryBytes());
+    return metrics;
+  }
+
+  /**
+   * The bytes of a cached file along with the gzipped version of those bytes, if the file is compressible.
+   */
+  public static class CachedContent {
+    private final byte content[];
+    private final byte gzipContent[];
+
+    public CachedContent(byte content[], byte gzipContent[]) {
+      this.content = content;
+      this.gzipContent = gzipContent;
+    }
+
+    public byte[] getContent() {
+      return content;
+    }
+
+    public byte[] getGzipContent() {
+      return gzipContent;
+    }
+
+    public long getSize() {
+      return content.length + (gzipContent != null ? gzipContent.length : 0);
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.meltmedia.cadmium.servlets;
 
 
+import com.meltmedia.cadmium.core.ContentIndex;
 import com.meltmedia.cadmium.core.ContentService;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -44,6 +45,8 @@ import java.io.InputStream;
  *   <li>4xx.html</li>
  * </ol>
  * <p>If no matching pages are found, then a default error page is returned.</p>
+ * <p>When the content service is a {@link FileServlet}, all of the error pages in its {@link ContentIndex} are read into
+ * memory when the content is switched, so errors are served without touching the file system.</p>
  * <h3>Thrown Exception</h3>
  * <p>This servlet catches java.lang.Throwable and renders a 500 error, to deal with exceptions that are propagating.</p>
  * <h3>Minimal Error Handling</h3>
@@ -74,7 +77,7 @@ public class ErrorPageFilter implements Filter {
   }
 
   private String ignorePath;
-
+  
   /**
    * Configures the ignore prefix.
    */
@@ -160,6 +163,19 @@ public class ErrorPageFilter implements Filter {
     }
   }
   
+  /**
+   * Returns the error pages that the content service read when it indexed the content that is currently being served.
+   * Returns null if the content service does not preload error pages.
+   * 
+   * @return The error pages of the current content.
+   */
+  ErrorPages getErrorPages() {
+    if(contentService instanceof FileServlet) {
+      return ((FileServlet)contentService).getErrorPages();
+    }
+    return null;
+  }
+  
   /**
    * Called to render the error page, if possible.
    * 
@@ -174,49 +190,42 @@ public class ErrorPageFilter implements Filter {
     throws IOException
   {
     if(400 <= sc && sc < 600 && !response.isCommitted()) {
-      String[] fileNames = new String[] {
-        "/"+Integer.toString(sc)+".html",
-        "/"+Integer.toString(sc).subSequence(0, 2)+"x.html",
-        "/"+Integer.toString(sc).subSequence(0, 1)+"xx.html" };
-            
+      String path = request.getRequestURI();
+      byte errorPage[] = null;
       InputStream errorPageIn = null;
       try {
-        String path = request.getRequestURI();
-        while(path != null && errorPageIn == null) {
-          if(path.endsWith("/")) {
-          	path = path.substring(0, path.length() - 1);
-          }
-	        for (String fileName : fileNames) {
-	          if ((errorPageIn = contentService.getResourceAsStream(path + fileName)) != null) {
-              log.trace("Found error page for path {} at {}", path, path + fileName);
-	            break;
-            }
-	        }
-          if(errorPageIn == null) {
-            if(path.length() > 0) {
-              path = path.substring(0, path.lastIndexOf("/"));
-            } else {
-              path = null;
-            }
-          }
+        ErrorPages pages = getErrorPages();
+        if(pages != null) {
+          errorPage = pages.find(sc, path);
         }
-
-        // get the default page.
-        if (errorPageIn == null) {
-          for (String fileName : fileNames) {
-            if((errorPageIn = ErrorPageFilter.class.getResourceAsStream(fileName)) != null) {
-              log.trace("Found error page at {}", fileName);
-              break;
+        else {
+          String[] fileNames = ContentIndex.errorPageNames(sc);
+          while(path != null && errorPageIn == null) {
+            if(path.endsWith("/")) {
+              path = path.substring(0, path.length() - 1);
             }
-            else
-              if ((errorPageIn = ErrorPageFilter.class.getResourceAsStream("./"+fileName)) != null) {
-                log.trace("Found error page at {}", "./"+fileName);
+            for (String fileName : fileNames) {
+              if ((errorPageIn = contentService.getResourceAsStream(path + fileName)) != null) {
+                log.trace("Found error page for path {} at {}", path, path + fileName);
                 break;
               }
+            }
+            if(errorPageIn == null) {
+              if(path.length() > 0) {
+                path = path.substring(0, path.lastIndexOf("/"));
+              } else {
+                path = null;
+              }
+            }
+          }
+          
+          // get the default page.
+          if (errorPageIn == null) {
+            errorPage = ErrorPages.findDefault(sc);
           }
         }
         
-        if( errorPageIn == null ) {
+        if( errorPageIn == null && errorPage == null ) {
           log.trace("No error page found.");
           if( message == null ) response.sendError(sc);
           else response.sendError(sc, message);
@@ -232,7 +241,13 @@ public class ErrorPageFilter implements Filter {
         // create a UTF-8 reader for the error page content.
         response.setContentType(MediaType.TEXT_HTML);
         log.trace("Sending error page content to response:{}", response.getClass().getName());
-        IOUtils.copy(errorPageIn, response.getOutputStream());
+        if(errorPage != null) {
+          response.setContentLength(errorPage.length);
+          response.getOutputStream().write(errorPage);
+        }
+        else {
+          IOUtils.copy(errorPageIn, response.getOutputStream());
+        }
         log.trace("Done sending error page. {}", sc);
       } finally {
         IOUtils.closeQuietly(errorPageIn);
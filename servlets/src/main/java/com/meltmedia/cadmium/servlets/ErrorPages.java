@@ -0,0 +1,175 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.servlets;
+
+import com.meltmedia.cadmium.core.ContentIndex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * <p>The error pages of a content snapshot, read into memory when the snapshot is indexed.</p>
+ * <p>Pages are kept in a table from directory path to error page name, so finding the page for an error is
+ * a walk up the request path doing map lookups, deepest directory first, trying the names returned by
+ * {@link ContentIndex#errorPageNames(int)} at each level.  The default pages on the classpath are read once
+ * per status code and shared by every snapshot.</p>
+ */
+public class ErrorPages {
+  private static final Logger log = LoggerFactory.getLogger(ErrorPages.class);
+  
+  /**
+   * Matches the names of error pages, like 404.html, 40x.html and 4xx.html.
+   */
+  private static final Pattern ERROR_PAGE_NAME = Pattern.compile("\\A[45](?:\\d\\d|\\dx|xx)\\.html\\Z");
+  
+  private static final byte[] NO_PAGE = new byte[0];
+  private static final ConcurrentMap<Integer, byte[]> defaultPages = new ConcurrentHashMap<Integer, byte[]>();
+  
+  private final ContentIndex index;
+  private final Map<String, Map<String, byte[]>> pagesByDirectory;
+  private final int pageCount;
+  
+  private ErrorPages(ContentIndex index, Map<String, Map<String, byte[]>> pagesByDirectory, int pageCount) {
+    this.index = index;
+    this.pagesByDirectory = pagesByDirectory;
+    this.pageCount = pageCount;
+  }
+  
+  /**
+   * Reads all of the error pages in a content index into memory.
+   * 
+   * @param index
+   * @return The error pages of the index.
+   */
+  public static ErrorPages build(ContentIndex index) {
+    Map<String, Map<String, byte[]>> pagesByDirectory = new HashMap<String, Map<String, byte[]>>();
+    int pageCount = 0;
+    for(ContentIndex.Entry entry : index.getEntries()) {
+      if(entry.isDirectory() || !ERROR_PAGE_NAME.matcher(entry.getName()).matches()) {
+        continue;
+      }
+      String path = entry.getPath();
+      int nameStart = path.lastIndexOf('/');
+      String directory = path.substring(0, nameStart);
+      try {
+        byte page[] = FileUtils.readFileToByteArray(entry.getFile());
+        Map<String, byte[]> pages = pagesByDirectory.get(directory);
+        if(pages == null) {
+          pages = new HashMap<String, byte[]>();
+          pagesByDirectory.put(directory, pages);
+        }
+        pages.put(path.substring(nameStart), page);
+        pageCount++;
+      } catch(IOException e) {
+        log.warn("Failed to read error page "+path, e);
+      }
+    }
+    log.debug("Loaded {} error pages from {} directories.", pageCount, pagesByDirectory.size());
+    return new ErrorPages(index, pagesByDirectory, pageCount);
+  }
+  
+  /**
+   * @return The index that these error pages were read from.
+   */
+  public ContentIndex getIndex() {
+    return index;
+  }
+  
+  /**
+   * @return The number of error pages in the content.
+   */
+  public int size() {
+    return pageCount;
+  }
+  
+  /**
+   * Finds the error page for a status code, searching from the directory of the path up to the root of the content,
+   * and then the default pages.
+   * 
+   * @param sc
+   * @param path
+   * @return The bytes of the error page or null if there is no error page for the status code.
+   */
+  public byte[] find(int sc, String path) {
+    String fileNames[] = ContentIndex.errorPageNames(sc);
+    String dir = path;
+    while(dir != null && !pagesByDirectory.isEmpty()) {
+      if(dir.endsWith("/")) {
+        dir = dir.substring(0, dir.length() - 1);
+      }
+      Map<String, byte[]> pages = pagesByDirectory.get(dir);
+      if(pages != null) {
+        for(String fileName : fileNames) {
+          byte page[] = pages.get(fileName);
+          if(page != null) {
+            return page;
+          }
+        }
+      }
+      if(dir.length() > 0) {
+        dir = dir.substring(0, Math.max(0, dir.lastIndexOf("/")));
+      } else {
+        dir = null;
+      }
+    }
+    return findDefault(sc);
+  }
+  
+  /**
+   * Finds the default error page for a status code on the classpath.  The result of the search is remembered, so
+   * the classpath is only searched once for each status code.
+   * 
+   * @param sc
+   * @return The bytes of the default error page or null if there is not one.
+   */
+  public static byte[] findDefault(int sc) {
+    byte page[] = defaultPages.get(sc);
+    if(page == null) {
+      page = loadDefault(sc);
+      defaultPages.putIfAbsent(sc, page != null ? page : NO_PAGE);
+    }
+    return page == NO_PAGE ? null : page;
+  }
+  
+  private static byte[] loadDefault(int sc) {
+    for(String fileName : ContentIndex.errorPageNames(sc)) {
+      InputStream in = null;
+      try {
+        if((in = ErrorPages.class.getResourceAsStream(fileName)) == null) {
+          in = ErrorPages.class.getResourceAsStream("./"+fileName);
+        }
+        if(in != null) {
+          log.trace("Found default error page at {}", fileName);
+          return IOUtils.toByteArray(in);
+        }
+      } catch(IOException e) {
+        log.warn("Failed to read default error page "+fileName, e);
+      } finally {
+        IOUtils.closeQuietly(in);
+      }
+    }
+    return null;
+  }
+}
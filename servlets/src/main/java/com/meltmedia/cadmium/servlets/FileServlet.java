@@ -15,7 +15,9 @@
  */
 package com.meltmedia.cadmium.servlets;
 
+import com.meltmedia.cadmium.core.ContentIndex;
 import com.meltmedia.cadmium.core.ContentService;
+import com.meltmedia.cadmium.core.MetricsProvider;
 import com.meltmedia.cadmium.core.config.ConfigManager;
 import com.meltmedia.cadmium.core.meta.MimeTypeConfigProcessor;
 import org.slf4j.Logger;
@@ -26,11 +28,12 @@ import javax.inject.Singleton;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import java.io.*;
+import java.util.Map;
 import java.util.Properties;
 
 @SuppressWarnings("serial")
 @Singleton
-public class FileServlet extends BasicFileServlet implements ContentService {
+public class FileServlet extends BasicFileServlet implements ContentService, MetricsProvider {
 	
 	private Logger log = LoggerFactory.getLogger(getClass());
 	
@@ -40,13 +43,18 @@ public class FileServlet extends BasicFileServlet implements ContentService {
 	@Inject
 	protected ConfigManager configManager;
 	
+	/**
+	 * The error pages of the content that is being served, read when the content is indexed.
+	 */
+	private volatile ErrorPages errorPages = null;
+	
 	void setMimeTypeConfigProcessor( MimeTypeConfigProcessor mimeTypes ) { this.mimeTypes = mimeTypes; }	
-	void setLastModifiedForTesting(long lastModified) {
-	  super.setLastUpdated(lastModified);
-	}
 	
 	public void init(ServletConfig config) throws ServletException {
 		super.init(config);
+		ContentIndex index = ContentIndex.build(contentDir, lastUpdated);
+		errorPages = ErrorPages.build(index);
+		setContentIndex(index);
 	}	
 
   @Override
@@ -56,9 +64,15 @@ public class FileServlet extends BasicFileServlet implements ContentService {
 
 		try {
 		  if(configProperties.containsKey("com.meltmedia.cadmium.lastUpdated")) {
-		    log.info("Switching to new directory ["+configProperties.getProperty("com.meltmedia.cadmium.lastUpdated")+"]");
-		    this.setBasePath(configProperties.getProperty("com.meltmedia.cadmium.lastUpdated"));
+		    String basePath = configProperties.getProperty("com.meltmedia.cadmium.lastUpdated");
+		    log.info("Switching to new directory ["+basePath+"]");
+		    ContentIndex index = ContentIndex.build(new File(basePath), requestTime.longValue());
+		    ErrorPages pages = ErrorPages.build(index);
+		    this.setBasePath(basePath);
 		    setLastUpdated(requestTime.longValue());
+		    errorPages = pages;
+		    setContentIndex(index);
+		    contentCache.invalidate();
 		  } else {
 		    log.error("Failed to get last updated path");
 		    throw new RuntimeException("Failed to switch content! Configuration properties key 'com.meltmedia.cadmium.lastUpdated' not set.");
@@ -70,12 +84,29 @@ public class FileServlet extends BasicFileServlet implements ContentService {
 		
 	}
   
+  /**
+   * @return The error pages of the content that is being served.
+   */
+  public ErrorPages getErrorPages() {
+    return errorPages;
+  }
+  
   @Override
   public String lookupMimeType(String filename) {
     if( mimeTypes == null) throw new RuntimeException("The mime type processor is not set!.");
     return mimeTypes.getContentType(filename);
   }
   
+  @Override
+  public String getMetricsName() {
+    return "content-cache";
+  }
+
+  @Override
+  public Map<String, Object> getMetrics() {
+    return contentCache.getMetrics();
+  }
+  
   @Override
 	public String getContentRoot() {		
 		return getBasePath();
@@ -104,6 +135,15 @@ public class FileServlet extends BasicFileServlet implements ContentService {
 	 * @throws IOException if any other problem prevented the locating of the file.
 	 */
 	public File findFile( String path ) throws IOException {
+	  ContentIndex index = this.contentIndex;
+	  if( index != null ) {
+	    ContentIndex.Entry entry = index.get(path);
+	    if( entry == null ) throw new FileNotFoundException("No file or directory at "+path);
+	    if( !entry.isDirectory() ) return entry.getFile();
+	    entry = entry.getWelcomeFile();
+	    if( entry == null ) throw new FileNotFoundException("No welcome file at "+path);
+	    return entry.getFile();
+	  }
 	  File base = new File(getBasePath());
 	  File pathFile = new File(base, "."+path);
 	  if( !pathFile.exists()) throw new FileNotFoundException("No file or directory at "+pathFile.getCanonicalPath());
@@ -116,6 +156,12 @@ public class FileServlet extends BasicFileServlet implements ContentService {
   @Override
   public InputStream getResourceAsStream(String path) throws IOException {
     if( path.charAt(0) != '/' ) throw new IllegalArgumentException("The path "+path+" does not start with a '/' character.");
+    ContentIndex index = this.contentIndex;
+    if( index != null ) {
+      ContentIndex.Entry entry = index.get(path);
+      if( entry == null || entry.isDirectory() ) return null;
+      return new FileInputStream(entry.getFile());
+    }
     File file = new File(getContentRoot(), "."+path);
     if( !file.exists() ) return null;
     return new FileInputStream(file);
@@ -15,7 +15,7 @@
  */
 package com.meltmedia.cadmium.servlets;
 
-import com.meltmedia.cadmium.core.meta.Redirect;
+import com.meltmedia.cadmium.core.meta.RedirectMatch;
 import com.meltmedia.cadmium.core.meta.RedirectConfigProcessor;
 
 import org.apache.commons.lang3.StringUtils;
@@ -46,7 +46,7 @@ public class RedirectFilter implements Filter {
   @Override
   public void doFilter(ServletRequest req, ServletResponse resp,
       FilterChain chain) throws IOException, ServletException {
-    Redirect redir = null;
+    RedirectMatch redir = null;
     try {
       if(redirect != null && req instanceof HttpServletRequest && resp instanceof HttpServletResponse) {
         HttpServletRequest request = (HttpServletRequest)req;
@@ -56,7 +56,7 @@ public class RedirectFilter implements Filter {
         log.trace("Checking for existing redirect [{}?{}]", path, queryString);
         redir = redirect.requestMatches(path, queryString);
         if(redir != null) {
-          String redirectTo = redir.getUrlSubstituted();
+          String redirectTo = redir.getUrl();
           if(StringUtils.isNotBlank(queryString) && !redirectTo.contains("?")) {
           	
           	redirectTo += "?" + queryString;
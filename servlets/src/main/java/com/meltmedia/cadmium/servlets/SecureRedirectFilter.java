@@ -16,6 +16,7 @@
 package com.meltmedia.cadmium.servlets;
 
 import com.google.inject.Inject;
+import com.meltmedia.cadmium.core.ContentIndex;
 import com.meltmedia.cadmium.core.meta.SslRedirectConfigProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +27,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URI;
+import java.util.regex.Pattern;
 
 /**
  * This filter will redirect requests that do not match the security options for a given page.
@@ -36,6 +38,8 @@ import java.net.URI;
 @Singleton
 public class SecureRedirectFilter implements Filter {
   private final Logger log = LoggerFactory.getLogger(getClass());
+  private static final Pattern IGNORED_PATH = Pattern.compile("^/(?:system|api)(/.*)$");
+  private static final Pattern HTML_CONTENT_TYPE = Pattern.compile("\\Atext/html(;.*)?\\Z");
   
   @Inject
   protected SslRedirectConfigProcessor redirect;
@@ -102,18 +106,12 @@ public class SecureRedirectFilter implements Filter {
       URI uri = URI.create(request.getRequestURL().toString());
 
       // For now, ignore the Jersey endpoints at /system and /api.
-      if( uri.getPath().matches("^/(?:system|api)(/.*)$") ) {
+      if( IGNORED_PATH.matcher(uri.getPath()).matches() ) {
         chain.doFilter(request, response);
         return;
       }
 
-      try {
-        if( !fileServlet.contentTypeOf(uri.getPath()).matches("\\Atext/html(;.*)?\\Z")) {
-          chain.doFilter(request, response);
-          return;
-        }
-      }
-      catch( Exception e ) {
+      if( !isHtml(uri.getPath()) ) {
         chain.doFilter(request, response);
         return;
       }
@@ -152,6 +150,34 @@ public class SecureRedirectFilter implements Filter {
     }
   }
 
+  /**
+   * Returns true if the path resolves to an html page.  The page is looked up in the content index of the file
+   * servlet, when it has one, so this does not touch the file system.
+   * 
+   * @param path the path of the request.
+   * @return true if the path is an html page, false if it is not html or does not exist.
+   */
+  protected boolean isHtml( String path ) {
+    try {
+      String contentType = null;
+      ContentIndex index = fileServlet.getContentIndex();
+      if( index != null ) {
+        ContentIndex.Entry entry = index.resolve(path);
+        if( entry == null ) {
+          return false;
+        }
+        contentType = fileServlet.lookupMimeType(entry.getName());
+      }
+      else {
+        contentType = fileServlet.contentTypeOf(path);
+      }
+      return contentType != null && HTML_CONTENT_TYPE.matcher(contentType).matches();
+    }
+    catch( Exception e ) {
+      return false;
+    }
+  }
+
   /**
    * NoOp.
    */
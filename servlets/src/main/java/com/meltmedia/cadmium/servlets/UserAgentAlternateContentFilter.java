@@ -16,6 +16,7 @@
 package com.meltmedia.cadmium.servlets;
 
 import com.meltmedia.cadmium.core.CadmiumFilter;
+import com.meltmedia.cadmium.core.ContentIndex;
 import com.meltmedia.cadmium.core.meta.AlternateContentConfigProcessor;
 import com.meltmedia.cadmium.core.meta.MimeTypeConfigProcessor;
 import org.eclipse.jgit.util.StringUtils;
@@ -29,7 +30,9 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Filter that will handle multiple alternate content directories based on "User-Agent" headers.
@@ -63,6 +66,22 @@ public class UserAgentAlternateContentFilter implements Filter {
    */
   protected static final List<String> ALLOWED_METHODS = Arrays.asList("GET","HEAD");
 
+  /**
+   * The size of the content cache shared by all of the alternate content servlets. <em>8MB</em>
+   */
+  protected static final long ALTERNATE_CACHE_MAX_BYTES = 8l * 1024l * 1024l;
+
+  /**
+   * The content cache shared by the alternate content servlets, so the memory used does not grow with the number of
+   * alternate directories.  It is cleared when the servlets of an old configuration are dropped.
+   */
+  private final ContentCache contentCache = new ContentCache(ALTERNATE_CACHE_MAX_BYTES, ContentCache.DEFAULT_MAX_ENTRY_BYTES);
+
+  /**
+   * The servlets that serve the alternate content directories of the live configuration.
+   */
+  private volatile AlternateServlets servlets = null;
+
   @Override
   public void init(FilterConfig filterConfig) throws ServletException {}
 
@@ -80,9 +99,7 @@ public class UserAgentAlternateContentFilter implements Filter {
             if(contentDir != null && contentDir.exists() && contentDir.isDirectory()) {
               try {
                 logger.trace("ContentDir {}, Serving {}, servlet path {}, path info {}", new Object[]{contentDir, request.getRequestURI(), request.getServletPath(), request.getPathInfo()});
-                FileServlet fileServlet = new FileServlet();
-                fileServlet.init();
-                fileServlet.setBasePath(contentDir.getAbsoluteFile().getAbsolutePath());
+                FileServlet fileServlet = getFileServlet(contentDir);
                 fileServlet.service(request, response);
                 return;
               } catch(Exception e) {
@@ -108,6 +125,55 @@ public class UserAgentAlternateContentFilter implements Filter {
   @Override
   public void destroy() {}
 
+  /**
+   * Returns the servlet for an alternate content directory, creating it the first time the directory is requested
+   * after a configuration is made live.
+   *
+   * @param contentDir the alternate content directory.
+   * @return A servlet serving the directory.
+   * @throws ServletException if the servlet could not be initialized.
+   */
+  protected FileServlet getFileServlet(File contentDir) throws ServletException {
+    int version = alternateContentConfig.getLiveVersion();
+    AlternateServlets current = servlets;
+    if(current == null || current.version != version) {
+      synchronized(this) {
+        current = servlets;
+        if(current == null || current.version != version) {
+          logger.debug("Alternate content configuration changed, creating new servlets.");
+          current = new AlternateServlets(version);
+          servlets = current;
+          contentCache.invalidate();
+        }
+      }
+    }
+    String basePath = contentDir.getAbsoluteFile().getAbsolutePath();
+    synchronized(current.byBasePath) {
+      FileServlet fileServlet = current.byBasePath.get(basePath);
+      if(fileServlet == null) {
+        fileServlet = new FileServlet();
+        fileServlet.init();
+        fileServlet.setContentCache(contentCache);
+        fileServlet.setBasePath(basePath);
+        fileServlet.setContentIndex(ContentIndex.build(new File(basePath), System.currentTimeMillis()));
+        current.byBasePath.put(basePath, fileServlet);
+      }
+      return fileServlet;
+    }
+  }
+
+  /**
+   * The servlets created for one version of the alternate content configuration.
+   */
+  private class AlternateServlets {
+    private final int version;
+    private final Map<String, FileServlet> byBasePath = new HashMap<String, FileServlet>();
+
+    AlternateServlets(int version) {
+      this.version = version;
+    }
+  }
+
   private boolean ignorePath(String path) {
     for(String prefix: IGNORE_PATH_PREFIXES) {
       if(path.toLowerCase().startsWith(prefix)) {
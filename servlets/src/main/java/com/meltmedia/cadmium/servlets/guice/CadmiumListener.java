@@ -143,6 +143,8 @@ public class CadmiumListener extends GuiceServletContextListener {
   public static final String SSH_PATH_ENV = "com.meltmedia.cadmium.github.sshKey";
   public static final String LAST_UPDATED_DIR = "com.meltmedia.cadmium.lastUpdated";
   public static final String JGROUPS_CHANNEL_CONFIG_URL = "com.meltmedia.cadmium.jgroups.channel.config";
+  public static final String CONTENT_CACHE_MAX_BYTES = "com.meltmedia.cadmium.contentCache.maxBytes";
+  public static final String CONTENT_CACHE_MAX_ENTRY_BYTES = "com.meltmedia.cadmium.contentCache.maxEntryBytes";
   public static final String SSL_HEADER = "REQUEST_IS_SSL";
   public File sharedContentRoot;
   public File applicationContentRoot;
@@ -381,6 +383,13 @@ public class CadmiumListener extends GuiceServletContextListener {
 
         Map<String, String> fileParams = new HashMap<String, String>();
         fileParams.put("basePath", com.meltmedia.cadmium.core.FileSystemManager.exists(contentDir) ? contentDir : failOver);
+        Properties configProperties = configManager.getDefaultProperties();
+        if(configProperties.containsKey(CONTENT_CACHE_MAX_BYTES)) {
+          fileParams.put(FileServlet.CACHE_MAX_BYTES_PARAM, configProperties.getProperty(CONTENT_CACHE_MAX_BYTES));
+        }
+        if(configProperties.containsKey(CONTENT_CACHE_MAX_ENTRY_BYTES)) {
+          fileParams.put(FileServlet.CACHE_MAX_ENTRY_BYTES_PARAM, configProperties.getProperty(CONTENT_CACHE_MAX_ENTRY_BYTES));
+        }
 
         // hook Jackson into Jersey as the POJO <-> JSON mapper
         bind(JacksonJsonProvider.class).in(Scopes.SINGLETON);
@@ -447,6 +456,9 @@ public class CadmiumListener extends GuiceServletContextListener {
 
         bind(FileServlet.class).in(Scopes.SINGLETON);
         bind(com.meltmedia.cadmium.core.ContentService.class).to(FileServlet.class);
+        Multibinder<com.meltmedia.cadmium.core.MetricsProvider> metricsProviderBinder = Multibinder.newSetBinder(binder(), com.meltmedia.cadmium.core.MetricsProvider.class);
+        metricsProviderBinder.addBinding().to(FileServlet.class);
+        metricsProviderBinder.addBinding().to(com.meltmedia.cadmium.core.meta.AlternateContentConfigProcessor.class);
 
         bind(MessageConverter.class);
         bind(MessageSender.class).to(JGroupsMessageSender.class);
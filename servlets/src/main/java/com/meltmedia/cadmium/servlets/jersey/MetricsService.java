@@ -0,0 +1,65 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.servlets.jersey;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.meltmedia.cadmium.core.CadmiumSystemEndpoint;
+import com.meltmedia.cadmium.core.MetricsProvider;
+
+/**
+ * Exposes the counters of all bound {@link MetricsProvider}s on this member.
+ */
+@CadmiumSystemEndpoint
+@Path("/metrics")
+public class MetricsService extends AuthorizationService {
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  
+  @Inject
+  protected Set<MetricsProvider> metricsProviders;
+
+  @GET
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Map<String, Object>> getMetrics(@HeaderParam("Authorization") @DefaultValue("no token") String auth) throws Exception {
+    if(!this.isAuth(auth)) {
+      throw new Exception("Unauthorized!");
+    }
+    Map<String, Map<String, Object>> metrics = new LinkedHashMap<String, Map<String, Object>>();
+    if(metricsProviders != null) {
+      for(MetricsProvider provider : metricsProviders) {
+        try {
+          metrics.put(provider.getMetricsName(), provider.getMetrics());
+        } catch(Throwable t) {
+          log.warn("Failed to get metrics from "+provider.getMetricsName(), t);
+        }
+      }
+    }
+    return metrics;
+  }
+}
@@ -1,9 +1,34 @@
 package com.meltmedia.cadmium.servlets;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.meltmedia.cadmium.core.util.ContentCompressor;
+
 import static org.jgroups.util.Util.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Created with IntelliJ IDEA.
@@ -14,11 +39,24 @@ import static org.jgroups.util.Util.assertTrue;
  */
 public class BasicFileServletTest {
   private static BasicFileServlet servlet;
+  private File contentDir;
+  private File page;
 
   @BeforeClass
   public static void runBefore() {
     servlet = new BasicFileServlet();
   }
+  
+  @Before
+  public void setupContent() throws Exception {
+    contentDir = new File("./target/basic-file-servlet-test");
+    if(contentDir.exists()) {
+      FileUtils.deleteDirectory(contentDir);
+    }
+    contentDir.mkdirs();
+    page = new File(contentDir, "page.html");
+    FileUtils.writeStringToFile(page, pageContent('a'));
+  }
 
   @Test
   public void testCanAccept() {
@@ -29,4 +67,162 @@ public class BasicFileServletTest {
     assertTrue(BasicFileServlet.canAccept("gzip", true, "gzip"));
     assertTrue(!BasicFileServlet.canAccept("gzip;q=0", true, "gzip"));
   }
+
+  @Test
+  public void testETagHeaderDependsOnEncoding() {
+    BasicFileServlet.FileRequestContext context = new BasicFileServlet.FileRequestContext(mock(HttpServletRequest.class), mock(HttpServletResponse.class), true);
+    context.eTag = "abc";
+    context.strongETag = true;
+    assertEquals("\"abc\"", BasicFileServlet.eTagHeader(context));
+    
+    context.compress = true;
+    assertEquals("\"abc-gz\"", BasicFileServlet.eTagHeader(context));
+    
+    context.ranges.add(new BasicFileServlet.Range(0, 10));
+    assertEquals("\"abc\"", BasicFileServlet.eTagHeader(context));
+  }
+
+  @Test
+  public void testServesCachedContent() throws Exception {
+    BasicFileServlet servlet = createServlet(1000l);
+    byte original[] = FileUtils.readFileToByteArray(page);
+    
+    assertArrayEquals(original, get(servlet, FileServletTest.mockGet("/page.html"), null));
+    
+    // The same length and snapshot, so only the cached bytes can match the first response.
+    FileUtils.writeStringToFile(page, pageContent('b'));
+    assertArrayEquals("Cached bytes not served", original, get(servlet, FileServletTest.mockGet("/page.html"), null));
+    
+    Map<String, List<String>> headers = new HashMap<String, List<String>>();
+    byte gzipped[] = get(servlet, FileServletTest.mockGetWithGzip("/page.html"), headers);
+    assertEquals("gzip", headers.get(BasicFileServlet.CONTENT_ENCODING_HEADER).get(0));
+    assertEquals(Integer.toString(gzipped.length), headers.get(BasicFileServlet.CONTENT_LENGTH_HEADER).get(0));
+    assertArrayEquals("Cached gzip copy not served", original, gunzip(gzipped));
+    
+    assertEquals(1l, servlet.getContentCache().getMisses());
+    assertEquals(2l, servlet.getContentCache().getHits());
+  }
+  
+  @Test
+  public void testServesGzipSidecar() throws Exception {
+    File sidecar = ContentCompressor.writeGzipFile(page);
+    BasicFileServlet servlet = createServlet(1000l);
+    servlet.getContentCache().setMaxBytes(0l);
+    
+    Map<String, List<String>> headers = new HashMap<String, List<String>>();
+    byte gzipped[] = get(servlet, FileServletTest.mockGetWithGzip("/page.html"), headers);
+    assertEquals("gzip", headers.get(BasicFileServlet.CONTENT_ENCODING_HEADER).get(0));
+    assertEquals(Long.toString(sidecar.length()), headers.get(BasicFileServlet.CONTENT_LENGTH_HEADER).get(0));
+    assertArrayEquals("Sidecar not served", FileUtils.readFileToByteArray(sidecar), gzipped);
+    
+    headers.clear();
+    byte plain[] = get(servlet, FileServletTest.mockGet("/page.html"), headers);
+    assertNull(headers.get(BasicFileServlet.CONTENT_ENCODING_HEADER));
+    assertArrayEquals(FileUtils.readFileToByteArray(page), plain);
+  }
+  
+  @Test
+  public void testNewSnapshotMissesCache() throws Exception {
+    BasicFileServlet servlet = createServlet(1000l);
+    get(servlet, FileServletTest.mockGet("/page.html"), null);
+    
+    FileUtils.writeStringToFile(page, pageContent('b'));
+    servlet.setLastUpdated(2000l);
+    assertArrayEquals("Stale bytes served for a new snapshot", FileUtils.readFileToByteArray(page), get(servlet, FileServletTest.mockGet("/page.html"), null));
+    assertEquals(2l, servlet.getContentCache().getMisses());
+    assertEquals(0l, servlet.getContentCache().getHits());
+  }
+  
+  @Test
+  public void testSendfileFullResponse() throws Exception {
+    BasicFileServlet servlet = createSendfileServlet();
+    HttpServletRequest request = sendfileRequest(FileServletTest.mockGet("/page.html"));
+    
+    Map<String, List<String>> headers = new HashMap<String, List<String>>();
+    assertEquals("Sendfile response written to the stream", 0, get(servlet, request, headers).length);
+    verify(request).setAttribute(BasicFileServlet.SENDFILE_FILENAME_ATTR, page.getCanonicalPath());
+    verify(request).setAttribute(BasicFileServlet.SENDFILE_START_ATTR, Long.valueOf(0l));
+    verify(request).setAttribute(BasicFileServlet.SENDFILE_END_ATTR, Long.valueOf(page.length()));
+    assertEquals(Long.toString(page.length()), headers.get(BasicFileServlet.CONTENT_LENGTH_HEADER).get(0));
+  }
+  
+  @Test
+  public void testSendfileSingleRange() throws Exception {
+    BasicFileServlet servlet = createSendfileServlet();
+    HttpServletRequest request = sendfileRequest(FileServletTest.mockGet("/page.html"));
+    when(request.getHeader(BasicFileServlet.RANGE_HEADER)).thenReturn("bytes=10-2057");
+    
+    Map<String, List<String>> headers = new HashMap<String, List<String>>();
+    assertEquals("Sendfile response written to the stream", 0, get(servlet, request, headers).length);
+    verify(request).setAttribute(BasicFileServlet.SENDFILE_FILENAME_ATTR, page.getCanonicalPath());
+    verify(request).setAttribute(BasicFileServlet.SENDFILE_START_ATTR, Long.valueOf(10l));
+    verify(request).setAttribute(BasicFileServlet.SENDFILE_END_ATTR, Long.valueOf(2058l));
+    assertEquals("2048", headers.get(BasicFileServlet.CONTENT_LENGTH_HEADER).get(0));
+  }
+  
+  @Test
+  public void testCompressedResponseIsCopied() throws Exception {
+    BasicFileServlet servlet = createSendfileServlet();
+    HttpServletRequest request = sendfileRequest(FileServletTest.mockGetWithGzip("/page.html"));
+    
+    byte gzipped[] = get(servlet, request, null);
+    verify(request, never()).setAttribute(eq(BasicFileServlet.SENDFILE_FILENAME_ATTR), any());
+    assertArrayEquals(FileUtils.readFileToByteArray(page), gunzip(gzipped));
+  }
+  
+  @Test
+  public void testSmallResponseIsCopied() throws Exception {
+    BasicFileServlet servlet = createSendfileServlet();
+    servlet.setNioMinBytes(page.length() + 1);
+    HttpServletRequest request = sendfileRequest(FileServletTest.mockGet("/page.html"));
+    
+    byte plain[] = get(servlet, request, null);
+    verify(request, never()).setAttribute(eq(BasicFileServlet.SENDFILE_FILENAME_ATTR), any());
+    assertArrayEquals(FileUtils.readFileToByteArray(page), plain);
+  }
+  
+  /**
+   * A servlet that hands every uncompressed response to sendfile.  The cache is turned off, since cached responses are
+   * always written from memory.
+   */
+  private BasicFileServlet createSendfileServlet() throws Exception {
+    BasicFileServlet servlet = createServlet(1000l);
+    servlet.getContentCache().setMaxBytes(0l);
+    servlet.setNioMinBytes(1024l);
+    return servlet;
+  }
+  
+  private static HttpServletRequest sendfileRequest(HttpServletRequest request) {
+    when(request.getAttribute(BasicFileServlet.SENDFILE_SUPPORT_ATTR)).thenReturn(Boolean.TRUE);
+    return request;
+  }
+  
+  private BasicFileServlet createServlet(long lastUpdated) throws Exception {
+    BasicFileServlet servlet = new BasicFileServlet() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public String lookupMimeType(String path) {
+        return path.endsWith(".html") ? "text/html" : null;
+      }
+    };
+    servlet.setBasePath(contentDir.getAbsolutePath());
+    servlet.setLastUpdated(lastUpdated);
+    return servlet;
+  }
+  
+  private static byte[] get(BasicFileServlet servlet, HttpServletRequest request, Map<String, List<String>> headers) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    HttpServletResponse response = FileServletTest.mockResponse(headers, output);
+    servlet.service(request, response);
+    return output.toByteArray();
+  }
+  
+  private static byte[] gunzip(byte gzipped[]) throws Exception {
+    return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped)));
+  }
+  
+  private static String pageContent(char fill) {
+    return "<html><body>" + new String(new char[4096]).replace('\0', fill) + "</body></html>";
+  }
 }
@@ -0,0 +1,107 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.servlets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentCacheTest {
+  private File cacheDir;
+  private File small;
+  private File other;
+  private File large;
+
+  @Before
+  public void setupFiles() throws Exception {
+    cacheDir = new File("./target/content-cache-test");
+    if(cacheDir.exists()) {
+      FileUtils.deleteDirectory(cacheDir);
+    }
+    cacheDir.mkdirs();
+    small = new File(cacheDir, "small.html");
+    FileUtils.writeStringToFile(small, "<html><body>small small small small</body></html>");
+    other = new File(cacheDir, "other.html");
+    FileUtils.writeStringToFile(other, "<html><body>other other other other</body></html>");
+    large = new File(cacheDir, "large.html");
+    FileUtils.writeStringToFile(large, new String(new char[2048]).replace('\0', 'a'));
+  }
+
+  @Test
+  public void testHitsAndMisses() throws Exception {
+    ContentCache cache = new ContentCache(4096, 1024);
+    ContentCache.CachedContent first = cache.get(small, 1l, true);
+    ContentCache.CachedContent second = cache.get(small, 1l, true);
+    assertSame("Cached content not reused", first, second);
+    assertEquals(1l, cache.getMisses());
+    assertEquals(1l, cache.getHits());
+    assertArrayEquals(FileUtils.readFileToByteArray(small), first.getContent());
+    assertArrayEquals(first.getContent(), IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(first.getGzipContent()))));
+
+    cache.get(small, 2l, true);
+    assertEquals("A new snapshot should miss", 2l, cache.getMisses());
+  }
+
+  @Test
+  public void testUncompressible() throws Exception {
+    ContentCache cache = new ContentCache(4096, 1024);
+    assertNull(cache.get(small, 1l, false).getGzipContent());
+  }
+
+  @Test
+  public void testMaxEntryBytes() throws Exception {
+    ContentCache cache = new ContentCache(4096, 1024);
+    assertNull("Large files should not be cached", cache.get(large, 1l, true));
+    assertEquals(1l, cache.getBypasses());
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    ContentCache cache = new ContentCache(small.length() + other.length(), 1024);
+    cache.get(small, 1l, false);
+    cache.get(other, 1l, false);
+    assertEquals(0l, cache.getEvictions());
+    cache.get(small, 1l, false);
+    cache.get(small, 2l, false);
+    assertEquals(1l, cache.getEvictions());
+    assertEquals(2, cache.getEntryCount());
+    assertNotNull(cache.get(small, 1l, false));
+    assertEquals("The most recently used entry should not have been evicted", 2l, cache.getHits());
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    ContentCache cache = new ContentCache(4096, 1024);
+    cache.get(small, 1l, true);
+    cache.invalidate();
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(0l, cache.getCurrentBytes());
+    cache.get(small, 1l, true);
+    assertEquals(2l, cache.getMisses());
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.meltmedia.cadmium.core.ContentIndex;
+import com.meltmedia.cadmium.core.config.ConfigManager;
+
+public class ErrorPagesTest {
+  private File contentDir;
+  
+  @Before
+  public void createContent() throws Exception {
+    contentDir = new File("./target/error-pages-test");
+    if(contentDir.exists()) {
+      FileUtils.deleteDirectory(contentDir);
+    }
+    FileUtils.writeStringToFile(new File(contentDir, "index.html"), "<html>index</html>");
+    FileUtils.writeStringToFile(new File(contentDir, "4xx.html"), "4xx");
+    FileUtils.writeStringToFile(new File(contentDir, "50x.html"), "50x");
+    FileUtils.writeStringToFile(new File(contentDir, "patient/404.html"), "patient/404");
+    FileUtils.writeStringToFile(new File(contentDir, "patient/40x.html"), "patient/40x");
+    FileUtils.writeStringToFile(new File(contentDir, "patient/page.html"), "<html>page</html>");
+  }
+  
+  @Test
+  public void testFind() throws Exception {
+    ContentIndex index = ContentIndex.build(contentDir, 1000l);
+    ErrorPages pages = ErrorPages.build(index);
+    assertSame(index, pages.getIndex());
+    assertEquals(4, pages.size());
+    assertEquals("patient/404", new String(pages.find(404, "/patient/blah/ehh"), "UTF-8"));
+    assertEquals("patient/40x", new String(pages.find(403, "/patient/"), "UTF-8"));
+    assertEquals("4xx", new String(pages.find(404, "/hcp/blah"), "UTF-8"));
+    assertEquals("4xx", new String(pages.find(412, "/patient/blah"), "UTF-8"));
+    assertEquals("50x", new String(pages.find(502, "/"), "UTF-8"));
+  }
+  
+  @Test
+  public void testDefaults() throws Exception {
+    FileUtils.deleteDirectory(contentDir);
+    FileUtils.writeStringToFile(new File(contentDir, "index.html"), "<html>index</html>");
+    ErrorPages pages = ErrorPages.build(ContentIndex.build(contentDir, 1000l));
+    assertEquals(0, pages.size());
+    assertNotNull("The default 4xx page should be used", pages.find(404, "/patient/blah"));
+    assertSame(ErrorPages.findDefault(500), pages.find(500, "/"));
+  }
+  
+  @Test
+  public void testPreloadedWhenContentIsSwitched() throws Exception {
+    File nextDir = new File("./target/error-pages-test-next");
+    if(nextDir.exists()) {
+      FileUtils.deleteDirectory(nextDir);
+    }
+    FileUtils.writeStringToFile(new File(nextDir, "index.html"), "<html>index</html>");
+    FileUtils.writeStringToFile(new File(nextDir, "404.html"), "next/404");
+    
+    Properties configProperties = new Properties();
+    configProperties.setProperty("com.meltmedia.cadmium.lastUpdated", contentDir.getAbsolutePath());
+    ConfigManager configManager = mock(ConfigManager.class);
+    when(configManager.getDefaultProperties()).thenReturn(configProperties);
+    FileServlet servlet = new FileServlet();
+    servlet.configManager = configManager;
+    ErrorPageFilter filter = new ErrorPageFilter();
+    filter.setContentService(servlet);
+    
+    servlet.switchContent(1000l);
+    ErrorPages pages = filter.getErrorPages();
+    assertSame(servlet.getContentIndex(), pages.getIndex());
+    assertEquals(4, pages.size());
+    
+    configProperties.setProperty("com.meltmedia.cadmium.lastUpdated", nextDir.getAbsolutePath());
+    servlet.switchContent(2000l);
+    pages = filter.getErrorPages();
+    assertSame(servlet.getContentIndex(), pages.getIndex());
+    assertEquals(1, pages.size());
+    assertEquals("next/404", new String(pages.find(404, "/patient/blah"), "UTF-8"));
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ *    Copyright 2012 meltmedia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.meltmedia.cadmium.servlets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.meltmedia.cadmium.core.FileSystemManager;
+
+/**
+ * <p>Compares the stream copy path of the {@link BasicFileServlet} with the container's sendfile support, for full and
+ * single range responses served by an embedded Tomcat over a loopback socket.  Tomcat's NIO connector advertises sendfile,
+ * so the bytes of the sendfile responses go from the file to the socket without being copied through the servlet.</p>
+ * <p>This is not run as part of the build.  Run it with:</p>
+ * <pre>mvn test-compile exec:java -Dexec.mainClass=com.meltmedia.cadmium.servlets.FileServingBenchmark -Dexec.classpathScope=test</pre>
+ * <p>The sizes in MB to test can be passed as arguments, and default to 1, 50 and 500.</p>
+ */
+public class FileServingBenchmark {
+  private static final int WARM_UP_ITERATIONS = 3;
+  private static final int ITERATIONS = 10;
+
+  public static void main(String[] args) throws Exception {
+    int sizes[] = new int[] {1, 50, 500};
+    if(args.length > 0) {
+      sizes = new int[args.length];
+      for(int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+    File dir = new File("./target/file-serving-benchmark").getAbsoluteFile();
+    if(dir.exists()) {
+      FileUtils.deleteDirectory(dir);
+    }
+    new File(dir, "copy").mkdirs();
+    new File(dir, "sendfile").mkdirs();
+    for(int size : sizes) {
+      File file = createFile(new File(dir, "copy"), size);
+      FileSystemManager.linkOrCopy(file, new File(new File(dir, "sendfile"), file.getName()));
+    }
+    
+    Tomcat tomcat = new Tomcat();
+    tomcat.setBaseDir(new File(dir, "tomcat").getPath());
+    Connector connector = new Connector("org.apache.coyote.http11.Http11NioProtocol");
+    connector.setPort(0);
+    connector.setProperty("useSendfile", "true");
+    tomcat.getService().addConnector(connector);
+    tomcat.setConnector(connector);
+    Context context = tomcat.addContext("", dir.getPath());
+    addServlet(context, "copy", dir, -1l);
+    addServlet(context, "sendfile", dir, BasicFileServlet.DEFAULT_NIO_MIN_BYTES);
+    tomcat.start();
+    try {
+      String base = "http://localhost:" + connector.getLocalPort();
+      System.out.println(String.format("%8s %8s %14s %14s %10s", "size", "request", "copy ms/op", "sendfile ms/op", "speedup"));
+      for(int size : sizes) {
+        long length = size * 1024l * 1024l;
+        String range = "bytes=" + (length / 4) + "-" + (length / 4 + length / 2 - 1);
+        String path = "/" + size + "mb.bin";
+        report(size, "full", time(base + "/copy" + path, null, length), time(base + "/sendfile" + path, null, length));
+        report(size, "range", time(base + "/copy" + path, range, length / 2), time(base + "/sendfile" + path, range, length / 2));
+      }
+    } finally {
+      tomcat.stop();
+      tomcat.destroy();
+      FileUtils.deleteDirectory(dir);
+    }
+  }
+  
+  private static void addServlet(Context context, String name, File dir, long nioMinBytes) {
+    Wrapper wrapper = Tomcat.addServlet(context, name, new BasicFileServlet());
+    wrapper.addInitParameter("basePath", dir.getPath());
+    wrapper.addInitParameter(BasicFileServlet.NIO_MIN_BYTES_PARAM, Long.toString(nioMinBytes));
+    context.addServletMapping("/" + name + "/*", name);
+  }
+
+  private static void report(int size, String request, double copy, double sendfile) {
+    System.out.println(String.format("%6dMB %8s %14.2f %14.2f %9.2fx", size, request, copy, sendfile, copy / sendfile));
+  }
+
+  private static double time(String url, String range, long length) throws IOException {
+    for(int i = 0; i < WARM_UP_ITERATIONS; i++) {
+      fetch(url, range, length);
+    }
+    long begin = System.nanoTime();
+    for(int i = 0; i < ITERATIONS; i++) {
+      fetch(url, range, length);
+    }
+    return (System.nanoTime() - begin) / 1000000.0d / ITERATIONS;
+  }
+
+  private static void fetch(String url, String range, long length) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty(BasicFileServlet.ACCEPT_ENCODING_HEADER, "identity");
+    if(range != null) {
+      connection.setRequestProperty(BasicFileServlet.RANGE_HEADER, range);
+    }
+    long count = 0;
+    InputStream in = connection.getInputStream();
+    try {
+      byte buffer[] = new byte[64 * 1024];
+      int read = 0;
+      while((read = in.read(buffer)) != -1) {
+        count += read;
+      }
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    if(count != length) {
+      throw new IllegalStateException("Expected "+length+" bytes from "+url+", but read "+count);
+    }
+  }
+
+  private static File createFile(File dir, int sizeInMb) throws IOException {
+    File file = new File(dir, sizeInMb + "mb.bin");
+    byte block[] = new byte[1024 * 1024];
+    new Random(sizeInMb).nextBytes(block);
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(0);
+      for(int i = 0; i < sizeInMb; i++) {
+        out.write(block);
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.meltmedia.cadmium.servlets;
 
+import com.meltmedia.cadmium.core.config.ConfigManager;
 import com.meltmedia.cadmium.core.meta.MimeTypeConfigProcessor;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
@@ -89,10 +90,16 @@ public class FileServletTest {
     ServletConfig config = mock(ServletConfig.class);
     when(config.getInitParameter("basePath")).thenReturn(CONTENT_ROOT.getAbsolutePath());
 
+    Properties configProperties = new Properties();
+    configProperties.setProperty("com.meltmedia.cadmium.lastUpdated", CONTENT_ROOT.getAbsolutePath());
+    ConfigManager configManager = mock(ConfigManager.class);
+    when(configManager.getDefaultProperties()).thenReturn(configProperties);
+
     fileServlet = new FileServlet();
     fileServlet.setMimeTypeConfigProcessor(mimeTypes);
-    fileServlet.setLastModifiedForTesting(CURRENT_LAST_MODIFIED);
+    fileServlet.configManager = configManager;
     fileServlet.init(config);
+    fileServlet.switchContent(CURRENT_LAST_MODIFIED);
     
   }
   